@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading a single band, for the full swath or a tile, with and without subsampling.
+ * <p/>
+ * Run with {@code -prof gc} to see the allocation rate of the read path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BandReadBenchmark {
+
+    static final int TILE_SIZE = 512;
+
+    @Param({"1080", SyntheticProducts.FULL_ORBIT_LINES})
+    private int numLines;
+
+    @Param({"radiance_1", "radiance_3b", "reflectance_1", "temperature_4", "cloud"})
+    private String band;
+
+    @Param({"swath", "tile"})
+    private String region;
+
+    @Param({"1", "4"})
+    private int step;
+
+    @Param({SyntheticProducts.CHANNEL_ACCESS, SyntheticProducts.UNCACHED_ACCESS,
+            SyntheticProducts.STREAM_ACCESS, SyntheticProducts.MAPPED_ACCESS})
+    private String access;
+
+    private File file;
+    private MetopFile metopFile;
+    private BandReader bandReader;
+    private int x;
+    private int y;
+    private int width;
+    private int height;
+    private ProductData buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = SyntheticProducts.create(numLines, SyntheticProductWriter.HIGH_PRECISION_NAV_SAMPLE_RATE);
+        metopFile = SyntheticProducts.open(file, access);
+        bandReader = SyntheticProducts.createBandReader(metopFile, band);
+        if (region.equals("swath")) {
+            width = metopFile.getProductWidth();
+            height = metopFile.getProductHeight();
+        } else {
+            width = Math.min(TILE_SIZE, metopFile.getProductWidth());
+            height = Math.min(TILE_SIZE, metopFile.getProductHeight());
+            x = (metopFile.getProductWidth() - width) / 2;
+            y = (metopFile.getProductHeight() - height) / 2;
+        }
+        final int numElems = ((width - 1) / step + 1) * ((height - 1) / step + 1);
+        buffer = ProductData.createInstance(bandReader.getDataType(), numElems);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        metopFile.dispose();
+        SyntheticProducts.delete(file);
+    }
+
+    @Benchmark
+    public ProductData readBandRasterData() throws IOException {
+        bandReader.readBandRasterData(x, y, width, height, step, step, buffer, ProgressMonitor.NULL);
+        return buffer;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrFile;
+import org.esa.beam.dataio.avhrr.calibration.Radiance2TemperatureCalibrator;
+import org.esa.beam.dataio.avhrr.calibration.RadianceCalibrator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks calibrating the radiances of the full swath with the lookup table of the reader,
+ * and with the calibrator evaluated for every pixel. Only the calibration is measured: the
+ * records of a few scan lines are read once and calibrated for every scan line of the product.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CalibrationBenchmark {
+
+    private static final int NUM_RECORDS = 101;
+
+    @Param({"1080", SyntheticProducts.FULL_ORBIT_LINES})
+    private int numLines;
+
+    @Param({"reflectance_1", "temperature_3b", "temperature_4"})
+    private String band;
+
+    private File file;
+    private MetopFile metopFile;
+    private CalibratedBandReader bandReader;
+    private RadianceCalibrator calibrator;
+    private float scalingFactor;
+    private ByteBuffer[] records;
+    private int recordStart;
+    private AvhrrFile.RawCoordinates rawCoord;
+    private float[] targetData;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = SyntheticProducts.create(NUM_RECORDS, SyntheticProductWriter.HIGH_PRECISION_NAV_SAMPLE_RATE);
+        metopFile = SyntheticProducts.open(file, SyntheticProducts.CHANNEL_ACCESS);
+        bandReader = (CalibratedBandReader) SyntheticProducts.createBandReader(metopFile, band);
+        calibrator = createCalibrator(metopFile.getGiadrRadiance(), bandReader);
+        // the scaling factor of the raw radiances, the calibrated values are not scaled
+        final String radianceBand = "radiance" + band.substring(band.indexOf('_'));
+        scalingFactor = (float) SyntheticProducts.createBandReader(metopFile, radianceBand).getScalingFactor();
+
+        final int width = metopFile.getProductWidth();
+        recordStart = bandReader.getRecordOffset(0);
+        records = new ByteBuffer[NUM_RECORDS];
+        for (int y = 0; y < NUM_RECORDS; y++) {
+            final ByteBuffer record = metopFile.getMdrAccess().read(metopFile.getMdrOffset(y) + recordStart,
+                                                                    bandReader.getRecordLength(width));
+            records[y] = ByteBuffer.allocate(record.remaining());
+            records[y].put(record).flip();
+        }
+        rawCoord = metopFile.getRawCoordinates(0, 0, width, 1);
+        targetData = new float[width];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        metopFile.dispose();
+        SyntheticProducts.delete(file);
+    }
+
+    @Benchmark
+    public float[] calibrateWithTable() {
+        final int width = targetData.length;
+        for (int y = 0; y < numLines; y++) {
+            bandReader.readScanLine(records[y % NUM_RECORDS], recordStart, 0, width, 1, rawCoord, targetData, 0);
+        }
+        return targetData;
+    }
+
+    @Benchmark
+    public float[] calibrateWithCalibrator() {
+        final int width = targetData.length;
+        for (int y = 0; y < numLines; y++) {
+            final ByteBuffer record = records[y % NUM_RECORDS];
+            for (int x = 0; x < width; x++) {
+                targetData[x] = calibrator.calibrate(record.getShort(x * 2) * scalingFactor);
+            }
+        }
+        return targetData;
+    }
+
+    // the calibrators created by the MetopFile
+    private static RadianceCalibrator createCalibrator(GiadrRadiance giadrRadiance, CalibratedBandReader bandReader) {
+        final int channel = bandReader.channel;
+        if (bandReader.isVisibleBand()) {
+            return new MetopRad2ReflFactorCalibrator(giadrRadiance.getSolarIrradiance(channel), 1);
+        }
+        return new Radiance2TemperatureCalibrator(giadrRadiance.getConstant1(channel),
+                                                  giadrRadiance.getConstant2(channel),
+                                                  giadrRadiance.getCentralWavenumber(channel));
+    }
+}
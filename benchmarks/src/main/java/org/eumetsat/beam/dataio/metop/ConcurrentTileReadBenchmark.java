@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks several threads reading different tiles of the same band of a product,
+ * as the tile scheduler of GPF does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class ConcurrentTileReadBenchmark {
+
+    static final int TILE_SIZE = 256;
+
+    @Param({"1080", SyntheticProducts.FULL_ORBIT_LINES})
+    private int numLines;
+
+    @Param({"temperature_4"})
+    private String band;
+
+    @Param({SyntheticProducts.CHANNEL_ACCESS, SyntheticProducts.UNCACHED_ACCESS,
+            SyntheticProducts.STREAM_ACCESS, SyntheticProducts.MAPPED_ACCESS})
+    private String access;
+
+    private File file;
+    private MetopFile metopFile;
+    private BandReader bandReader;
+    private int numTilesX;
+    private int numTiles;
+    private final AtomicInteger nextTile = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = SyntheticProducts.create(numLines, SyntheticProductWriter.HIGH_PRECISION_NAV_SAMPLE_RATE);
+        metopFile = SyntheticProducts.open(file, access);
+        bandReader = SyntheticProducts.createBandReader(metopFile, band);
+        numTilesX = (metopFile.getProductWidth() + TILE_SIZE - 1) / TILE_SIZE;
+        numTiles = numTilesX * ((metopFile.getProductHeight() + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        metopFile.dispose();
+        SyntheticProducts.delete(file);
+    }
+
+    @State(Scope.Thread)
+    public static class TileBuffer {
+
+        private ProductData buffer;
+
+        @Setup(Level.Trial)
+        public void setUp(ConcurrentTileReadBenchmark benchmark) {
+            buffer = ProductData.createInstance(benchmark.bandReader.getDataType(), TILE_SIZE * TILE_SIZE);
+        }
+    }
+
+    @Benchmark
+    public ProductData readTile(TileBuffer tileBuffer) throws IOException {
+        final int tile = (nextTile.getAndIncrement() & Integer.MAX_VALUE) % numTiles;
+        final int x = (tile % numTilesX) * TILE_SIZE;
+        final int y = (tile / numTilesX) * TILE_SIZE;
+        final int width = Math.min(TILE_SIZE, metopFile.getProductWidth() - x);
+        final int height = Math.min(TILE_SIZE, metopFile.getProductHeight() - y);
+        bandReader.readBandRasterData(x, y, width, height, 1, 1, tileBuffer.buffer, ProgressMonitor.NULL);
+        return tileBuffer.buffer;
+    }
+}
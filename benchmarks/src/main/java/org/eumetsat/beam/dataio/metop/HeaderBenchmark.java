@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.dataio.DecodeQualification;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks opening a product: reading the header, the tie-point data and probing the file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HeaderBenchmark {
+
+    @Param({"1080", SyntheticProducts.FULL_ORBIT_LINES})
+    private int numLines;
+
+    @Param({"20", "40"})
+    private int navSampleRate;
+
+    private File file;
+    private MetopFile metopFile;
+    private MetopReaderPlugIn plugIn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = SyntheticProducts.create(numLines, navSampleRate);
+        metopFile = SyntheticProducts.open(file, SyntheticProducts.CHANNEL_ACCESS);
+        plugIn = new MetopReaderPlugIn();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        metopFile.dispose();
+        SyntheticProducts.delete(file);
+    }
+
+    @Benchmark
+    public MetopFile readHeader() throws IOException {
+        final MetopFile metopFile = new MetopFile(file);
+        try {
+            metopFile.readHeader();
+        } finally {
+            metopFile.dispose();
+        }
+        return metopFile;
+    }
+
+    @Benchmark
+    public float[][] getTiePointData() throws IOException {
+        return metopFile.getTiePointData();
+    }
+
+    /**
+     * Probes the file with the reader plugin, which serves repeated probes of an unmodified file from a cache.
+     */
+    @Benchmark
+    public DecodeQualification getDecodeQualification() {
+        return plugIn.getDecodeQualification(file);
+    }
+
+    /**
+     * Probes the file without using the cache of probes.
+     */
+    @Benchmark
+    public MetopFileProbe probe() throws IOException {
+        return MetopFileProbe.read(file);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading the bands of a typical processing chain for the full swath, one band
+ * after the other and in a single pass over the MDRs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultiBandReadBenchmark {
+
+    private static final String[] BANDS = {
+            "reflectance_1", "reflectance_2", "temperature_3b", "temperature_4", "temperature_5", "cloud"
+    };
+
+    @Param({"1080", SyntheticProducts.FULL_ORBIT_LINES})
+    private int numLines;
+
+    @Param({SyntheticProducts.CHANNEL_ACCESS, SyntheticProducts.UNCACHED_ACCESS,
+            SyntheticProducts.STREAM_ACCESS, SyntheticProducts.MAPPED_ACCESS})
+    private String access;
+
+    private File file;
+    private MetopFile metopFile;
+    private BandReader[] bandReaders;
+    private ProductData[] buffers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = SyntheticProducts.create(numLines, SyntheticProductWriter.HIGH_PRECISION_NAV_SAMPLE_RATE);
+        metopFile = SyntheticProducts.open(file, access);
+        bandReaders = new BandReader[BANDS.length];
+        buffers = new ProductData[BANDS.length];
+        final int numElems = metopFile.getProductWidth() * metopFile.getProductHeight();
+        for (int i = 0; i < BANDS.length; i++) {
+            bandReaders[i] = SyntheticProducts.createBandReader(metopFile, BANDS[i]);
+            buffers[i] = ProductData.createInstance(bandReaders[i].getDataType(), numElems);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        metopFile.dispose();
+        SyntheticProducts.delete(file);
+    }
+
+    @Benchmark
+    public ProductData[] readBandByBand() throws IOException {
+        for (int i = 0; i < bandReaders.length; i++) {
+            bandReaders[i].readBandRasterData(0, 0, metopFile.getProductWidth(), metopFile.getProductHeight(),
+                                              1, 1, buffers[i], ProgressMonitor.NULL);
+        }
+        return buffers;
+    }
+
+    @Benchmark
+    public ProductData[] readSinglePass() throws IOException {
+        metopFile.readBandRasterData(0, 0, metopFile.getProductWidth(), metopFile.getProductHeight(), 1, 1,
+                                     bandReaders, buffers, ProgressMonitor.NULL);
+        return buffers;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.BandReader;
+
+import javax.imageio.stream.FileImageInputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates and opens the synthetic products the benchmarks are run on.
+ */
+final class SyntheticProducts {
+
+    /**
+     * Reads with the stream shared by all readers of a product.
+     */
+    static final String STREAM_ACCESS = "stream";
+    /**
+     * Reads with positional reads on a file channel, through the MDR cache.
+     */
+    static final String CHANNEL_ACCESS = "channel";
+    /**
+     * Reads with positional reads on a file channel, without the MDR cache.
+     */
+    static final String UNCACHED_ACCESS = "uncached";
+    /**
+     * Reads from a memory mapping of the product file.
+     */
+    static final String MAPPED_ACCESS = "mapped";
+
+    /**
+     * The number of scan lines of a full orbit of about 100 minutes, for the line count parameters.
+     */
+    static final String FULL_ORBIT_LINES = "36000";
+
+    private SyntheticProducts() {
+    }
+
+    /**
+     * Writes a synthetic product into a temporary file. Channels 3A and 3B are switched every 100 lines.
+     *
+     * @param numLines      the number of scan lines
+     * @param navSampleRate the navigation sample rate, 20 or 40
+     * @return the product file
+     * @throws IOException if an I/O error occurs
+     */
+    static File create(int numLines, int navSampleRate) throws IOException {
+        final File file = File.createTempFile("metop-benchmark-", ".eps");
+        file.deleteOnExit();
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(numLines);
+        writer.setNavSampleRate(navSampleRate);
+        writer.setChannel3abSwitchInterval(100);
+        writer.write(file);
+        return file;
+    }
+
+    /**
+     * Opens a product and reads its header.
+     *
+     * @param file   the product file
+     * @param access the kind of access to the MDRs, one of the access constants
+     * @return the product
+     * @throws IOException if an I/O error occurs
+     */
+    static MetopFile open(File file, String access) throws IOException {
+        final MetopFile metopFile;
+        if (STREAM_ACCESS.equals(access)) {
+            metopFile = new MetopFile(new FileImageInputStream(file));
+        } else {
+            metopFile = new MetopFile(file);
+        }
+        try {
+            System.setProperty(MetopFile.USE_MEMORY_MAPPING_PROPERTY, String.valueOf(MAPPED_ACCESS.equals(access)));
+            if (UNCACHED_ACCESS.equals(access)) {
+                System.setProperty(MetopFile.MDR_CACHE_SIZE_PROPERTY, "0");
+            }
+            metopFile.readHeader();
+        } finally {
+            System.clearProperty(MetopFile.USE_MEMORY_MAPPING_PROPERTY);
+            System.clearProperty(MetopFile.MDR_CACHE_SIZE_PROPERTY);
+        }
+        return metopFile;
+    }
+
+    /**
+     * Creates the reader of a band.
+     *
+     * @param metopFile the product
+     * @param band      'cloud' or the kind of band and the channel, e.g. 'radiance_1', 'reflectance_2',
+     *                  'temperature_3b'
+     * @return the band reader
+     */
+    static BandReader createBandReader(MetopFile metopFile, String band) {
+        if (band.equals("cloud")) {
+            return metopFile.createCloudBandReader();
+        }
+        final int separatorIndex = band.indexOf('_');
+        final String kind = band.substring(0, separatorIndex);
+        final int channel = getChannel(band.substring(separatorIndex + 1));
+        if (kind.equals("reflectance")) {
+            return metopFile.createReflectanceFactorBandReader(channel);
+        }
+        if (kind.equals("temperature")) {
+            return metopFile.createIrTemperatureBandReader(channel);
+        }
+        if (!kind.equals("radiance")) {
+            throw new IllegalArgumentException("Unknown band: " + band);
+        }
+        if (channel <= AvhrrConstants.CH_3A) {
+            return metopFile.createVisibleRadianceBandReader(channel);
+        }
+        return metopFile.createIrRadianceBandReader(channel);
+    }
+
+    static void delete(File file) {
+        if (file != null && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static int getChannel(String channelString) {
+        for (int channel = 0; channel < AvhrrConstants.CH_STRINGS.length; channel++) {
+            if (AvhrrConstants.CH_STRINGS[channel].equals(channelString)) {
+                return channel;
+            }
+        }
+        throw new IllegalArgumentException("Unknown channel: " + channelString);
+    }
+}
@@ -24,8 +24,7 @@ import org.esa.beam.framework.datamodel.MetadataAttribute;
 import org.esa.beam.framework.datamodel.MetadataElement;
 import org.esa.beam.framework.datamodel.ProductData;
 
-import javax.imageio.stream.ImageInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.*;
@@ -38,6 +37,10 @@ import java.util.*;
  */
 abstract class AsciiRecord {
 
+    private static final int KEY_LENGTH = 30;
+
+    private static final int VALUE_OFFSET = 32;
+
     private Map<String, String> map;
     private int fieldCount;
 
@@ -46,13 +49,31 @@ abstract class AsciiRecord {
         this.map = new HashMap<String, String>();
     }
 
-    public void readRecord(ImageInputStream imageInputStream) throws IOException {
+    /**
+     * Reads the fields of the record from the given buffer. Each field is a line of the
+     * form {@code KEY = VALUE}, where the key occupies the first 30 characters and the
+     * value starts at character 32. The fields are located by their offsets within the
+     * buffer, so the record is parsed without reading it line by line.
+     *
+     * @param buffer the buffer positioned at the first field of the record
+     */
+    public void readRecord(ByteBuffer buffer) {
+        final int limit = buffer.limit();
+        int lineStart = buffer.position();
         for (int i = 0; i < fieldCount; i++) {
-            final String fieldString = imageInputStream.readLine();
-            final KeyValuePair field = new KeyValuePair(fieldString);
-
-            map.put(field.key, field.value);
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd - lineStart < VALUE_OFFSET) {
+                throw new IllegalArgumentException("Bad field in ASCII record at offset " + lineStart);
+            }
+            final String key = decode(buffer, lineStart, KEY_LENGTH).trim();
+            final String value = decode(buffer, lineStart + VALUE_OFFSET, lineEnd - lineStart - VALUE_OFFSET).trim();
+            map.put(key, value);
+            lineStart = Math.min(lineEnd + 1, limit);
         }
+        buffer.position(lineStart);
     }
 
     public String getValue(String key) {
@@ -69,14 +90,12 @@ abstract class AsciiRecord {
 
     abstract public MetadataElement getMetaData();
 
-    private class KeyValuePair {
-        final String key;
-        final String value;
-
-        public KeyValuePair(String field) {
-            key = field.substring(0, 30).trim();
-            value = field.substring(32).trim();
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(offset + i) & 0xFF);
         }
+        return new String(chars);
     }
 
     public void printValues() {
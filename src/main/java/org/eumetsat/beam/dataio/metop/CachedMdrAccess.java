@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link MdrAccess} which keeps the most recently used MDRs in memory.
+ * <p/>
+ * Reads which fall into a single MDR are served from a copy of the complete record, so
+ * that all band readers of a product share a single read of each scan line. The records
+ * are keyed by their raw scan line index and evicted in least-recently-used order, which
+ * does not depend on the direction in which the scan lines are traversed.
+ * <p/>
+ * The requested bytes are copied from the cached record into a buffer of the reading thread
+ * while the cache is locked, so that the arrays of evicted records can be reused for the
+ * next records read. Reading through the cache does not allocate memory per read.
+ */
+class CachedMdrAccess implements MdrAccess {
+
+    private final MdrAccess mdrAccess;
+    private final long firstMdrOffset;
+    private final int mdrSize;
+    private final int numMdrs;
+    private final int capacity;
+    private final Map<Integer, byte[]> records;
+    private final ThreadLocal<ByteBuffer> threadBuffer;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private byte[] spareRecord;
+
+    /**
+     * @param mdrAccess      the access used to read records which are not cached
+     * @param firstMdrOffset the file position of the first MDR
+     * @param mdrSize        the size of an MDR in bytes
+     * @param numMdrs        the number of MDRs
+     * @param cacheSize      the maximum size of all cached records in bytes
+     */
+    CachedMdrAccess(MdrAccess mdrAccess, long firstMdrOffset, int mdrSize, int numMdrs, long cacheSize) {
+        this.mdrAccess = mdrAccess;
+        this.firstMdrOffset = firstMdrOffset;
+        this.mdrSize = mdrSize;
+        this.numMdrs = numMdrs;
+        this.capacity = (int) Math.max(1, Math.min(numMdrs, cacheSize / mdrSize));
+        this.records = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                if (size() > capacity) {
+                    spareRecord = eldest.getValue();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.threadBuffer = new ThreadLocal<ByteBuffer>();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    @Override
+    public ByteBuffer read(long position, int length) throws IOException {
+        final long relativePosition = position - firstMdrOffset;
+        final long rawY = relativePosition >= 0 ? relativePosition / mdrSize : -1;
+        final int recordOffset = (int) (relativePosition - rawY * mdrSize);
+        if (rawY < 0 || rawY >= numMdrs || recordOffset + length > mdrSize) {
+            return mdrAccess.read(position, length);
+        }
+        final ByteBuffer buffer = getThreadBuffer();
+        final Integer key = (int) rawY;
+        final boolean cached;
+        synchronized (records) {
+            final byte[] record = records.get(key);
+            cached = record != null;
+            if (cached) {
+                System.arraycopy(record, recordOffset, buffer.array(), 0, length);
+            }
+        }
+        if (cached) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+            // the record is read outside of the lock, concurrent misses of the same line are rare
+            final byte[] record = takeSpareRecord();
+            mdrAccess.read(firstMdrOffset + rawY * mdrSize, mdrSize).get(record);
+            System.arraycopy(record, recordOffset, buffer.array(), 0, length);
+            synchronized (records) {
+                records.put(key, record);
+            }
+        }
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        // the underlying access is owned by the MetopFile
+        synchronized (records) {
+            records.clear();
+            spareRecord = null;
+        }
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    private ByteBuffer getThreadBuffer() {
+        ByteBuffer buffer = threadBuffer.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(mdrSize);
+            threadBuffer.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private byte[] takeSpareRecord() {
+        synchronized (records) {
+            final byte[] record = spareRecord;
+            if (record != null) {
+                spareRecord = null;
+                return record;
+            }
+        }
+        return new byte[mdrSize];
+    }
+}
@@ -18,14 +18,12 @@
  */
 package org.eumetsat.beam.dataio.metop;
 
-import com.bc.ceres.core.ProgressMonitor;
 import org.esa.beam.dataio.avhrr.AvhrrConstants;
 import org.esa.beam.dataio.avhrr.AvhrrFile;
 import org.esa.beam.dataio.avhrr.calibration.RadianceCalibrator;
 import org.esa.beam.framework.datamodel.ProductData;
 
-import javax.imageio.stream.ImageInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 
 /**
@@ -37,12 +35,23 @@ import java.text.MessageFormat;
  */
 class CalibratedBandReader extends PlainBandReader {
 
-    private final RadianceCalibrator calibrator;
-
-    public CalibratedBandReader(int channel, MetopFile metopFile,
-                                ImageInputStream inputStream, RadianceCalibrator radianceCalibrator) {
-        super(channel, metopFile, inputStream);
-        calibrator = radianceCalibrator;
+    private final float[] calibrationTable;
+
+    /**
+     * Creates a reader for calibrated data.
+     *
+     * @param channel                 the channel
+     * @param metopFile               the product file
+     * @param mdrAccess               the access to the MDRs
+     * @param radianceCalibrator      the calibrator
+     * @param calibrationCoefficients all constants the calibrator has been created with, which
+     *                                identify the lookup table shared with other readers
+     */
+    public CalibratedBandReader(int channel, MetopFile metopFile, MdrAccess mdrAccess,
+                                RadianceCalibrator radianceCalibrator, double[] calibrationCoefficients) {
+        super(channel, metopFile, mdrAccess);
+        calibrationTable = CalibrationTables.getTable(radianceCalibrator, (float) super.getScalingFactor(),
+                                                      calibrationCoefficients);
     }
 
     @Override
@@ -85,49 +94,22 @@ class CalibratedBandReader extends PlainBandReader {
     }
 
     @Override
-    public void readBandRasterData(int sourceOffsetX,
-                                   int sourceOffsetY,
-                                   int sourceWidth,
-                                   int sourceHeight,
-                                   int sourceStepX,
-                                   int sourceStepY,
-                                   final ProductData destBuffer,
-                                   final ProgressMonitor pm) throws IOException {
-
-        AvhrrFile.RawCoordinates rawCoord = metopFile.getRawCoordinates(sourceOffsetX, sourceOffsetY,
-                                                                        sourceWidth, sourceHeight);
-        final float[] targetData = (float[]) destBuffer.getElems();
-        final float scalingFactor = (float) super.getScalingFactor();
-
-        pm.beginTask(MessageFormat.format("Reading AVHRR band ''{0}''...", getBandName()), rawCoord.maxY - rawCoord.minY);
-
-        int targetIdx = rawCoord.targetStart;
-        for (int sourceY = rawCoord.minY; sourceY <= rawCoord.maxY; sourceY += sourceStepY) {
-            if (pm.isCanceled()) {
-                break;
+    public int readScanLine(ByteBuffer record, int recordStart, int sourceOffsetX, int sourceWidth, int sourceStepX,
+                            AvhrrFile.RawCoordinates rawCoord, Object targetData, int targetIdx) {
+        final float[] floatTargetData = (float[]) targetData;
+        if (record != null) {
+            final int firstIndex = getRecordOffset(sourceOffsetX) - recordStart;
+            for (int sourceX = 0; sourceX < sourceWidth; sourceX += sourceStepX) {
+                floatTargetData[targetIdx] = calibrationTable[record.getShort(firstIndex + sourceX * 2) & 0xFFFF];
+                targetIdx += rawCoord.targetIncrement;
             }
-
-            if (hasData(sourceY)) {
-                final int dataOffset = getDataOffset(sourceOffsetX, sourceY);
-                synchronized (inputStream) {
-                    final short[] radianceScanLine = new short[metopFile.getProductWidth()];
-                    inputStream.seek(dataOffset);
-                    inputStream.readFully(radianceScanLine, 0, sourceWidth);
-
-                    for (int sourceX = 0; sourceX <= sourceWidth - 1; sourceX++) {
-                        targetData[targetIdx] = calibrator.calibrate(radianceScanLine[sourceX] * scalingFactor);
-                        targetIdx += rawCoord.targetIncrement;
-                    }
-                }
-            } else {
-                for (int sourceX = rawCoord.minX; sourceX <= rawCoord.maxX; sourceX += sourceStepX) {
-                    targetData[targetIdx] = AvhrrConstants.NO_DATA_VALUE;
-                    targetIdx += rawCoord.targetIncrement;
-                }
+        } else {
+            for (int sourceX = rawCoord.minX; sourceX <= rawCoord.maxX; sourceX += sourceStepX) {
+                floatTargetData[targetIdx] = AvhrrConstants.NO_DATA_VALUE;
+                targetIdx += rawCoord.targetIncrement;
             }
-            pm.worked(1);
         }
-        pm.done();
+        return targetIdx;
     }
 
     private static String format(String pattern, String arg) {
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.calibration.RadianceCalibrator;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Provides lookup tables holding the calibrated value of every possible raw radiance.
+ * <p/>
+ * Raw radiances are 16-bit integers, so the table of a channel has 65536 entries and
+ * is indexed by the raw radiance as unsigned value. Tables are shared between all
+ * products with the same calibration coefficients. The least recently used tables
+ * are dropped if more than {@link #MAX_NUM_TABLES} tables are in use.
+ */
+final class CalibrationTables {
+
+    static final int MAX_NUM_TABLES = 64;
+
+    private static final int TABLE_SIZE = 1 << 16;
+
+    private static final Map<Key, float[]> TABLES = new LinkedHashMap<Key, float[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, float[]> eldest) {
+            return size() > MAX_NUM_TABLES;
+        }
+    };
+
+    private CalibrationTables() {
+    }
+
+    /**
+     * Returns the lookup table for a calibration.
+     *
+     * @param calibrator    the calibrator
+     * @param scalingFactor the scaling factor applied to the raw radiance before calibrating it
+     * @param coefficients  all constants the calibrator has been created with, which identify the table
+     * @return the table, where the calibrated value of the raw radiance {@code r} is at index {@code r & 0xFFFF}
+     * @throws IllegalArgumentException if no coefficients are given
+     */
+    static float[] getTable(RadianceCalibrator calibrator, float scalingFactor, double[] coefficients) {
+        if (coefficients.length == 0) {
+            throw new IllegalArgumentException("The coefficients of the calibrator are required.");
+        }
+        final Key key = new Key(calibrator.getClass().getName(), scalingFactor, coefficients);
+        synchronized (TABLES) {
+            final float[] table = TABLES.get(key);
+            if (table != null) {
+                return table;
+            }
+        }
+        final float[] table = new float[TABLE_SIZE];
+        for (int radiance = Short.MIN_VALUE; radiance <= Short.MAX_VALUE; radiance++) {
+            table[radiance & 0xFFFF] = calibrator.calibrate(radiance * scalingFactor);
+        }
+        synchronized (TABLES) {
+            final float[] existingTable = TABLES.get(key);
+            if (existingTable != null) {
+                return existingTable;
+            }
+            TABLES.put(key, table);
+        }
+        return table;
+    }
+
+    private static final class Key {
+
+        private final String calibratorType;
+        private final float scalingFactor;
+        private final double[] coefficients;
+
+        private Key(String calibratorType, float scalingFactor, double[] coefficients) {
+            this.calibratorType = calibratorType;
+            this.scalingFactor = scalingFactor;
+            this.coefficients = coefficients.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return calibratorType.equals(other.calibratorType)
+                    && Float.compare(scalingFactor, other.scalingFactor) == 0
+                    && Arrays.equals(coefficients, other.coefficients);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = calibratorType.hashCode();
+            result = 31 * result + Float.floatToIntBits(scalingFactor);
+            result = 31 * result + Arrays.hashCode(coefficients);
+            return result;
+        }
+    }
+}
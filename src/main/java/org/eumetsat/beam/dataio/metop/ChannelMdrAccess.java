@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link MdrAccess} using positional reads on a {@link FileChannel}.
+ * Positional reads do not change the state of the channel, so concurrent
+ * reads of different threads do not need to be synchronized.
+ */
+class ChannelMdrAccess implements MdrAccess {
+
+    private final File file;
+    private final ThreadLocal<ByteBuffer> threadBuffer;
+    private volatile FileChannel fileChannel;
+    private volatile boolean closed;
+
+    ChannelMdrAccess(File file) throws IOException {
+        this.file = file;
+        this.threadBuffer = new ThreadLocal<ByteBuffer>();
+        this.fileChannel = openChannel(file);
+    }
+
+    @Override
+    public ByteBuffer read(long position, int length) throws IOException {
+        final ByteBuffer buffer = getThreadBuffer(length);
+        try {
+            readFully(fileChannel, buffer, position);
+        } catch (ClosedChannelException e) {
+            // an interrupted reader closes the channel for all other threads, too
+            if (closed || Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            buffer.clear();
+            buffer.limit(length);
+            readFully(reopenChannel(), buffer, position);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        fileChannel.close();
+    }
+
+    private ByteBuffer getThreadBuffer(int length) {
+        ByteBuffer buffer = threadBuffer.get();
+        if (buffer == null || buffer.capacity() < length) {
+            buffer = ByteBuffer.allocateDirect(length);
+            threadBuffer.set(buffer);
+        }
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    private synchronized FileChannel reopenChannel() throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (!fileChannel.isOpen()) {
+            fileChannel = openChannel(file);
+        }
+        return fileChannel;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        final long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            final int count = channel.read(buffer, start + buffer.position());
+            if (count < 0) {
+                throw new EOFException("Unexpected end of file at position " + (start + buffer.position()) + ".");
+            }
+        }
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return new RandomAccessFile(file, "r").getChannel();
+    }
+}
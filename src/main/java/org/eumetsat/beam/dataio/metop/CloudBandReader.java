@@ -20,11 +20,10 @@ package org.eumetsat.beam.dataio.metop;
 
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.beam.dataio.avhrr.AvhrrFile;
-import org.esa.beam.dataio.avhrr.BandReader;
 import org.esa.beam.framework.datamodel.ProductData;
 
-import javax.imageio.stream.ImageInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 
 /**
@@ -32,16 +31,16 @@ import java.text.MessageFormat;
  *
  * @author marcoz
  */
-class CloudBandReader implements BandReader {
+class CloudBandReader implements MdrBandReader {
 
     protected MetopFile metopFile;
 
-    protected final ImageInputStream inputStream;
+    protected final MdrAccess mdrAccess;
 
     public CloudBandReader(MetopFile metopFile,
-                           ImageInputStream inputStream) {
+                           MdrAccess mdrAccess) {
         this.metopFile = metopFile;
-        this.inputStream = inputStream;
+        this.mdrAccess = mdrAccess;
     }
 
     @Override
@@ -81,7 +80,9 @@ class CloudBandReader implements BandReader {
         
         AvhrrFile.RawCoordinates rawCoord = metopFile.getRawCoordinates(
                 sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight);
-        final short[] targetData = (short[]) destBuffer.getElems();
+        final Object targetData = destBuffer.getElems();
+        final int recordOffset = getRecordOffset(sourceOffsetX);
+        final int recordLength = getRecordLength(sourceWidth);
 
         pm.beginTask(MessageFormat.format("Reading AVHRR band ''{0}''...", getBandName()),
                      rawCoord.maxY - rawCoord.minY);
@@ -92,19 +93,45 @@ class CloudBandReader implements BandReader {
                 break;
             }
 
-            final int dataOffset = getDataOffset(sourceOffsetX, sourceY);
-            synchronized (inputStream) {
-                inputStream.seek(dataOffset);
-                inputStream.readFully(targetData, targetIdx, sourceWidth);
-            }
-            targetIdx += sourceWidth;
+            final ByteBuffer record = mdrAccess.read(metopFile.getMdrOffset(sourceY) + recordOffset,
+                                                     recordLength);
+            targetIdx = readScanLine(record, recordOffset, sourceOffsetX, sourceWidth, sourceStepX,
+                                     rawCoord, targetData, targetIdx);
             pm.worked(1);
         }
         pm.done();
 
     }
 
-    protected int getDataOffset(int sourceOffsetX, int sourceY) {
-        return metopFile.getScanLineOffset(sourceY) + 22472  + ((metopFile.getNumTrimX() + sourceOffsetX) * 2);
+    @Override
+    public boolean hasData(int rawY) {
+        return true;
+    }
+
+    @Override
+    public int getRecordOffset(int sourceOffsetX) {
+        return metopFile.getCloudInformationRecordOffset() + sourceOffsetX * 2;
+    }
+
+    @Override
+    public int getRecordLength(int sourceWidth) {
+        return sourceWidth * 2;
+    }
+
+    @Override
+    public int readScanLine(ByteBuffer record, int recordStart, int sourceOffsetX, int sourceWidth, int sourceStepX,
+                            AvhrrFile.RawCoordinates rawCoord, Object targetData, int targetIdx) {
+        final short[] shortTargetData = (short[]) targetData;
+        final int firstIndex = getRecordOffset(sourceOffsetX) - recordStart;
+        if (sourceStepX == 1 && rawCoord.targetIncrement == 1) {
+            record.position(firstIndex);
+            record.asShortBuffer().get(shortTargetData, targetIdx, sourceWidth);
+            return targetIdx + sourceWidth;
+        }
+        for (int sourceX = 0; sourceX < sourceWidth; sourceX += sourceStepX) {
+            shortTargetData[targetIdx] = record.getShort(firstIndex + sourceX * 2);
+            targetIdx += rawCoord.targetIncrement;
+        }
+        return targetIdx;
     }
-}
\ No newline at end of file
+}
@@ -23,6 +23,7 @@ import org.esa.beam.framework.datamodel.ProductData.UTC;
 
 import javax.imageio.stream.ImageInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Can read a Generic Record Header (GRH) and holds it's information
@@ -33,6 +34,11 @@ import java.io.IOException;
  */
 class GenericRecordHeader {
 
+    /**
+     * The size of a GRH in bytes.
+     */
+    public static final int SIZE = 20;
+
     public RecordClass recordClass;
 
     public InstrumentGroup instrumentGroup;
@@ -48,34 +54,46 @@ class GenericRecordHeader {
     public ProductData.UTC recordEndTime;
 
     public boolean readGenericRecordHeader(ImageInputStream imageInputStream) throws IOException {
-        byte rc = imageInputStream.readByte();
+        final byte[] bytes = new byte[SIZE];
+        imageInputStream.readFully(bytes);
+        return readGenericRecordHeader(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads a GRH from the current position of a big-endian buffer.
+     *
+     * @param buffer the buffer, with at least {@link #SIZE} bytes remaining
+     * @return {@code true} if the record class and instrument group are valid
+     */
+    public boolean readGenericRecordHeader(ByteBuffer buffer) {
+        byte rc = buffer.get();
         if (!RecordClass.isValid(rc)) {
             return false;
         }
         recordClass = RecordClass.values()[rc];
-        
-        byte ig = imageInputStream.readByte();
+
+        byte ig = buffer.get();
         if (!InstrumentGroup.isValid(ig)) {
             return false;
         }
         instrumentGroup = InstrumentGroup.values()[ig];
-        
-        recordSubclass = imageInputStream.readByte();
-        recordSubclassVersion = imageInputStream.readByte();
-        recordSize = imageInputStream.readUnsignedInt();
-        
-        int day = imageInputStream.readUnsignedShort();
-        long millis = imageInputStream.readUnsignedInt();
+
+        recordSubclass = buffer.get();
+        recordSubclassVersion = buffer.get();
+        recordSize = buffer.getInt() & 0xFFFFFFFFL;
+
+        int day = buffer.getShort() & 0xFFFF;
+        long millis = buffer.getInt() & 0xFFFFFFFFL;
         long seconds = millis / 1000;
         long micros = (millis - seconds * 1000) * 1000;
         recordStartTime = new UTC(day, (int) seconds, (int) micros);
-        
-        day = imageInputStream.readUnsignedShort();
-        millis = imageInputStream.readUnsignedInt();
+
+        day = buffer.getShort() & 0xFFFF;
+        millis = buffer.getInt() & 0xFFFFFFFFL;
         seconds = millis / 1000;
         micros = (millis - seconds * 1000) * 1000;
         recordEndTime = new UTC(day, (int) seconds, (int) micros);
-        
+
         return true;
     }
 
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of full-resolution geolocation tiles, which is shared by all products opened from the
+ * same product file.
+ * <p/>
+ * A tile holds the values interpolated from the tie points of a variable within a single tie-point
+ * cell. The values of a cell depend on its four tie points only, so that the tiles are the same for
+ * any subset of the product. The tiles are keyed by the product file, the variable and the raw
+ * position of the cell.
+ * <p/>
+ * Lookups do not lock. The tiles are evicted in approximately least-recently-used order by a clock
+ * hand moving over the tiles, which passes over a tile that has been added or looked up since the
+ * hand passed it last, and evicts any other tile.
+ */
+class GeolocationCache {
+
+    /**
+     * System property which sets the size (in MB) of the geolocation cache shared by all products.
+     * A size of zero disables the cache.
+     */
+    static final String GEOLOCATION_CACHE_SIZE_PROPERTY = "beam.metop.geolocationCacheSize";
+
+    private static final int DEFAULT_GEOLOCATION_CACHE_SIZE = 64;
+
+    private static GeolocationCache sharedInstance;
+
+    private final long capacity;
+    private final ConcurrentMap<Key, Entry> tiles;
+    private final AtomicLong size;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final Object evictionLock;
+    private Iterator<Map.Entry<Key, Entry>> hand;
+
+    /**
+     * @param capacity the maximum number of values of all cached tiles
+     */
+    GeolocationCache(long capacity) {
+        this.capacity = capacity;
+        this.tiles = new ConcurrentHashMap<Key, Entry>();
+        this.size = new AtomicLong();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.evictionLock = new Object();
+    }
+
+    static synchronized GeolocationCache getSharedInstance() {
+        if (sharedInstance == null) {
+            final long cacheSize = Long.getLong(GEOLOCATION_CACHE_SIZE_PROPERTY, DEFAULT_GEOLOCATION_CACHE_SIZE);
+            sharedInstance = new GeolocationCache(cacheSize * 1024 * 1024 / 4);
+        }
+        return sharedInstance;
+    }
+
+    /**
+     * Returns a key identifying a product file, which changes when the file is modified.
+     *
+     * @param file the product file
+     * @return the key
+     */
+    static String getFileKey(File file) {
+        return file.getAbsolutePath() + ':' + file.length() + ':' + file.lastModified();
+    }
+
+    /**
+     * @param tileLength the number of values of a tile
+     * @return {@code true} if a tile of the given length can be cached
+     */
+    boolean canCache(int tileLength) {
+        return tileLength <= capacity;
+    }
+
+    float[] get(String fileKey, int variable, int cellX, int cellY) {
+        final Entry entry = tiles.get(new Key(fileKey, variable, cellX, cellY));
+        if (entry != null) {
+            if (!entry.referenced) {
+                entry.referenced = true;
+            }
+            hitCount.incrementAndGet();
+            return entry.tile;
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    void put(String fileKey, int variable, int cellX, int cellY, float[] tile) {
+        if (!canCache(tile.length)) {
+            return;
+        }
+        final Entry previous = tiles.put(new Key(fileKey, variable, cellX, cellY), new Entry(tile));
+        final long newSize = size.addAndGet(tile.length - (previous != null ? previous.tile.length : 0));
+        if (newSize > capacity) {
+            evict();
+        }
+    }
+
+    void clear() {
+        synchronized (evictionLock) {
+            for (Map.Entry<Key, Entry> mapEntry : tiles.entrySet()) {
+                remove(mapEntry.getKey(), mapEntry.getValue());
+            }
+            hand = null;
+        }
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            while (size.get() > capacity) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = tiles.entrySet().iterator();
+                    if (!hand.hasNext()) {
+                        return;
+                    }
+                }
+                final Map.Entry<Key, Entry> mapEntry = hand.next();
+                final Entry entry = mapEntry.getValue();
+                if (entry.referenced) {
+                    entry.referenced = false;
+                } else {
+                    remove(mapEntry.getKey(), entry);
+                }
+            }
+        }
+    }
+
+    // a tile replaced concurrently is accounted for by the put replacing it
+    private void remove(Key key, Entry entry) {
+        if (tiles.remove(key, entry)) {
+            size.addAndGet(-entry.tile.length);
+        }
+    }
+
+    private static final class Key {
+
+        private final String fileKey;
+        private final int variable;
+        private final int cellX;
+        private final int cellY;
+        private final int hashCode;
+
+        private Key(String fileKey, int variable, int cellX, int cellY) {
+            this.fileKey = fileKey;
+            this.variable = variable;
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.hashCode = ((fileKey.hashCode() * 31 + variable) * 31 + cellX) * 31 + cellY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return variable == key.variable && cellX == key.cellX && cellY == key.cellY
+                    && fileKey.equals(key.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Entry {
+
+        private final float[] tile;
+        // set by puts and lookups, cleared by eviction passes
+        private volatile boolean referenced;
+
+        private Entry(float[] tile) {
+            this.tile = tile;
+            this.referenced = true;
+        }
+    }
+}
@@ -22,8 +22,7 @@ import org.esa.beam.dataio.avhrr.AvhrrConstants;
 import org.esa.beam.dataio.avhrr.HeaderUtil;
 import org.esa.beam.framework.datamodel.MetadataElement;
 
-import javax.imageio.stream.ImageInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Reads the Global Internal Auxiliary Data Record (GIADR)
@@ -91,38 +90,38 @@ class GiadrRadiance {
         return constant2Slope[channel - AvhrrConstants.CH_3B];
     }
 
-    public void readRecord(ImageInputStream inputStream) throws IOException {
+    public void readRecord(ByteBuffer buffer) {
         GenericRecordHeader grh = new GenericRecordHeader();
-        boolean correct = grh.readGenericRecordHeader(inputStream);
+        boolean correct = grh.readGenericRecordHeader(buffer);
         if (!correct) {
             throw new IllegalArgumentException("Bad GRH.");
         }
 
-        rampCalibrationCoefficient = inputStream.readShort();
-        yearRecentCalibration = inputStream.readUnsignedShort();
-        dayRecentCalibration = inputStream.readUnsignedShort();
-        primaryCalibrationAlgorithmId = inputStream.readUnsignedShort();
-        primaryCalibrationAlgorithmOption = inputStream.readShort();
-        secondaryCalibrationAlgorithmId = inputStream.readUnsignedShort();
-        secondaryCalibrationAlgorithmOption = inputStream.readShort();
+        rampCalibrationCoefficient = buffer.getShort();
+        yearRecentCalibration = buffer.getShort() & 0xFFFF;
+        dayRecentCalibration = buffer.getShort() & 0xFFFF;
+        primaryCalibrationAlgorithmId = buffer.getShort() & 0xFFFF;
+        primaryCalibrationAlgorithmOption = buffer.getShort();
+        secondaryCalibrationAlgorithmId = buffer.getShort() & 0xFFFF;
+        secondaryCalibrationAlgorithmOption = buffer.getShort();
         for (int i = 0; i < 4; i++) {
-            irTempCoeff1[i] = inputStream.readShort() * 1E-2;
-            irTempCoeff2[i] = inputStream.readShort() * 1E-5;
-            irTempCoeff3[i] = inputStream.readShort() * 1E-8;
-            irTempCoeff4[i] = inputStream.readShort() * 1E-11;
-            irTempCoeff5[i] = inputStream.readShort() * 1E-14;
-            irTempCoeff6[i] = inputStream.readShort() * 1E-17;
+            irTempCoeff1[i] = buffer.getShort() * 1E-2;
+            irTempCoeff2[i] = buffer.getShort() * 1E-5;
+            irTempCoeff3[i] = buffer.getShort() * 1E-8;
+            irTempCoeff4[i] = buffer.getShort() * 1E-11;
+            irTempCoeff5[i] = buffer.getShort() * 1E-14;
+            irTempCoeff6[i] = buffer.getShort() * 1E-17;
         }
         for (int i = 0; i < 3; i++) {
-            solarFilteredIrradiance[i] = inputStream.readShort() * 1E-1f;
-            equivalentFilteredWidth[i] = inputStream.readShort() * 1E-3f;
+            solarFilteredIrradiance[i] = buffer.getShort() * 1E-1f;
+            equivalentFilteredWidth[i] = buffer.getShort() * 1E-3f;
         }
 
         for (int i = 0; i < 3; i++) {
             final float cwScaleFactor = (i == 0) ? 1E-2f : 1E-3f;
-            centralWavenumber[i] = inputStream.readInt() * cwScaleFactor;
-            constant1[i] = inputStream.readInt() * 1E-5f;
-            constant2Slope[i] = inputStream.readInt() * 1E-6f;
+            centralWavenumber[i] = buffer.getInt() * cwScaleFactor;
+            constant1[i] = buffer.getInt() * 1E-5f;
+            constant2Slope[i] = buffer.getInt() * 1E-6f;
         }
     }
 
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Holds the bytes at the start of a product file, where the product headers, the internal
+ * pointer records and the auxiliary data records are located. The records are parsed from
+ * memory. If a record lies beyond the bytes held, all bytes up to its end are read with a
+ * single bulk read.
+ */
+final class HeaderBlock {
+
+    private final ImageInputStream inputStream;
+    private byte[] bytes;
+
+    /**
+     * Creates a header block.
+     *
+     * @param inputStream the stream of the product
+     * @param bytes       the bytes already read from the start of the product, e.g. by a
+     *                    {@link MetopFileProbe}. The array is not modified.
+     */
+    HeaderBlock(ImageInputStream inputStream, byte[] bytes) {
+        this.inputStream = inputStream;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns a buffer over a record of the product.
+     *
+     * @param offset the offset of the record in the product
+     * @param size   the size of the record
+     * @return the buffer, its position is zero and its limit is the size of the record
+     * @throws IOException if an I/O error occurs
+     */
+    ByteBuffer getRecord(long offset, long size) throws IOException {
+        ensureSize(offset + size);
+        return ByteBuffer.wrap(bytes, (int) offset, (int) size).slice();
+    }
+
+    /**
+     * Makes sure that the bytes up to the given offset of the product are held.
+     *
+     * @param end the offset
+     * @throws IOException if an I/O error occurs
+     */
+    void ensureSize(long end) throws IOException {
+        if (end <= bytes.length) {
+            return;
+        }
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("Unsupported product: header records end at offset " + end);
+        }
+        final int start = bytes.length;
+        final byte[] extendedBytes = Arrays.copyOf(bytes, (int) end);
+        synchronized (inputStream) {
+            inputStream.seek(start);
+            inputStream.readFully(extendedBytes, start, extendedBytes.length - start);
+        }
+        bytes = extendedBytes;
+    }
+
+    /**
+     * @return the number of bytes held
+     */
+    int size() {
+        return bytes.length;
+    }
+}
@@ -18,12 +18,10 @@
  */
 package org.eumetsat.beam.dataio.metop;
 
-import javax.imageio.stream.ImageInputStream;
-
 import org.eumetsat.beam.dataio.metop.GenericRecordHeader.InstrumentGroup;
 import org.eumetsat.beam.dataio.metop.GenericRecordHeader.RecordClass;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Reads an Internal Pointer record (IPR) and holds it's data
@@ -39,28 +37,29 @@ class InternalPointerRecord {
     public RecordClass targetRecordClass;
     public InstrumentGroup targetInstrumentGroup;
     public int targetRecordSubclass;
-    public int targetRecordOffset;
+    public long targetRecordOffset;
 
-    public void readRecord(ImageInputStream imageInputStream) throws IOException {
+    public void readRecord(ByteBuffer buffer) {
         header = new GenericRecordHeader();
-        boolean correct = header.readGenericRecordHeader(imageInputStream);
+        boolean correct = header.readGenericRecordHeader(buffer);
         if (!correct ||
                 header.recordClass != GenericRecordHeader.RecordClass.IPR ||
                 header.instrumentGroup != GenericRecordHeader.InstrumentGroup.GENERIC) {
             throw new IllegalArgumentException("Bad GRH in IPR");
         }
-        byte trc = imageInputStream.readByte();
+        byte trc = buffer.get();
         if (!RecordClass.isValid(trc)) {
             throw new IllegalArgumentException("Bad IPR: wrong targetRecordClass="+trc);
         }
         targetRecordClass = RecordClass.values()[trc];
-        byte tig = imageInputStream.readByte();
+        byte tig = buffer.get();
         if (!InstrumentGroup.isValid(tig)) {
             throw new IllegalArgumentException("Bad IPR: wrong targetInstrumentGroup"+tig);
         }
         targetInstrumentGroup = InstrumentGroup.values()[tig];
-        targetRecordSubclass = imageInputStream.readByte();
-        targetRecordOffset = (int) imageInputStream.readUnsignedInt();
+        targetRecordSubclass = buffer.get();
+        // the offset is an unsigned integer
+        targetRecordOffset = buffer.getInt() & 0xFFFFFFFFL;
     }
 
     public void printIPR() {
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+/**
+ * An index for the inverse geolocation of the tie-point cells of a swath, which finds the position
+ * of a geographic location within the tie-point grid.
+ * <p/>
+ * The cells are hashed into buckets of half a degree in latitude and longitude by their bounding
+ * boxes. Cells crossing the date line are hashed on both sides, cells containing a pole into all
+ * buckets of the polar cap. A lookup tests the cells of a single bucket against their bounding
+ * boxes. A first position within a matching cell is found by inverting the bilinear interpolation
+ * of its corners, which are projected onto the plane tangent to the earth at the location. This
+ * position selects the candidate cells and is refined by inverting the interpolation of the
+ * geolocation itself, which is bilinear in latitude and in the longitude unwrapped relative to the
+ * first corner of a cell, so that the position is consistent with the interpolated geolocation of
+ * the pixels. Only where this interpolation cannot be inverted, as in a cell containing a pole, the
+ * position on the tangent plane is used. A lookup does not allocate memory, the index can be used
+ * concurrently.
+ */
+final class InverseGeolocationIndex {
+
+    private static final double BUCKET_SIZE = 0.5;
+    private static final int NUM_LAT_BUCKETS = (int) (180.0 / BUCKET_SIZE);
+    private static final int NUM_LON_BUCKETS = (int) (360.0 / BUCKET_SIZE);
+    private static final int MAX_ITERATIONS = 8;
+    // allows for the rounding errors of positions on the boundary of a cell
+    private static final double EPSILON = 1.0E-6;
+    // the distance by which a position on the tangent plane may lie outside of a candidate cell
+    private static final double CANDIDATE_MARGIN = 0.5;
+
+    private final float[] latitudes;
+    private final float[] longitudes;
+    private final int gridWidth;
+    private final double tolerance;
+    // the unit vectors of the tie points
+    private final float[] vx;
+    private final float[] vy;
+    private final float[] vz;
+    // the bounding boxes of the cells, the longitude range starts at the western boundary
+    private final float[] cellLatMin;
+    private final float[] cellLatMax;
+    private final float[] cellLonMin;
+    private final float[] cellLonRange;
+    private final int[] bucketStart;
+    private final int[] bucketCells;
+
+    /**
+     * Creates the index.
+     *
+     * @param lat        the latitudes of the tie points
+     * @param lon        the longitudes of the tie points
+     * @param gridWidth  the width of the tie-point grid
+     * @param gridHeight the height of the tie-point grid
+     * @param tolerance  the distance in tie-point units by which a position may lie outside of a cell
+     */
+    InverseGeolocationIndex(float[] lat, float[] lon, int gridWidth, int gridHeight, double tolerance) {
+        this.latitudes = lat;
+        this.longitudes = lon;
+        this.gridWidth = gridWidth;
+        this.tolerance = tolerance;
+        final int numTiePoints = gridWidth * gridHeight;
+        vx = new float[numTiePoints];
+        vy = new float[numTiePoints];
+        vz = new float[numTiePoints];
+        for (int i = 0; i < numTiePoints; i++) {
+            final double phi = Math.toRadians(lat[i]);
+            final double lambda = Math.toRadians(lon[i]);
+            vx[i] = (float) (Math.cos(phi) * Math.cos(lambda));
+            vy[i] = (float) (Math.cos(phi) * Math.sin(lambda));
+            vz[i] = (float) Math.sin(phi);
+        }
+
+        final int numCells = (gridWidth - 1) * (gridHeight - 1);
+        cellLatMin = new float[numCells];
+        cellLatMax = new float[numCells];
+        cellLonMin = new float[numCells];
+        cellLonRange = new float[numCells];
+        for (int cellY = 0; cellY < gridHeight - 1; cellY++) {
+            for (int cellX = 0; cellX < gridWidth - 1; cellX++) {
+                computeCellBounds(lat, lon, cellX, cellY, cellY * (gridWidth - 1) + cellX);
+            }
+        }
+
+        // the cells are sorted into the buckets in two passes, counting and filling
+        bucketStart = new int[NUM_LAT_BUCKETS * NUM_LON_BUCKETS + 1];
+        for (int cell = 0; cell < numCells; cell++) {
+            addToBuckets(cell, null);
+        }
+        for (int bucket = 0; bucket < NUM_LAT_BUCKETS * NUM_LON_BUCKETS; bucket++) {
+            bucketStart[bucket + 1] += bucketStart[bucket];
+        }
+        bucketCells = new int[bucketStart[NUM_LAT_BUCKETS * NUM_LON_BUCKETS]];
+        final int[] bucketFill = new int[NUM_LAT_BUCKETS * NUM_LON_BUCKETS];
+        for (int cell = 0; cell < numCells; cell++) {
+            addToBuckets(cell, bucketFill);
+        }
+    }
+
+    /**
+     * Finds the position of a geographic location within the tie-point grid.
+     *
+     * @param lat      the latitude
+     * @param lon      the longitude
+     * @param position receives the x and y position in tie-point units, the tie point (i, j) is located
+     *                 at the position (i, j)
+     * @return {@code true} if the location is within the tie-point grid
+     */
+    boolean findPosition(float lat, float lon, double[] position) {
+        if (!(lat >= -90.0f && lat <= 90.0f) || Float.isNaN(lon)) {
+            return false;
+        }
+        final double normalizedLon = normalizeLon(lon);
+        final int bucket = getLatBucket(lat) * NUM_LON_BUCKETS + getLonBucket(normalizedLon);
+        final int start = bucketStart[bucket];
+        final int end = bucketStart[bucket + 1];
+        if (start == end) {
+            return false;
+        }
+
+        // the tangent plane at the location
+        final double phi = Math.toRadians(lat);
+        final double lambda = Math.toRadians(normalizedLon);
+        final double sinPhi = Math.sin(phi);
+        final double cosPhi = Math.cos(phi);
+        final double sinLambda = Math.sin(lambda);
+        final double cosLambda = Math.cos(lambda);
+        final double tx = cosPhi * cosLambda;
+        final double ty = cosPhi * sinLambda;
+        final double nx = -sinPhi * cosLambda;
+        final double ny = -sinPhi * sinLambda;
+
+        final double margin = tolerance + EPSILON;
+        boolean found = false;
+        double tangentX = 0.0;
+        double tangentY = 0.0;
+        for (int k = start; k < end; k++) {
+            final int cell = bucketCells[k];
+            if (lat < cellLatMin[cell] || lat > cellLatMax[cell]) {
+                continue;
+            }
+            double deltaLon = normalizedLon - cellLonMin[cell];
+            if (deltaLon < 0.0) {
+                deltaLon += 360.0;
+            }
+            if (deltaLon > cellLonRange[cell]) {
+                continue;
+            }
+            final int cellX = cell % (gridWidth - 1);
+            final int cellY = cell / (gridWidth - 1);
+            final int i00 = cellY * gridWidth + cellX;
+            final int i10 = i00 + 1;
+            final int i01 = i00 + gridWidth;
+            final int i11 = i01 + 1;
+            if (tx * vx[i00] + ty * vy[i00] + sinPhi * vz[i00] <= 0.0) {
+                continue;
+            }
+            // east and north coordinates of the corners
+            final double e00 = -sinLambda * vx[i00] + cosLambda * vy[i00];
+            final double n00 = nx * vx[i00] + ny * vy[i00] + cosPhi * vz[i00];
+            final double e10 = -sinLambda * vx[i10] + cosLambda * vy[i10];
+            final double n10 = nx * vx[i10] + ny * vy[i10] + cosPhi * vz[i10];
+            final double e01 = -sinLambda * vx[i01] + cosLambda * vy[i01];
+            final double n01 = nx * vx[i01] + ny * vy[i01] + cosPhi * vz[i01];
+            final double e11 = -sinLambda * vx[i11] + cosLambda * vy[i11];
+            final double n11 = nx * vx[i11] + ny * vy[i11] + cosPhi * vz[i11];
+            if (!invertBilinear(e00, n00, e10 - e00, n10 - n00, e01 - e00, n01 - n00,
+                                e11 - e10 - e01 + e00, n11 - n10 - n01 + n00, 0.5, 0.5, position)
+                || !isWithinCell(position, CANDIDATE_MARGIN)) {
+                continue;
+            }
+            final double u = position[0];
+            final double v = position[1];
+            if (!found && isWithinCell(position, margin)) {
+                found = true;
+                tangentX = cellX + u;
+                tangentY = cellY + v;
+            }
+            if (invertGeolocation(lat, normalizedLon, i00, i10, i01, i11, u, v, position)
+                && isWithinCell(position, margin)) {
+                position[0] += cellX;
+                position[1] += cellY;
+                return true;
+            }
+        }
+        if (found) {
+            position[0] = tangentX;
+            position[1] = tangentY;
+        }
+        return found;
+    }
+
+    // inverts the interpolation of the geolocation of a cell, starting at the position (u, v)
+    private boolean invertGeolocation(double targetLat, double targetLon, int i00, int i10, int i01, int i11,
+                                      double u, double v, double[] position) {
+        // the longitudes are unwrapped relative to the first corner, like they are interpolated
+        final double lon00 = longitudes[i00];
+        final double lon10 = lon00 + wrapLon(longitudes[i10] - lon00);
+        final double lon01 = lon00 + wrapLon(longitudes[i01] - lon00);
+        final double lon11 = lon00 + wrapLon(longitudes[i11] - lon00);
+        final double lat00 = latitudes[i00];
+        final double lat10 = latitudes[i10];
+        final double lat01 = latitudes[i01];
+        final double lat11 = latitudes[i11];
+        return invertBilinear(lat00 - targetLat, wrapLon(lon00 - targetLon), lat10 - lat00, lon10 - lon00,
+                              lat01 - lat00, lon01 - lon00, lat11 - lat10 - lat01 + lat00,
+                              lon11 - lon10 - lon01 + lon00, u, v, position);
+    }
+
+    // solves p + u * a + v * b + u * v * c = 0 by Newton's method, starting at the position (u, v)
+    private static boolean invertBilinear(double px, double py, double ax, double ay, double bx, double by,
+                                          double cx, double cy, double u, double v, double[] position) {
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            final double fx = px + u * ax + v * bx + u * v * cx;
+            final double fy = py + u * ay + v * by + u * v * cy;
+            final double j11 = ax + v * cx;
+            final double j12 = bx + u * cx;
+            final double j21 = ay + v * cy;
+            final double j22 = by + u * cy;
+            final double det = j11 * j22 - j12 * j21;
+            if (det == 0.0) {
+                return false;
+            }
+            final double du = (j22 * fx - j12 * fy) / det;
+            final double dv = (j11 * fy - j21 * fx) / det;
+            u -= du;
+            v -= dv;
+            if (Math.abs(du) + Math.abs(dv) < 1.0E-9) {
+                position[0] = u;
+                position[1] = v;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWithinCell(double[] position, double margin) {
+        return position[0] >= -margin && position[0] <= 1.0 + margin
+               && position[1] >= -margin && position[1] <= 1.0 + margin;
+    }
+
+    private void computeCellBounds(float[] lat, float[] lon, int cellX, int cellY, int cell) {
+        final int i00 = cellY * gridWidth + cellX;
+        final int i10 = i00 + 1;
+        final int i01 = i00 + gridWidth;
+        final int i11 = i01 + 1;
+        float latMin = Math.min(Math.min(lat[i00], lat[i10]), Math.min(lat[i01], lat[i11]));
+        float latMax = Math.max(Math.max(lat[i00], lat[i10]), Math.max(lat[i01], lat[i11]));
+
+        // the longitudes are unwrapped along the boundary of the cell
+        final double lon00 = normalizeLon(lon[i00]);
+        final double lon10 = lon00 + wrapLon(lon[i10] - lon[i00]);
+        final double lon11 = lon10 + wrapLon(lon[i11] - lon[i10]);
+        final double lon01 = lon11 + wrapLon(lon[i01] - lon[i11]);
+        final double winding = lon01 + wrapLon(lon[i00] - lon[i01]) - lon00;
+        double lonMin;
+        double lonMax;
+        if (Math.abs(winding) > 180.0) {
+            // the cell contains a pole
+            lonMin = -180.0;
+            lonMax = 180.0;
+            if (latMin + latMax > 0.0f) {
+                latMax = 90.0f;
+            } else {
+                latMin = -90.0f;
+            }
+        } else {
+            lonMin = Math.min(Math.min(lon00, lon10), Math.min(lon01, lon11));
+            lonMax = Math.max(Math.max(lon00, lon10), Math.max(lon01, lon11));
+        }
+        cellLatMin[cell] = latMin;
+        cellLatMax[cell] = latMax;
+        cellLonMin[cell] = (float) normalizeLon(lonMin);
+        cellLonRange[cell] = (float) (lonMax - lonMin);
+    }
+
+    // counts the cell in its buckets, or adds it to its buckets, if the fill counts are given
+    private void addToBuckets(int cell, int[] bucketFill) {
+        final int minLatBucket = getLatBucket(cellLatMin[cell]);
+        final int maxLatBucket = getLatBucket(cellLatMax[cell]);
+        final int minLonBucket = getLonBucket(cellLonMin[cell]);
+        // the eastern boundary may be beyond the date line
+        final int maxLonBucket = (int) ((cellLonMin[cell] + cellLonRange[cell] + 180.0) / BUCKET_SIZE);
+        final int numLonBuckets = Math.min(maxLonBucket - minLonBucket + 1, NUM_LON_BUCKETS);
+        for (int latBucket = minLatBucket; latBucket <= maxLatBucket; latBucket++) {
+            for (int i = 0; i < numLonBuckets; i++) {
+                final int bucket = latBucket * NUM_LON_BUCKETS + (minLonBucket + i) % NUM_LON_BUCKETS;
+                if (bucketFill == null) {
+                    bucketStart[bucket + 1]++;
+                } else {
+                    bucketCells[bucketStart[bucket] + bucketFill[bucket]++] = cell;
+                }
+            }
+        }
+    }
+
+    private static int getLatBucket(double lat) {
+        return Math.min((int) ((lat + 90.0) / BUCKET_SIZE), NUM_LAT_BUCKETS - 1);
+    }
+
+    // the longitude must be within [-180, 180)
+    private static int getLonBucket(double lon) {
+        return Math.min((int) ((lon + 180.0) / BUCKET_SIZE), NUM_LON_BUCKETS - 1);
+    }
+
+    // returns the longitude in the range [-180, 180)
+    private static double normalizeLon(double lon) {
+        return lon - 360.0 * Math.floor((lon + 180.0) / 360.0);
+    }
+
+    // returns the longitude difference in the range [-180, 180]
+    private static double wrapLon(double deltaLon) {
+        return deltaLon - 360.0 * Math.rint(deltaLon / 360.0);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.datamodel.TiePointGrid;
+
+import java.io.IOException;
+
+/**
+ * A tie-point grid whose tie points are loaded on first access. Every accessor of the tie points
+ * of a grid, like {@link #getGridData()}, {@link #getTiePoints()}, the pixel accessors or the
+ * source image, obtains them from {@link #getData()}, which loads them.
+ */
+class LazyTiePointGrid extends TiePointGrid {
+
+    private final TiePointGridLoader loader;
+    private final int gridIndex;
+    private volatile boolean loaded;
+    private boolean loading;
+
+    LazyTiePointGrid(String name, float offsetX, float offsetY, float subSamplingX, float subSamplingY,
+                     TiePointGridLoader loader, int gridIndex) {
+        super(name, loader.getWidth(), loader.getHeight(), offsetX, offsetY, subSamplingX, subSamplingY);
+        this.loader = loader;
+        this.gridIndex = gridIndex;
+    }
+
+    @Override
+    public ProductData getData() {
+        if (!loaded) {
+            load();
+        }
+        return super.getData();
+    }
+
+    /**
+     * @return {@code true} if the tie points of the grid have been loaded
+     */
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    private synchronized void load() {
+        // setting the data may access it again, which must not load it twice
+        if (!loaded && !loading) {
+            final float[] tiePoints;
+            try {
+                tiePoints = loader.getTiePoints(gridIndex);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read tie-point grid '" + getName() + "'.", e);
+            }
+            loading = true;
+            try {
+                setData(ProductData.createInstance(tiePoints));
+                loaded = true;
+            } finally {
+                loading = false;
+            }
+        }
+    }
+}
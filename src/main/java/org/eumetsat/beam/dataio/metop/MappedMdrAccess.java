@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link MdrAccess} backed by read-only memory mappings of the MDR area
+ * of the product file. Reads are lock-free and do not copy any data.
+ * <p/>
+ * A single mapping cannot exceed 2 GB, so the MDR area of larger products is mapped in
+ * several segments. Each segment holds a whole number of MDRs, so that reads within an MDR
+ * never cross a segment boundary. Other reads crossing a boundary are copied into a
+ * per-thread buffer.
+ * <p/>
+ * The mapped area can be extended for a product file which is still being written. The mapping
+ * is replaced as a whole, so that concurrent reads see either the former or the extended area.
+ */
+class MappedMdrAccess implements MdrAccess {
+
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    private final FileChannel fileChannel;
+    private final long regionStart;
+    private final long segmentSize;
+    private final ThreadLocal<byte[]> threadBuffer;
+    private volatile Mapping mapping;
+
+    MappedMdrAccess(FileChannel fileChannel, long regionStart, long regionSize, int recordSize) throws IOException {
+        this(fileChannel, regionStart, regionSize, recordSize, MAX_SEGMENT_SIZE);
+    }
+
+    MappedMdrAccess(FileChannel fileChannel, long regionStart, long regionSize, int recordSize,
+                    long maxSegmentSize) throws IOException {
+        if (recordSize <= 0 || recordSize > maxSegmentSize) {
+            throw new IllegalArgumentException("Unsupported MDR size: " + recordSize + " bytes.");
+        }
+        this.fileChannel = fileChannel;
+        this.regionStart = regionStart;
+        this.segmentSize = maxSegmentSize / recordSize * recordSize;
+        this.threadBuffer = new ThreadLocal<byte[]>();
+        this.mapping = map(new MappedByteBuffer[0], regionSize);
+    }
+
+    /**
+     * Extends the mapped area. Only the last segment of the former area, if it is not full, and the
+     * segments following it are mapped again.
+     *
+     * @param regionSize the size of the extended area, the area is not reduced
+     * @throws IOException if the access has been closed or an I/O error occurs
+     */
+    synchronized void extend(long regionSize) throws IOException {
+        final Mapping mapping = this.mapping;
+        if (mapping == null) {
+            throw new IOException("The MDR access has been closed.");
+        }
+        if (regionStart + regionSize > mapping.regionEnd) {
+            this.mapping = map(mapping.segments, regionSize);
+        }
+    }
+
+    @Override
+    public ByteBuffer read(long position, int length) throws IOException {
+        final Mapping mapping = this.mapping;
+        if (mapping == null) {
+            throw new IOException("The MDR access has been closed.");
+        }
+        if (position < regionStart || position + length > mapping.regionEnd) {
+            throw new IOException("Position " + position + " is outside of the mapped MDR area.");
+        }
+        final MappedByteBuffer[] segments = mapping.segments;
+        final long relativePosition = position - regionStart;
+        final int segmentIndex = (int) (relativePosition / segmentSize);
+        final int start = (int) (relativePosition - segmentIndex * segmentSize);
+        if (start + length <= segmentSize) {
+            final ByteBuffer view = segments[segmentIndex].duplicate();
+            view.position(start);
+            view.limit(start + length);
+            return view.slice();
+        }
+        return copy(segments, segmentIndex, start, length);
+    }
+
+    @Override
+    public void close() {
+        // the mappings are released when the buffers are garbage collected
+        mapping = null;
+    }
+
+    // keeps the full segments of a former mapping
+    private Mapping map(MappedByteBuffer[] formerSegments, long regionSize) throws IOException {
+        final int numSegments = (int) ((regionSize + segmentSize - 1) / segmentSize);
+        final MappedByteBuffer[] segments = new MappedByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            final long segmentStart = i * segmentSize;
+            final long size = Math.min(segmentSize, regionSize - segmentStart);
+            if (i < formerSegments.length && formerSegments[i].capacity() == size) {
+                segments[i] = formerSegments[i];
+            } else {
+                segments[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, regionStart + segmentStart, size);
+            }
+        }
+        return new Mapping(segments, regionStart + regionSize);
+    }
+
+    private ByteBuffer copy(MappedByteBuffer[] segments, int segmentIndex, int start, int length) {
+        byte[] bytes = threadBuffer.get();
+        if (bytes == null || bytes.length < length) {
+            bytes = new byte[length];
+            threadBuffer.set(bytes);
+        }
+        int offset = 0;
+        int segmentStart = start;
+        for (int i = segmentIndex; offset < length; i++) {
+            final ByteBuffer view = segments[i].duplicate();
+            final int count = Math.min(length - offset, view.capacity() - segmentStart);
+            view.position(segmentStart);
+            view.get(bytes, offset, count);
+            offset += count;
+            segmentStart = 0;
+        }
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    private static final class Mapping {
+
+        private final MappedByteBuffer[] segments;
+        private final long regionEnd;
+
+        private Mapping(MappedByteBuffer[] segments, long regionEnd) {
+            this.segments = segments;
+            this.regionEnd = regionEnd;
+        }
+    }
+}
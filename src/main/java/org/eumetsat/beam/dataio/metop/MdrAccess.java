@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides random read access to the measurement data records (MDR)
+ * of a METOP product file.
+ */
+interface MdrAccess {
+
+    /**
+     * Reads a block of bytes from the product file.
+     * <p/>
+     * The returned buffer is big-endian, starts at position zero and has its limit set
+     * to {@code length}. It must be treated as read-only and is only valid until the
+     * next call of this method from the same thread.
+     *
+     * @param position the file position of the first byte
+     * @param length   the number of bytes
+     * @return the buffer holding the requested bytes
+     * @throws IOException if an I/O error occurs
+     */
+    ByteBuffer read(long position, int length) throws IOException;
+
+    /**
+     * Releases all resources held by this access.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrFile;
+import org.esa.beam.dataio.avhrr.BandReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link BandReader} which decodes its samples from the MDR of each scan line.
+ * Several of these readers can share a single read of each MDR, see
+ * {@link MetopFile#readBandRasterData(int, int, int, int, int, int, BandReader[], org.esa.beam.framework.datamodel.ProductData[], com.bc.ceres.core.ProgressMonitor)}.
+ */
+interface MdrBandReader extends BandReader {
+
+    /**
+     * Tells whether the band has data in the given scan line.
+     *
+     * @param rawY the raw index of the scan line
+     * @return {@code true} if the scan line has data for this band
+     * @throws IOException if an I/O error occurs
+     */
+    boolean hasData(int rawY) throws IOException;
+
+    /**
+     * Returns the offset within an MDR of the first byte needed for reading the
+     * samples starting at the given x offset.
+     *
+     * @param sourceOffsetX the x offset of the region to read
+     * @return the offset within the MDR
+     */
+    int getRecordOffset(int sourceOffsetX);
+
+    /**
+     * Returns the number of bytes needed from an MDR for reading the given
+     * number of samples.
+     *
+     * @param sourceWidth the width of the region to read
+     * @return the number of bytes
+     */
+    int getRecordLength(int sourceWidth);
+
+    /**
+     * Decodes the samples of a single scan line into the target array.
+     *
+     * @param record        a buffer holding a part of the MDR of the scan line or {@code null},
+     *                      if the scan line has no data for this band
+     * @param recordStart   the offset within the MDR of the first byte of the buffer
+     * @param sourceOffsetX the x offset of the region to read
+     * @param sourceWidth   the width of the region to read
+     * @param sourceStepX   the sub-sampling in x direction
+     * @param rawCoord      the raw coordinates of the region to read
+     * @param targetData    the target array
+     * @param targetIdx     the target index of the first sample of the scan line
+     * @return the target index of the first sample of the next scan line
+     */
+    int readScanLine(ByteBuffer record, int recordStart, int sourceOffsetX, int sourceWidth, int sourceStepX,
+                     AvhrrFile.RawCoordinates rawCoord, Object targetData, int targetIdx);
+}
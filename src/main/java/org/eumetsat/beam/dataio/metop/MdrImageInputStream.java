@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Adapts an {@link MdrAccess} to the {@link javax.imageio.stream.ImageInputStream}
+ * interface, so that readers from the AVHRR module (e.g. the
+ * {@link org.esa.beam.dataio.avhrr.FlagReader}) can use it.
+ * Every reader should get its own instance.
+ * <p/>
+ * The stream does not expose the file positions, which exceed the {@code int} offsets of the
+ * AVHRR module for products beyond 2 GB. It holds a slot of {@link #SLOT_SIZE} bytes for each
+ * MDR instead, which starts at a given offset within the MDR, see {@link #getStreamPosition(int)}.
+ */
+class MdrImageInputStream extends ImageInputStreamImpl {
+
+    /**
+     * The number of bytes of an MDR which can be read from the slot of the MDR.
+     */
+    static final int SLOT_SIZE = 64;
+
+    private final MdrAccess mdrAccess;
+    private final long firstMdrOffset;
+    private final int mdrSize;
+    private final int recordOffset;
+
+    /**
+     * @param mdrAccess      the access to the MDRs
+     * @param firstMdrOffset the file position of the first MDR
+     * @param mdrSize        the size of an MDR in bytes
+     * @param recordOffset   the offset within an MDR at which the slots start
+     */
+    MdrImageInputStream(MdrAccess mdrAccess, long firstMdrOffset, int mdrSize, int recordOffset) {
+        if (recordOffset + SLOT_SIZE > mdrSize) {
+            throw new IllegalArgumentException("Slot exceeds the MDR size: " + recordOffset);
+        }
+        this.mdrAccess = mdrAccess;
+        this.firstMdrOffset = firstMdrOffset;
+        this.mdrSize = mdrSize;
+        this.recordOffset = recordOffset;
+    }
+
+    /**
+     * @param rawY the scan line
+     * @return the stream position of the slot of the MDR of the scan line
+     */
+    static int getStreamPosition(int rawY) {
+        return rawY * SLOT_SIZE;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        final int value = mdrAccess.read(getFilePosition(1), 1).get(0) & 0xff;
+        streamPos++;
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        final ByteBuffer buffer = mdrAccess.read(getFilePosition(len), len);
+        buffer.get(b, off, len);
+        streamPos += len;
+        return len;
+    }
+
+    private long getFilePosition(int length) throws IOException {
+        final long rawY = streamPos / SLOT_SIZE;
+        final int slotOffset = (int) (streamPos - rawY * SLOT_SIZE);
+        if (slotOffset + length > SLOT_SIZE) {
+            throw new IOException("Read of " + length + " bytes at stream position " + streamPos
+                                  + " exceeds the slot of the MDR.");
+        }
+        return firstMdrOffset + rawY * mdrSize + recordOffset + slotOffset;
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.eumetsat.beam.dataio.metop;
 
+import com.bc.ceres.core.ProgressMonitor;
 import org.esa.beam.dataio.avhrr.AvhrrConstants;
 import org.esa.beam.dataio.avhrr.AvhrrFile;
 import org.esa.beam.dataio.avhrr.BandReader;
@@ -26,13 +27,20 @@ import org.esa.beam.dataio.avhrr.HeaderUtil;
 import org.esa.beam.dataio.avhrr.calibration.Radiance2TemperatureCalibrator;
 import org.esa.beam.dataio.avhrr.calibration.RadianceCalibrator;
 import org.esa.beam.framework.datamodel.MetadataElement;
+import org.esa.beam.framework.datamodel.ProductData;
 import org.esa.beam.framework.datamodel.ProductData.UTC;
 
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -41,7 +49,27 @@ import java.util.List;
  * @author marcoz
  * @version $Revision: 1.1.1.1 $ $Date: 2007/03/22 11:12:51 $
  */
-class MetopFile extends AvhrrFile {
+class MetopFile extends AvhrrFile implements TiePointRows {
+
+    /**
+     * System property which enables the memory-mapped access to the MDRs
+     * of products opened from a file.
+     */
+    static final String USE_MEMORY_MAPPING_PROPERTY = "beam.metop.useMemoryMapping";
+
+    /**
+     * System property which sets the size (in MB) of the MDR cache shared by all band
+     * readers of a product. A size of zero disables the cache.
+     */
+    static final String MDR_CACHE_SIZE_PROPERTY = "beam.metop.mdrCacheSize";
+
+    /**
+     * System property which enables the sidecar index files of products opened from a file,
+     * see {@link MetopIndexFile}.
+     */
+    static final String USE_INDEX_FILES_PROPERTY = "beam.metop.useIndexFiles";
+
+    private static final int DEFAULT_MDR_CACHE_SIZE = 32;
 
     private static final int EXPECTED_PRODUCT_WIDTH = 2048;
 
@@ -67,24 +95,56 @@ class MetopFile extends AvhrrFile {
      */
     private static final int TIE_POINT_DIFFERENCE = 832;
 
+    private static final int RADIANCE_OFFSET = 24;
+
     private static final int TIE_POINT_OFFSET = 20556;
 
 
     private static final int FLAG_OFFSET = 22204;
 
+    private static final int CLOUD_INFORMATION_OFFSET = 22472;
+
     private static final int FRAME_INDICATOR_OFFSET = 26580;
 
+    private static final int INTERNAL_POINTER_RECORD_SIZE = 27;
+
+    private static final int GEADR_TEXT_LENGTH = 100;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
     private ImageInputStream inputStream;
 
+    private File file;
+
+    private FileChannel fileChannel;
+
+    private volatile MdrAccess mdrAccess;
+
+    private volatile MdrAccess bandMdrAccess;
+
+    // read on first use and replaced by an extended copy for a growing product, never modified once published
+    private volatile BitSet channel3aLines;
+
+    // the number of scan lines covered by the channel 3A/3B state, published after the state
+    private volatile int numChannel3aLines;
+
+    private MetopIndexFile index;
+
+    private long[] scanLineStartTimes;
+
+    private TiePointSpatialIndex spatialIndex;
+
     private GenericRecordHeader mphrHeader;
 
+    private GenericRecordHeader sphrHeader;
+
     private AsciiRecord mainProductHeaderRecord;
 
     private AsciiRecord secondaryProductHeaderRecord;
 
     private GiadrRadiance giadrRadiance;
 
-    private int firstMdrOffset;
+    private long firstMdrOffset;
 
     private int mdrSize;
 
@@ -94,48 +154,32 @@ class MetopFile extends AvhrrFile {
 
     private UTC startTime;
     private UTC endTime;
-    private MetadataElement geadrMetadata;
-    private MetadataElement readerInfo;
+    private List<String[]> geadrTexts;
+    private int numTrimBottom;
+    private int numScanLines;
+    private int totalMdrCount;
+    private volatile int numCompletedScanLines;
 
     public MetopFile(ImageInputStream imageInputStream) {
         this.inputStream = imageInputStream;
-        readerInfo = new MetadataElement("READER_INFO");
+    }
+
+    public MetopFile(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        this.file = file;
+        this.inputStream = new FileImageInputStream(randomAccessFile);
+        this.fileChannel = randomAccessFile.getChannel();
     }
 
     @Override
     public void readHeader() throws IOException {
-        mphrHeader = new GenericRecordHeader();
-        boolean correct = mphrHeader.readGenericRecordHeader(inputStream);
-
-        if (!correct
-                || mphrHeader.recordClass != GenericRecordHeader.RecordClass.MPHR
-                || mphrHeader.instrumentGroup != GenericRecordHeader.InstrumentGroup.GENERIC
-                || mphrHeader.recordSubclass != 0) {
-            throw new IOException("Unsupported product: bad MPHR. RecordClass="
-                                          + mphrHeader.recordClass + " InstrumentGroup="
-                                          + mphrHeader.instrumentGroup + " RecordSubclass="
-                                          + mphrHeader.recordSubclass);
-        }
-        mainProductHeaderRecord = new MainProductHeaderRecord();
-        mainProductHeaderRecord.readRecord(inputStream);
-
-        if (mainProductHeaderRecord.getIntValue("TOTAL_SPHR") != 1) {
-            throw new IOException("Unsupported Product: more than one SPHR.");
-        }
-        GenericRecordHeader sphrHeader = new GenericRecordHeader();
-        correct = sphrHeader.readGenericRecordHeader(inputStream);
-
-        if (!correct
-                || sphrHeader.recordClass != GenericRecordHeader.RecordClass.SPHR
-                || sphrHeader.instrumentGroup != GenericRecordHeader.InstrumentGroup.AVHRR_3
-                || sphrHeader.recordSubclass != 0) {
-            throw new IOException("Unsupported product: bad SPHR. RecordClass="
-                                          + sphrHeader.recordClass + " InstrumentGroup="
-                                          + sphrHeader.instrumentGroup + " RecordSubclass="
-                                          + sphrHeader.recordSubclass);
+        // the header records are parsed from memory, the block read when probing the file is reused
+        byte[] block = null;
+        if (file != null) {
+            block = MetopFileProbe.probe(file).getBlock();
         }
-        secondaryProductHeaderRecord = new SecondaryProductHeaderRecord();
-        secondaryProductHeaderRecord.readRecord(inputStream);
+        final HeaderBlock headerBlock = new HeaderBlock(inputStream, block != null ? block : new byte[0]);
+        readProductHeaders(headerBlock);
 
         if (secondaryProductHeaderRecord.getIntValue("EARTH_VIEWS_PER_SCANLINE") != EXPECTED_PRODUCT_WIDTH) {
             throw new IOException("Unsupported product: bad SPHR. " +
@@ -155,54 +199,231 @@ class MetopFile extends AvhrrFile {
             throw new IOException("Unsupported product: bad SPHR. " +
                                           "NAV_SAMPLE_RATE is: " + navSampleRate);
         }
-        readerInfo
-                .addAttribute(HeaderUtil
-                                      .createAttribute("TRIM_LEFT", numTrimX, "pixel",
-                                                       "Number of pixel cut from the left of the product to match the tie-points."));
-        readerInfo
-                .addAttribute(HeaderUtil
-                                      .createAttribute("TRIM_RIGHT", EXPECTED_PRODUCT_WIDTH
-                                                               - numTrimX - productWidth, "pixel",
-                                                       "Number of pixel cut from the right of the product to match the tie-points."));
 
+        long iprOffset = mphrHeader.recordSize + sphrHeader.recordSize;
+        // the IPRs are read in a single read, if their number is given in the MPHR
+        try {
+            final int numIprs = mainProductHeaderRecord.getIntValue("TOTAL_IPR");
+            headerBlock.ensureSize(iprOffset + (long) numIprs * INTERNAL_POINTER_RECORD_SIZE);
+        } catch (NumberFormatException ignored) {
+            // the IPRs are read one by one
+        }
         List<InternalPointerRecord> iprs = new ArrayList<InternalPointerRecord>();
         InternalPointerRecord internalPointerRecord;
         do {
             internalPointerRecord = new InternalPointerRecord();
-            internalPointerRecord.readRecord(inputStream);
+            internalPointerRecord.readRecord(headerBlock.getRecord(iprOffset, INTERNAL_POINTER_RECORD_SIZE));
+            iprOffset += INTERNAL_POINTER_RECORD_SIZE;
             iprs.add(internalPointerRecord);
         } while (internalPointerRecord.targetRecordClass != GenericRecordHeader.RecordClass.MDR);
 
+        // the auxiliary data records are located between the IPRs and the first MDR,
+        // they are read together with the GRH of the first MDR
+        firstMdrOffset = internalPointerRecord.targetRecordOffset;
+        headerBlock.ensureSize(firstMdrOffset + GenericRecordHeader.SIZE);
+
         for (InternalPointerRecord ipr : iprs) {
             if (ipr.targetRecordClass == GenericRecordHeader.RecordClass.GIADR) {
                 if (ipr.targetRecordSubclass == 1) {
-                    inputStream.seek(ipr.targetRecordOffset);
+                    final ByteBuffer record = getAuxiliaryRecord(headerBlock, ipr.targetRecordOffset);
                     giadrRadiance = new GiadrRadiance();
-                    giadrRadiance.readRecord(inputStream);
+                    giadrRadiance.readRecord(record);
                 } else if (ipr.targetRecordSubclass == 2) {
                     // GiadrAnalog not read
                 }
             } else if (ipr.targetRecordClass == GenericRecordHeader.RecordClass.GEADR) {
-                inputStream.seek(ipr.targetRecordOffset);
+                final ByteBuffer record = getAuxiliaryRecord(headerBlock, ipr.targetRecordOffset);
                 GenericRecordHeader grh = new GenericRecordHeader();
-                grh.readGenericRecordHeader(inputStream);
-                byte[] geadrText = new byte[100];
-                inputStream.read(geadrText);
+                grh.readGenericRecordHeader(record);
+                byte[] geadrText = new byte[Math.min(GEADR_TEXT_LENGTH, record.remaining())];
+                record.get(geadrText);
 
-                if (geadrMetadata == null) {
-                    geadrMetadata = new MetadataElement("GEADR");
+                if (geadrTexts == null) {
+                    geadrTexts = new ArrayList<String[]>();
                 }
-                geadrMetadata.addAttribute(HeaderUtil.createAttribute(Integer.toString(grh.recordSubclass),
-                                                                      new String(geadrText)));
-            } else if (ipr.targetRecordClass == GenericRecordHeader.RecordClass.MDR) {
-                firstMdrOffset = ipr.targetRecordOffset;
+                geadrTexts.add(new String[]{Integer.toString(grh.recordSubclass), new String(geadrText)});
             }
         }
         productHeight = mainProductHeaderRecord.getIntValue("TOTAL_MDR");
-        int toSkip = checkMdrs(navSampleRate);
-        analyzeFrameIndicator();
+        totalMdrCount = productHeight;
+        final boolean useIndexFile = file != null && Boolean.getBoolean(USE_INDEX_FILES_PROPERTY);
+        if (useIndexFile) {
+            index = readIndexFile();
+        }
+        if (index != null) {
+            mdrSize = index.getMdrSize();
+            productHeight = index.getProductHeight();
+            numScanLines = productHeight;
+            numTrimBottom = index.getNumTrimBottom();
+            startTime = index.getStartTime();
+            endTime = index.getEndTime();
+            mdrAccess = createMdrAccess();
+            bandMdrAccess = createBandMdrAccess(mdrAccess);
+            channel3aLines = index.getChannel3aLines();
+            numChannel3aLines = productHeight + numTrimBottom;
+            setChannel3ab(channel3aLines.get(0), channel3aLines.get(productHeight - 1));
+        } else {
+            numTrimBottom = checkMdrs(headerBlock, navSampleRate);
+            numScanLines = productHeight;
+            mdrAccess = createMdrAccess();
+            bandMdrAccess = createBandMdrAccess(mdrAccess);
+            analyzeFrameIndicator();
+        }
+        numCompletedScanLines = productHeight + numTrimBottom;
+        if (useIndexFile && index == null) {
+            index = writeIndexFile();
+        }
+    }
 
-        readerInfo.addAttribute(HeaderUtil.createAttribute("TRIM_BOTTOM", toSkip, "pixel", "Number of lines cut from the end of the product to match the tie-points."));
+    /**
+     * Re-checks the length of a product file which is still being written, and adds the MDRs
+     * which have been completed since the header has been read or this method has been called
+     * the last time. MDRs beyond the number announced by the main product header are ignored.
+     * <p/>
+     * The completed scan lines are available at once. The product raster is extended to the last
+     * completed tie-point row. The channel 3A/3B state, the scan line start times and the spatial
+     * index are extended by the added scan lines when they are requested. This
+     * method must not be used while the product is read by a {@link MetopReader}, whose product
+     * has a fixed size.
+     *
+     * @return the number of completed scan lines
+     * @throws IOException if an I/O error occurs or a completed MDR is corrupt
+     */
+    synchronized int updateCompletedScanLines() throws IOException {
+        final long fileSize = fileChannel != null ? fileChannel.size() : inputStream.length();
+        final int oldCount = numCompletedScanLines;
+        final int count = (int) Math.min((fileSize - firstMdrOffset) / mdrSize, totalMdrCount);
+        if (count <= oldCount) {
+            return oldCount;
+        }
+        final MdrAccess mdrAccess = this.mdrAccess;
+        if (mdrAccess instanceof MappedMdrAccess) {
+            // the mapping only covers the MDRs which have been complete when it has been created
+            ((MappedMdrAccess) mdrAccess).extend((long) count * mdrSize);
+        }
+        final GenericRecordHeader grh = new GenericRecordHeader();
+        for (int rawY = oldCount; rawY < count; rawY++) {
+            final boolean correct = grh.readGenericRecordHeader(mdrAccess.read(getMdrOffset(rawY),
+                                                                               GenericRecordHeader.SIZE));
+            if (!correct || grh.recordClass != GenericRecordHeader.RecordClass.MDR) {
+                throw new IOException("Bad GRH in MDR of scan line " + rawY + ".");
+            }
+        }
+        endTime = grh.recordEndTime;
+
+        final int navSampleRate = getNavSampleRate();
+        final int height = ((count - 1) / navSampleRate) * navSampleRate + 1;
+        if (height != productHeight) {
+            productHeight = height;
+            numScanLines = height;
+            final MdrAccess oldBandMdrAccess = bandMdrAccess;
+            bandMdrAccess = createBandMdrAccess(mdrAccess);
+            if (oldBandMdrAccess != mdrAccess) {
+                oldBandMdrAccess.close();
+            }
+            analyzeFrameIndicator();
+        }
+        numTrimBottom = count - productHeight;
+        // published last, for readers which test the number of completed scan lines first
+        numCompletedScanLines = count;
+        return count;
+    }
+
+    /**
+     * Returns the number of scan lines whose MDRs are complete, which includes the scan lines
+     * following the last tie-point row.
+     *
+     * @return the number of completed scan lines
+     */
+    int getNumCompletedScanLines() {
+        return numCompletedScanLines;
+    }
+
+    /**
+     * Tells whether all MDRs announced by the main product header are complete.
+     *
+     * @return {@code true} if the product is complete
+     */
+    boolean isComplete() {
+        return numCompletedScanLines >= totalMdrCount;
+    }
+
+    private MetopIndexFile readIndexFile() {
+        final File indexFile = MetopIndexFile.getIndexFile(file);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try {
+            final MetopIndexFile index = MetopIndexFile.read(indexFile);
+            if (index.isValidFor(file, getProductName(), firstMdrOffset)) {
+                return index;
+            }
+        } catch (IOException ignored) {
+            // the index is created again
+        }
+        return null;
+    }
+
+    private MetopIndexFile writeIndexFile() throws IOException {
+        final MetopIndexFile index = new MetopIndexFile(file, getProductName(), firstMdrOffset, mdrSize,
+                                                        productHeight, numTrimBottom, startTime, endTime,
+                                                        getChannel3aLines(), getScanLineStartTimes(),
+                                                        readTiePointData(0, productHeight / getNavSampleRate()));
+        try {
+            index.write(MetopIndexFile.getIndexFile(file));
+        } catch (IOException ignored) {
+            // the directory of the product may not be writable, the index is kept in memory
+        }
+        return index;
+    }
+
+    private void readProductHeaders(HeaderBlock headerBlock) throws IOException {
+        mphrHeader = new GenericRecordHeader();
+        boolean correct = mphrHeader.readGenericRecordHeader(headerBlock.getRecord(0, GenericRecordHeader.SIZE));
+        if (!correct
+                || mphrHeader.recordClass != GenericRecordHeader.RecordClass.MPHR
+                || mphrHeader.instrumentGroup != GenericRecordHeader.InstrumentGroup.GENERIC
+                || mphrHeader.recordSubclass != 0) {
+            throw new IOException("Unsupported product: bad MPHR. RecordClass="
+                                          + mphrHeader.recordClass + " InstrumentGroup="
+                                          + mphrHeader.instrumentGroup + " RecordSubclass="
+                                          + mphrHeader.recordSubclass);
+        }
+        // the MPHR is read together with the GRH of the SPHR
+        final long sphrOffset = mphrHeader.recordSize;
+        headerBlock.ensureSize(sphrOffset + GenericRecordHeader.SIZE);
+        final ByteBuffer mphr = headerBlock.getRecord(0, sphrOffset);
+        mphr.position(GenericRecordHeader.SIZE);
+        mainProductHeaderRecord = new MainProductHeaderRecord();
+        mainProductHeaderRecord.readRecord(mphr);
+
+        if (mainProductHeaderRecord.getIntValue("TOTAL_SPHR") != 1) {
+            throw new IOException("Unsupported Product: more than one SPHR.");
+        }
+        sphrHeader = new GenericRecordHeader();
+        correct = sphrHeader.readGenericRecordHeader(headerBlock.getRecord(sphrOffset, GenericRecordHeader.SIZE));
+
+        if (!correct
+                || sphrHeader.recordClass != GenericRecordHeader.RecordClass.SPHR
+                || sphrHeader.instrumentGroup != GenericRecordHeader.InstrumentGroup.AVHRR_3
+                || sphrHeader.recordSubclass != 0) {
+            throw new IOException("Unsupported product: bad SPHR. RecordClass="
+                                          + sphrHeader.recordClass + " InstrumentGroup="
+                                          + sphrHeader.instrumentGroup + " RecordSubclass="
+                                          + sphrHeader.recordSubclass);
+        }
+        final ByteBuffer sphr = headerBlock.getRecord(sphrOffset, sphrHeader.recordSize);
+        sphr.position(GenericRecordHeader.SIZE);
+        secondaryProductHeaderRecord = new SecondaryProductHeaderRecord();
+        secondaryProductHeaderRecord.readRecord(sphr);
+    }
+
+    private static ByteBuffer getAuxiliaryRecord(HeaderBlock headerBlock, long offset) throws IOException {
+        final GenericRecordHeader grh = new GenericRecordHeader();
+        if (!grh.readGenericRecordHeader(headerBlock.getRecord(offset, GenericRecordHeader.SIZE))) {
+            throw new IllegalArgumentException("Bad GRH at offset " + offset);
+        }
+        return headerBlock.getRecord(offset, grh.recordSize);
     }
 
     @Override
@@ -224,42 +445,69 @@ class MetopFile extends AvhrrFile {
     public void addMetaData(MetadataElement metadataRoot) {
         metadataRoot.addElement(mainProductHeaderRecord.getMetaData());
         metadataRoot.addElement(secondaryProductHeaderRecord.getMetaData());
-        if (geadrMetadata != null) {
+        if (geadrTexts != null) {
+            final MetadataElement geadrMetadata = new MetadataElement("GEADR");
+            for (String[] geadrText : geadrTexts) {
+                geadrMetadata.addAttribute(HeaderUtil.createAttribute(geadrText[0], geadrText[1]));
+            }
             metadataRoot.addElement(geadrMetadata);
         }
         metadataRoot.addElement(giadrRadiance.getMetaData());
-        metadataRoot.addElement(readerInfo);
+        metadataRoot.addElement(getReaderInfo());
+    }
+
+    private MetadataElement getReaderInfo() {
+        final MetadataElement readerInfo = new MetadataElement("READER_INFO");
+        readerInfo
+                .addAttribute(HeaderUtil
+                                      .createAttribute("TRIM_LEFT", numTrimX, "pixel",
+                                                       "Number of pixel cut from the left of the product to match the tie-points."));
+        readerInfo
+                .addAttribute(HeaderUtil
+                                      .createAttribute("TRIM_RIGHT", EXPECTED_PRODUCT_WIDTH
+                                                               - numTrimX - productWidth, "pixel",
+                                                       "Number of pixel cut from the right of the product to match the tie-points."));
+        readerInfo.addAttribute(HeaderUtil.createAttribute("TRIM_BOTTOM", numTrimBottom, "pixel", "Number of lines cut from the end of the product to match the tie-points."));
+        return readerInfo;
     }
 
     @Override
     public BandReader createVisibleRadianceBandReader(int channel) {
-        return new PlainBandReader(channel, this, inputStream);
+        return new PlainBandReader(channel, this, bandMdrAccess);
     }
 
     @Override
     public BandReader createIrRadianceBandReader(int channel) {
-        return new PlainBandReader(channel, this, inputStream);
+        return new PlainBandReader(channel, this, bandMdrAccess);
     }
 
     @Override
     public BandReader createReflectanceFactorBandReader(int channel) {
-        RadianceCalibrator radianceCalibrator = new MetopRad2ReflFactorCalibrator(giadrRadiance.getSolarIrradiance(channel), 1);
+        final double solarIrradiance = giadrRadiance.getSolarIrradiance(channel);
         //TODO this 1 should be the earth-sun-distance-ratio, but this ratio is always 0.
-        return new CalibratedBandReader(channel, this, inputStream, radianceCalibrator);
+        final double earthSunDistance = 1;
+        RadianceCalibrator radianceCalibrator = new MetopRad2ReflFactorCalibrator(solarIrradiance, earthSunDistance);
+        return new CalibratedBandReader(channel, this, bandMdrAccess, radianceCalibrator,
+                                        new double[]{solarIrradiance, earthSunDistance});
     }
 
     @Override
     public BandReader createIrTemperatureBandReader(int channel) {
+        final double constant1 = giadrRadiance.getConstant1(channel);
+        final double constant2 = giadrRadiance.getConstant2(channel);
+        final double centralWavenumber = giadrRadiance.getCentralWavenumber(channel);
         RadianceCalibrator radianceCalibrator = new Radiance2TemperatureCalibrator(
-                giadrRadiance.getConstant1(channel), giadrRadiance.getConstant2(channel),
-                giadrRadiance.getCentralWavenumber(channel));
+                constant1, constant2, centralWavenumber);
 
-        return new CalibratedBandReader(channel, this, inputStream, radianceCalibrator);
+        return new CalibratedBandReader(channel, this, bandMdrAccess, radianceCalibrator,
+                                        new double[]{constant1, constant2, centralWavenumber});
     }
 
     @Override
     public BandReader createFlagBandReader() {
-        return new FlagReader(this, inputStream);
+        final MdrImageInputStream flagStream = new MdrImageInputStream(bandMdrAccess, firstMdrOffset, mdrSize,
+                                                                       getFlagRecordOffset());
+        return new FlagReader(this, flagStream);
     }
 
     @Override
@@ -269,7 +517,146 @@ class MetopFile extends AvhrrFile {
 
     @Override
     public BandReader createCloudBandReader() {
-        return new CloudBandReader(this, inputStream);
+        return new CloudBandReader(this, bandMdrAccess);
+    }
+
+    /**
+     * Reads the same raster region of several bands in a single pass over the MDRs.
+     * <p/>
+     * The bands are read by the given band readers into the destination buffer with
+     * the same index. Band readers which are not an {@link MdrBandReader} read their
+     * data separately.
+     *
+     * @param sourceOffsetX the x offset of the region
+     * @param sourceOffsetY the y offset of the region
+     * @param sourceWidth   the width of the region
+     * @param sourceHeight  the height of the region
+     * @param sourceStepX   the sub-sampling in x direction
+     * @param sourceStepY   the sub-sampling in y direction
+     * @param bandReaders   the readers of the bands to read
+     * @param destBuffers   the destination buffers, one for each band reader
+     * @param pm            a progress monitor
+     * @throws IOException if an I/O error occurs
+     */
+    public void readBandRasterData(int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                                   int sourceStepX, int sourceStepY, BandReader[] bandReaders,
+                                   ProductData[] destBuffers, ProgressMonitor pm) throws IOException {
+        readBandRasterData(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight, sourceStepX, sourceStepY,
+                           bandReaders, destBuffers, 0, pm);
+    }
+
+    /**
+     * Reads the same raster region of several bands in a single pass over the MDRs, into the
+     * destination buffers starting at the given index. Band readers which are not an
+     * {@link MdrBandReader} read their data into a separate buffer, which is copied.
+     *
+     * @param sourceOffsetX the x offset of the region
+     * @param sourceOffsetY the y offset of the region
+     * @param sourceWidth   the width of the region
+     * @param sourceHeight  the height of the region
+     * @param sourceStepX   the sub-sampling in x direction
+     * @param sourceStepY   the sub-sampling in y direction
+     * @param bandReaders   the readers of the bands to read
+     * @param destBuffers   the destination buffers, one for each band reader
+     * @param destOffset    the index of the first sample of the region within the destination buffers
+     * @param pm            a progress monitor
+     * @throws IOException if an I/O error occurs
+     */
+    void readBandRasterData(int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                            int sourceStepX, int sourceStepY, BandReader[] bandReaders, ProductData[] destBuffers,
+                            int destOffset, ProgressMonitor pm) throws IOException {
+        final List<MdrBandReader> mdrBandReaders = new ArrayList<MdrBandReader>(bandReaders.length);
+        final List<Object> targetData = new ArrayList<Object>(bandReaders.length);
+        final List<BandReader> otherBandReaders = new ArrayList<BandReader>();
+        final List<ProductData> otherDestBuffers = new ArrayList<ProductData>();
+        for (int i = 0; i < bandReaders.length; i++) {
+            if (bandReaders[i] instanceof MdrBandReader) {
+                mdrBandReaders.add((MdrBandReader) bandReaders[i]);
+                targetData.add(destBuffers[i].getElems());
+            } else {
+                otherBandReaders.add(bandReaders[i]);
+                otherDestBuffers.add(destBuffers[i]);
+            }
+        }
+        final RawCoordinates rawCoord = getRawCoordinates(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight);
+        rawCoord.targetStart += destOffset;
+        final int numReaders = mdrBandReaders.size();
+
+        pm.beginTask("Reading AVHRR bands...", (rawCoord.maxY - rawCoord.minY) + otherBandReaders.size());
+        try {
+            if (numReaders > 0) {
+                int recordStart = Integer.MAX_VALUE;
+                int recordEnd = 0;
+                for (MdrBandReader bandReader : mdrBandReaders) {
+                    final int recordOffset = bandReader.getRecordOffset(sourceOffsetX);
+                    recordStart = Math.min(recordStart, recordOffset);
+                    recordEnd = Math.max(recordEnd, recordOffset + bandReader.getRecordLength(sourceWidth));
+                }
+                final int[] targetIdx = new int[numReaders];
+                final boolean[] hasData = new boolean[numReaders];
+                Arrays.fill(targetIdx, rawCoord.targetStart);
+                for (int sourceY = rawCoord.minY; sourceY <= rawCoord.maxY; sourceY += sourceStepY) {
+                    if (pm.isCanceled()) {
+                        return;
+                    }
+                    boolean anyData = false;
+                    for (int i = 0; i < numReaders; i++) {
+                        hasData[i] = mdrBandReaders.get(i).hasData(sourceY);
+                        anyData |= hasData[i];
+                    }
+                    ByteBuffer record = null;
+                    if (anyData) {
+                        record = bandMdrAccess.read(getMdrOffset(sourceY) + recordStart, recordEnd - recordStart);
+                    }
+                    for (int i = 0; i < numReaders; i++) {
+                        targetIdx[i] = mdrBandReaders.get(i).readScanLine(hasData[i] ? record : null, recordStart,
+                                                                          sourceOffsetX, sourceWidth, sourceStepX,
+                                                                          rawCoord, targetData.get(i), targetIdx[i]);
+                    }
+                    pm.worked(1);
+                }
+            }
+            for (int i = 0; i < otherBandReaders.size(); i++) {
+                final BandReader bandReader = otherBandReaders.get(i);
+                final ProductData destBuffer = otherDestBuffers.get(i);
+                if (destOffset == 0) {
+                    bandReader.readBandRasterData(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                                  sourceStepX, sourceStepY, destBuffer, ProgressMonitor.NULL);
+                } else {
+                    final int numSamples = ((sourceWidth - 1) / sourceStepX + 1)
+                                           * ((sourceHeight - 1) / sourceStepY + 1);
+                    final ProductData buffer = ProductData.createInstance(bandReader.getDataType(), numSamples);
+                    bandReader.readBandRasterData(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                                  sourceStepX, sourceStepY, buffer, ProgressMonitor.NULL);
+                    System.arraycopy(buffer.getElems(), 0, destBuffer.getElems(), destOffset, numSamples);
+                }
+                pm.worked(1);
+            }
+        } finally {
+            pm.done();
+        }
+    }
+
+    /**
+     * Returns the width of the products with a given navigation sample rate.
+     *
+     * @param navSampleRate the navigation sample rate
+     * @return the product width, 0 if the navigation sample rate is not supported
+     */
+    static int getProductWidth(int navSampleRate) {
+        if (navSampleRate == LOW_PRECISION_SAMPLE_RATE) {
+            return LOW_PRECISION_PRODUCT_WIDTH;
+        } else if (navSampleRate == HIGH_PRECISION_SAMPLE_RATE) {
+            return HIGH_PRECISION_PRODUCT_WIDTH;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the radiance calibration record, which holds the constants of the calibrators
+     */
+    GiadrRadiance getGiadrRadiance() {
+        return giadrRadiance;
     }
 
     public int getNumNavPoints() {
@@ -294,8 +681,43 @@ class MetopFile extends AvhrrFile {
 
     @Override
     public float[][] getTiePointData() throws IOException {
+        return getTiePointData(0, numScanLines / getNavSampleRate());
+    }
+
+    /**
+     * Returns the tie-point data of a range of tie-point rows. Only the MDRs of these rows are read.
+     *
+     * @param minY the first tie-point row
+     * @param maxY the last tie-point row
+     * @return the tie-point data of the grids named by {@link #getTiePointNames()}
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public float[][] getTiePointData(int minY, int maxY) throws IOException {
+        if (index != null) {
+            // the index does not cover the tie-point rows added to a growing product
+            final int indexMaxY = index.getProductHeight() / getNavSampleRate();
+            if (maxY <= indexMaxY) {
+                return index.getTiePointData(minY * numNavPoints, (maxY - minY + 1) * numNavPoints);
+            }
+            if (minY <= indexMaxY) {
+                final float[][] indexData = index.getTiePointData(minY * numNavPoints,
+                                                                  (indexMaxY - minY + 1) * numNavPoints);
+                final float[][] addedData = readTiePointData(indexMaxY + 1, maxY);
+                final float[][] tiePointData = new float[indexData.length][];
+                for (int i = 0; i < tiePointData.length; i++) {
+                    tiePointData[i] = Arrays.copyOf(indexData[i], indexData[i].length + addedData[i].length);
+                    System.arraycopy(addedData[i], 0, tiePointData[i], indexData[i].length, addedData[i].length);
+                }
+                return tiePointData;
+            }
+        }
+        return readTiePointData(minY, maxY);
+    }
+
+    private float[][] readTiePointData(int minY, int maxY) throws IOException {
         final int navSampleRate = getNavSampleRate();
-        final int gridHeight = getProductHeight() / navSampleRate + 1;
+        final int gridHeight = maxY - minY + 1;
         final int numNavPoints = getNumNavPoints();
         final int numTiePoints = numNavPoints * gridHeight;
 
@@ -307,42 +729,167 @@ class MetopFile extends AvhrrFile {
         int[] rawLatLon = new int[numRawLatLon];
 
         int targetIndex = 0;
-        int targetIncr = 1;
-
-        for (int scanLine = 0; scanLine < getProductHeight(); scanLine += navSampleRate) {
-            final int scanLineOffset = getScanLineOffset(scanLine);
-            synchronized (inputStream) {
-                inputStream.seek(scanLineOffset + TIE_POINT_OFFSET);
-                inputStream.readFully(rawAngles, 0, numRawAngles);
-                inputStream.readFully(rawLatLon, 0, numRawLatLon);
-            }
-            for (int scanPoint = 0; scanPoint < numNavPoints; scanPoint++) {
-                tiePointData[0][targetIndex] = rawAngles[scanPoint * 4] * 1E-2f;
-                tiePointData[1][targetIndex] = rawAngles[scanPoint * 4 + 1] * 1E-2f;
-                tiePointData[2][targetIndex] = rawAngles[scanPoint * 4 + 2] * 1E-2f;
-                tiePointData[3][targetIndex] = rawAngles[scanPoint * 4 + 3] * 1E-2f;
 
-                tiePointData[4][targetIndex] = rawLatLon[scanPoint * 2] * 1E-4f;
-                tiePointData[5][targetIndex] = rawLatLon[scanPoint * 2 + 1] * 1E-4f;
-
-                targetIndex += targetIncr;
-            }
+        for (int scanLine = minY * navSampleRate; scanLine <= maxY * navSampleRate; scanLine += navSampleRate) {
+            readTiePoints(scanLine, rawAngles, rawLatLon, tiePointData, targetIndex);
+            targetIndex += numNavPoints;
         }
         return tiePointData;
     }
 
+    /**
+     * Reads the tie points of a single scan line. Every MDR holds the tie points of its scan line,
+     * not only the MDRs of the tie-point rows.
+     *
+     * @param rawY         the scan line
+     * @param rawAngles    a buffer for the raw angles of all tie points
+     * @param rawLatLon    a buffer for the raw latitudes and longitudes of all tie points
+     * @param tiePointData the tie-point data of the grids named by {@link #getTiePointNames()}
+     * @param targetIndex  the index of the first tie point within the tie-point data
+     * @throws IOException if an I/O error occurs
+     */
+    void readTiePoints(int rawY, short[] rawAngles, int[] rawLatLon, float[][] tiePointData, int targetIndex)
+            throws IOException {
+        final int numNavPoints = getNumNavPoints();
+        final ByteBuffer buffer = mdrAccess.read(getMdrOffset(rawY) + TIE_POINT_OFFSET,
+                                                 numNavPoints * 4 * 2 + numNavPoints * 2 * 4);
+        decodeTiePoints(buffer, 0, rawAngles, rawLatLon, tiePointData, targetIndex);
+    }
+
+    /**
+     * Decodes the tie points of a single MDR.
+     *
+     * @param buffer       the buffer holding the tie points
+     * @param offset       the offset of the tie points within the buffer
+     * @param rawAngles    a buffer for the raw angles of all tie points
+     * @param rawLatLon    a buffer for the raw latitudes and longitudes of all tie points
+     * @param tiePointData the tie-point data of the grids named by {@link #getTiePointNames()}
+     * @param targetIndex  the index of the first tie point within the tie-point data
+     */
+    void decodeTiePoints(ByteBuffer buffer, int offset, short[] rawAngles, int[] rawLatLon, float[][] tiePointData,
+                         int targetIndex) {
+        final int numNavPoints = getNumNavPoints();
+        buffer.position(offset);
+        buffer.asShortBuffer().get(rawAngles, 0, numNavPoints * 4);
+        buffer.position(offset + numNavPoints * 4 * 2);
+        buffer.asIntBuffer().get(rawLatLon, 0, numNavPoints * 2);
+        for (int scanPoint = 0; scanPoint < numNavPoints; scanPoint++) {
+            tiePointData[0][targetIndex] = rawAngles[scanPoint * 4] * 1E-2f;
+            tiePointData[1][targetIndex] = rawAngles[scanPoint * 4 + 1] * 1E-2f;
+            tiePointData[2][targetIndex] = rawAngles[scanPoint * 4 + 2] * 1E-2f;
+            tiePointData[3][targetIndex] = rawAngles[scanPoint * 4 + 3] * 1E-2f;
+
+            tiePointData[4][targetIndex] = rawLatLon[scanPoint * 2] * 1E-4f;
+            tiePointData[5][targetIndex] = rawLatLon[scanPoint * 2 + 1] * 1E-4f;
+
+            targetIndex++;
+        }
+    }
+
+    /**
+     * Returns the file position of the MDR of a scan line. Products holding several orbits
+     * exceed 2 GB, so the position is a {@code long}.
+     *
+     * @param rawY the scan line
+     * @return the file position of the MDR
+     */
+    long getMdrOffset(int rawY) {
+        return firstMdrOffset + (long) rawY * mdrSize; // 26660 MDR-1B size
+    }
+
+    /**
+     * Returns the file position of the MDR of a scan line, see {@link #getMdrOffset(int)}.
+     *
+     * @param rawY the scan line
+     * @return the file position of the MDR
+     * @throws IllegalStateException if the position is beyond 2 GB
+     */
     @Override
     public int getScanLineOffset(int rawY) {
-        return firstMdrOffset + (rawY * mdrSize); // 26660 MDR-1B size
+        final long offset = getMdrOffset(rawY);
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The MDR of scan line " + rawY + " is located beyond 2 GB.");
+        }
+        return (int) offset;
     }
 
+    /**
+     * Returns the position of the flags of a scan line within the stream read by the flag
+     * band reader. The stream holds a slot for the flags of each scan line, see
+     * {@link MdrImageInputStream}, so the position fits into an {@code int} for products
+     * of any size.
+     *
+     * @param rawY the scan line
+     * @return the position of the flags in the stream of the flag band reader
+     */
     @Override
     public int getFlagOffset(int rawY) {
-        int flagOffset = getScanLineOffset(rawY) + FLAG_OFFSET;
+        return MdrImageInputStream.getStreamPosition(rawY);
+    }
+
+    /**
+     * Returns the offset of the flags within an MDR.
+     *
+     * @return the offset in bytes
+     */
+    int getFlagRecordOffset() {
         if (numNavPoints == LOW_PRECISION_TIE_POINT_WIDTH) {
-            flagOffset = flagOffset - TIE_POINT_DIFFERENCE;
+            return FLAG_OFFSET - TIE_POINT_DIFFERENCE;
         }
-        return flagOffset;
+        return FLAG_OFFSET;
+    }
+
+    /**
+     * Returns the offset of the cloud information within an MDR.
+     *
+     * @return the offset in bytes
+     */
+    int getCloudInformationOffset() {
+        if (numNavPoints == LOW_PRECISION_TIE_POINT_WIDTH) {
+            return CLOUD_INFORMATION_OFFSET - TIE_POINT_DIFFERENCE;
+        }
+        return CLOUD_INFORMATION_OFFSET;
+    }
+
+    /**
+     * Returns the offset of the radiance of the first pixel of the product within an MDR.
+     *
+     * @param channel the channel
+     * @return the offset in bytes
+     */
+    int getRadianceRecordOffset(int channel) {
+        return RADIANCE_OFFSET + AvhrrConstants.RAW_SCENE_RASTER_WIDTH * AvhrrConstants.CH_DATASET_INDEXES[channel] * 2
+               + numTrimX * 2;
+    }
+
+    /**
+     * Returns the offset of the cloud information of the first pixel of the product within an MDR.
+     *
+     * @return the offset in bytes
+     */
+    int getCloudInformationRecordOffset() {
+        return getCloudInformationOffset() + numTrimX * 2;
+    }
+
+    /**
+     * Returns the offset of the frame indicator within an MDR.
+     *
+     * @return the offset in bytes
+     */
+    int getFrameIndicatorOffset() {
+        if (numNavPoints == LOW_PRECISION_TIE_POINT_WIDTH) {
+            return FRAME_INDICATOR_OFFSET - TIE_POINT_DIFFERENCE;
+        }
+        return FRAME_INDICATOR_OFFSET;
+    }
+
+    /**
+     * Returns the offset of the tie points within an MDR.
+     *
+     * @return the offset in bytes
+     */
+    int getTiePointOffset() {
+        return TIE_POINT_OFFSET;
     }
 
     @Override
@@ -355,78 +902,240 @@ class MetopFile extends AvhrrFile {
         return AvhrrConstants.TP_SUB_SAMPLING_X;
     }
 
-    int readFrameIndicator(int rawY) throws IOException {
-        int flagOffset = getScanLineOffset(rawY) + FRAME_INDICATOR_OFFSET + 1;
-        if (numNavPoints == LOW_PRECISION_TIE_POINT_WIDTH) {
-            flagOffset = flagOffset - TIE_POINT_DIFFERENCE;
+    /**
+     * Returns the number of scan lines of the product, which is the height of the product raster
+     * unless only a subset of the product is read.
+     *
+     * @return the number of scan lines
+     */
+    @Override
+    public int getNumScanLines() {
+        return numScanLines;
+    }
+
+    /**
+     * Sets the size of the product raster, when only a subset of the product is read. The raw
+     * coordinates are not affected, since the product reader framework adds the offset of the
+     * subset region to the source coordinates.
+     *
+     * @param width  the width of the subset
+     * @param height the height of the subset
+     */
+    void setProductSize(int width, int height) {
+        productWidth = width;
+        productHeight = height;
+    }
+
+    /**
+     * Returns the region of the product covering a lat/lon bounding box.
+     *
+     * @param latMin the minimum latitude
+     * @param latMax the maximum latitude
+     * @param lonMin the western longitude, if greater than {@code lonMax} the box crosses the date line
+     * @param lonMax the eastern longitude
+     * @return the region in raw coordinates, {@code null} if the product does not cover the box
+     * @throws IOException if an I/O error occurs
+     */
+    Rectangle getRegion(float latMin, float latMax, float lonMin, float lonMax) throws IOException {
+        return toRegion(getSpatialIndex().findTiePoints(latMin, latMax, lonMin, lonMax));
+    }
+
+    /**
+     * Returns the region of the product covering a polygon.
+     *
+     * @param polygonLat the latitudes of the polygon vertices
+     * @param polygonLon the longitudes of the polygon vertices
+     * @return the region in raw coordinates, {@code null} if the product does not cover the polygon
+     * @throws IOException if an I/O error occurs
+     */
+    Rectangle getRegion(float[] polygonLat, float[] polygonLon) throws IOException {
+        return toRegion(getSpatialIndex().findTiePoints(polygonLat, polygonLon));
+    }
+
+    private synchronized TiePointSpatialIndex getSpatialIndex() throws IOException {
+        final int gridHeight = numScanLines / getNavSampleRate() + 1;
+        if (spatialIndex == null) {
+            final float[][] tiePointData = getTiePointData();
+            spatialIndex = new TiePointSpatialIndex(tiePointData[4], tiePointData[5], numNavPoints, gridHeight,
+                                                    TiePointSpatialIndex.DEFAULT_SEGMENT_HEIGHT);
+        } else if (spatialIndex.getGridHeight() < gridHeight) {
+            // the tie-point rows added to a growing product
+            final float[][] tiePointData = getTiePointData(spatialIndex.getGridHeight(), gridHeight - 1);
+            spatialIndex = spatialIndex.append(tiePointData[4], tiePointData[5],
+                                               gridHeight - spatialIndex.getGridHeight());
         }
-        byte flag;
-        synchronized (inputStream) {
-            inputStream.seek(flagOffset);
-            flag = inputStream.readByte();
+        return spatialIndex;
+    }
+
+    // the tie points are located at the centres of the pixels of every n-th column and scan line
+    private Rectangle toRegion(int[] tiePointRange) {
+        if (tiePointRange == null) {
+            return null;
         }
-        return flag;
+        final int navSampleRate = getNavSampleRate();
+        final int minX = tiePointRange[0] * navSampleRate;
+        final int maxX = Math.min(tiePointRange[1] * navSampleRate, productWidth - 1);
+        final int minY = tiePointRange[2] * navSampleRate;
+        final int maxY = Math.min(tiePointRange[3] * navSampleRate, numScanLines - 1);
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
     }
 
-    public static boolean canOpenFile(File file) throws IOException {
-        ImageInputStream inputStream = new FileImageInputStream(file);
-        try {
-            GenericRecordHeader mphrHeader = new GenericRecordHeader();
-            boolean correct = mphrHeader.readGenericRecordHeader(inputStream);
-            // check for MPHR
-            if (!correct
-                    || mphrHeader.recordClass != GenericRecordHeader.RecordClass.MPHR
-                    || mphrHeader.instrumentGroup != GenericRecordHeader.InstrumentGroup.GENERIC
-                    || mphrHeader.recordSubclass != 0) {
-                return false;
+    /**
+     * Tells whether channel 3A or channel 3B has been measured for a scan line. The channel 3A/3B
+     * state of all scan lines is read when this method is called for the first time, and for the
+     * scan lines added to a growing product when it is called for one of them.
+     *
+     * @param rawY the raw scan line
+     * @return {@code true} if channel 3A has been measured, {@code false} if channel 3B has been measured
+     * @throws IOException if an I/O error occurs
+     */
+    boolean isChannel3a(int rawY) throws IOException {
+        // the state is published before the number of covered scan lines
+        if (rawY >= numChannel3aLines) {
+            return getChannel3aLines().get(rawY);
+        }
+        return channel3aLines.get(rawY);
+    }
+
+    private synchronized BitSet getChannel3aLines() throws IOException {
+        final int oldCount = numChannel3aLines;
+        final int count = numCompletedScanLines;
+        if (oldCount < count) {
+            // the published state may be tested concurrently, so that a copy is extended
+            final BitSet channel3aLines = oldCount == 0 ? new BitSet(count) : (BitSet) this.channel3aLines.clone();
+            for (int rawY = oldCount; rawY < count; rawY++) {
+                channel3aLines.set(rawY, readChannel3a(rawY));
             }
+            this.channel3aLines = channel3aLines;
+            numChannel3aLines = count;
+        }
+        return channel3aLines;
+    }
 
-            inputStream.seek(mphrHeader.recordSize);
-            GenericRecordHeader sphrHeader = new GenericRecordHeader();
-            correct = sphrHeader.readGenericRecordHeader(inputStream);
+    /**
+     * Returns the start times of all scan lines. The times are read from the GRH of each MDR
+     * when this method is called for the first time, and for the scan lines added to a growing
+     * product when it is called again.
+     *
+     * @return the start times in milliseconds since 2000-01-01, indexed by the raw scan line.
+     *         The array is shared and must not be modified.
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized long[] getScanLineStartTimes() throws IOException {
+        if (scanLineStartTimes == null) {
+            if (index != null) {
+                scanLineStartTimes = index.getScanLineStartTimes();
+            } else {
+                scanLineStartTimes = readScanLineStartTimes(new long[0]);
+            }
+        }
+        if (scanLineStartTimes.length < numScanLines) {
+            scanLineStartTimes = readScanLineStartTimes(scanLineStartTimes);
+        }
+        return scanLineStartTimes;
+    }
 
-            // check for SPHR and AVHRR/3
-            if (correct
-                    && sphrHeader.recordClass == GenericRecordHeader.RecordClass.SPHR
-                    && sphrHeader.instrumentGroup == GenericRecordHeader.InstrumentGroup.AVHRR_3
-                    && sphrHeader.recordSubclass == 0) {
-                return true;
+    /**
+     * Returns the range of raw scan lines which have been measured within a time window. A scan
+     * line is measured within the window if its measurement interval, from its start time to the
+     * start time of the next scan line, overlaps the window.
+     *
+     * @param startTime the start of the time window
+     * @param endTime   the end of the time window
+     * @return the first and the last raw scan line, or {@code null} if no scan line has been measured
+     *         within the time window
+     * @throws IOException if an I/O error occurs
+     */
+    int[] getScanLineRange(UTC startTime, UTC endTime) throws IOException {
+        final long[] times = getScanLineStartTimes();
+        final long windowStart = toMillis(startTime);
+        final long windowEnd = toMillis(endTime);
+        if (windowEnd < windowStart || windowEnd < times[0] || windowStart > toMillis(this.endTime)) {
+            return null;
+        }
+        final int minY = Math.max(0, countScanLinesStartedUntil(times, windowStart) - 1);
+        final int maxY = countScanLinesStartedUntil(times, windowEnd) - 1;
+        return new int[]{minY, maxY};
+    }
+
+    // reads the start times of the scan lines following the given times, which are kept
+    private long[] readScanLineStartTimes(long[] previousTimes) throws IOException {
+        final long[] times = Arrays.copyOf(previousTimes, numScanLines);
+        final GenericRecordHeader grh = new GenericRecordHeader();
+        for (int rawY = previousTimes.length; rawY < numScanLines; rawY++) {
+            final boolean correct = grh.readGenericRecordHeader(mdrAccess.read(getMdrOffset(rawY),
+                                                                               GenericRecordHeader.SIZE));
+            if (!correct) {
+                throw new IOException("Bad GRH in MDR of scan line " + rawY + ".");
+            }
+            times[rawY] = toMillis(grh.recordStartTime);
+        }
+        return times;
+    }
+
+    // binary search for the number of scan lines starting not later than the given time
+    private static int countScanLinesStartedUntil(long[] times, long time) {
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
-        } finally {
-            inputStream.close();
         }
-        return false;
+        return low;
+    }
+
+    // returns the milliseconds since 2000-01-01, the epoch of the MDR times
+    static long toMillis(UTC time) {
+        return time.getDaysFraction() * MILLIS_PER_DAY + time.getSecondsFraction() * 1000L
+                + time.getMicroSecondsFraction() / 1000;
+    }
+
+    /**
+     * Reads the channel 3A/3B state of a single scan line from the byte of its frame indicator
+     * which holds the state. The state of the other scan lines is not read.
+     *
+     * @param rawY the raw scan line
+     * @return {@code true} if channel 3A has been measured, {@code false} if channel 3B has been measured
+     * @throws IOException if an I/O error occurs
+     */
+    boolean readChannel3a(int rawY) throws IOException {
+        return (mdrAccess.read(getMdrOffset(rawY) + getFrameIndicatorOffset() + 1, 1).get(0) & 1) == 1;
+    }
+
+    public static boolean canOpenFile(File file) throws IOException {
+        return MetopFileProbe.probe(file).isMetopProduct();
     }
 
+    // only the first and the last scan line are read, the state of all scan lines is read on first use
     private void analyzeFrameIndicator() throws IOException {
-        final int first = readFrameIndicator(0);
-        final int last = readFrameIndicator(getProductHeight() - 1);
+        setChannel3ab(readChannel3a(0), readChannel3a(getProductHeight() - 1));
+    }
 
-        final int firstChannel3ab = first & 1;
-        final int lastChannel3ab = last & 1;
-        if (firstChannel3ab == 1 && lastChannel3ab == 1) {
+    private void setChannel3ab(boolean firstChannel3a, boolean lastChannel3a) {
+        if (firstChannel3a && lastChannel3a) {
             channel3ab = AvhrrConstants.CH_3A;
-        } else if (firstChannel3ab == 0 && lastChannel3ab == 0) {
+        } else if (!firstChannel3a && !lastChannel3a) {
             channel3ab = AvhrrConstants.CH_3B;
         } else {
             channel3ab = -1;
         }
     }
 
-    private int checkMdrs(int navSampleRate) throws IOException {
+    private int checkMdrs(HeaderBlock headerBlock, int navSampleRate) throws IOException {
         GenericRecordHeader firstMdr = new GenericRecordHeader();
-        synchronized (inputStream) {
-            inputStream.seek(firstMdrOffset);
-            boolean correct = firstMdr.readGenericRecordHeader(inputStream);
-            if (!correct) {
-                throw new IllegalArgumentException("Bad GRH in first MDR.");
-            }
+        boolean correct = firstMdr.readGenericRecordHeader(headerBlock.getRecord(firstMdrOffset, GenericRecordHeader.SIZE));
+        if (!correct) {
+            throw new IllegalArgumentException("Bad GRH in first MDR.");
         }
         startTime = firstMdr.recordStartTime;
         mdrSize = (int) firstMdr.recordSize;
 
         final long fileSize = inputStream.length();
-        final long expectedFileSize = firstMdrOffset + (productHeight * mdrSize);
+        final long expectedFileSize = firstMdrOffset + (long) productHeight * mdrSize;
         if (fileSize != expectedFileSize) {
             productHeight = (int) ((fileSize - firstMdrOffset) / mdrSize);
         }
@@ -437,8 +1146,8 @@ class MetopFile extends AvhrrFile {
         productHeight = productHeight - toSkip;
         GenericRecordHeader lastMdr = new GenericRecordHeader();
         synchronized (inputStream) {
-            inputStream.seek(firstMdrOffset + ((productHeight - 1) * mdrSize));
-            boolean correct = lastMdr.readGenericRecordHeader(inputStream);
+            inputStream.seek(getMdrOffset(productHeight - 1));
+            correct = lastMdr.readGenericRecordHeader(inputStream);
             if (!correct) {
                 throw new IllegalArgumentException("Bad GRH in last MDR.");
             }
@@ -448,6 +1157,40 @@ class MetopFile extends AvhrrFile {
         return toSkip;
     }
 
+    private MdrAccess createMdrAccess() throws IOException {
+        if (file == null) {
+            return new StreamMdrAccess(inputStream);
+        }
+        // the MDRs following the last tie-point row are mapped for the scan line readers
+        final long mdrAreaSize = (long) (productHeight + numTrimBottom) * mdrSize;
+        if (Boolean.getBoolean(USE_MEMORY_MAPPING_PROPERTY)) {
+            return new MappedMdrAccess(fileChannel, firstMdrOffset, mdrAreaSize, mdrSize);
+        }
+        return new ChannelMdrAccess(file);
+    }
+
+    private MdrAccess createBandMdrAccess(MdrAccess mdrAccess) {
+        final long cacheSize = Long.getLong(MDR_CACHE_SIZE_PROPERTY, DEFAULT_MDR_CACHE_SIZE) * 1024 * 1024;
+        if (cacheSize <= 0 || mdrAccess instanceof MappedMdrAccess) {
+            // mapped records are already cached by the operating system
+            return mdrAccess;
+        }
+        return new CachedMdrAccess(mdrAccess, firstMdrOffset, mdrSize, productHeight, cacheSize);
+    }
+
+    /**
+     * Returns the access to the MDRs, which does not cache the records.
+     *
+     * @return the access to the MDRs
+     */
+    MdrAccess getMdrAccess() {
+        return mdrAccess;
+    }
+
+    MdrAccess getBandMdrAccess() {
+        return bandMdrAccess;
+    }
+
     @Override
     public RawCoordinates getRawCoordinates(int sourceOffsetX,
                                             int sourceOffsetY, int sourceWidth, int sourceHeight) {
@@ -475,9 +1218,21 @@ class MetopFile extends AvhrrFile {
 
     @Override
     public void dispose() throws IOException {
+        index = null;
+        scanLineStartTimes = null;
+        spatialIndex = null;
+        if (bandMdrAccess != null) {
+            bandMdrAccess.close();
+            bandMdrAccess = null;
+        }
+        if (mdrAccess != null) {
+            mdrAccess.close();
+            mdrAccess = null;
+        }
         if (inputStream != null) {
             inputStream.close();
             inputStream = null;
+            fileChannel = null;
         }
     }
 
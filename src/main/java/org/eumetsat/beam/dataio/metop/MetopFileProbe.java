@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The result of probing a file for a METOP-AVHRR/3 Level-1b product.
+ * <p/>
+ * A probe reads a single block from the start of the file and checks the GRHs of the
+ * MPHR and the SPHR in memory. Probes are cached by the path, the size and the time of
+ * last modification of the file. The block read by the probe is kept, so that reading
+ * the header records of the product does not read them again.
+ */
+final class MetopFileProbe {
+
+    static final int BLOCK_SIZE = 8192;
+
+    static final int MAX_NUM_PROBES = 1024;
+
+    private static final MetopFileProbe NO_METOP_PRODUCT = new MetopFileProbe(null, 0);
+
+    private static final Map<Key, MetopFileProbe> PROBES = new LinkedHashMap<Key, MetopFileProbe>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, MetopFileProbe> eldest) {
+            return size() > MAX_NUM_PROBES;
+        }
+    };
+
+    private final byte[] block;
+    private final int productHeadersSize;
+
+    private MetopFileProbe(byte[] block, int productHeadersSize) {
+        this.block = block;
+        this.productHeadersSize = productHeadersSize;
+    }
+
+    /**
+     * Returns the probe of a file, which is read if the file has not been probed before or
+     * has been modified since.
+     *
+     * @param file the file
+     * @return the probe
+     * @throws IOException if an I/O error occurs
+     */
+    static MetopFileProbe probe(File file) throws IOException {
+        if (!file.isFile()) {
+            return NO_METOP_PRODUCT;
+        }
+        final Key key = new Key(file);
+        synchronized (PROBES) {
+            final MetopFileProbe probe = PROBES.get(key);
+            if (probe != null) {
+                return probe;
+            }
+        }
+        final MetopFileProbe probe = read(file);
+        synchronized (PROBES) {
+            PROBES.put(key, probe);
+        }
+        return probe;
+    }
+
+    /**
+     * Reads the probe of a file without using the cache.
+     *
+     * @param file the file
+     * @return the probe
+     * @throws IOException if an I/O error occurs
+     */
+    static MetopFileProbe read(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final byte[] block = new byte[(int) Math.min(BLOCK_SIZE, randomAccessFile.length())];
+            randomAccessFile.readFully(block);
+            if (block.length < GenericRecordHeader.SIZE) {
+                return NO_METOP_PRODUCT;
+            }
+            final GenericRecordHeader mphrHeader = new GenericRecordHeader();
+            boolean correct = mphrHeader.readGenericRecordHeader(ByteBuffer.wrap(block));
+            if (!correct
+                    || mphrHeader.recordClass != GenericRecordHeader.RecordClass.MPHR
+                    || mphrHeader.instrumentGroup != GenericRecordHeader.InstrumentGroup.GENERIC
+                    || mphrHeader.recordSubclass != 0) {
+                return NO_METOP_PRODUCT;
+            }
+
+            final long sphrOffset = mphrHeader.recordSize;
+            final ByteBuffer sphrBuffer;
+            if (sphrOffset + GenericRecordHeader.SIZE <= block.length) {
+                sphrBuffer = ByteBuffer.wrap(block, (int) sphrOffset, GenericRecordHeader.SIZE);
+            } else if (sphrOffset + GenericRecordHeader.SIZE <= randomAccessFile.length()) {
+                final byte[] bytes = new byte[GenericRecordHeader.SIZE];
+                randomAccessFile.seek(sphrOffset);
+                randomAccessFile.readFully(bytes);
+                sphrBuffer = ByteBuffer.wrap(bytes);
+            } else {
+                return NO_METOP_PRODUCT;
+            }
+            final GenericRecordHeader sphrHeader = new GenericRecordHeader();
+            correct = sphrHeader.readGenericRecordHeader(sphrBuffer);
+            // check for SPHR and AVHRR/3
+            if (!correct
+                    || sphrHeader.recordClass != GenericRecordHeader.RecordClass.SPHR
+                    || sphrHeader.instrumentGroup != GenericRecordHeader.InstrumentGroup.AVHRR_3
+                    || sphrHeader.recordSubclass != 0) {
+                return NO_METOP_PRODUCT;
+            }
+
+            return new MetopFileProbe(block, (int) (sphrOffset + sphrHeader.recordSize));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    boolean isMetopProduct() {
+        return block != null;
+    }
+
+    /**
+     * Returns the block read from the start of the file. The array is shared and must
+     * not be modified.
+     *
+     * @return the block, or {@code null} if the file is not a METOP product
+     */
+    byte[] getBlock() {
+        return block;
+    }
+
+    /**
+     * @return the size of the MPHR and the SPHR, 0 if the file is not a METOP product
+     */
+    int getProductHeadersSize() {
+        return productHeadersSize;
+    }
+
+    private static final class Key {
+
+        private final String path;
+        private final long length;
+        private final long lastModified;
+
+        private Key(File file) {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return length == other.length && lastModified == other.lastModified && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (length ^ (length >>> 32));
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+    }
+}
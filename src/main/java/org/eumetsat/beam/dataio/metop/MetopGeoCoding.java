@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.dataio.ProductSubsetDef;
+import org.esa.beam.framework.datamodel.AbstractGeoCoding;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.datamodel.Scene;
+import org.esa.beam.framework.datamodel.TiePointGeoCoding;
+import org.esa.beam.framework.datamodel.TiePointGrid;
+import org.esa.beam.framework.dataop.maptransf.Datum;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The geo-coding of METOP-AVHRR/3 products, which interpolates the tie points to full resolution
+ * tile by tile.
+ * <p/>
+ * A tile holds the values of a single tie-point cell. The tiles needed for a region are interpolated
+ * in parallel, with weights which are computed once for the sampling rate of the tie points, and are
+ * kept in the {@link GeolocationCache} shared by all products opened from the same file. Besides the
+ * geographic position of a pixel centre, the full-resolution values of every tie-point grid of the
+ * product can be obtained for a region. Positions which are not pixel centres are located by the
+ * interpolation of a {@link TiePointGeoCoding}, which is created on first use, since it reads the
+ * tie points when it is created.
+ * <p/>
+ * Single pixel centres are taken from the tile last used for each variable, and are interpolated
+ * individually if their tile cannot be cached.
+ * <p/>
+ * Pixel positions are found by an {@link InverseGeolocationIndex} of the tie-point cells, which is
+ * built on the first inverse lookup. No tie points are read before the geo-coding is used.
+ */
+public class MetopGeoCoding extends AbstractGeoCoding {
+
+    private static ExecutorService executor;
+
+    private final TiePointGrid latGrid;
+    private final TiePointGrid lonGrid;
+    private final Datum datum;
+    private final TiePointGridLoader loader;
+    private final String[] variableNames;
+    private final int latIndex;
+    private final int lonIndex;
+    private final String fileKey;
+    private final Rectangle subsetRegion;
+    private final int subSamplingX;
+    private final int subSamplingY;
+    private final int sampleRate;
+    private final int numCellsX;
+    private final int numCellsY;
+    private final float[] weights;
+    private final GeolocationCache cache;
+    // the tile of each variable last used for a single pixel, which is immutable and may be shared racily
+    private final Tile[] lastTiles;
+    private volatile InverseGeolocationIndex inverseIndex;
+    private volatile TiePointGeoCoding tiePointGeoCoding;
+
+    /**
+     * Creates the geo-coding.
+     *
+     * @param latGrid       the latitude tie-point grid
+     * @param lonGrid       the longitude tie-point grid
+     * @param datum         the datum
+     * @param loader        the loader of the tie points of the product
+     * @param variableNames the names of the tie-point grids, indexed like the grids of the loader
+     * @param fileKey       the key of the product file, see {@link GeolocationCache#getFileKey(java.io.File)}
+     * @param subsetRegion  the subset region of the product in raw coordinates
+     * @param subSamplingX  the sub-sampling of the subset in x direction
+     * @param subSamplingY  the sub-sampling of the subset in y direction
+     */
+    MetopGeoCoding(TiePointGrid latGrid, TiePointGrid lonGrid, Datum datum, TiePointGridLoader loader,
+                   String[] variableNames, String fileKey, Rectangle subsetRegion, int subSamplingX,
+                   int subSamplingY) {
+        this.latGrid = latGrid;
+        this.lonGrid = lonGrid;
+        this.datum = datum;
+        this.loader = loader;
+        this.variableNames = variableNames.clone();
+        this.latIndex = getVariableIndex(latGrid.getName());
+        this.lonIndex = getVariableIndex(lonGrid.getName());
+        this.fileKey = fileKey;
+        this.subsetRegion = new Rectangle(subsetRegion);
+        this.subSamplingX = subSamplingX;
+        this.subSamplingY = subSamplingY;
+        this.sampleRate = loader.getSampleRate();
+        this.numCellsX = loader.getFullGridWidth() - 1;
+        this.numCellsY = loader.getFullGridHeight() - 1;
+        this.weights = new float[sampleRate + 1];
+        for (int i = 0; i <= sampleRate; i++) {
+            weights[i] = (float) i / sampleRate;
+        }
+        this.cache = GeolocationCache.getSharedInstance();
+        this.lastTiles = new Tile[this.variableNames.length];
+    }
+
+    /**
+     * Returns the geographic position of a pixel. The position of a pixel centre is taken from the
+     * full-resolution geolocation.
+     */
+    @Override
+    public GeoPos getGeoPos(PixelPos pixelPos, GeoPos geoPos) {
+        final int x = (int) Math.floor(pixelPos.x);
+        final int y = (int) Math.floor(pixelPos.y);
+        if (pixelPos.x - x == 0.5f && pixelPos.y - y == 0.5f && x >= 0 && y >= 0
+                && x < getWidth() && y < getHeight()) {
+            try {
+                final float lat = getPixel(latIndex, x, y);
+                final float lon = getPixel(lonIndex, x, y);
+                if (geoPos == null) {
+                    geoPos = new GeoPos();
+                }
+                geoPos.setLocation(lat, lon);
+                return geoPos;
+            } catch (IOException ignored) {
+                // the tie-point interpolation is used instead
+            }
+        }
+        return getTiePointGeoCoding().getGeoPos(pixelPos, geoPos);
+    }
+
+    /**
+     * Returns the pixel position of a geographic location, which is found in the inverse geolocation
+     * index of the tie points. The pixel position is invalid, if the location is not within the product.
+     */
+    @Override
+    public PixelPos getPixelPos(GeoPos geoPos, PixelPos pixelPos) {
+        if (pixelPos == null) {
+            pixelPos = new PixelPos();
+        }
+        final InverseGeolocationIndex index;
+        try {
+            index = getInverseIndex();
+        } catch (IOException ignored) {
+            return getTiePointGeoCoding().getPixelPos(geoPos, pixelPos);
+        }
+        final double[] position = new double[2];
+        if (index.findPosition(geoPos.lat, geoPos.lon, position)) {
+            // the tie points are located at the centres of the raw pixels
+            final double rawX = (loader.getMinX() + position[0]) * sampleRate;
+            final double rawY = (loader.getMinY() + position[1]) * sampleRate;
+            final double x = (rawX - subsetRegion.x) / subSamplingX + 0.5;
+            final double y = (rawY - subsetRegion.y) / subSamplingY + 0.5;
+            if (x >= 0.0 && y >= 0.0 && x < getWidth() && y < getHeight()) {
+                pixelPos.setLocation((float) x, (float) y);
+                return pixelPos;
+            }
+        }
+        pixelPos.setInvalid();
+        return pixelPos;
+    }
+
+    @Override
+    public boolean isCrossingMeridianAt180() {
+        return getTiePointGeoCoding().isCrossingMeridianAt180();
+    }
+
+    @Override
+    public boolean canGetGeoPos() {
+        return true;
+    }
+
+    @Override
+    public boolean canGetPixelPos() {
+        return true;
+    }
+
+    @Override
+    public Datum getDatum() {
+        return datum;
+    }
+
+    /**
+     * Transfers the geo-coding to a subset of the product as a {@link TiePointGeoCoding} of the tie-point
+     * grids of the subset.
+     */
+    @Override
+    public boolean transferGeoCoding(Scene srcScene, Scene destScene, ProductSubsetDef subsetDef) {
+        return getTiePointGeoCoding().transferGeoCoding(srcScene, destScene, subsetDef);
+    }
+
+    @Override
+    public void dispose() {
+        final TiePointGeoCoding geoCoding = tiePointGeoCoding;
+        if (geoCoding != null) {
+            geoCoding.dispose();
+        }
+    }
+
+    /**
+     * Returns the geographic positions of the pixel centres of a region of the product.
+     *
+     * @param region     the region of the product
+     * @param latitudes  the array receiving the latitudes or {@code null}
+     * @param longitudes the array receiving the longitudes or {@code null}
+     * @throws IOException if the tie points cannot be read
+     */
+    public void getGeoPositions(Rectangle region, float[] latitudes, float[] longitudes) throws IOException {
+        getPixels(variableNames[latIndex], region, latitudes);
+        getPixels(variableNames[lonIndex], region, longitudes);
+    }
+
+    /**
+     * Returns the values of a tie-point grid of the product interpolated to the pixel centres of a
+     * region of the product.
+     *
+     * @param tiePointGridName the name of the tie-point grid
+     * @param region           the region of the product
+     * @param pixels           the array receiving the values or {@code null}
+     * @return the values
+     * @throws IOException if the tie points cannot be read
+     */
+    public float[] getPixels(String tiePointGridName, Rectangle region, float[] pixels) throws IOException {
+        final int variable = getVariableIndex(tiePointGridName);
+        if (variable < 0) {
+            throw new IllegalArgumentException("Unknown tie-point grid '" + tiePointGridName + "'.");
+        }
+        if (region.x < 0 || region.y < 0 || region.isEmpty()
+                || region.x + region.width > getWidth() || region.y + region.height > getHeight()) {
+            throw new IllegalArgumentException("The region " + region + " is not within the product.");
+        }
+        if (pixels == null) {
+            pixels = new float[region.width * region.height];
+        }
+
+        // the cells and the positions within the cells are computed once for all lines
+        final int[] cellXs = new int[region.width];
+        final int[] tileXs = new int[region.width];
+        for (int i = 0; i < region.width; i++) {
+            final int rawX = subsetRegion.x + (region.x + i) * subSamplingX;
+            cellXs[i] = getCellX(rawX);
+            tileXs[i] = rawX - cellXs[i] * sampleRate;
+        }
+        final int minCellX = cellXs[0];
+        final int minCellY = getCellY(subsetRegion.y + region.y * subSamplingY);
+        final int maxCellY = getCellY(subsetRegion.y + (region.y + region.height - 1) * subSamplingY);
+        final float[][][] tiles = getTiles(variable, minCellX, cellXs[region.width - 1], minCellY, maxCellY);
+
+        for (int j = 0; j < region.height; j++) {
+            final int rawY = subsetRegion.y + (region.y + j) * subSamplingY;
+            final int cellY = getCellY(rawY);
+            final int tileY = rawY - cellY * sampleRate;
+            final float[][] tileRow = tiles[cellY - minCellY];
+            final int lineOffset = j * region.width;
+            for (int i = 0; i < region.width; ) {
+                final int cellX = cellXs[i];
+                final float[] tile = tileRow[cellX - minCellX];
+                final int tileWidth = getTileWidth(cellX);
+                final int tileOffset = tileY * tileWidth;
+                if (subSamplingX == 1) {
+                    final int length = Math.min(tileWidth - tileXs[i], region.width - i);
+                    System.arraycopy(tile, tileOffset + tileXs[i], pixels, lineOffset + i, length);
+                    i += length;
+                } else {
+                    pixels[lineOffset + i] = tile[tileOffset + tileXs[i]];
+                    i++;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private InverseGeolocationIndex getInverseIndex() throws IOException {
+        InverseGeolocationIndex index = inverseIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = inverseIndex;
+                if (index == null) {
+                    // half a pixel beyond the outermost tie points belongs to the product
+                    index = new InverseGeolocationIndex(loader.getTiePoints(latIndex), loader.getTiePoints(lonIndex),
+                                                        loader.getWidth(), loader.getHeight(), 0.5 / sampleRate);
+                    inverseIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private TiePointGeoCoding getTiePointGeoCoding() {
+        TiePointGeoCoding geoCoding = tiePointGeoCoding;
+        if (geoCoding == null) {
+            synchronized (this) {
+                geoCoding = tiePointGeoCoding;
+                if (geoCoding == null) {
+                    geoCoding = new TiePointGeoCoding(latGrid, lonGrid, datum);
+                    tiePointGeoCoding = geoCoding;
+                }
+            }
+        }
+        return geoCoding;
+    }
+
+    private float getPixel(int variable, int x, int y) throws IOException {
+        final int rawX = subsetRegion.x + x * subSamplingX;
+        final int rawY = subsetRegion.y + y * subSamplingY;
+        final int cellX = getCellX(rawX);
+        final int cellY = getCellY(rawY);
+        final int tileX = rawX - cellX * sampleRate;
+        final int tileY = rawY - cellY * sampleRate;
+        Tile tile = lastTiles[variable];
+        if (tile == null || tile.cellX != cellX || tile.cellY != cellY) {
+            float[] values = cache.get(fileKey, variable, cellX, cellY);
+            if (values == null) {
+                if (!cache.canCache(getTileWidth(cellX) * getTileHeight(cellY))) {
+                    return interpolate(variable, cellX, cellY, tileX, tileY);
+                }
+                values = computeTile(variable, cellX, cellY);
+                cache.put(fileKey, variable, cellX, cellY, values);
+            }
+            tile = new Tile(cellX, cellY, values);
+            lastTiles[variable] = tile;
+        }
+        return tile.values[tileY * getTileWidth(cellX) + tileX];
+    }
+
+    private float[][][] getTiles(int variable, int minCellX, int maxCellX, int minCellY,
+                                 int maxCellY) throws IOException {
+        final float[][][] tiles = new float[maxCellY - minCellY + 1][][];
+        final List<TileRowTask> tasks = new ArrayList<TileRowTask>();
+        for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+            final float[][] tileRow = new float[maxCellX - minCellX + 1][];
+            boolean complete = true;
+            for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+                tileRow[cellX - minCellX] = cache.get(fileKey, variable, cellX, cellY);
+                complete &= tileRow[cellX - minCellX] != null;
+            }
+            if (!complete) {
+                tasks.add(new TileRowTask(variable, minCellX, cellY, tileRow));
+            }
+            tiles[cellY - minCellY] = tileRow;
+        }
+        if (tasks.size() == 1) {
+            tasks.get(0).computeTiles();
+        } else if (!tasks.isEmpty()) {
+            invokeAll(tasks);
+        }
+        return tiles;
+    }
+
+    private float[] computeTile(int variable, int cellX, int cellY) throws IOException {
+        final float[] corners = getCorners(variable, cellX, cellY);
+        final float v00 = corners[0];
+        final float v10 = corners[1];
+        final float v01 = corners[2];
+        final float v11 = corners[3];
+
+        final int tileWidth = getTileWidth(cellX);
+        final int tileHeight = getTileHeight(cellY);
+        final float[] tile = new float[tileWidth * tileHeight];
+        for (int y = 0; y < tileHeight; y++) {
+            final float wy = weights[y];
+            final float left = v00 + wy * (v01 - v00);
+            final float right = v10 + wy * (v11 - v10);
+            final float dx = right - left;
+            final int offset = y * tileWidth;
+            for (int x = 0; x < tileWidth; x++) {
+                tile[offset + x] = left + weights[x] * dx;
+            }
+        }
+        if (variable == lonIndex) {
+            for (int i = 0; i < tile.length; i++) {
+                tile[i] = normalizeLon(tile[i]);
+            }
+        }
+        return tile;
+    }
+
+    // interpolates a single value of a tile exactly like computeTile(), when the tile cannot be cached
+    private float interpolate(int variable, int cellX, int cellY, int tileX, int tileY) throws IOException {
+        final float[] corners = getCorners(variable, cellX, cellY);
+        final float wy = weights[tileY];
+        final float left = corners[0] + wy * (corners[2] - corners[0]);
+        final float right = corners[1] + wy * (corners[3] - corners[1]);
+        final float value = left + weights[tileX] * (right - left);
+        return variable == lonIndex ? normalizeLon(value) : value;
+    }
+
+    // returns the tie points at the upper left, upper right, lower left and lower right corners of a cell
+    private float[] getCorners(int variable, int cellX, int cellY) throws IOException {
+        final float[] tiePoints = loader.getTiePoints(variable);
+        final int gridWidth = loader.getWidth();
+        final int index = (cellY - loader.getMinY()) * gridWidth + cellX - loader.getMinX();
+        final float v00 = tiePoints[index];
+        final float[] corners = {v00, tiePoints[index + 1], tiePoints[index + gridWidth],
+                tiePoints[index + gridWidth + 1]};
+        if (variable == lonIndex) {
+            // the longitudes are interpolated across the date line
+            for (int i = 1; i < corners.length; i++) {
+                corners[i] = v00 + wrapLon(corners[i] - v00);
+            }
+        }
+        return corners;
+    }
+
+    private int getVariableIndex(String name) {
+        for (int i = 0; i < variableNames.length; i++) {
+            if (variableNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getWidth() {
+        return (subsetRegion.width - 1) / subSamplingX + 1;
+    }
+
+    private int getHeight() {
+        return (subsetRegion.height - 1) / subSamplingY + 1;
+    }
+
+    // the last cell of a row or column includes the pixels at the last tie points
+    private int getCellX(int rawX) {
+        return Math.min(rawX / sampleRate, numCellsX - 1);
+    }
+
+    private int getCellY(int rawY) {
+        return Math.min(rawY / sampleRate, numCellsY - 1);
+    }
+
+    private int getTileWidth(int cellX) {
+        return cellX == numCellsX - 1 ? sampleRate + 1 : sampleRate;
+    }
+
+    private int getTileHeight(int cellY) {
+        return cellY == numCellsY - 1 ? sampleRate + 1 : sampleRate;
+    }
+
+    private static float normalizeLon(float lon) {
+        if (lon >= 180.0f) {
+            return lon - 360.0f;
+        } else if (lon < -180.0f) {
+            return lon + 360.0f;
+        }
+        return lon;
+    }
+
+    private static float wrapLon(float deltaLon) {
+        if (deltaLon > 180.0f) {
+            return deltaLon - 360.0f;
+        } else if (deltaLon < -180.0f) {
+            return deltaLon + 360.0f;
+        }
+        return deltaLon;
+    }
+
+    private static void invokeAll(List<? extends Callable<Void>> tasks) throws IOException {
+        final List<Future<Void>> futures;
+        try {
+            futures = getExecutor().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while interpolating the tie points.", e);
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while interpolating the tie points.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final int numThreads = Runtime.getRuntime().availableProcessors();
+            executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "METOP geolocation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    // computes the missing tiles of a row of tie-point cells
+    private class TileRowTask implements Callable<Void> {
+
+        private final int variable;
+        private final int minCellX;
+        private final int cellY;
+        private final float[][] tileRow;
+
+        TileRowTask(int variable, int minCellX, int cellY, float[][] tileRow) {
+            this.variable = variable;
+            this.minCellX = minCellX;
+            this.cellY = cellY;
+            this.tileRow = tileRow;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            computeTiles();
+            return null;
+        }
+
+        void computeTiles() throws IOException {
+            for (int i = 0; i < tileRow.length; i++) {
+                if (tileRow[i] == null) {
+                    final float[] tile = computeTile(variable, minCellX + i, cellY);
+                    cache.put(fileKey, variable, minCellX + i, cellY, tile);
+                    tileRow[i] = tile;
+                }
+            }
+        }
+    }
+
+    private static final class Tile {
+
+        private final int cellX;
+        private final int cellY;
+        private final float[] values;
+
+        private Tile(int cellX, int cellY, float[] values) {
+            this.cellX = cellX;
+            this.cellY = cellY;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.dataio.ProductSubsetDef;
+import org.esa.beam.framework.datamodel.GeoPos;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Maps a geographic region to the pixels of a METOP-AVHRR/3 product.
+ * <p/>
+ * The region is located by means of a spatial index of the latitude and longitude tie points,
+ * which are read from every n-th MDR only. Bounding boxes crossing the date line and products
+ * passing over a pole are supported. The resulting region contains all tie-point cells
+ * intersecting the geographic region, reading a product with the resulting subset definition
+ * reads only the MDRs of the scan lines within the region.
+ */
+public class MetopGeoRegion {
+
+    private MetopGeoRegion() {
+    }
+
+    /**
+     * Creates a subset definition for the pixels of a product covering a bounding box.
+     *
+     * @param productFile the product file
+     * @param latMin      the minimum latitude
+     * @param latMax      the maximum latitude
+     * @param lonMin      the western longitude, if greater than {@code lonMax} the box crosses the date line
+     * @param lonMax      the eastern longitude
+     * @return the subset definition, or {@code null} if the product does not cover the bounding box
+     * @throws IOException if an I/O error occurs
+     */
+    public static ProductSubsetDef createSubsetDef(File productFile, float latMin, float latMax,
+                                                   float lonMin, float lonMax) throws IOException {
+        final MetopFile metopFile = new MetopFile(productFile);
+        try {
+            metopFile.readHeader();
+            return createSubsetDef(metopFile.getRegion(latMin, latMax, lonMin, lonMax));
+        } finally {
+            metopFile.dispose();
+        }
+    }
+
+    /**
+     * Creates a subset definition for the pixels of a product covering a polygon. The edges of
+     * the polygon are straight lines in geographic coordinates, the polygon must not contain a pole.
+     *
+     * @param productFile the product file
+     * @param polygon     the vertices of the polygon
+     * @return the subset definition, or {@code null} if the product does not cover the polygon
+     * @throws IOException if an I/O error occurs
+     */
+    public static ProductSubsetDef createSubsetDef(File productFile, GeoPos[] polygon) throws IOException {
+        final float[] polygonLat = new float[polygon.length];
+        final float[] polygonLon = new float[polygon.length];
+        for (int i = 0; i < polygon.length; i++) {
+            polygonLat[i] = polygon[i].lat;
+            polygonLon[i] = polygon[i].lon;
+        }
+        final MetopFile metopFile = new MetopFile(productFile);
+        try {
+            metopFile.readHeader();
+            return createSubsetDef(metopFile.getRegion(polygonLat, polygonLon));
+        } finally {
+            metopFile.dispose();
+        }
+    }
+
+    private static ProductSubsetDef createSubsetDef(Rectangle region) {
+        if (region == null) {
+            return null;
+        }
+        final ProductSubsetDef subsetDef = new ProductSubsetDef();
+        subsetDef.setRegion(region);
+        return subsetDef;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.datamodel.ProductData;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A granule of a swath stitched from consecutive products, see {@link StitchedMetopFile}.
+ * <p/>
+ * The layout of the MDRs and the times of the first and the last MDR are read when the granule
+ * is scanned, from the product headers, the IPRs and the GRHs of these MDRs only. The stream
+ * opened by the scan is kept for reading further GRHs, until it is closed. The product header is
+ * read completely by a {@link MetopFile}, which is opened when it is requested for the first time.
+ */
+final class MetopGranule {
+
+    private static final int INTERNAL_POINTER_RECORD_SIZE = 27;
+
+    private final File file;
+    private final int navSampleRate;
+    private final long firstMdrOffset;
+    private final int mdrSize;
+    private final int numScanLines;
+    private final long firstStartTime;
+    private final long lastStartTime;
+    private ImageInputStream inputStream;
+    private MetopFile metopFile;
+
+    private MetopGranule(File file, ImageInputStream inputStream, int navSampleRate, long firstMdrOffset,
+                         int mdrSize, int numScanLines, long firstStartTime, long lastStartTime) {
+        this.file = file;
+        this.inputStream = inputStream;
+        this.navSampleRate = navSampleRate;
+        this.firstMdrOffset = firstMdrOffset;
+        this.mdrSize = mdrSize;
+        this.numScanLines = numScanLines;
+        this.firstStartTime = firstStartTime;
+        this.lastStartTime = lastStartTime;
+    }
+
+    /**
+     * Reads the layout of the MDRs of a product without reading the complete product header.
+     *
+     * @param file the product file
+     * @return the granule
+     * @throws IOException if the file is not a METOP-AVHRR/3 product or an I/O error occurs
+     */
+    static MetopGranule scan(File file) throws IOException {
+        final MetopFileProbe probe = MetopFileProbe.probe(file);
+        if (!probe.isMetopProduct()) {
+            throw new IOException("Not a METOP-AVHRR/3 product: " + file);
+        }
+        final ImageInputStream inputStream = new FileImageInputStream(file);
+        boolean scanned = false;
+        try {
+            final HeaderBlock headerBlock = new HeaderBlock(inputStream, probe.getBlock());
+            final GenericRecordHeader grh = new GenericRecordHeader();
+            grh.readGenericRecordHeader(headerBlock.getRecord(0, GenericRecordHeader.SIZE));
+            final long sphrOffset = grh.recordSize;
+            grh.readGenericRecordHeader(headerBlock.getRecord(sphrOffset, GenericRecordHeader.SIZE));
+            final ByteBuffer sphr = headerBlock.getRecord(sphrOffset, grh.recordSize);
+            sphr.position(GenericRecordHeader.SIZE);
+            final SecondaryProductHeaderRecord secondaryProductHeaderRecord = new SecondaryProductHeaderRecord();
+            secondaryProductHeaderRecord.readRecord(sphr);
+            final int navSampleRate = secondaryProductHeaderRecord.getIntValue("NAV_SAMPLE_RATE");
+
+            long iprOffset = probe.getProductHeadersSize();
+            final InternalPointerRecord internalPointerRecord = new InternalPointerRecord();
+            do {
+                internalPointerRecord.readRecord(headerBlock.getRecord(iprOffset, INTERNAL_POINTER_RECORD_SIZE));
+                iprOffset += INTERNAL_POINTER_RECORD_SIZE;
+            } while (internalPointerRecord.targetRecordClass != GenericRecordHeader.RecordClass.MDR);
+            final long firstMdrOffset = internalPointerRecord.targetRecordOffset;
+
+            final GenericRecordHeader firstMdr = readMdrHeader(inputStream, firstMdrOffset);
+            final int mdrSize = (int) firstMdr.recordSize;
+            final int numScanLines = (int) ((inputStream.length() - firstMdrOffset) / mdrSize);
+            if (numScanLines < 1) {
+                throw new IOException("Product without complete MDR: " + file);
+            }
+            final GenericRecordHeader lastMdr = readMdrHeader(inputStream,
+                                                              firstMdrOffset + (long) (numScanLines - 1) * mdrSize);
+            final MetopGranule granule = new MetopGranule(file, inputStream, navSampleRate, firstMdrOffset, mdrSize,
+                                                          numScanLines, MetopFile.toMillis(firstMdr.recordStartTime),
+                                                          MetopFile.toMillis(lastMdr.recordStartTime));
+            scanned = true;
+            return granule;
+        } finally {
+            if (!scanned) {
+                inputStream.close();
+            }
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getNavSampleRate() {
+        return navSampleRate;
+    }
+
+    /**
+     * @return the number of complete MDRs, including those following the last tie-point row
+     */
+    int getNumScanLines() {
+        return numScanLines;
+    }
+
+    /**
+     * @return the start time of the first scan line, in milliseconds since 2000-01-01
+     */
+    long getFirstStartTime() {
+        return firstStartTime;
+    }
+
+    /**
+     * @return the start time of the last scan line, in milliseconds since 2000-01-01
+     */
+    long getLastStartTime() {
+        return lastStartTime;
+    }
+
+    /**
+     * Returns the number of scan lines starting before a given time, which is found by a binary
+     * search over the GRHs of the MDRs.
+     *
+     * @param time the time in milliseconds since 2000-01-01
+     * @return the number of scan lines
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized int countScanLinesStartedBefore(long time) throws IOException {
+        if (time <= firstStartTime) {
+            return 0;
+        }
+        if (time > lastStartTime) {
+            return numScanLines;
+        }
+        final ImageInputStream inputStream = getInputStream();
+        int low = 1;
+        int high = numScanLines - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (MetopFile.toMillis(readMdrHeader(inputStream, getMdrOffset(mid)).recordStartTime) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads the end time of a scan line from the GRH of its MDR.
+     *
+     * @param rawY the scan line
+     * @return the end time
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized ProductData.UTC readEndTime(int rawY) throws IOException {
+        return readMdrHeader(getInputStream(), getMdrOffset(rawY)).recordEndTime;
+    }
+
+    /**
+     * Closes the stream which has been opened by the scan. It is opened again when further GRHs are read.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized void closeInputStream() throws IOException {
+        if (inputStream != null) {
+            inputStream.close();
+            inputStream = null;
+        }
+    }
+
+    /**
+     * Returns the product file of the granule, whose header is read when this method is called
+     * for the first time.
+     *
+     * @return the product file
+     * @throws IOException if the product header cannot be read
+     */
+    synchronized MetopFile getMetopFile() throws IOException {
+        if (metopFile == null) {
+            final MetopFile granuleFile = new MetopFile(file);
+            try {
+                granuleFile.readHeader();
+                if (granuleFile.getNavSampleRate() != navSampleRate
+                        || granuleFile.getMdrOffset(0) != firstMdrOffset
+                        || granuleFile.getMdrOffset(1) - granuleFile.getMdrOffset(0) != mdrSize) {
+                    throw new IOException("Product has been modified since it has been scanned: " + file);
+                }
+            } catch (IOException e) {
+                granuleFile.dispose();
+                throw e;
+            }
+            metopFile = granuleFile;
+        }
+        return metopFile;
+    }
+
+    /**
+     * @return {@code true} if the product header has been read
+     */
+    synchronized boolean isOpen() {
+        return metopFile != null;
+    }
+
+    synchronized void dispose() throws IOException {
+        closeInputStream();
+        if (metopFile != null) {
+            metopFile.dispose();
+            metopFile = null;
+        }
+    }
+
+    /**
+     * Returns the position of the MDR of a scan line within the product file of the granule.
+     *
+     * @param rawY the scan line of the granule
+     * @return the file position of the MDR
+     */
+    long getMdrOffset(int rawY) {
+        return firstMdrOffset + (long) rawY * mdrSize;
+    }
+
+    private ImageInputStream getInputStream() throws IOException {
+        if (inputStream == null) {
+            inputStream = new FileImageInputStream(file);
+        }
+        return inputStream;
+    }
+
+    private static GenericRecordHeader readMdrHeader(ImageInputStream inputStream, long offset) throws IOException {
+        final GenericRecordHeader grh = new GenericRecordHeader();
+        inputStream.seek(offset);
+        if (!grh.readGenericRecordHeader(inputStream) || grh.recordClass != GenericRecordHeader.RecordClass.MDR) {
+            throw new IOException("Bad GRH in MDR at offset " + offset + ".");
+        }
+        return grh;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * A sidecar index of a METOP-AVHRR/3 product, which holds the values computed by
+ * {@link MetopFile} when reading the header of the product: the layout of the MDRs,
+ * the sensing times, the channel 3A/3B state and the start time of each scan line and the
+ * tie-point data.
+ * Reopening a product with a valid index does not read any MDR for computing these values.
+ * <p/>
+ * The index is stored next to the product, see {@link #getIndexFile(java.io.File)}, and is
+ * memory-mapped when read. It is valid for a product file with the same size, time of last
+ * modification, product name and offset of the first MDR.
+ */
+final class MetopIndexFile {
+
+    private static final String INDEX_FILE_SUFFIX = ".idx";
+
+    private static final int MAGIC_NUMBER = 0x4D494458;
+
+    private static final int VERSION = 4;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final long productFileLength;
+    private final long productLastModified;
+    private final String productName;
+    private final long firstMdrOffset;
+    private final int mdrSize;
+    private final int productHeight;
+    private final int numTrimBottom;
+    private final ProductData.UTC startTime;
+    private final ProductData.UTC endTime;
+    private final BitSet channel3aLines;
+    private final long[] scanLineStartTimes;
+    private final int numTiePointGrids;
+    private final int numTiePoints;
+    private final ByteBuffer tiePointBuffer;
+
+    /**
+     * Creates the index of a product.
+     *
+     * @param productFile        the product file
+     * @param productName        the name of the product
+     * @param firstMdrOffset     the offset of the first MDR
+     * @param mdrSize            the size of an MDR
+     * @param productHeight      the height of the product
+     * @param numTrimBottom      the number of lines cut from the end of the product
+     * @param startTime          the start time of the first MDR
+     * @param endTime            the end time of the last MDR
+     * @param channel3aLines     the scan lines for which channel 3A has been measured
+     * @param scanLineStartTimes the start times of the scan lines, see {@link MetopFile#getScanLineStartTimes()}
+     * @param tiePointData       the tie-point data
+     */
+    MetopIndexFile(File productFile, String productName, long firstMdrOffset, int mdrSize, int productHeight,
+                   int numTrimBottom, ProductData.UTC startTime, ProductData.UTC endTime, BitSet channel3aLines,
+                   long[] scanLineStartTimes, float[][] tiePointData) {
+        this.productFileLength = productFile.length();
+        this.productLastModified = productFile.lastModified();
+        this.productName = productName;
+        this.firstMdrOffset = firstMdrOffset;
+        this.mdrSize = mdrSize;
+        this.productHeight = productHeight;
+        this.numTrimBottom = numTrimBottom;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.channel3aLines = channel3aLines;
+        this.scanLineStartTimes = scanLineStartTimes;
+        this.numTiePointGrids = tiePointData.length;
+        this.numTiePoints = numTiePointGrids > 0 ? tiePointData[0].length : 0;
+        this.tiePointBuffer = ByteBuffer.allocate(numTiePointGrids * numTiePoints * 4);
+        for (float[] grid : tiePointData) {
+            tiePointBuffer.asFloatBuffer().put(grid);
+            tiePointBuffer.position(tiePointBuffer.position() + grid.length * 4);
+        }
+        tiePointBuffer.rewind();
+    }
+
+    private MetopIndexFile(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC_NUMBER) {
+            throw new IOException("Not a METOP index file.");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of METOP index file: " + version);
+        }
+        productFileLength = buffer.getLong();
+        productLastModified = buffer.getLong();
+        final byte[] productNameBytes = new byte[buffer.getInt()];
+        buffer.get(productNameBytes);
+        productName = new String(productNameBytes, ASCII);
+        firstMdrOffset = buffer.getLong();
+        mdrSize = buffer.getInt();
+        productHeight = buffer.getInt();
+        numTrimBottom = buffer.getInt();
+        startTime = getTime(buffer);
+        endTime = getTime(buffer);
+        final long[] words = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(words);
+        buffer.position(buffer.position() + words.length * 8);
+        channel3aLines = BitSet.valueOf(words);
+        scanLineStartTimes = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(scanLineStartTimes);
+        buffer.position(buffer.position() + scanLineStartTimes.length * 8);
+        numTiePointGrids = buffer.getInt();
+        numTiePoints = buffer.getInt();
+        final int tiePointBufferSize = numTiePointGrids * numTiePoints * 4;
+        if (buffer.remaining() != tiePointBufferSize) {
+            throw new IOException("Corrupt METOP index file.");
+        }
+        tiePointBuffer = buffer.slice();
+    }
+
+    /**
+     * Returns the index file of a product file.
+     *
+     * @param productFile the product file
+     * @return the index file
+     */
+    static File getIndexFile(File productFile) {
+        return new File(productFile.getPath() + INDEX_FILE_SUFFIX);
+    }
+
+    /**
+     * Reads an index file by mapping it into memory.
+     *
+     * @param indexFile the index file
+     * @return the index
+     * @throws IOException if an I/O error occurs or the file is not a valid index file
+     */
+    static MetopIndexFile read(File indexFile) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            return new MetopIndexFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (RuntimeException e) {
+            // thrown by the buffer if the file is truncated
+            throw new IOException("Corrupt METOP index file.", e);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the index to a file. The index is written to a temporary file first, which
+     * replaces the index file, so that concurrent readers never see an incomplete index.
+     *
+     * @param indexFile the index file
+     * @throws IOException if an I/O error occurs
+     */
+    void write(File indexFile) throws IOException {
+        final byte[] productNameBytes = productName.getBytes(ASCII);
+        final long[] words = channel3aLines.toLongArray();
+        final ByteBuffer buffer = ByteBuffer.allocate(4 * 2 + 8 * 2 + 4 + productNameBytes.length + 8 + 4 * 3
+                                                              + 3 * 4 * 2 + 4 + words.length * 8
+                                                              + 4 + scanLineStartTimes.length * 8 + 4 * 2);
+        buffer.putInt(MAGIC_NUMBER);
+        buffer.putInt(VERSION);
+        buffer.putLong(productFileLength);
+        buffer.putLong(productLastModified);
+        buffer.putInt(productNameBytes.length);
+        buffer.put(productNameBytes);
+        buffer.putLong(firstMdrOffset);
+        buffer.putInt(mdrSize);
+        buffer.putInt(productHeight);
+        buffer.putInt(numTrimBottom);
+        putTime(buffer, startTime);
+        putTime(buffer, endTime);
+        buffer.putInt(words.length);
+        for (long word : words) {
+            buffer.putLong(word);
+        }
+        buffer.putInt(scanLineStartTimes.length);
+        for (long time : scanLineStartTimes) {
+            buffer.putLong(time);
+        }
+        buffer.putInt(numTiePointGrids);
+        buffer.putInt(numTiePoints);
+        buffer.flip();
+
+        final File tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getAbsoluteFile().getParentFile());
+        try {
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
+            try {
+                final FileChannel channel = randomAccessFile.getChannel();
+                final ByteBuffer tiePoints = tiePointBuffer.duplicate();
+                tiePoints.rewind();
+                final ByteBuffer[] buffers = {buffer, tiePoints};
+                while (buffer.hasRemaining() || tiePoints.hasRemaining()) {
+                    channel.write(buffers);
+                }
+            } finally {
+                randomAccessFile.close();
+            }
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Tells whether the index is valid for a product.
+     *
+     * @param productFile    the product file
+     * @param productName    the name of the product given in the MPHR
+     * @param firstMdrOffset the offset of the first MDR given by the IPRs
+     * @return {@code true} if the index has been created for the product
+     */
+    boolean isValidFor(File productFile, String productName, long firstMdrOffset) {
+        return productFileLength == productFile.length()
+                && productLastModified == productFile.lastModified()
+                && this.productName.equals(productName)
+                && this.firstMdrOffset == firstMdrOffset;
+    }
+
+    int getMdrSize() {
+        return mdrSize;
+    }
+
+    int getProductHeight() {
+        return productHeight;
+    }
+
+    int getNumTrimBottom() {
+        return numTrimBottom;
+    }
+
+    ProductData.UTC getStartTime() {
+        return startTime;
+    }
+
+    ProductData.UTC getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return a copy of the scan lines for which channel 3A has been measured
+     */
+    BitSet getChannel3aLines() {
+        return (BitSet) channel3aLines.clone();
+    }
+
+    /**
+     * @return the start times of the scan lines, see {@link MetopFile#getScanLineStartTimes()}
+     */
+    long[] getScanLineStartTimes() {
+        return scanLineStartTimes.clone();
+    }
+
+    /**
+     * @return a copy of the tie-point data, as returned by {@link MetopFile#getTiePointData()}
+     */
+    float[][] getTiePointData() {
+        return getTiePointData(0, numTiePoints);
+    }
+
+    /**
+     * @param first the index of the first tie point
+     * @param count the number of tie points
+     * @return a copy of a range of the tie-point data of every grid
+     */
+    float[][] getTiePointData(int first, int count) {
+        final float[][] tiePointData = new float[numTiePointGrids][count];
+        final ByteBuffer buffer = tiePointBuffer.duplicate();
+        for (int i = 0; i < numTiePointGrids; i++) {
+            buffer.position((i * numTiePoints + first) * 4);
+            buffer.asFloatBuffer().get(tiePointData[i]);
+        }
+        return tiePointData;
+    }
+
+    private static ProductData.UTC getTime(ByteBuffer buffer) {
+        final int days = buffer.getInt();
+        final int seconds = buffer.getInt();
+        final int microSeconds = buffer.getInt();
+        return new ProductData.UTC(days, seconds, microSeconds);
+    }
+
+    private static void putTime(ByteBuffer buffer, ProductData.UTC time) {
+        buffer.putInt(time.getDaysFraction());
+        buffer.putInt(time.getSecondsFraction());
+        buffer.putInt(time.getMicroSecondsFraction());
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.datamodel.ProductData;
+
+/**
+ * A geographic location and time for which the pixels of METOP-AVHRR products are extracted
+ * by the {@link MetopPointExtractor}.
+ */
+public class MetopMatchupPoint {
+
+    private final String id;
+    private final float lat;
+    private final float lon;
+    private final ProductData.UTC time;
+
+    /**
+     * Creates a point.
+     *
+     * @param id   the identifier of the point, which is passed through to the extracted windows
+     * @param lat  the latitude
+     * @param lon  the longitude
+     * @param time the time
+     */
+    public MetopMatchupPoint(String id, float lat, float lon, ProductData.UTC time) {
+        this.id = id;
+        this.lat = lat;
+        this.lon = lon;
+        this.time = time;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public float getLat() {
+        return lat;
+    }
+
+    public float getLon() {
+        return lon;
+    }
+
+    public ProductData.UTC getTime() {
+        return time;
+    }
+}
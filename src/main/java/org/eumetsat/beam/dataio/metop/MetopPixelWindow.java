@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.File;
+
+/**
+ * The pixels of a product within a square window centred at the pixel of a {@link MetopMatchupPoint}.
+ * <p/>
+ * The window holds the values of the calibrated channels, the cloud flags and the tie-point grids
+ * interpolated to the pixels. The values of a variable are stored line by line, the values of the
+ * pixels outside of the product are NaN.
+ */
+public class MetopPixelWindow {
+
+    private final MetopMatchupPoint point;
+    private final File productFile;
+    private final int centreX;
+    private final int centreY;
+    private final int size;
+    private final long timeDifference;
+    private final String[] variableNames;
+    private final float[][] values;
+
+    MetopPixelWindow(MetopMatchupPoint point, File productFile, int centreX, int centreY, int size,
+                     long timeDifference, String[] variableNames, float[][] values) {
+        this.point = point;
+        this.productFile = productFile;
+        this.centreX = centreX;
+        this.centreY = centreY;
+        this.size = size;
+        this.timeDifference = timeDifference;
+        this.variableNames = variableNames;
+        this.values = values;
+    }
+
+    public MetopMatchupPoint getPoint() {
+        return point;
+    }
+
+    public File getProductFile() {
+        return productFile;
+    }
+
+    /**
+     * @return the x coordinate of the centre pixel in the product
+     */
+    public int getCentreX() {
+        return centreX;
+    }
+
+    /**
+     * @return the scan line of the centre pixel in the product
+     */
+    public int getCentreY() {
+        return centreY;
+    }
+
+    /**
+     * @return the width and height of the window
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the start time of the scan line of the centre pixel minus the time of the point in milliseconds
+     */
+    public long getTimeDifference() {
+        return timeDifference;
+    }
+
+    /**
+     * @return the names of the variables, which are the names of the bands and tie-point grids of the product
+     */
+    public String[] getVariableNames() {
+        return variableNames.clone();
+    }
+
+    /**
+     * Returns the values of a variable.
+     *
+     * @param variableName the name of the variable
+     * @return the values, or {@code null} if there is no variable of this name
+     */
+    public float[] getValues(String variableName) {
+        for (int i = 0; i < variableNames.length; i++) {
+            if (variableNames[i].equals(variableName)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+}
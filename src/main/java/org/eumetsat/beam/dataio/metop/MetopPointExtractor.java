@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the pixels around many points from many METOP-AVHRR/3 products, without creating the
+ * products.
+ * <p/>
+ * A product is skipped, if no point has been measured within its sensing period, which is taken
+ * from the name of the product file, if it follows the EPS naming convention, and otherwise from
+ * the header of the product. The points measured within the sensing period are located by the
+ * inverse geolocation of the tie points of the product, and their windows are read from the MDRs
+ * covered by the windows only.
+ * <p/>
+ * The products are processed in parallel, each by a single thread. The memory needed for a product
+ * is limited to its headers, its tie points, the positions of the points located in it and the
+ * windows overlapping the scan line which is currently read.
+ */
+public class MetopPointExtractor {
+
+    // e.g. AVHR_xxx_1B_M02_20140305084803Z_20140305102703Z_N_O_20140305102357Z
+    private static final Pattern PRODUCT_NAME_PATTERN =
+            Pattern.compile("AVHR_.{3}_1B_M\\d{2}_(\\d{14})Z_(\\d{14})Z_.*");
+    private static final long MILLIS_1970_TO_2000 = 946684800000L;
+    // the times of the product name are truncated to seconds
+    private static final long PRODUCT_NAME_TIME_TOLERANCE = 1000L;
+
+    private final int windowSize;
+    private final long maxTimeDifference;
+    private final int parallelism;
+
+    /**
+     * Creates an extractor.
+     *
+     * @param windowSize        the width and height of the windows, a positive odd number
+     * @param maxTimeDifference the maximum difference in milliseconds between the time of a point and
+     *                          the start time of the scan line of its pixel
+     * @param parallelism       the number of products processed in parallel
+     */
+    public MetopPointExtractor(int windowSize, long maxTimeDifference, int parallelism) {
+        if (windowSize < 1 || windowSize % 2 == 0) {
+            throw new IllegalArgumentException("The window size must be a positive odd number.");
+        }
+        if (maxTimeDifference < 0) {
+            throw new IllegalArgumentException("The maximum time difference must not be negative.");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be positive.");
+        }
+        this.windowSize = windowSize;
+        this.maxTimeDifference = maxTimeDifference;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Extracts the windows of all points from all products. A point which is covered by several
+     * products within the maximum time difference is extracted from each of these products.
+     *
+     * @param productFiles the product files
+     * @param points       the points
+     * @param handler      the handler receiving the windows, in no particular order
+     * @throws IOException if a product cannot be read
+     */
+    public void extract(List<File> productFiles, List<MetopMatchupPoint> points,
+                        final WindowHandler handler) throws IOException {
+        final List<MetopMatchupPoint> sortedPoints = new ArrayList<MetopMatchupPoint>(points);
+        Collections.sort(sortedPoints, new Comparator<MetopMatchupPoint>() {
+            @Override
+            public int compare(MetopMatchupPoint p1, MetopMatchupPoint p2) {
+                final long t1 = MetopFile.toMillis(p1.getTime());
+                final long t2 = MetopFile.toMillis(p2.getTime());
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        final long[] pointTimes = new long[sortedPoints.size()];
+        for (int i = 0; i < pointTimes.length; i++) {
+            pointTimes[i] = MetopFile.toMillis(sortedPoints.get(i).getTime());
+        }
+        final WindowHandler synchronizedHandler = new WindowHandler() {
+            @Override
+            public synchronized void handleWindow(MetopPixelWindow window) {
+                handler.handleWindow(window);
+            }
+        };
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(productFiles.size());
+        for (final File productFile : productFiles) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    extract(productFile, sortedPoints, pointTimes, synchronizedHandler);
+                    return null;
+                }
+            });
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "METOP point extraction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while extracting points.", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void extract(File productFile, List<MetopMatchupPoint> points, long[] pointTimes,
+                         WindowHandler handler) throws IOException {
+        final long[] sensingPeriod = getSensingPeriod(productFile.getName());
+        if (sensingPeriod != null) {
+            final int[] range = getPointRange(pointTimes, sensingPeriod[0] - PRODUCT_NAME_TIME_TOLERANCE,
+                                              sensingPeriod[1] + PRODUCT_NAME_TIME_TOLERANCE);
+            if (range[0] == range[1]) {
+                return;
+            }
+        }
+        final MetopFile metopFile = new MetopFile(productFile);
+        try {
+            metopFile.readHeader();
+            final int[] range = getPointRange(pointTimes, MetopFile.toMillis(metopFile.getStartDate()),
+                                              MetopFile.toMillis(metopFile.getEndDate()));
+            if (range[0] < range[1]) {
+                final PointExtraction extraction = new PointExtraction(metopFile, productFile, windowSize,
+                                                                       maxTimeDifference);
+                extraction.extract(points.subList(range[0], range[1]), handler);
+            }
+        } finally {
+            metopFile.dispose();
+        }
+    }
+
+    // returns the first and the end index of the points measured within the maximum time difference of a period
+    private int[] getPointRange(long[] pointTimes, long startTime, long endTime) {
+        return new int[]{
+                countPointsBefore(pointTimes, startTime - maxTimeDifference),
+                countPointsBefore(pointTimes, endTime + maxTimeDifference + 1)
+        };
+    }
+
+    private static int countPointsBefore(long[] times, long time) {
+        int low = 0;
+        int high = times.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the sensing period given by the name of a product file.
+     *
+     * @param fileName the name of the product file
+     * @return the start and the end of the sensing period in milliseconds since 2000-01-01, or
+     *         {@code null} if the name does not follow the EPS naming convention
+     */
+    static long[] getSensingPeriod(String fileName) {
+        final Matcher matcher = PRODUCT_NAME_PATTERN.matcher(fileName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmmss");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        dateFormat.setLenient(false);
+        try {
+            return new long[]{
+                    dateFormat.parse(matcher.group(1)).getTime() - MILLIS_1970_TO_2000,
+                    dateFormat.parse(matcher.group(2)).getTime() - MILLIS_1970_TO_2000
+            };
+        } catch (ParseException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Receives the extracted windows. The handler is called by one thread at a time.
+     */
+    public interface WindowHandler {
+
+        void handleWindow(MetopPixelWindow window);
+    }
+}
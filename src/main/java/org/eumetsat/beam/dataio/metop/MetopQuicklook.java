@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates browse images of a METOP-AVHRR/3 product directly from its {@link MetopFile}.
+ * <p/>
+ * Only every n-th sample of every n-th scan line is read. The product is read in strips
+ * of a fixed number of image lines, so that the memory used for reading does not depend
+ * on the length of the product.
+ * <p/>
+ * The RGB image shows the reflectance factors of channels 1 and 2 in red and green and
+ * the inverted brightness temperature of channel 4 in blue. The cloud overlay is a
+ * transparent image, where cloudy pixels are semi-transparent white.
+ */
+public class MetopQuicklook {
+
+    public static final int DEFAULT_STEP = 8;
+
+    static final int STRIP_HEIGHT = 64;
+
+    // the 'test2' bits of the cloud information, which are set for cloudy pixels
+    static final int CLOUDY_MASK = 0xAAA0;
+    static final int CLOUDY_COLOR = 0x80FFFFFF;
+
+    private static final float RED_MIN = 0.0f;
+    private static final float RED_MAX = 100.0f;
+    private static final float GREEN_MIN = 0.0f;
+    private static final float GREEN_MAX = 100.0f;
+    private static final float BLUE_MIN = 320.0f;
+    private static final float BLUE_MAX = 200.0f;
+
+    private final MetopFile metopFile;
+    private final int step;
+    private final int width;
+    private final int height;
+
+    /**
+     * Creates a quicklook for a product.
+     *
+     * @param metopFile the product, its header must have been read
+     * @param step      the sampling step in x and y
+     */
+    MetopQuicklook(MetopFile metopFile, int step) {
+        if (step < 1) {
+            throw new IllegalArgumentException("step < 1");
+        }
+        this.metopFile = metopFile;
+        this.step = step;
+        this.width = (metopFile.getProductWidth() - 1) / step + 1;
+        this.height = (metopFile.getProductHeight() - 1) / step + 1;
+    }
+
+    /**
+     * Writes the RGB image and, if the product has cloud information, the cloud overlay of a product as PNG files.
+     *
+     * @param productFile the product file
+     * @param step        the sampling step in x and y
+     * @param rgbFile     the file for the RGB image
+     * @param cloudFile   the file for the cloud overlay, may be {@code null}
+     * @throws IOException if an I/O error occurs
+     */
+    public static void write(File productFile, int step, File rgbFile, File cloudFile) throws IOException {
+        final MetopFile metopFile = new MetopFile(productFile);
+        try {
+            metopFile.readHeader();
+            new MetopQuicklook(metopFile, step).write(rgbFile, cloudFile);
+        } finally {
+            metopFile.dispose();
+        }
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    BufferedImage createRgbImage() throws IOException {
+        final BandReader[] bandReaders = {
+                metopFile.createReflectanceFactorBandReader(AvhrrConstants.CH_1),
+                metopFile.createReflectanceFactorBandReader(AvhrrConstants.CH_2),
+                metopFile.createIrTemperatureBandReader(AvhrrConstants.CH_4)
+        };
+        final ProductData[] buffers = createBuffers(bandReaders);
+        final float[] red = (float[]) buffers[0].getElems();
+        final float[] green = (float[]) buffers[1].getElems();
+        final float[] blue = (float[]) buffers[2].getElems();
+        final int[] rgb = new int[width * STRIP_HEIGHT];
+
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y += STRIP_HEIGHT) {
+            final int stripHeight = readStrip(y, bandReaders, buffers);
+            for (int i = 0; i < width * stripHeight; i++) {
+                rgb[i] = toRgb(red[i], green[i], blue[i]);
+            }
+            image.setRGB(0, y, width, stripHeight, rgb, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * Creates the cloud overlay.
+     *
+     * @return the cloud overlay, or {@code null} if the product has no cloud information
+     * @throws IOException if an I/O error occurs
+     */
+    BufferedImage createCloudOverlay() throws IOException {
+        if (!metopFile.hasCloudBand()) {
+            return null;
+        }
+        final BandReader[] bandReaders = {metopFile.createCloudBandReader()};
+        final ProductData[] buffers = createBuffers(bandReaders);
+        final short[] cloudFlags = (short[]) buffers[0].getElems();
+        final int[] argb = new int[width * STRIP_HEIGHT];
+
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y += STRIP_HEIGHT) {
+            final int stripHeight = readStrip(y, bandReaders, buffers);
+            for (int i = 0; i < width * stripHeight; i++) {
+                argb[i] = (cloudFlags[i] & CLOUDY_MASK) != 0 ? CLOUDY_COLOR : 0;
+            }
+            image.setRGB(0, y, width, stripHeight, argb, 0, width);
+        }
+        return image;
+    }
+
+    /**
+     * Writes the RGB image and, if the product has cloud information, the cloud overlay as PNG files.
+     *
+     * @param rgbFile   the file for the RGB image
+     * @param cloudFile the file for the cloud overlay, may be {@code null}
+     * @throws IOException if an I/O error occurs
+     */
+    void write(File rgbFile, File cloudFile) throws IOException {
+        ImageIO.write(createRgbImage(), "png", rgbFile);
+        if (cloudFile != null) {
+            final BufferedImage cloudOverlay = createCloudOverlay();
+            if (cloudOverlay != null) {
+                ImageIO.write(cloudOverlay, "png", cloudFile);
+            }
+        }
+    }
+
+    private ProductData[] createBuffers(BandReader[] bandReaders) {
+        final ProductData[] buffers = new ProductData[bandReaders.length];
+        for (int i = 0; i < bandReaders.length; i++) {
+            buffers[i] = ProductData.createInstance(bandReaders[i].getDataType(), width * STRIP_HEIGHT);
+        }
+        return buffers;
+    }
+
+    private int readStrip(int y, BandReader[] bandReaders, ProductData[] buffers) throws IOException {
+        final int stripHeight = Math.min(STRIP_HEIGHT, height - y);
+        metopFile.readBandRasterData(0, y * step, metopFile.getProductWidth(), (stripHeight - 1) * step + 1,
+                                     step, step, bandReaders, buffers, ProgressMonitor.NULL);
+        return stripHeight;
+    }
+
+    /**
+     * @param reflectance1 the reflectance factor of channel 1
+     * @param reflectance2 the reflectance factor of channel 2
+     * @param temperature4 the brightness temperature of channel 4
+     * @return the RGB value of a pixel of the RGB image
+     */
+    static int toRgb(float reflectance1, float reflectance2, float temperature4) {
+        return stretch(reflectance1, RED_MIN, RED_MAX) << 16
+                | stretch(reflectance2, GREEN_MIN, GREEN_MAX) << 8
+                | stretch(temperature4, BLUE_MIN, BLUE_MAX);
+    }
+
+    static int stretch(float value, float min, float max) {
+        final int level = Math.round(255.0f * (value - min) / (max - min));
+        if (level < 0) {
+            return 0;
+        }
+        if (level > 255) {
+            return 255;
+        }
+        return level;
+    }
+}
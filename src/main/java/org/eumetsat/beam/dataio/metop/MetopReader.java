@@ -18,22 +18,25 @@
  */
 package org.eumetsat.beam.dataio.metop;
 
+import com.bc.ceres.core.ProgressMonitor;
 import org.esa.beam.dataio.avhrr.AvhrrConstants;
 import org.esa.beam.dataio.avhrr.AvhrrReader;
 import org.esa.beam.dataio.avhrr.BandReader;
 import org.esa.beam.framework.dataio.ProductReaderPlugIn;
+import org.esa.beam.framework.dataio.ProductSubsetDef;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.FlagCoding;
 import org.esa.beam.framework.datamodel.GeoCoding;
 import org.esa.beam.framework.datamodel.Product;
-import org.esa.beam.framework.datamodel.TiePointGeoCoding;
+import org.esa.beam.framework.datamodel.ProductData;
 import org.esa.beam.framework.datamodel.TiePointGrid;
 import org.esa.beam.framework.dataop.maptransf.Datum;
 
-import javax.imageio.stream.FileImageInputStream;
-import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 
 /**
@@ -41,6 +44,18 @@ import java.io.IOException;
  */
 public class MetopReader extends AvhrrReader implements AvhrrConstants {
 
+    /**
+     * The maximum size in bytes of the band data which has been read along with a requested band
+     * and which is kept until it is requested, too.
+     */
+    private static final long MAX_PENDING_TILE_SIZE = 64L * 1024 * 1024;
+
+    private MultiBandTileReader tileReader;
+
+    private Rectangle subsetRegion;
+    private int subSamplingX;
+    private int subSamplingY;
+
     public MetopReader(ProductReaderPlugIn metopReaderPlugIn) {
         super(metopReaderPlugIn);
     }
@@ -61,10 +76,11 @@ public class MetopReader extends AvhrrReader implements AvhrrConstants {
         final File dataFile = MetopReaderPlugIn.getInputFile(getInput());
 
         try {
-            ImageInputStream imageInputStream = new FileImageInputStream(dataFile);
-            avhrrFile = new MetopFile(imageInputStream);
+            avhrrFile = new MetopFile(dataFile);
             avhrrFile.readHeader();
+            setSubset((MetopFile) avhrrFile);
             createProduct();
+            tileReader = new MultiBandTileReader((MetopFile) avhrrFile, bandReaders, MAX_PENDING_TILE_SIZE);
         } catch (IOException e) {
             e.printStackTrace();
             try {
@@ -79,31 +95,124 @@ public class MetopReader extends AvhrrReader implements AvhrrConstants {
         return product;
     }
 
+    /**
+     * Reads the requested region of a band together with the same region of the other bands
+     * in demand, so that the measurement data records are read only once for all bands of a
+     * tile, see {@link MultiBandTileReader}.
+     */
+    @Override
+    protected void readBandRasterDataImpl(int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                                          int sourceStepX, int sourceStepY, Band destBand, int destOffsetX,
+                                          int destOffsetY, int destWidth, int destHeight, ProductData destBuffer,
+                                          ProgressMonitor pm) throws IOException {
+        tileReader.readBandRasterData(destBand, sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                      sourceStepX, sourceStepY, destBuffer, pm);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (tileReader != null) {
+            tileReader.dispose();
+            tileReader = null;
+        }
+        super.close();
+    }
+
+    /**
+     * Sets the size of the product to the size of the subset region. The offset of the region is
+     * added to the source coordinates by the product reader framework, so that only the MDRs of
+     * the scan lines within the region are read.
+     */
+    private void setSubset(MetopFile metopFile) throws IOException {
+        final Dimension subsetSize = initSubset(metopFile.getProductWidth(), metopFile.getProductHeight());
+        metopFile.setProductSize(subsetSize.width, subsetSize.height);
+    }
+
+    /**
+     * Takes the subset region and the sub-sampling from the subset definition.
+     *
+     * @param productWidth  the width of the product
+     * @param productHeight the height of the product
+     * @return the size of the product raster of the subset
+     * @throws IOException if the subset region is not within the product
+     */
+    Dimension initSubset(int productWidth, int productHeight) throws IOException {
+        final Rectangle productRegion = new Rectangle(productWidth, productHeight);
+        subsetRegion = productRegion;
+        subSamplingX = 1;
+        subSamplingY = 1;
+        final ProductSubsetDef subsetDef = getSubsetDef();
+        if (subsetDef != null) {
+            if (subsetDef.getRegion() != null) {
+                subsetRegion = subsetDef.getRegion();
+                if (subsetRegion.isEmpty() || !productRegion.contains(subsetRegion)) {
+                    throw new IOException("The subset region " + subsetRegion + " is not within the product.");
+                }
+            }
+            subSamplingX = subsetDef.getSubSamplingX();
+            subSamplingY = subsetDef.getSubSamplingY();
+        }
+        return new Dimension((subsetRegion.width - 1) / subSamplingX + 1, (subsetRegion.height - 1) / subSamplingY + 1);
+    }
+
+    /**
+     * @return the region of the product which is read, in raw coordinates
+     */
+    Rectangle getSubsetRegion() {
+        return subsetRegion;
+    }
+
     @Override
     protected void addTiePointGrids() throws IOException {
-        final MetopFile metopFile = (MetopFile) avhrrFile;
-        final int tiePointSampleRate = metopFile.getNavSampleRate();
-        final int tiePointGridHeight = metopFile.getProductHeight() / tiePointSampleRate + 1;
-        final int tiePointGridWidth = metopFile.getNumNavPoints();
+        final String fileKey = GeolocationCache.getFileKey(MetopReaderPlugIn.getInputFile(getInput()));
+        addTiePointGrids((MetopFile) avhrrFile, fileKey);
+    }
 
-        String[] tiePointNames = avhrrFile.getTiePointNames();
-        float[][] tiePointData = avhrrFile.getTiePointData();
+    /**
+     * Adds the tie-point grids of the subset region and the geo-coding to the product.
+     *
+     * @param tiePointRows the tie-point rows of the product
+     * @param fileKey      the key of the product in the {@link GeolocationCache}
+     */
+    void addTiePointGrids(TiePointRows tiePointRows, String fileKey) {
+        final int tiePointSampleRate = tiePointRows.getNavSampleRate();
+        final int fullGridWidth = tiePointRows.getNumNavPoints();
+        final int fullGridHeight = tiePointRows.getNumScanLines() / tiePointSampleRate + 1;
 
+        // the tie points enclosing the cells of all pixels of the subset region
+        final int minX = subsetRegion.x / tiePointSampleRate;
+        final int maxX = Math.min((subsetRegion.x + subsetRegion.width - 1) / tiePointSampleRate + 1,
+                                  fullGridWidth - 1);
+        final int minY = subsetRegion.y / tiePointSampleRate;
+        final int maxY = Math.min((subsetRegion.y + subsetRegion.height - 1) / tiePointSampleRate + 1,
+                                  fullGridHeight - 1);
+        final float offsetX = TP_OFFSET_X + (float) (minX * tiePointSampleRate - subsetRegion.x) / subSamplingX;
+        final float offsetY = TP_OFFSET_Y + (float) (minY * tiePointSampleRate - subsetRegion.y) / subSamplingY;
+        final float gridSubSamplingX = (float) tiePointSampleRate / subSamplingX;
+        final float gridSubSamplingY = (float) tiePointSampleRate / subSamplingY;
+
+        // the tie points are read when a grid is accessed for the first time
+        final TiePointGridLoader loader = new TiePointGridLoader(tiePointRows, minX, minY, maxX - minX + 1,
+                                                                 maxY - minY + 1);
+        final String[] tiePointNames = avhrrFile.getTiePointNames();
         final int numGrids = tiePointNames.length;
         TiePointGrid grid[] = new TiePointGrid[numGrids];
 
         for (int i = 0; i < grid.length; i++) {
-            grid[i] = createTiePointGrid(tiePointNames[i], tiePointGridWidth,
-                                         tiePointGridHeight, TP_OFFSET_X,
-                                         TP_OFFSET_Y, tiePointSampleRate, tiePointSampleRate,
-                                         tiePointData[i]);
+            grid[i] = new LazyTiePointGrid(tiePointNames[i], offsetX, offsetY, gridSubSamplingX, gridSubSamplingY,
+                                           loader, i);
             grid[i].setUnit(UNIT_DEG);
             product.addTiePointGrid(grid[i]);
         }
-        addDeltaAzimuth(tiePointGridWidth, tiePointGridHeight, tiePointSampleRate);
+        TiePointGrid deltaAzimuthGrid = new LazyTiePointGrid(DAA_DS_NAME, offsetX, offsetY, gridSubSamplingX,
+                                                             gridSubSamplingY, loader, TiePointGridLoader.DAA_INDEX);
+        deltaAzimuthGrid.setUnit(UNIT_DEG);
+        product.addTiePointGrid(deltaAzimuthGrid);
 
-        GeoCoding geoCoding = new TiePointGeoCoding(grid[numGrids - 2],
-                                                    grid[numGrids - 1], Datum.WGS_72);
+        final String[] variableNames = Arrays.copyOf(tiePointNames, numGrids + 1);
+        variableNames[TiePointGridLoader.DAA_INDEX] = DAA_DS_NAME;
+        GeoCoding geoCoding = new MetopGeoCoding(grid[numGrids - 2], grid[numGrids - 1], Datum.WGS_72, loader,
+                                                 variableNames, fileKey, subsetRegion, subSamplingX, subSamplingY);
         product.setGeoCoding(geoCoding);
     }
 
@@ -137,39 +246,6 @@ public class MetopReader extends AvhrrReader implements AvhrrConstants {
             bandReaders.put(cloudBand, cloudReader);
         }
     }
-    private void addDeltaAzimuth(int tiePointGridWidth, int tiePointGridHeight, int tiePointSampleRate) {
-        float[] sunAzimuthTiePointData = product.getTiePointGrid(SAA_DS_NAME).getTiePoints();
-        float[] viewAzimuthTiePointData = product.getTiePointGrid(VAA_DS_NAME).getTiePoints();
-        final int numTiePoints = viewAzimuthTiePointData.length;
-        float[] deltaAzimuthData = new float[numTiePoints];
-
-        for (int i = 0; i < numTiePoints; i++) {
-            deltaAzimuthData[i] = (float) computeAda(viewAzimuthTiePointData[i], sunAzimuthTiePointData[i]);
-        }
-
-        TiePointGrid grid = createTiePointGrid(DAA_DS_NAME, tiePointGridWidth,
-                                               tiePointGridHeight, TP_OFFSET_X, TP_OFFSET_Y, tiePointSampleRate,
-                                               tiePointSampleRate, deltaAzimuthData);
-        grid.setUnit(UNIT_DEG);
-        product.addTiePointGrid(grid);
-    }
-
-    /**
-     * Computes the azimuth difference from the given
-     *
-     * @param vaa viewing azimuth angle [degree]
-     * @param saa sun azimuth angle [degree]
-     * @return the azimuth difference [degree]
-     */
-    private static double computeAda(double vaa, double saa) {
-        double ada = saa - vaa;
-        if (ada <= -180.0) {
-            ada += 360.0;
-        } else if (ada > +180.0) {
-            ada -= 360.0;
-        }
-        return ada;
-    }
 
     public static boolean canOpenFile(File file) {
         try {
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+
+/**
+ * The data of a single scan line of a METOP-AVHRR/3 product, as delivered by a
+ * {@link MetopScanLineIterator}.
+ * <p/>
+ * A scan line is a flyweight: the iterator decodes every scan line into the same instance and
+ * the same arrays. The data are therefore only valid until the iterator advances, and must be
+ * copied if they are needed afterwards. The arrays must not be modified.
+ */
+public class MetopScanLine {
+
+    private final short[][] radiances;
+    private final short[] cloudFlags;
+    private final float[][] tiePoints;
+    private int scanLine;
+    private long startTime;
+    private long endTime;
+    private int frameIndicator;
+    private boolean channel3a;
+
+    MetopScanLine(int width, int numTiePoints, int numTiePointGrids) {
+        radiances = new short[ScanLineDecoder.NUM_RADIANCE_DATASETS][width];
+        cloudFlags = new short[width];
+        tiePoints = new float[numTiePointGrids][numTiePoints];
+    }
+
+    /**
+     * @return the index of the scan line within the product
+     */
+    public int getScanLine() {
+        return scanLine;
+    }
+
+    /**
+     * @return the start time of the scan line given by the GRH of its MDR, in milliseconds since 2000-01-01
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the end time of the scan line given by the GRH of its MDR, in milliseconds since 2000-01-01
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return the frame indicator of the scan line
+     */
+    public int getFrameIndicator() {
+        return frameIndicator;
+    }
+
+    /**
+     * @return {@code true} if channel 3A has been measured, {@code false} if channel 3B has been measured
+     */
+    public boolean isChannel3a() {
+        return channel3a;
+    }
+
+    /**
+     * Returns the radiances of a channel, in units of 1E-2 (1E-4 for channel 3A and 3B) of the
+     * radiance units of the radiance bands of the product.
+     *
+     * @param channel the channel, see {@link AvhrrConstants#CH_1} etc.
+     * @return the radiances, or {@code null} if the channel has not been measured in this scan line
+     */
+    public short[] getRadiances(int channel) {
+        if (channel == AvhrrConstants.CH_3A && !channel3a || channel == AvhrrConstants.CH_3B && channel3a) {
+            return null;
+        }
+        return radiances[AvhrrConstants.CH_DATASET_INDEXES[channel]];
+    }
+
+    /**
+     * @return the cloud flags, which are unsigned
+     */
+    public short[] getCloudFlags() {
+        return cloudFlags;
+    }
+
+    /**
+     * Returns the tie points of the scan line.
+     *
+     * @param gridIndex the index of the tie-point grid, see {@link MetopScanLineReader#getTiePointNames()}
+     * @return the tie points
+     */
+    public float[] getTiePoints(int gridIndex) {
+        return tiePoints[gridIndex];
+    }
+
+    short[][] getRadianceDatasets() {
+        return radiances;
+    }
+
+    float[][] getTiePointData() {
+        return tiePoints;
+    }
+
+    void setScanLine(int scanLine, long startTime, long endTime, int frameIndicator, boolean channel3a) {
+        this.scanLine = scanLine;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.frameIndicator = frameIndicator;
+        this.channel3a = channel3a;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+
+/**
+ * A block of consecutive scan lines of a product, as published by a {@link MetopScanLinePublisher}.
+ * <p/>
+ * The pixels and tie points of the scan lines are stored line by line. The arrays of a block are
+ * reused for the following blocks of a subscription, once the block has been released by its
+ * subscriber. A block must therefore not be used after it has been released, and its arrays must
+ * not be modified.
+ */
+public class MetopScanLineBlock {
+
+    private final MetopScanLinePublisher.BlockSubscription subscription;
+    private final short[][] radiances;
+    private final short[] cloudFlags;
+    private final float[][] tiePoints;
+    private final long[] startTimes;
+    private final long[] endTimes;
+    private final int[] frameIndicators;
+    private final boolean[] channel3a;
+    private int firstScanLine;
+    private int scanLineCount;
+
+    MetopScanLineBlock(MetopScanLinePublisher.BlockSubscription subscription, int maxScanLineCount, int width,
+                       int numTiePoints, int numTiePointGrids) {
+        this.subscription = subscription;
+        radiances = new short[ScanLineDecoder.NUM_RADIANCE_DATASETS][maxScanLineCount * width];
+        cloudFlags = new short[maxScanLineCount * width];
+        tiePoints = new float[numTiePointGrids][maxScanLineCount * numTiePoints];
+        startTimes = new long[maxScanLineCount];
+        endTimes = new long[maxScanLineCount];
+        frameIndicators = new int[maxScanLineCount];
+        channel3a = new boolean[maxScanLineCount];
+    }
+
+    /**
+     * @return the index of the first scan line of the block within the product
+     */
+    public int getFirstScanLine() {
+        return firstScanLine;
+    }
+
+    /**
+     * @return the number of scan lines of the block
+     */
+    public int getScanLineCount() {
+        return scanLineCount;
+    }
+
+    /**
+     * Returns the radiances of a channel, in units of 1E-2 (1E-4 for channel 3A and 3B) of the
+     * radiance units of the radiance bands of the product. Channel 3A and 3B share the same
+     * array, {@link #isChannel3a(int)} tells which of them has been measured in a scan line.
+     *
+     * @param channel the channel, see {@link AvhrrConstants#CH_1} etc.
+     * @return the radiances
+     */
+    public short[] getRadiances(int channel) {
+        return radiances[AvhrrConstants.CH_DATASET_INDEXES[channel]];
+    }
+
+    /**
+     * @return the cloud flags, which are unsigned
+     */
+    public short[] getCloudFlags() {
+        return cloudFlags;
+    }
+
+    /**
+     * Returns the tie points of the scan lines.
+     *
+     * @param gridIndex the index of the tie-point grid, see {@link MetopScanLineReader#getTiePointNames()}
+     * @return the tie points
+     */
+    public float[] getTiePoints(int gridIndex) {
+        return tiePoints[gridIndex];
+    }
+
+    /**
+     * @param lineIndex the index of the scan line within the block
+     * @return the start time of the scan line in milliseconds since 2000-01-01
+     */
+    public long getStartTime(int lineIndex) {
+        return startTimes[lineIndex];
+    }
+
+    /**
+     * @param lineIndex the index of the scan line within the block
+     * @return the end time of the scan line in milliseconds since 2000-01-01
+     */
+    public long getEndTime(int lineIndex) {
+        return endTimes[lineIndex];
+    }
+
+    /**
+     * @param lineIndex the index of the scan line within the block
+     * @return the frame indicator of the scan line
+     */
+    public int getFrameIndicator(int lineIndex) {
+        return frameIndicators[lineIndex];
+    }
+
+    /**
+     * @param lineIndex the index of the scan line within the block
+     * @return {@code true} if channel 3A has been measured, {@code false} if channel 3B has been measured
+     */
+    public boolean isChannel3a(int lineIndex) {
+        return channel3a[lineIndex];
+    }
+
+    /**
+     * Returns the block to its subscription for being reused. The publisher does not read ahead
+     * further than the released blocks allow.
+     */
+    public void release() {
+        subscription.release(this);
+    }
+
+    void setScanLines(int firstScanLine, int scanLineCount) {
+        this.firstScanLine = firstScanLine;
+        this.scanLineCount = scanLineCount;
+    }
+
+    void readScanLine(ScanLineDecoder decoder, MetopFile metopFile, int lineIndex) {
+        final int width = metopFile.getProductWidth();
+        decoder.decode(radiances, cloudFlags, lineIndex * width, tiePoints, lineIndex * metopFile.getNumNavPoints());
+        startTimes[lineIndex] = decoder.getStartTime();
+        endTimes[lineIndex] = decoder.getEndTime();
+        frameIndicators[lineIndex] = decoder.getFrameIndicator();
+        channel3a[lineIndex] = decoder.isChannel3a();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+/**
+ * The interfaces of the {@link MetopScanLinePublisher} for publishing scan lines to consumers which
+ * control the flow of the data by their demand.
+ * <p/>
+ * The interfaces and their contracts are those of {@code java.util.concurrent.Flow}, which is not
+ * available before Java 9. Adapters to the {@code Flow} interfaces only need to delegate each
+ * method.
+ */
+public final class MetopScanLineFlow {
+
+    private MetopScanLineFlow() {
+    }
+
+    /**
+     * A producer of items which are received by subscribers.
+     *
+     * @param <T> the type of the items
+     */
+    public interface Publisher<T> {
+
+        /**
+         * Adds a subscriber, whose {@link Subscriber#onSubscribe(Subscription)} method is called.
+         *
+         * @param subscriber the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. The methods of a subscriber are called in sequence, never concurrently.
+     *
+     * @param <T> the type of the items
+     */
+    public interface Subscriber<T> {
+
+        /**
+         * Called before any other method for a new subscription. No items are received until
+         * they are requested by {@link Subscription#request(long)}.
+         *
+         * @param subscription the subscription
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the next item, if it has been requested.
+         *
+         * @param item the item
+         */
+        void onNext(T item);
+
+        /**
+         * Called when the subscription has failed, no further methods are called afterwards.
+         *
+         * @param throwable the cause of the failure
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called when all items have been received, no further methods are called afterwards.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and a subscriber.
+     */
+    public interface Subscription {
+
+        /**
+         * Requests further items. A non-positive number fails the subscription.
+         *
+         * @param n the number of items requested in addition to those requested before
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of items. Items which are being delivered may still be received.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over a range of scan lines of a product in their order, reading a single MDR at a time.
+ * <p/>
+ * The iterator returns the same {@link MetopScanLine} for every scan line, so that iterating
+ * needs constant memory. An iterator can be split into iterators over disjoint parts of its range,
+ * which can be used concurrently, e.g. by the tasks of a {@link java.util.concurrent.ForkJoinPool}.
+ * A single iterator must not be used concurrently.
+ */
+public class MetopScanLineIterator implements Iterator<MetopScanLine> {
+
+    private final MetopFile metopFile;
+    private final ScanLineDecoder decoder;
+    private final MetopScanLine scanLine;
+    private int nextLine;
+    private final int endLine;
+
+    MetopScanLineIterator(MetopFile metopFile, int firstLine, int endLine) {
+        this.metopFile = metopFile;
+        this.nextLine = firstLine;
+        this.endLine = endLine;
+        decoder = new ScanLineDecoder(metopFile);
+        scanLine = new MetopScanLine(metopFile.getProductWidth(), metopFile.getNumNavPoints(),
+                                     metopFile.getTiePointNames().length);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextLine < endLine;
+    }
+
+    /**
+     * Reads the next scan line.
+     *
+     * @return the scan line, which is valid until this method is called again
+     * @throws IllegalStateException if the MDR cannot be read
+     */
+    @Override
+    public MetopScanLine next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final int rawY = nextLine++;
+        try {
+            decoder.read(rawY);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read scan line " + rawY + ".", e);
+        }
+        decoder.decode(scanLine.getRadianceDatasets(), scanLine.getCloudFlags(), 0, scanLine.getTiePointData(), 0);
+        scanLine.setScanLine(rawY, decoder.getStartTime(), decoder.getEndTime(), decoder.getFrameIndicator(),
+                             decoder.isChannel3a());
+        return scanLine;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Splits off the first half of the remaining scan lines. This iterator continues with the
+     * second half.
+     *
+     * @return an iterator over the first half of the remaining scan lines, or {@code null} if less
+     *         than two scan lines remain
+     */
+    public MetopScanLineIterator trySplit() {
+        final int remaining = endLine - nextLine;
+        if (remaining < 2) {
+            return null;
+        }
+        final int splitLine = nextLine + remaining / 2;
+        final MetopScanLineIterator prefix = new MetopScanLineIterator(metopFile, nextLine, splitLine);
+        nextLine = splitLine;
+        return prefix;
+    }
+
+    /**
+     * @return the number of remaining scan lines
+     */
+    public int getRemainingCount() {
+        return endLine - nextLine;
+    }
+}
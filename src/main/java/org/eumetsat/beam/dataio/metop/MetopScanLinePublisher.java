@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the scan lines of a product in blocks of consecutive scan lines, which are read on
+ * demand of the subscribers.
+ * <p/>
+ * Each subscription reads all scan lines of the range of the publisher in their order. A block is
+ * only read when it has been requested and one of the blocks of the subscription is free, so that
+ * the publisher reads ahead no further than the demand and the number of blocks allow. The blocks
+ * are recycled when they are released by the subscriber. After the subscription has been cancelled
+ * no further MDR is read.
+ * <p/>
+ * The scan lines are read and the subscribers are called by the tasks of an executor.
+ * <p/>
+ * A {@linkplain #createTailingPublisher tailing publisher} follows a product file which is still
+ * being written. Its subscriptions deliver the scan lines completed so far and then wait for
+ * further scan lines, which are made available by calling {@link #poll()}, for instance by a
+ * scheduled task. The lines are delivered in partial blocks as soon as they are available, and
+ * the subscriptions complete when all MDRs announced by the header of the product are complete.
+ */
+public class MetopScanLinePublisher implements MetopScanLineFlow.Publisher<MetopScanLineBlock> {
+
+    private final MetopScanLineReader reader;
+    private final MetopFile metopFile;
+    private final int firstLine;
+    private final int blockSize;
+    private final int numBlocks;
+    private final Executor executor;
+    private final List<BlockSubscription> tailingSubscriptions;
+    // the end line is written before the completion, and read after it
+    private volatile int endLine;
+    private volatile boolean complete;
+
+    /**
+     * Creates a publisher of all scan lines of a product.
+     *
+     * @param reader    the reader of the product
+     * @param blockSize the maximum number of scan lines of a block
+     * @param numBlocks the number of blocks of a subscription
+     * @param executor  the executor reading the scan lines
+     */
+    public MetopScanLinePublisher(MetopScanLineReader reader, int blockSize, int numBlocks, Executor executor) {
+        this(reader, 0, reader.getNumScanLines(), blockSize, numBlocks, executor);
+    }
+
+    /**
+     * Creates a publisher of a range of scan lines of a product.
+     *
+     * @param reader    the reader of the product
+     * @param firstLine the first scan line
+     * @param endLine   the scan line following the last scan line
+     * @param blockSize the maximum number of scan lines of a block
+     * @param numBlocks the number of blocks of a subscription
+     * @param executor  the executor reading the scan lines
+     */
+    public MetopScanLinePublisher(MetopScanLineReader reader, int firstLine, int endLine, int blockSize,
+                                  int numBlocks, Executor executor) {
+        this(reader, firstLine, endLine, blockSize, numBlocks, executor, false);
+    }
+
+    private MetopScanLinePublisher(MetopScanLineReader reader, int firstLine, int endLine, int blockSize,
+                                   int numBlocks, Executor executor, boolean tailing) {
+        final int numScanLines = tailing ? reader.getNumCompletedScanLines() : reader.getNumScanLines();
+        if (firstLine < 0 || endLine > numScanLines || firstLine > endLine) {
+            throw new IllegalArgumentException("Invalid range of scan lines: " + firstLine + " to " + endLine);
+        }
+        if (blockSize < 1 || numBlocks < 1) {
+            throw new IllegalArgumentException("The block size and the number of blocks must be positive.");
+        }
+        this.reader = reader;
+        this.metopFile = reader.getMetopFile();
+        this.firstLine = firstLine;
+        this.endLine = endLine;
+        this.blockSize = blockSize;
+        this.numBlocks = numBlocks;
+        this.executor = executor;
+        this.complete = !tailing || reader.isComplete();
+        tailingSubscriptions = new CopyOnWriteArrayList<BlockSubscription>();
+    }
+
+    /**
+     * Creates a publisher following a product file which is still being written. The publisher
+     * delivers all completed scan lines, including those following the last tie-point row of the
+     * product.
+     *
+     * @param reader    the reader of the product
+     * @param firstLine the first scan line, which must not follow the completed scan lines
+     * @param blockSize the maximum number of scan lines of a block
+     * @param numBlocks the number of blocks of a subscription
+     * @param executor  the executor reading the scan lines
+     * @return the publisher
+     */
+    public static MetopScanLinePublisher createTailingPublisher(MetopScanLineReader reader, int firstLine,
+                                                                int blockSize, int numBlocks, Executor executor) {
+        return new MetopScanLinePublisher(reader, firstLine, reader.getNumCompletedScanLines(), blockSize,
+                                          numBlocks, executor, true);
+    }
+
+    /**
+     * Re-checks the length of the product file and signals the scan lines which have been
+     * completed since the last poll to the subscribers. This method has no effect if the
+     * publisher is not tailing or the product is complete.
+     *
+     * @return the number of scan lines available to the subscribers
+     * @throws IOException if an I/O error occurs or a completed MDR is corrupt
+     */
+    public synchronized int poll() throws IOException {
+        if (!complete) {
+            final int count = reader.update();
+            final boolean productComplete = reader.isComplete();
+            if (count > endLine || productComplete) {
+                endLine = count;
+                complete = productComplete;
+                for (final BlockSubscription subscription : tailingSubscriptions) {
+                    subscription.signal();
+                }
+            }
+        }
+        return endLine;
+    }
+
+    /**
+     * @return {@code true} if the publisher is not tailing or the product is complete
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public void subscribe(MetopScanLineFlow.Subscriber<? super MetopScanLineBlock> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        final BlockSubscription subscription = new BlockSubscription(subscriber);
+        if (!complete) {
+            tailingSubscriptions.add(subscription);
+        }
+        try {
+            subscriber.onSubscribe(subscription);
+        } finally {
+            subscription.resume();
+        }
+    }
+
+    /**
+     * The subscription delivers the blocks by draining the demand on the executor. The signals
+     * of the subscriber are counted, so that at most one drain is running, which repeats until
+     * all signals have been handled.
+     */
+    final class BlockSubscription implements MetopScanLineFlow.Subscription, Runnable {
+
+        private final MetopScanLineFlow.Subscriber<? super MetopScanLineBlock> subscriber;
+        private final ScanLineDecoder decoder;
+        private final Queue<MetopScanLineBlock> freeBlocks;
+        private final AtomicLong demand;
+        // starts with a signal held until onSubscribe has returned, so that no block is delivered before
+        private final AtomicInteger pendingSignals;
+        private volatile boolean cancelled;
+        private volatile Throwable requestError;
+        // accessed by the drain only
+        private int nextLine;
+        private int numCreatedBlocks;
+        private boolean done;
+
+        private BlockSubscription(MetopScanLineFlow.Subscriber<? super MetopScanLineBlock> subscriber) {
+            this.subscriber = subscriber;
+            decoder = new ScanLineDecoder(metopFile);
+            freeBlocks = new ConcurrentLinkedQueue<MetopScanLineBlock>();
+            demand = new AtomicLong();
+            pendingSignals = new AtomicInteger(1);
+            nextLine = firstLine;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                requestError = new IllegalArgumentException("The number of requested blocks must be positive.");
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!demand.compareAndSet(current, next));
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            signal();
+        }
+
+        void release(MetopScanLineBlock block) {
+            if (!cancelled) {
+                freeBlocks.offer(block);
+                signal();
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    // the subscriber has failed
+                    cancelled = true;
+                    finish();
+                    throw e;
+                }
+                missed = pendingSignals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void resume() {
+            if (pendingSignals.decrementAndGet() != 0) {
+                execute();
+            }
+        }
+
+        private void signal() {
+            if (pendingSignals.getAndIncrement() == 0) {
+                execute();
+            }
+        }
+
+        private void execute() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+                if (!done) {
+                    finish();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (requestError != null) {
+                cancelled = true;
+            }
+            // the completion is read before the end line, so that no line is missed
+            final boolean finished = complete;
+            while (!cancelled && nextLine < endLine && demand.get() > 0) {
+                MetopScanLineBlock block = freeBlocks.poll();
+                if (block == null) {
+                    if (numCreatedBlocks == numBlocks) {
+                        // the drain is resumed when a block is released
+                        return;
+                    }
+                    block = new MetopScanLineBlock(this, blockSize, metopFile.getProductWidth(),
+                                                   metopFile.getNumNavPoints(), metopFile.getTiePointNames().length);
+                    numCreatedBlocks++;
+                }
+                final int count = Math.min(blockSize, endLine - nextLine);
+                try {
+                    for (int i = 0; i < count; i++) {
+                        if (cancelled) {
+                            break;
+                        }
+                        decoder.read(nextLine + i);
+                        block.readScanLine(decoder, metopFile, i);
+                    }
+                } catch (IOException e) {
+                    finish();
+                    cancelled = true;
+                    subscriber.onError(e);
+                    return;
+                }
+                if (cancelled) {
+                    break;
+                }
+                block.setScanLines(nextLine, count);
+                nextLine += count;
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                subscriber.onNext(block);
+            }
+            if (requestError != null) {
+                finish();
+                subscriber.onError(requestError);
+            } else if (cancelled) {
+                finish();
+                freeBlocks.clear();
+            } else if (finished && nextLine == endLine) {
+                finish();
+                subscriber.onComplete();
+            }
+        }
+
+        private void finish() {
+            done = true;
+            tailingSubscriptions.remove(this);
+        }
+    }
+}
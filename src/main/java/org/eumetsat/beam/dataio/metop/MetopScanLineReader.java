@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads the scan lines of a METOP-AVHRR/3 product without creating a product, for clients which
+ * process the data of a product in the order of its scan lines.
+ * <p/>
+ * The scan lines are trimmed to the width of the product like the bands of the product.
+ */
+public class MetopScanLineReader implements Closeable {
+
+    private final MetopFile metopFile;
+
+    /**
+     * Opens a product and reads its header.
+     *
+     * @param productFile the product file
+     * @throws IOException if the product cannot be read
+     */
+    public MetopScanLineReader(File productFile) throws IOException {
+        metopFile = new MetopFile(productFile);
+        try {
+            metopFile.readHeader();
+        } catch (IOException e) {
+            metopFile.dispose();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of scan lines of the product
+     */
+    public int getNumScanLines() {
+        return metopFile.getNumScanLines();
+    }
+
+    /**
+     * Returns the number of scan lines whose MDRs are complete. While the product file is still
+     * being written, this includes the scan lines following the last tie-point row, which are
+     * not yet counted by {@link #getNumScanLines()}.
+     *
+     * @return the number of completed scan lines
+     */
+    public int getNumCompletedScanLines() {
+        return metopFile.getNumCompletedScanLines();
+    }
+
+    /**
+     * Re-checks the length of a product file which is still being written and makes the scan
+     * lines available which have been completed since the last update, without reading the
+     * header again.
+     *
+     * @return the number of completed scan lines
+     * @throws IOException if an I/O error occurs or a completed MDR is corrupt
+     */
+    public int update() throws IOException {
+        return metopFile.updateCompletedScanLines();
+    }
+
+    /**
+     * @return {@code true} if all MDRs announced by the header of the product are complete
+     */
+    public boolean isComplete() {
+        return metopFile.isComplete();
+    }
+
+    /**
+     * @return the number of pixels of a scan line
+     */
+    public int getScanLineWidth() {
+        return metopFile.getProductWidth();
+    }
+
+    /**
+     * @return the number of tie points of a scan line
+     */
+    public int getNumTiePoints() {
+        return metopFile.getNumNavPoints();
+    }
+
+    /**
+     * @return the names of the tie-point grids, in the order of their indexes
+     */
+    public String[] getTiePointNames() {
+        return metopFile.getTiePointNames();
+    }
+
+    /**
+     * @return an iterator over all scan lines
+     */
+    public MetopScanLineIterator iterator() {
+        return iterator(0, getNumScanLines());
+    }
+
+    /**
+     * Returns an iterator over a range of scan lines.
+     *
+     * @param firstLine the first scan line
+     * @param endLine   the scan line following the last scan line
+     * @return the iterator
+     */
+    public MetopScanLineIterator iterator(int firstLine, int endLine) {
+        if (firstLine < 0 || endLine > getNumScanLines() || firstLine > endLine) {
+            throw new IllegalArgumentException("Invalid range of scan lines: " + firstLine + " to " + endLine);
+        }
+        return new MetopScanLineIterator(metopFile, firstLine, endLine);
+    }
+
+    MetopFile getMetopFile() {
+        return metopFile;
+    }
+
+    /**
+     * Closes the product. The iterators of this reader must not be used afterwards.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        metopFile.dispose();
+    }
+}
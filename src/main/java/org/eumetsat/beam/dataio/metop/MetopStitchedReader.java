@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.framework.dataio.ProductReaderPlugIn;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A reader presenting consecutive METOP-AVHRR/3 Level-1b products, e.g. the granules of an
+ * orbit, as a single product with a continuous swath, see {@link StitchedMetopFile}.
+ * <p/>
+ * The input of the reader is an array or a collection of the product files or their paths.
+ * Only the granules touched by the subset region of the product are opened.
+ */
+public class MetopStitchedReader extends MetopReader {
+
+    public MetopStitchedReader(ProductReaderPlugIn metopReaderPlugIn) {
+        super(metopReaderPlugIn);
+    }
+
+    @Override
+    protected Product readProductNodesImpl() throws IOException {
+        final List<File> granuleFiles = getGranuleFiles(getInput());
+        final StitchedMetopFile stitchedFile = new StitchedMetopFile(granuleFiles);
+        avhrrFile = stitchedFile;
+        try {
+            stitchedFile.readHeader();
+            final Dimension subsetSize = initSubset(stitchedFile.getProductWidth(), stitchedFile.getProductHeight());
+            stitchedFile.setSubset(getSubsetRegion(), subsetSize.width, subsetSize.height);
+            createProduct();
+        } catch (IOException e) {
+            try {
+                close();
+            } catch (IOException ignored) {
+                // ignore
+            }
+            throw e;
+        }
+        product.setFileLocation(stitchedFile.getGranule(0).getFile());
+
+        return product;
+    }
+
+    @Override
+    protected void readBandRasterDataImpl(int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                                          int sourceStepX, int sourceStepY, Band destBand, int destOffsetX,
+                                          int destOffsetY, int destWidth, int destHeight, ProductData destBuffer,
+                                          ProgressMonitor pm) throws IOException {
+        bandReaders.get(destBand).readBandRasterData(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                                     sourceStepX, sourceStepY, destBuffer, pm);
+    }
+
+    @Override
+    protected void addTiePointGrids() throws IOException {
+        final StitchedMetopFile stitchedFile = getStitchedFile();
+        addTiePointGrids(stitchedFile, stitchedFile.getFileKey());
+    }
+
+    StitchedMetopFile getStitchedFile() {
+        return (StitchedMetopFile) avhrrFile;
+    }
+
+    /**
+     * Returns the product files given by the input of the reader.
+     *
+     * @param input an array or a collection of files or paths
+     * @return the files
+     * @throws IllegalArgumentException if the input is not supported
+     */
+    static List<File> getGranuleFiles(Object input) {
+        final Collection<?> items;
+        if (input instanceof Object[]) {
+            items = Arrays.asList((Object[]) input);
+        } else if (input instanceof Collection) {
+            items = (Collection<?>) input;
+        } else {
+            throw new IllegalArgumentException("Unsupported input: the product files are not given by an array "
+                                                       + "or a collection.");
+        }
+        final List<File> files = new ArrayList<File>(items.size());
+        for (Object item : items) {
+            final File file = MetopReaderPlugIn.getInputFile(item);
+            if (file == null) {
+                throw new IllegalArgumentException("Unsupported input: " + item + " is not a file.");
+            }
+            files.add(file);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.dataio.ProductSubsetDef;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Maps a time window to the scan lines of a METOP-AVHRR/3 product.
+ * <p/>
+ * The start time of every scan line is read from the generic record header of its MDR,
+ * the rest of the MDR is not read. The scan lines of the time window are found by a
+ * binary search. Reading a product with the resulting subset definition reads only the
+ * MDRs of these scan lines.
+ */
+public class MetopTimeWindow {
+
+    private MetopTimeWindow() {
+    }
+
+    /**
+     * Creates a subset definition for the scan lines of a product measured within a time window.
+     *
+     * @param productFile the product file
+     * @param startTime   the start of the time window
+     * @param endTime     the end of the time window
+     * @return the subset definition, its region covers the full width of the product and all scan
+     *         lines measured within the time window. {@code null} if no scan line has been measured
+     *         within the time window.
+     * @throws IOException if an I/O error occurs
+     */
+    public static ProductSubsetDef createSubsetDef(File productFile, ProductData.UTC startTime,
+                                                   ProductData.UTC endTime) throws IOException {
+        final MetopFile metopFile = new MetopFile(productFile);
+        try {
+            metopFile.readHeader();
+            return createSubsetDef(metopFile, startTime, endTime);
+        } finally {
+            metopFile.dispose();
+        }
+    }
+
+    /**
+     * Creates a subset definition for the scan lines of an opened product measured within a time window.
+     *
+     * @param metopFile the product, its header has been read
+     * @param startTime the start of the time window
+     * @param endTime   the end of the time window
+     * @return the subset definition, {@code null} if no scan line has been measured within the time window
+     * @throws IOException if an I/O error occurs
+     */
+    static ProductSubsetDef createSubsetDef(MetopFile metopFile, ProductData.UTC startTime,
+                                            ProductData.UTC endTime) throws IOException {
+        final int[] scanLineRange = metopFile.getScanLineRange(startTime, endTime);
+        if (scanLineRange == null) {
+            return null;
+        }
+        final ProductSubsetDef subsetDef = new ProductSubsetDef();
+        subsetDef.setRegion(0, scanLineRange[0], metopFile.getProductWidth(),
+                            scanLineRange[1] - scanLineRange[0] + 1);
+        return subsetDef;
+    }
+}
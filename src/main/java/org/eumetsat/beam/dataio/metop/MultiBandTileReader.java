@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serves the band raster requests of a {@link MetopReader}, which BEAM issues band by band,
+ * from single passes over the MDRs.
+ * <p/>
+ * When a region of a band is requested, the same region of the other bands which are in demand
+ * is read in the same pass. Their data is kept until it is requested, too. A band is in demand
+ * after it has been requested, as long as it consumes the data read for it: a band with
+ * {@link #MAX_UNCONSUMED_TILES} regions waiting is not read along any more, and a band whose
+ * region is dropped without having been requested is no longer in demand. The amount of data
+ * kept is limited, the oldest regions are dropped first.
+ */
+class MultiBandTileReader {
+
+    /**
+     * The maximum number of regions read along for a band which have not been requested yet.
+     */
+    static final int MAX_UNCONSUMED_TILES = 4;
+
+    private final MetopFile metopFile;
+    private final Map<Band, BandReader> bandReaders;
+    private final long maxPendingBytes;
+    private final Set<Band> requestedBands;
+    private final Map<Band, Integer> unconsumedTileCounts;
+    private final LinkedHashMap<TileKey, Map<Band, ProductData>> pendingTiles;
+    private long pendingBytes;
+
+    MultiBandTileReader(MetopFile metopFile, Map<Band, BandReader> bandReaders, long maxPendingBytes) {
+        this.metopFile = metopFile;
+        this.bandReaders = bandReaders;
+        this.maxPendingBytes = maxPendingBytes;
+        this.requestedBands = new LinkedHashSet<Band>();
+        this.unconsumedTileCounts = new HashMap<Band, Integer>();
+        this.pendingTiles = new LinkedHashMap<TileKey, Map<Band, ProductData>>();
+    }
+
+    void readBandRasterData(Band destBand, int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                            int sourceStepX, int sourceStepY, ProductData destBuffer,
+                            ProgressMonitor pm) throws IOException {
+        final BandReader bandReader = bandReaders.get(destBand);
+        if (bandReader == null) {
+            throw new IllegalStateException("No band reader available for band '" + destBand.getName() + "'.");
+        }
+        final TileKey key = new TileKey(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                        sourceStepX, sourceStepY);
+        final List<Band> siblingBands = new ArrayList<Band>();
+        synchronized (this) {
+            final ProductData pendingData = removePendingData(key, destBand);
+            if (pendingData != null) {
+                System.arraycopy(pendingData.getElems(), 0, destBuffer.getElems(), 0, destBuffer.getNumElems());
+                return;
+            }
+            if (bandReader instanceof MdrBandReader) {
+                final Map<Band, ProductData> tileData = pendingTiles.get(key);
+                for (Band band : requestedBands) {
+                    if (band != destBand && bandReaders.get(band) instanceof MdrBandReader
+                            && (tileData == null || !tileData.containsKey(band))
+                            && getUnconsumedTileCount(band) < MAX_UNCONSUMED_TILES) {
+                        siblingBands.add(band);
+                    }
+                }
+                requestedBands.add(destBand);
+            }
+        }
+        if (siblingBands.isEmpty()) {
+            bandReader.readBandRasterData(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                          sourceStepX, sourceStepY, destBuffer, pm);
+            return;
+        }
+
+        final int numBands = siblingBands.size() + 1;
+        final BandReader[] readers = new BandReader[numBands];
+        final ProductData[] destBuffers = new ProductData[numBands];
+        readers[0] = bandReader;
+        destBuffers[0] = destBuffer;
+        for (int i = 1; i < numBands; i++) {
+            readers[i] = bandReaders.get(siblingBands.get(i - 1));
+            destBuffers[i] = ProductData.createInstance(readers[i].getDataType(), destBuffer.getNumElems());
+        }
+        metopFile.readBandRasterData(sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight,
+                                     sourceStepX, sourceStepY, readers, destBuffers, pm);
+        if (pm.isCanceled()) {
+            return;
+        }
+
+        synchronized (this) {
+            Map<Band, ProductData> tileData = pendingTiles.remove(key);
+            if (tileData == null) {
+                tileData = new HashMap<Band, ProductData>();
+            }
+            // the tile is moved to the end of the eviction order
+            pendingTiles.put(key, tileData);
+            for (int i = 1; i < numBands; i++) {
+                final Band band = siblingBands.get(i - 1);
+                final ProductData previousData = tileData.put(band, destBuffers[i]);
+                if (previousData != null) {
+                    // read along by a concurrent request of another band
+                    pendingBytes -= sizeOf(previousData);
+                } else {
+                    unconsumedTileCounts.put(band, getUnconsumedTileCount(band) + 1);
+                }
+                pendingBytes += sizeOf(destBuffers[i]);
+            }
+            final Iterator<Map<Band, ProductData>> iterator = pendingTiles.values().iterator();
+            while (pendingBytes > maxPendingBytes && iterator.hasNext()) {
+                for (Map.Entry<Band, ProductData> entry : iterator.next().entrySet()) {
+                    // the band has not been requested in time, it is not read along any more
+                    final Band band = entry.getKey();
+                    pendingBytes -= sizeOf(entry.getValue());
+                    decrementUnconsumedTileCount(band);
+                    requestedBands.remove(band);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void dispose() {
+        pendingTiles.clear();
+        requestedBands.clear();
+        unconsumedTileCounts.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * @param band a band
+     * @return {@code true} if the band is read along with the other bands
+     */
+    synchronized boolean isInDemand(Band band) {
+        return requestedBands.contains(band);
+    }
+
+    /**
+     * @param band a band
+     * @return the number of regions read along for the band which have not been requested yet
+     */
+    synchronized int getUnconsumedTileCount(Band band) {
+        final Integer count = unconsumedTileCounts.get(band);
+        return count != null ? count : 0;
+    }
+
+    private void decrementUnconsumedTileCount(Band band) {
+        final int count = getUnconsumedTileCount(band) - 1;
+        if (count > 0) {
+            unconsumedTileCounts.put(band, count);
+        } else {
+            unconsumedTileCounts.remove(band);
+        }
+    }
+
+    private ProductData removePendingData(TileKey key, Band band) {
+        final Map<Band, ProductData> tileData = pendingTiles.get(key);
+        if (tileData == null) {
+            return null;
+        }
+        final ProductData data = tileData.remove(band);
+        if (data != null) {
+            pendingBytes -= sizeOf(data);
+            decrementUnconsumedTileCount(band);
+            if (tileData.isEmpty()) {
+                pendingTiles.remove(key);
+            }
+        }
+        return data;
+    }
+
+    private static long sizeOf(ProductData data) {
+        return (long) data.getNumElems() * data.getElemSize();
+    }
+
+    private static final class TileKey {
+
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final int stepX;
+        private final int stepY;
+
+        private TileKey(int x, int y, int width, int height, int stepX, int stepY) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.stepX = stepX;
+            this.stepY = stepY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            final TileKey other = (TileKey) o;
+            return x == other.x && y == other.y && width == other.width && height == other.height
+                    && stepX == other.stepX && stepY == other.stepY;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = x;
+            result = 31 * result + y;
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + stepX;
+            result = 31 * result + stepY;
+            return result;
+        }
+    }
+}
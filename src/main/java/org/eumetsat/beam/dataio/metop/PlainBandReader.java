@@ -21,11 +21,10 @@ package org.eumetsat.beam.dataio.metop;
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.beam.dataio.avhrr.AvhrrConstants;
 import org.esa.beam.dataio.avhrr.AvhrrFile;
-import org.esa.beam.dataio.avhrr.BandReader;
 import org.esa.beam.framework.datamodel.ProductData;
 
-import javax.imageio.stream.ImageInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 
 /**
@@ -33,7 +32,7 @@ import java.text.MessageFormat;
  *
  * @author marcoz
  */
-class PlainBandReader implements BandReader {
+class PlainBandReader implements MdrBandReader {
 
     private static final String VIS_RADIANCE_UNIT = "W / (m^2 sr)";
     private static final String IR_RADIANCE_UNIT = "mW / (m^2 sr cm)";
@@ -42,13 +41,13 @@ class PlainBandReader implements BandReader {
 
     protected MetopFile metopFile;
 
-    protected final ImageInputStream inputStream;
+    protected final MdrAccess mdrAccess;
 
     public PlainBandReader(int channel, MetopFile metopFile,
-                           ImageInputStream inputStream) {
+                           MdrAccess mdrAccess) {
         this.channel = channel;
         this.metopFile = metopFile;
-        this.inputStream = inputStream;
+        this.mdrAccess = mdrAccess;
     }
 
     @Override
@@ -103,7 +102,9 @@ class PlainBandReader implements BandReader {
 
         AvhrrFile.RawCoordinates rawCoord = metopFile.getRawCoordinates(
                 sourceOffsetX, sourceOffsetY, sourceWidth, sourceHeight);
-        final short[] targetData = (short[]) destBuffer.getElems();
+        final Object targetData = destBuffer.getElems();
+        final int recordOffset = getRecordOffset(sourceOffsetX);
+        final int recordLength = getRecordLength(sourceWidth);
 
         pm.beginTask(MessageFormat.format("Reading AVHRR band ''{0}''...", getBandName()),
                      rawCoord.maxY - rawCoord.minY);
@@ -114,30 +115,51 @@ class PlainBandReader implements BandReader {
                 break;
             }
 
+            ByteBuffer record = null;
             if (hasData(sourceY)) {
-                final int dataOffset = getDataOffset(sourceOffsetX, sourceY);
-                synchronized (inputStream) {
-                    inputStream.seek(dataOffset);
-                    inputStream.readFully(targetData, targetIdx, sourceWidth);
-                }
-                targetIdx += sourceWidth;
-            } else {
-                for (int sourceX = rawCoord.minX; sourceX <= rawCoord.maxX; sourceX += sourceStepX) {
-                    targetData[targetIdx] = AvhrrConstants.NO_DATA_VALUE;
-                    targetIdx += rawCoord.targetIncrement;
-                }
+                record = mdrAccess.read(metopFile.getMdrOffset(sourceY) + recordOffset, recordLength);
             }
+            targetIdx = readScanLine(record, recordOffset, sourceOffsetX, sourceWidth, sourceStepX,
+                                     rawCoord, targetData, targetIdx);
             pm.worked(1);
         }
         pm.done();
 
     }
 
-    protected int getDataOffset(int sourceOffsetX, int sourceY) {
-        return metopFile.getScanLineOffset(sourceY)
-                + 24
-                + (AvhrrConstants.RAW_SCENE_RASTER_WIDTH * AvhrrConstants.CH_DATASET_INDEXES[channel] * 2)
-                + ((metopFile.getNumTrimX() + sourceOffsetX) * 2);
+    @Override
+    public int getRecordOffset(int sourceOffsetX) {
+        return metopFile.getRadianceRecordOffset(channel) + sourceOffsetX * 2;
+    }
+
+    @Override
+    public int getRecordLength(int sourceWidth) {
+        return sourceWidth * 2;
+    }
+
+    @Override
+    public int readScanLine(ByteBuffer record, int recordStart, int sourceOffsetX, int sourceWidth, int sourceStepX,
+                            AvhrrFile.RawCoordinates rawCoord, Object targetData, int targetIdx) {
+        final short[] shortTargetData = (short[]) targetData;
+        if (record != null) {
+            final int firstIndex = getRecordOffset(sourceOffsetX) - recordStart;
+            if (sourceStepX == 1 && rawCoord.targetIncrement == 1) {
+                record.position(firstIndex);
+                record.asShortBuffer().get(shortTargetData, targetIdx, sourceWidth);
+                targetIdx += sourceWidth;
+            } else {
+                for (int sourceX = 0; sourceX < sourceWidth; sourceX += sourceStepX) {
+                    shortTargetData[targetIdx] = record.getShort(firstIndex + sourceX * 2);
+                    targetIdx += rawCoord.targetIncrement;
+                }
+            }
+        } else {
+            for (int sourceX = rawCoord.minX; sourceX <= rawCoord.maxX; sourceX += sourceStepX) {
+                shortTargetData[targetIdx] = AvhrrConstants.NO_DATA_VALUE;
+                targetIdx += rawCoord.targetIncrement;
+            }
+        }
+        return targetIdx;
     }
 
     protected boolean isVisibleBand() {
@@ -145,15 +167,15 @@ class PlainBandReader implements BandReader {
                 || channel == AvhrrConstants.CH_3A;
     }
 
-    protected boolean hasData(int rawY) throws IOException {
-        if (channel != AvhrrConstants.CH_3A && channel != AvhrrConstants.CH_3B) {
-            return true;
+    @Override
+    public boolean hasData(int rawY) throws IOException {
+        if (channel == AvhrrConstants.CH_3A) {
+            return metopFile.isChannel3a(rawY);
         }
-        final int bitField = metopFile.readFrameIndicator(rawY);
-        final int channel3ab = bitField & 1;
-
-        return (channel3ab == 1 && channel == AvhrrConstants.CH_3A)
-                || (channel3ab == 0 && channel == AvhrrConstants.CH_3B);
+        if (channel == AvhrrConstants.CH_3B) {
+            return !metopFile.isChannel3a(rawY);
+        }
+        return true;
     }
 
     private static String format(String pattern, String arg) {
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Extracts the pixel windows of points from a single product.
+ * <p/>
+ * The points are located in the product by the inverse geolocation of its tie points, and their
+ * windows are read scan line by scan line in the order of the scan lines. Each MDR covered by a
+ * window is read once for all windows and all bands, and only the part of the MDR spanning the
+ * windows of the scan line is read. Until the first scan line of a window is read, only the position
+ * of its point is kept. A window is passed on as soon as its last scan line has been read, so that
+ * only the values of the windows overlapping the current scan line are kept in memory.
+ */
+class PointExtraction {
+
+    private static final int[] REFLECTANCE_CHANNELS = {AvhrrConstants.CH_1, AvhrrConstants.CH_2, AvhrrConstants.CH_3A};
+    private static final int[] TEMPERATURE_CHANNELS = {AvhrrConstants.CH_3B, AvhrrConstants.CH_4, AvhrrConstants.CH_5};
+    private static final int LAT_INDEX = 4;
+    private static final int LON_INDEX = 5;
+
+    private final MetopFile metopFile;
+    private final File productFile;
+    private final int windowSize;
+    private final long maxTimeDifference;
+    private final BandReader[] bandReaders;
+    private final String[] variableNames;
+
+    /**
+     * Creates an extraction.
+     *
+     * @param metopFile         the product, its header must have been read
+     * @param productFile       the product file
+     * @param windowSize        the width and height of the windows, an odd number
+     * @param maxTimeDifference the maximum difference in milliseconds between the time of a point and
+     *                          the start time of its scan line
+     */
+    PointExtraction(MetopFile metopFile, File productFile, int windowSize, long maxTimeDifference) {
+        this.metopFile = metopFile;
+        this.productFile = productFile;
+        this.windowSize = windowSize;
+        this.maxTimeDifference = maxTimeDifference;
+
+        final List<BandReader> readers = new ArrayList<BandReader>();
+        for (int channel : REFLECTANCE_CHANNELS) {
+            readers.add(metopFile.createReflectanceFactorBandReader(channel));
+        }
+        for (int channel : TEMPERATURE_CHANNELS) {
+            readers.add(metopFile.createIrTemperatureBandReader(channel));
+        }
+        readers.add(metopFile.createCloudBandReader());
+        bandReaders = readers.toArray(new BandReader[readers.size()]);
+
+        final String[] tiePointNames = metopFile.getTiePointNames();
+        variableNames = new String[bandReaders.length + tiePointNames.length];
+        for (int i = 0; i < bandReaders.length; i++) {
+            variableNames[i] = bandReaders[i].getBandName();
+        }
+        System.arraycopy(tiePointNames, 0, variableNames, bandReaders.length, tiePointNames.length);
+    }
+
+    /**
+     * Extracts the windows of the points which are located in the product and have been measured
+     * within the maximum time difference.
+     *
+     * @param points  the points
+     * @param handler the handler receiving the windows in the order of their scan lines
+     * @throws IOException if an I/O error occurs
+     */
+    void extract(List<MetopMatchupPoint> points, MetopPointExtractor.WindowHandler handler) throws IOException {
+        final int sampleRate = metopFile.getNavSampleRate();
+        final int gridWidth = metopFile.getNumNavPoints();
+        final int gridHeight = metopFile.getNumScanLines() / sampleRate + 1;
+        final float[][] tiePointData = metopFile.getTiePointData();
+        final InverseGeolocationIndex index = new InverseGeolocationIndex(tiePointData[LAT_INDEX],
+                                                                          tiePointData[LON_INDEX], gridWidth,
+                                                                          gridHeight, 0.5 / sampleRate);
+
+        final List<Window> windows = new ArrayList<Window>();
+        final double[] position = new double[2];
+        long[] scanLineTimes = null;
+        for (MetopMatchupPoint point : points) {
+            if (!index.findPosition(point.getLat(), point.getLon(), position)) {
+                continue;
+            }
+            // the tie points are located at the centres of the pixels of every n-th column and scan line
+            final int x = clamp((int) Math.floor(position[0] * sampleRate + 0.5), metopFile.getProductWidth());
+            final int y = clamp((int) Math.floor(position[1] * sampleRate + 0.5), metopFile.getNumScanLines());
+            if (scanLineTimes == null) {
+                scanLineTimes = metopFile.getScanLineStartTimes();
+            }
+            final long timeDifference = scanLineTimes[y] - MetopFile.toMillis(point.getTime());
+            if (Math.abs(timeDifference) <= maxTimeDifference) {
+                windows.add(new Window(point, x, y, timeDifference));
+            }
+        }
+        Collections.sort(windows, new Comparator<Window>() {
+            @Override
+            public int compare(Window w1, Window w2) {
+                return w1.centreY < w2.centreY ? -1 : (w1.centreY == w2.centreY ? 0 : 1);
+            }
+        });
+        readWindows(windows, tiePointData, handler);
+    }
+
+    private void readWindows(List<Window> windows, float[][] tiePointData,
+                             MetopPointExtractor.WindowHandler handler) throws IOException {
+        final int sampleRate = metopFile.getNavSampleRate();
+        final int gridWidth = metopFile.getNumNavPoints();
+        final int halfSize = windowSize / 2;
+        final int productWidth = metopFile.getProductWidth();
+        final int lastScanLine = metopFile.getNumScanLines() - 1;
+        final ProductData[] lineBuffers = new ProductData[bandReaders.length];
+        for (int i = 0; i < bandReaders.length; i++) {
+            lineBuffers[i] = ProductData.createInstance(bandReaders[i].getDataType(), productWidth);
+        }
+
+        final List<Window> activeWindows = new ArrayList<Window>();
+        int nextWindow = 0;
+        int y = -1;
+        while (nextWindow < windows.size() || !activeWindows.isEmpty()) {
+            if (activeWindows.isEmpty()) {
+                // the scan lines between the windows are skipped
+                y = Math.max(0, windows.get(nextWindow).centreY - halfSize);
+            } else {
+                y++;
+            }
+            while (nextWindow < windows.size() && windows.get(nextWindow).centreY - halfSize <= y) {
+                final Window window = windows.get(nextWindow++);
+                window.createValues();
+                interpolateTiePoints(window, tiePointData, gridWidth, sampleRate);
+                activeWindows.add(window);
+            }
+            int minX = productWidth - 1;
+            int maxX = 0;
+            for (Window window : activeWindows) {
+                minX = Math.min(minX, Math.max(0, window.centreX - halfSize));
+                maxX = Math.max(maxX, Math.min(productWidth - 1, window.centreX + halfSize));
+            }
+            metopFile.readBandRasterData(minX, y, maxX - minX + 1, 1, 1, 1, bandReaders, lineBuffers,
+                                         ProgressMonitor.NULL);
+
+            for (Iterator<Window> iterator = activeWindows.iterator(); iterator.hasNext(); ) {
+                final Window window = iterator.next();
+                copyScanLine(window, y, minX, lineBuffers);
+                if (window.centreY + halfSize <= y || y == lastScanLine) {
+                    iterator.remove();
+                    handler.handleWindow(new MetopPixelWindow(window.point, productFile, window.centreX,
+                                                              window.centreY, windowSize, window.timeDifference,
+                                                              variableNames, window.values));
+                    // the values are owned by the handler now
+                    window.values = null;
+                }
+            }
+        }
+    }
+
+    private void copyScanLine(Window window, int y, int lineStart, ProductData[] lineBuffers) {
+        final int halfSize = windowSize / 2;
+        final int minX = Math.max(0, window.centreX - halfSize);
+        final int maxX = Math.min(metopFile.getProductWidth() - 1, window.centreX + halfSize);
+        final int rowStart = (y - window.centreY + halfSize) * windowSize - window.centreX + halfSize;
+        for (int i = 0; i < lineBuffers.length; i++) {
+            final float[] values = window.values[i];
+            for (int x = minX; x <= maxX; x++) {
+                values[rowStart + x] = lineBuffers[i].getElemFloatAt(x - lineStart);
+            }
+        }
+    }
+
+    // the tie points are interpolated bilinearly, as by the tie-point grids of the product
+    private void interpolateTiePoints(Window window, float[][] tiePointData, int gridWidth, int sampleRate) {
+        final int halfSize = windowSize / 2;
+        final int gridHeight = tiePointData[0].length / gridWidth;
+        for (int j = 0; j < windowSize; j++) {
+            final int y = window.centreY - halfSize + j;
+            if (y < 0 || y >= metopFile.getNumScanLines()) {
+                continue;
+            }
+            final int cellY = Math.min(y / sampleRate, gridHeight - 2);
+            final float v = (float) (y - cellY * sampleRate) / sampleRate;
+            for (int i = 0; i < windowSize; i++) {
+                final int x = window.centreX - halfSize + i;
+                if (x < 0 || x >= metopFile.getProductWidth()) {
+                    continue;
+                }
+                final int cellX = Math.min(x / sampleRate, gridWidth - 2);
+                final float u = (float) (x - cellX * sampleRate) / sampleRate;
+                final int i00 = cellY * gridWidth + cellX;
+                for (int k = 0; k < tiePointData.length; k++) {
+                    final float[] data = tiePointData[k];
+                    float v00 = data[i00];
+                    float v10 = data[i00 + 1];
+                    float v01 = data[i00 + gridWidth];
+                    float v11 = data[i00 + gridWidth + 1];
+                    if (k == LON_INDEX) {
+                        v10 = v00 + wrapLon(v10 - v00);
+                        v01 = v00 + wrapLon(v01 - v00);
+                        v11 = v00 + wrapLon(v11 - v00);
+                    }
+                    float value = (1.0f - v) * ((1.0f - u) * v00 + u * v10) + v * ((1.0f - u) * v01 + u * v11);
+                    if (k == LON_INDEX) {
+                        if (value >= 180.0f) {
+                            value -= 360.0f;
+                        } else if (value < -180.0f) {
+                            value += 360.0f;
+                        }
+                    }
+                    window.values[bandReaders.length + k][j * windowSize + i] = value;
+                }
+            }
+        }
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(value, size - 1));
+    }
+
+    private static float wrapLon(float deltaLon) {
+        if (deltaLon > 180.0f) {
+            return deltaLon - 360.0f;
+        } else if (deltaLon < -180.0f) {
+            return deltaLon + 360.0f;
+        }
+        return deltaLon;
+    }
+
+    private final class Window {
+
+        private final MetopMatchupPoint point;
+        private final int centreX;
+        private final int centreY;
+        private final long timeDifference;
+        // only held while the scan lines of the window are read
+        private float[][] values;
+
+        private Window(MetopMatchupPoint point, int centreX, int centreY, long timeDifference) {
+            this.point = point;
+            this.centreX = centreX;
+            this.centreY = centreY;
+            this.timeDifference = timeDifference;
+        }
+
+        private void createValues() {
+            values = new float[variableNames.length][windowSize * windowSize];
+            for (float[] variableValues : values) {
+                Arrays.fill(variableValues, Float.NaN);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the MDRs of single scan lines and decodes them into primitive arrays provided by the
+ * caller. A decoder must not be used concurrently.
+ */
+class ScanLineDecoder {
+
+    static final int NUM_RADIANCE_DATASETS = 5;
+
+    // the GRH times are given by the days since 2000-01-01 and the milliseconds of the day
+    private static final int GRH_START_TIME_OFFSET = 8;
+    private static final int GRH_END_TIME_OFFSET = 14;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final MetopFile metopFile;
+    private final int[] radianceOffsets;
+    private final int cloudFlagOffset;
+    private final int recordLength;
+    private final short[] rawAngles;
+    private final int[] rawLatLon;
+    private ByteBuffer record;
+
+    ScanLineDecoder(MetopFile metopFile) {
+        this.metopFile = metopFile;
+
+        final int[] datasetChannels = {
+                AvhrrConstants.CH_1, AvhrrConstants.CH_2, AvhrrConstants.CH_3A, AvhrrConstants.CH_4,
+                AvhrrConstants.CH_5
+        };
+        radianceOffsets = new int[NUM_RADIANCE_DATASETS];
+        for (int i = 0; i < NUM_RADIANCE_DATASETS; i++) {
+            radianceOffsets[i] = metopFile.getRadianceRecordOffset(datasetChannels[i]);
+        }
+        cloudFlagOffset = metopFile.getCloudInformationRecordOffset();
+        recordLength = metopFile.getFrameIndicatorOffset() + 4;
+        rawAngles = new short[metopFile.getNumNavPoints() * 4];
+        rawLatLon = new int[metopFile.getNumNavPoints() * 2];
+    }
+
+    /**
+     * Reads the MDR of a scan line. The MDR is decoded by the other methods of this decoder until
+     * the next MDR is read.
+     *
+     * @param rawY the scan line
+     * @throws IOException if an I/O error occurs
+     */
+    void read(int rawY) throws IOException {
+        record = metopFile.getMdrAccess().read(metopFile.getMdrOffset(rawY), recordLength);
+    }
+
+    /**
+     * Decodes the radiances, the cloud flags and the tie points of the MDR.
+     *
+     * @param radiances    the arrays receiving the radiances of the five radiance datasets
+     * @param cloudFlags   the array receiving the cloud flags
+     * @param pixelIndex   the index of the first pixel within the radiance and cloud flag arrays
+     * @param tiePointData the arrays receiving the tie points of the grids named by
+     *                     {@link MetopFile#getTiePointNames()}
+     * @param tiePointIndex the index of the first tie point within the tie-point arrays
+     */
+    void decode(short[][] radiances, short[] cloudFlags, int pixelIndex, float[][] tiePointData, int tiePointIndex) {
+        final int width = metopFile.getProductWidth();
+        for (int i = 0; i < NUM_RADIANCE_DATASETS; i++) {
+            record.position(radianceOffsets[i]);
+            record.asShortBuffer().get(radiances[i], pixelIndex, width);
+        }
+        record.position(cloudFlagOffset);
+        record.asShortBuffer().get(cloudFlags, pixelIndex, width);
+        metopFile.decodeTiePoints(record, metopFile.getTiePointOffset(), rawAngles, rawLatLon, tiePointData,
+                                  tiePointIndex);
+    }
+
+    /**
+     * @return the start time given by the GRH of the MDR, in milliseconds since 2000-01-01
+     */
+    long getStartTime() {
+        return getTime(GRH_START_TIME_OFFSET);
+    }
+
+    /**
+     * @return the end time given by the GRH of the MDR, in milliseconds since 2000-01-01
+     */
+    long getEndTime() {
+        return getTime(GRH_END_TIME_OFFSET);
+    }
+
+    int getFrameIndicator() {
+        return record.getInt(metopFile.getFrameIndicatorOffset());
+    }
+
+    /**
+     * @return {@code true} if channel 3A has been measured, {@code false} if channel 3B has been measured
+     */
+    boolean isChannel3a() {
+        return (record.get(metopFile.getFrameIndicatorOffset() + 1) & 1) == 1;
+    }
+
+    private long getTime(int offset) {
+        return (record.getShort(offset) & 0xFFFF) * MILLIS_PER_DAY + (record.getInt(offset + 2) & 0xFFFFFFFFL);
+    }
+}
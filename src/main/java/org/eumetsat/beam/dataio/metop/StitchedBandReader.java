@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.ProductData;
+
+import java.io.IOException;
+
+/**
+ * Reads a band of a stitched swath by routing the scan lines of each segment of the swath to
+ * the band reader of the granule of the segment. The band readers of the granules are created
+ * when a segment is read for the first time, and read directly into the destination buffer.
+ */
+abstract class StitchedBandReader implements BandReader {
+
+    private final StitchedMetopFile stitchedFile;
+    private final BandReader templateReader;
+    private final BandReader[] granuleReaders;
+
+    /**
+     * Creates a band reader.
+     *
+     * @param stitchedFile   the stitched swath
+     * @param templateReader the band reader of a granule, which provides the properties of the band
+     */
+    StitchedBandReader(StitchedMetopFile stitchedFile, BandReader templateReader) {
+        this.stitchedFile = stitchedFile;
+        this.templateReader = templateReader;
+        this.granuleReaders = new BandReader[stitchedFile.getNumSegments()];
+    }
+
+    /**
+     * Creates the band reader of a granule.
+     *
+     * @param granuleFile the product file of the granule
+     * @return the band reader
+     */
+    abstract BandReader createGranuleBandReader(MetopFile granuleFile);
+
+    @Override
+    public String getBandName() {
+        return templateReader.getBandName();
+    }
+
+    @Override
+    public String getBandUnit() {
+        return templateReader.getBandUnit();
+    }
+
+    @Override
+    public String getBandDescription() {
+        return templateReader.getBandDescription();
+    }
+
+    @Override
+    public double getScalingFactor() {
+        return templateReader.getScalingFactor();
+    }
+
+    @Override
+    public int getDataType() {
+        return templateReader.getDataType();
+    }
+
+    @Override
+    public void readBandRasterData(int sourceOffsetX, int sourceOffsetY, int sourceWidth, int sourceHeight,
+                                   int sourceStepX, int sourceStepY, ProductData destBuffer,
+                                   ProgressMonitor pm) throws IOException {
+        final int targetWidth = (sourceWidth - 1) / sourceStepX + 1;
+        final int maxY = sourceOffsetY + sourceHeight - 1;
+
+        pm.beginTask("Reading stitched AVHRR band...", (sourceHeight - 1) / sourceStepY + 1);
+        try {
+            int y = sourceOffsetY;
+            int targetRow = 0;
+            while (y <= maxY) {
+                if (pm.isCanceled()) {
+                    return;
+                }
+                final int segment = stitchedFile.getSegment(y);
+                final int segmentMaxY = Math.min(maxY, stitchedFile.getSegmentStart(segment + 1) - 1);
+                final int numRows = (segmentMaxY - y) / sourceStepY + 1;
+                final MetopFile granuleFile = stitchedFile.getGranule(segment).getMetopFile();
+                granuleFile.readBandRasterData(sourceOffsetX, stitchedFile.getGranuleScanLine(segment, y), sourceWidth,
+                                               (numRows - 1) * sourceStepY + 1, sourceStepX, sourceStepY,
+                                               new BandReader[]{getGranuleReader(segment, granuleFile)},
+                                               new ProductData[]{destBuffer}, targetRow * targetWidth,
+                                               ProgressMonitor.NULL);
+                targetRow += numRows;
+                y += numRows * sourceStepY;
+                pm.worked(numRows);
+            }
+        } finally {
+            pm.done();
+        }
+    }
+
+    private synchronized BandReader getGranuleReader(int segment, MetopFile granuleFile) {
+        if (granuleReaders[segment] == null) {
+            granuleReaders[segment] = createGranuleBandReader(granuleFile);
+        }
+        return granuleReaders[segment];
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.AvhrrFile;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.dataio.avhrr.HeaderUtil;
+import org.esa.beam.framework.datamodel.MetadataElement;
+import org.esa.beam.framework.datamodel.ProductData.UTC;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A continuous swath stitched from consecutive METOP-AVHRR/3 products, which are called the
+ * granules of the swath.
+ * <p/>
+ * The granules are ordered by the start time of their first MDR. The leading scan lines of a
+ * granule which start before the last scan line of the preceding granule has ended are dropped,
+ * according to the times given by the GRHs of the MDRs, and granules covered completely by
+ * their predecessors are dropped altogether. The remaining scan lines are concatenated, the
+ * tie points of the stitched tie-point rows are read from the MDRs of the granules.
+ * <p/>
+ * The bands are read by the band readers of the granules, directly into the destination
+ * buffers. The product header of a granule is read when a subset touching the granule is set,
+ * the header of the other granules is not read at all.
+ */
+class StitchedMetopFile extends AvhrrFile implements TiePointRows {
+
+    private static final Pattern EPS_PRODUCT_NAME_PATTERN =
+            Pattern.compile("(AVHR_.{3}_1B_M\\d{2}_\\d{14}Z_)(\\d{14}Z)(_.*)");
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final List<File> granuleFiles;
+    // the granules of the segments of the swath, in their order
+    private MetopGranule[] granules;
+    // the first stitched scan line of each segment, followed by the number of stitched scan lines
+    private int[] segmentStarts;
+    // the scan line of the granule corresponding to the first stitched scan line of each segment
+    private int[] segmentOffsets;
+    private int navSampleRate;
+    private int numNavPoints;
+    private int numScanLines;
+    private int numTrimBottom;
+    private UTC startTime;
+    private UTC endTime;
+    private int minSegment;
+    private int maxSegment;
+    private MetopFile template;
+
+    /**
+     * Creates a stitched swath.
+     *
+     * @param granuleFiles the product files of the granules, in any order
+     */
+    StitchedMetopFile(List<File> granuleFiles) {
+        this.granuleFiles = new ArrayList<File>(granuleFiles);
+    }
+
+    /**
+     * Scans the granules and computes the layout of the swath. The product headers of the
+     * granules are not read.
+     *
+     * @throws IOException if a granule is not a METOP-AVHRR/3 product, the granules have
+     *                     different navigation sample rates or an I/O error occurs
+     */
+    @Override
+    public void readHeader() throws IOException {
+        if (granuleFiles.isEmpty()) {
+            throw new IOException("No granule to be stitched.");
+        }
+        final List<MetopGranule> scannedGranules = new ArrayList<MetopGranule>(granuleFiles.size());
+        try {
+            for (File file : granuleFiles) {
+                scannedGranules.add(MetopGranule.scan(file));
+            }
+            layOut(scannedGranules);
+        } finally {
+            // the streams opened by the scans are only needed to lay out the swath
+            for (MetopGranule granule : scannedGranules) {
+                granule.closeInputStream();
+            }
+        }
+    }
+
+    // orders the granules and computes the segments of the swath
+    private void layOut(List<MetopGranule> scannedGranules) throws IOException {
+        navSampleRate = scannedGranules.get(0).getNavSampleRate();
+        productWidth = MetopFile.getProductWidth(navSampleRate);
+        if (productWidth == 0) {
+            throw new IOException("Unsupported product: bad SPHR. NAV_SAMPLE_RATE is: " + navSampleRate);
+        }
+        for (MetopGranule granule : scannedGranules) {
+            if (granule.getNavSampleRate() != navSampleRate) {
+                throw new IOException("The granules have different navigation sample rates: "
+                                              + granule.getFile() + " has " + granule.getNavSampleRate()
+                                              + " instead of " + navSampleRate + ".");
+            }
+        }
+        numNavPoints = (productWidth - 1) / navSampleRate + 1;
+
+        // granules with the same start time are ordered by their end time, the longer granule first
+        Collections.sort(scannedGranules, new Comparator<MetopGranule>() {
+            @Override
+            public int compare(MetopGranule g1, MetopGranule g2) {
+                if (g1.getFirstStartTime() != g2.getFirstStartTime()) {
+                    return g1.getFirstStartTime() < g2.getFirstStartTime() ? -1 : 1;
+                }
+                return g1.getLastStartTime() > g2.getLastStartTime() ? -1 :
+                       g1.getLastStartTime() < g2.getLastStartTime() ? 1 : 0;
+            }
+        });
+
+        final List<MetopGranule> segmentGranules = new ArrayList<MetopGranule>();
+        final List<Integer> offsets = new ArrayList<Integer>();
+        final List<Integer> starts = new ArrayList<Integer>();
+        int numStitchedLines = 0;
+        MetopGranule previous = null;
+        for (MetopGranule granule : scannedGranules) {
+            int offset = 0;
+            if (previous != null) {
+                // the scan lines starting within half a line duration after the last scan line
+                // of the preceding granule are the same scan lines
+                final long overlapEnd = previous.getLastStartTime() + Math.max(1, getLineDuration(previous) / 2);
+                offset = granule.countScanLinesStartedBefore(overlapEnd);
+            }
+            if (offset < granule.getNumScanLines()) {
+                segmentGranules.add(granule);
+                offsets.add(offset);
+                starts.add(numStitchedLines);
+                numStitchedLines += granule.getNumScanLines() - offset;
+                previous = granule;
+            }
+        }
+
+        final int numSegments = segmentGranules.size();
+        granules = segmentGranules.toArray(new MetopGranule[numSegments]);
+        segmentStarts = new int[numSegments + 1];
+        segmentOffsets = new int[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            segmentStarts[i] = starts.get(i);
+            segmentOffsets[i] = offsets.get(i);
+        }
+        segmentStarts[numSegments] = numStitchedLines;
+
+        // like a single product, the swath ends with a tie-point row
+        numScanLines = ((numStitchedLines - 1) / navSampleRate) * navSampleRate + 1;
+        numTrimBottom = numStitchedLines - numScanLines;
+        productHeight = numScanLines;
+        minSegment = 0;
+        maxSegment = getSegment(numScanLines - 1);
+
+        startTime = toUtc(granules[0].getFirstStartTime());
+        final int lastSegment = getSegment(numScanLines - 1);
+        endTime = granules[lastSegment].readEndTime(getGranuleScanLine(lastSegment, numScanLines - 1));
+    }
+
+    /**
+     * Sets the region of the swath which is read and the size of the product raster. The product
+     * headers of the first and the last granule touched by the region are read, the first of these
+     * granules provides the metadata of the product and the properties of its bands.
+     *
+     * @param region the region in raw coordinates
+     * @param width  the width of the product raster
+     * @param height the height of the product raster
+     * @throws IOException if the header of a granule cannot be read
+     */
+    void setSubset(Rectangle region, int width, int height) throws IOException {
+        minSegment = getSegment(region.y);
+        maxSegment = getSegment(region.y + region.height - 1);
+        productWidth = width;
+        productHeight = height;
+        template = granules[minSegment].getMetopFile();
+
+        // as for a single product, only the first and the last scan line are read
+        final int maxY = region.y + region.height - 1;
+        final boolean firstChannel3a = template.readChannel3a(getGranuleScanLine(minSegment, region.y));
+        final boolean lastChannel3a = granules[maxSegment].getMetopFile().readChannel3a(
+                getGranuleScanLine(maxSegment, maxY));
+        if (firstChannel3a && lastChannel3a) {
+            channel3ab = AvhrrConstants.CH_3A;
+        } else if (!firstChannel3a && !lastChannel3a) {
+            channel3ab = AvhrrConstants.CH_3B;
+        } else {
+            channel3ab = -1;
+        }
+    }
+
+    /**
+     * @return the number of segments, which is the number of granules which have not been dropped
+     */
+    int getNumSegments() {
+        return granules.length;
+    }
+
+    /**
+     * @param segment the segment
+     * @return the granule of the segment
+     */
+    MetopGranule getGranule(int segment) {
+        return granules[segment];
+    }
+
+    /**
+     * @param segment the segment, or the number of segments
+     * @return the first stitched scan line of the segment, or the number of stitched scan lines
+     */
+    int getSegmentStart(int segment) {
+        return segmentStarts[segment];
+    }
+
+    /**
+     * Returns the segment of a stitched scan line.
+     *
+     * @param y the stitched scan line
+     * @return the segment
+     */
+    int getSegment(int y) {
+        final int index = Arrays.binarySearch(segmentStarts, 0, granules.length, y);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Returns the scan line of the granule of a segment corresponding to a stitched scan line.
+     *
+     * @param segment the segment
+     * @param y       the stitched scan line
+     * @return the scan line of the granule
+     */
+    int getGranuleScanLine(int segment, int y) {
+        return y - segmentStarts[segment] + segmentOffsets[segment];
+    }
+
+    /**
+     * @return the key of the swath in the {@link GeolocationCache}, which is composed of the keys of
+     *         the granules
+     */
+    String getFileKey() {
+        final StringBuilder key = new StringBuilder();
+        for (MetopGranule granule : granules) {
+            if (key.length() > 0) {
+                key.append('|');
+            }
+            key.append(GeolocationCache.getFileKey(granule.getFile()));
+        }
+        return key.toString();
+    }
+
+    @Override
+    public String getProductName() throws IOException {
+        final String firstName = template.getProductName();
+        final String lastName = granules[maxSegment].getMetopFile().getProductName();
+        final Matcher firstMatcher = EPS_PRODUCT_NAME_PATTERN.matcher(firstName);
+        final Matcher lastMatcher = EPS_PRODUCT_NAME_PATTERN.matcher(lastName);
+        if (firstMatcher.matches() && lastMatcher.matches()) {
+            // the sensing end of the stitched product is the sensing end of its last granule
+            return firstMatcher.group(1) + lastMatcher.group(2) + firstMatcher.group(3);
+        }
+        return firstName;
+    }
+
+    @Override
+    public UTC getStartDate() {
+        return startTime;
+    }
+
+    @Override
+    public UTC getEndDate() {
+        return endTime;
+    }
+
+    @Override
+    public void addMetaData(MetadataElement metadataRoot) throws IOException {
+        template.addMetaData(metadataRoot);
+        final MetadataElement granuleInfo = new MetadataElement("STITCHED_GRANULES");
+        for (int segment = 0; segment < granules.length; segment++) {
+            final int firstLine = segmentOffsets[segment];
+            final int lastLine = firstLine + segmentStarts[segment + 1] - segmentStarts[segment] - 1;
+            granuleInfo.addAttribute(HeaderUtil.createAttribute(granules[segment].getFile().getName(),
+                                                                "scan lines " + firstLine + " to " + lastLine
+                                                                        + " at scan line " + segmentStarts[segment]));
+        }
+        granuleInfo.addAttribute(HeaderUtil.createAttribute("TRIM_BOTTOM", numTrimBottom, "pixel",
+                                                            "Number of lines cut from the end of the swath "
+                                                                    + "to match the tie-points."));
+        metadataRoot.addElement(granuleInfo);
+    }
+
+    @Override
+    public BandReader createVisibleRadianceBandReader(final int channel) throws IOException {
+        return new StitchedBandReader(this, template.createVisibleRadianceBandReader(channel)) {
+            @Override
+            BandReader createGranuleBandReader(MetopFile granuleFile) {
+                return granuleFile.createVisibleRadianceBandReader(channel);
+            }
+        };
+    }
+
+    @Override
+    public BandReader createIrRadianceBandReader(final int channel) throws IOException {
+        return new StitchedBandReader(this, template.createIrRadianceBandReader(channel)) {
+            @Override
+            BandReader createGranuleBandReader(MetopFile granuleFile) {
+                return granuleFile.createIrRadianceBandReader(channel);
+            }
+        };
+    }
+
+    @Override
+    public BandReader createReflectanceFactorBandReader(final int channel) {
+        return new StitchedBandReader(this, template.createReflectanceFactorBandReader(channel)) {
+            @Override
+            BandReader createGranuleBandReader(MetopFile granuleFile) {
+                return granuleFile.createReflectanceFactorBandReader(channel);
+            }
+        };
+    }
+
+    @Override
+    public BandReader createIrTemperatureBandReader(final int channel) {
+        return new StitchedBandReader(this, template.createIrTemperatureBandReader(channel)) {
+            @Override
+            BandReader createGranuleBandReader(MetopFile granuleFile) {
+                return granuleFile.createIrTemperatureBandReader(channel);
+            }
+        };
+    }
+
+    @Override
+    public BandReader createFlagBandReader() {
+        return new StitchedBandReader(this, template.createFlagBandReader()) {
+            @Override
+            BandReader createGranuleBandReader(MetopFile granuleFile) {
+                return granuleFile.createFlagBandReader();
+            }
+        };
+    }
+
+    @Override
+    public boolean hasCloudBand() {
+        return true;
+    }
+
+    @Override
+    public BandReader createCloudBandReader() {
+        return new StitchedBandReader(this, template.createCloudBandReader()) {
+            @Override
+            BandReader createGranuleBandReader(MetopFile granuleFile) {
+                return granuleFile.createCloudBandReader();
+            }
+        };
+    }
+
+    @Override
+    public String[] getTiePointNames() {
+        return template.getTiePointNames();
+    }
+
+    @Override
+    public float[][] getTiePointData() throws IOException {
+        return getTiePointData(0, numScanLines / navSampleRate);
+    }
+
+    @Override
+    public float[][] getTiePointData(int minY, int maxY) throws IOException {
+        final float[][] tiePointData = new float[6][numNavPoints * (maxY - minY + 1)];
+        final short[] rawAngles = new short[numNavPoints * 4];
+        final int[] rawLatLon = new int[numNavPoints * 2];
+        int targetIndex = 0;
+        for (int y = minY * navSampleRate; y <= maxY * navSampleRate; y += navSampleRate) {
+            final int segment = getSegment(y);
+            granules[segment].getMetopFile().readTiePoints(getGranuleScanLine(segment, y), rawAngles, rawLatLon,
+                                                           tiePointData, targetIndex);
+            targetIndex += numNavPoints;
+        }
+        return tiePointData;
+    }
+
+    @Override
+    public int getNavSampleRate() {
+        return navSampleRate;
+    }
+
+    @Override
+    public int getNumNavPoints() {
+        return numNavPoints;
+    }
+
+    @Override
+    public int getNumScanLines() {
+        return numScanLines;
+    }
+
+    /**
+     * Returns the position of the MDR of a stitched scan line within the product file of its granule,
+     * see {@link #getGranule(int)} of the {@link #getSegment(int) segment} of the scan line.
+     *
+     * @param rawY the stitched scan line
+     * @return the file position of the MDR in the granule
+     * @throws IllegalStateException if the position is beyond 2 GB
+     */
+    @Override
+    public int getScanLineOffset(int rawY) {
+        final int segment = getSegment(rawY);
+        final long offset = granules[segment].getMdrOffset(getGranuleScanLine(segment, rawY));
+        if (offset > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The MDR of scan line " + rawY + " is located beyond 2 GB.");
+        }
+        return (int) offset;
+    }
+
+    /**
+     * Returns the position of the flags of a stitched scan line within the stream read by the flag
+     * band reader of its granule, see {@link MetopFile#getFlagOffset(int)}.
+     *
+     * @param rawY the stitched scan line
+     * @return the position of the flags in the stream of the flag band reader of the granule
+     */
+    @Override
+    public int getFlagOffset(int rawY) {
+        final int segment = getSegment(rawY);
+        return MdrImageInputStream.getStreamPosition(getGranuleScanLine(segment, rawY));
+    }
+
+    @Override
+    public int getTiePointTrimX() {
+        return AvhrrConstants.TP_TRIM_X;
+    }
+
+    @Override
+    public int getTiePointSubsampling() {
+        return AvhrrConstants.TP_SUB_SAMPLING_X;
+    }
+
+    @Override
+    public void dispose() throws IOException {
+        template = null;
+        if (granules != null) {
+            for (MetopGranule granule : granules) {
+                granule.dispose();
+            }
+        }
+    }
+
+    private static long getLineDuration(MetopGranule granule) {
+        final int numScanLines = granule.getNumScanLines();
+        if (numScanLines < 2) {
+            return 0;
+        }
+        return (granule.getLastStartTime() - granule.getFirstStartTime()) / (numScanLines - 1);
+    }
+
+    private static UTC toUtc(long millis) {
+        final int days = (int) (millis / MILLIS_PER_DAY);
+        final long millisOfDay = millis - days * MILLIS_PER_DAY;
+        return new UTC(days, (int) (millisOfDay / 1000), (int) (millisOfDay % 1000) * 1000);
+    }
+}
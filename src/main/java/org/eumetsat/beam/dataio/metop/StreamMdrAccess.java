@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link MdrAccess} reading through a shared {@link ImageInputStream}.
+ * Each read is a synchronized seek followed by a bulk read into a per-thread buffer.
+ */
+class StreamMdrAccess implements MdrAccess {
+
+    private final ImageInputStream inputStream;
+    private final ThreadLocal<byte[]> threadBuffer;
+
+    StreamMdrAccess(ImageInputStream inputStream) {
+        this.inputStream = inputStream;
+        this.threadBuffer = new ThreadLocal<byte[]>();
+    }
+
+    @Override
+    public ByteBuffer read(long position, int length) throws IOException {
+        byte[] bytes = threadBuffer.get();
+        if (bytes == null || bytes.length < length) {
+            bytes = new byte[length];
+            threadBuffer.set(bytes);
+        }
+        synchronized (inputStream) {
+            inputStream.seek(position);
+            inputStream.readFully(bytes, 0, length);
+        }
+        return ByteBuffer.wrap(bytes, 0, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the stream is owned by the MetopFile
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.IOException;
+
+/**
+ * Loads the tie points of the tie-point grids of a product or product subset. The tie points of all
+ * grids are read together, when the first grid is accessed, from the MDRs of the tie-point rows
+ * enclosing the subset only. The delta azimuth grid is derived from the sun and view azimuth grids.
+ */
+class TiePointGridLoader {
+
+    static final int SAA_INDEX = 2;
+    static final int VAA_INDEX = 3;
+    static final int DAA_INDEX = 6;
+
+    private final TiePointRows tiePointRows;
+    private final int minX;
+    private final int minY;
+    private final int width;
+    private final int height;
+    private final int sampleRate;
+    private final int fullGridWidth;
+    private final int fullGridHeight;
+    private float[][] tiePointData;
+
+    /**
+     * Creates a loader for the tie points of a region of the tie-point grids.
+     *
+     * @param tiePointRows the tie-point rows of the product
+     * @param minX         the first tie-point column
+     * @param minY         the first tie-point row
+     * @param width        the number of tie-point columns
+     * @param height       the number of tie-point rows
+     */
+    TiePointGridLoader(TiePointRows tiePointRows, int minX, int minY, int width, int height) {
+        this.tiePointRows = tiePointRows;
+        this.minX = minX;
+        this.minY = minY;
+        this.width = width;
+        this.height = height;
+        this.sampleRate = tiePointRows.getNavSampleRate();
+        this.fullGridWidth = tiePointRows.getNumNavPoints();
+        this.fullGridHeight = tiePointRows.getNumScanLines() / sampleRate + 1;
+    }
+
+    int getMinX() {
+        return minX;
+    }
+
+    int getMinY() {
+        return minY;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of pixels and scan lines between the tie points
+     */
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return the width of the tie-point grid of the full product
+     */
+    int getFullGridWidth() {
+        return fullGridWidth;
+    }
+
+    /**
+     * @return the height of the tie-point grid of the full product
+     */
+    int getFullGridHeight() {
+        return fullGridHeight;
+    }
+
+    /**
+     * Returns the tie points of a grid.
+     *
+     * @param gridIndex the index of the grid in {@link MetopFile#getTiePointNames()} or {@link #DAA_INDEX}
+     * @return the tie points
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized float[] getTiePoints(int gridIndex) throws IOException {
+        if (tiePointData == null) {
+            tiePointData = loadTiePointData();
+        }
+        return tiePointData[gridIndex];
+    }
+
+    private float[][] loadTiePointData() throws IOException {
+        final float[][] rows = tiePointRows.getTiePointData(minY, minY + height - 1);
+        final int numGrids = rows.length;
+        final int rowWidth = tiePointRows.getNumNavPoints();
+        final float[][] data = new float[numGrids + 1][];
+        for (int i = 0; i < numGrids; i++) {
+            data[i] = crop(rows[i], rowWidth);
+        }
+        final float[] saa = data[SAA_INDEX];
+        final float[] vaa = data[VAA_INDEX];
+        final float[] daa = new float[saa.length];
+        for (int i = 0; i < daa.length; i++) {
+            daa[i] = (float) computeAda(vaa[i], saa[i]);
+        }
+        data[DAA_INDEX] = daa;
+        return data;
+    }
+
+    private float[] crop(float[] rows, int rowWidth) {
+        if (width == rowWidth) {
+            return rows;
+        }
+        final float[] tiePoints = new float[width * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(rows, y * rowWidth + minX, tiePoints, y * width, width);
+        }
+        return tiePoints;
+    }
+
+    /**
+     * Computes the azimuth difference from the given
+     *
+     * @param vaa viewing azimuth angle [degree]
+     * @param saa sun azimuth angle [degree]
+     * @return the azimuth difference [degree]
+     */
+    private static double computeAda(double vaa, double saa) {
+        double ada = saa - vaa;
+        if (ada <= -180.0) {
+            ada += 360.0;
+        } else if (ada > +180.0) {
+            ada -= 360.0;
+        }
+        return ada;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.io.IOException;
+
+/**
+ * The tie-point rows of a product or of a swath stitched from several products, which are
+ * read by a {@link TiePointGridLoader}. The tie-point row {@code y} is the scan line
+ * {@code y * getNavSampleRate()}.
+ */
+interface TiePointRows {
+
+    /**
+     * @return the number of pixels and scan lines between the tie points
+     */
+    int getNavSampleRate();
+
+    /**
+     * @return the number of tie points of a row
+     */
+    int getNumNavPoints();
+
+    /**
+     * @return the number of scan lines, the last scan line is a tie-point row
+     */
+    int getNumScanLines();
+
+    /**
+     * Returns the tie-point data of a range of tie-point rows.
+     *
+     * @param minY the first tie-point row
+     * @param maxY the last tie-point row
+     * @return the tie-point data of the grids named by {@link MetopFile#getTiePointNames()}
+     * @throws IOException if an I/O error occurs
+     */
+    float[][] getTiePointData(int minY, int maxY) throws IOException;
+}
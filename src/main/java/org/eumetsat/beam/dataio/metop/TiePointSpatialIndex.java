@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A coarse spatial index of the geographic tie points of a product, which finds the tie points
+ * covering a lat/lon bounding box or polygon.
+ * <p/>
+ * The tie-point grid is divided into segments of a fixed number of tie-point rows. For each
+ * segment, the latitude range and the longitudes covered in bins of one degree are kept, so that
+ * segments crossing the date line or containing a pole are handled. A query visits the tie-point
+ * cells of the segments overlapping the query only. Cells containing a pole are detected by the
+ * winding of their corner longitudes and are assumed to cover all longitudes.
+ * <p/>
+ * Latitudes and longitudes are treated as plane coordinates when a cell is intersected with a
+ * polygon. Polygons must not contain a pole.
+ */
+final class TiePointSpatialIndex {
+
+    static final int DEFAULT_SEGMENT_HEIGHT = 8;
+
+    private static final int NUM_LON_BINS = 360;
+
+    private final float[] lat;
+    private final float[] lon;
+    private final int gridWidth;
+    private final int gridHeight;
+    private final int segmentHeight;
+    private final float[] segmentLatMin;
+    private final float[] segmentLatMax;
+    private final BitSet[] segmentLonBins;
+
+    /**
+     * Creates the index.
+     *
+     * @param lat           the latitudes of the tie points
+     * @param lon           the longitudes of the tie points
+     * @param gridWidth     the width of the tie-point grid
+     * @param gridHeight    the height of the tie-point grid
+     * @param segmentHeight the number of rows of tie-point cells in a segment
+     */
+    TiePointSpatialIndex(float[] lat, float[] lon, int gridWidth, int gridHeight, int segmentHeight) {
+        this(lat, lon, gridWidth, gridHeight, segmentHeight, null);
+    }
+
+    private TiePointSpatialIndex(float[] lat, float[] lon, int gridWidth, int gridHeight, int segmentHeight,
+                                 TiePointSpatialIndex previous) {
+        if (gridWidth < 2 || gridHeight < 2) {
+            throw new IllegalArgumentException("The tie-point grid must have at least 2 x 2 tie points.");
+        }
+        this.lat = lat;
+        this.lon = lon;
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.segmentHeight = segmentHeight;
+
+        final int numSegments = (gridHeight - 2) / segmentHeight + 1;
+        segmentLatMin = new float[numSegments];
+        segmentLatMax = new float[numSegments];
+        segmentLonBins = new BitSet[numSegments];
+        // the segments of the previous index which have all their rows of cells are kept
+        final int numKeptSegments = previous != null ? (previous.gridHeight - 1) / segmentHeight : 0;
+        if (numKeptSegments > 0) {
+            System.arraycopy(previous.segmentLatMin, 0, segmentLatMin, 0, numKeptSegments);
+            System.arraycopy(previous.segmentLatMax, 0, segmentLatMax, 0, numKeptSegments);
+            System.arraycopy(previous.segmentLonBins, 0, segmentLonBins, 0, numKeptSegments);
+        }
+        final CellBounds cell = new CellBounds();
+        for (int segment = numKeptSegments; segment < numSegments; segment++) {
+            float latMin = Float.POSITIVE_INFINITY;
+            float latMax = Float.NEGATIVE_INFINITY;
+            final BitSet lonBins = new BitSet(NUM_LON_BINS);
+            final int maxCellY = Math.min((segment + 1) * segmentHeight, gridHeight - 1);
+            for (int cellY = segment * segmentHeight; cellY < maxCellY; cellY++) {
+                for (int cellX = 0; cellX < gridWidth - 1; cellX++) {
+                    computeCellBounds(cellX, cellY, cell);
+                    latMin = Math.min(latMin, cell.latMin);
+                    latMax = Math.max(latMax, cell.latMax);
+                    setLonBins(lonBins, cell.lonMin, cell.lonMax);
+                }
+            }
+            segmentLatMin[segment] = latMin;
+            segmentLatMax[segment] = latMax;
+            segmentLonBins[segment] = lonBins;
+        }
+    }
+
+    /**
+     * @return the number of tie-point rows
+     */
+    int getGridHeight() {
+        return gridHeight;
+    }
+
+    /**
+     * Returns an index of the tie-point grid extended by rows appended at its bottom. Only the
+     * segments including the appended rows are computed.
+     *
+     * @param rowLat  the latitudes of the appended tie-point rows
+     * @param rowLon  the longitudes of the appended tie-point rows
+     * @param numRows the number of appended rows
+     * @return the index of the extended grid
+     */
+    TiePointSpatialIndex append(float[] rowLat, float[] rowLon, int numRows) {
+        final int numTiePoints = gridWidth * gridHeight;
+        final int numAppendedTiePoints = gridWidth * numRows;
+        final float[] extendedLat = Arrays.copyOf(lat, numTiePoints + numAppendedTiePoints);
+        final float[] extendedLon = Arrays.copyOf(lon, numTiePoints + numAppendedTiePoints);
+        System.arraycopy(rowLat, 0, extendedLat, numTiePoints, numAppendedTiePoints);
+        System.arraycopy(rowLon, 0, extendedLon, numTiePoints, numAppendedTiePoints);
+        return new TiePointSpatialIndex(extendedLat, extendedLon, gridWidth, gridHeight + numRows, segmentHeight,
+                                        this);
+    }
+
+    /**
+     * Finds the tie points covering a bounding box.
+     *
+     * @param latMin the minimum latitude
+     * @param latMax the maximum latitude
+     * @param lonMin the western longitude, if greater than {@code lonMax} the box crosses the date line
+     * @param lonMax the eastern longitude
+     * @return the minimum and maximum column and the minimum and maximum row of the tie points,
+     *         {@code null} if the box is not covered by the tie points
+     */
+    int[] findTiePoints(float latMin, float latMax, float lonMin, float lonMax) {
+        double westLon = normalizeLon(lonMin);
+        double eastLon = normalizeLon(lonMax);
+        if (eastLon < westLon) {
+            eastLon += 360.0;
+        }
+        return findTiePoints(new BoxQuery(latMin, latMax, westLon, eastLon));
+    }
+
+    /**
+     * Finds the tie points covering a polygon.
+     *
+     * @param polygonLat the latitudes of the polygon vertices
+     * @param polygonLon the longitudes of the polygon vertices
+     * @return the minimum and maximum column and the minimum and maximum row of the tie points,
+     *         {@code null} if the polygon is not covered by the tie points
+     */
+    int[] findTiePoints(float[] polygonLat, float[] polygonLon) {
+        if (polygonLat.length < 3 || polygonLat.length != polygonLon.length) {
+            throw new IllegalArgumentException("A polygon must have at least 3 vertices.");
+        }
+        return findTiePoints(new PolygonQuery(polygonLat, polygonLon));
+    }
+
+    private int[] findTiePoints(Query query) {
+        int minX = Integer.MAX_VALUE;
+        int maxX = -1;
+        int minY = Integer.MAX_VALUE;
+        int maxY = -1;
+        final CellBounds cell = new CellBounds();
+        for (int segment = 0; segment < segmentLonBins.length; segment++) {
+            if (!query.intersectsSegment(segmentLatMin[segment], segmentLatMax[segment], segmentLonBins[segment])) {
+                continue;
+            }
+            final int maxCellY = Math.min((segment + 1) * segmentHeight, gridHeight - 1);
+            for (int cellY = segment * segmentHeight; cellY < maxCellY; cellY++) {
+                for (int cellX = 0; cellX < gridWidth - 1; cellX++) {
+                    computeCellBounds(cellX, cellY, cell);
+                    if (query.intersectsCell(cell)) {
+                        minX = Math.min(minX, cellX);
+                        maxX = Math.max(maxX, cellX + 1);
+                        minY = Math.min(minY, cellY);
+                        maxY = Math.max(maxY, cellY + 1);
+                    }
+                }
+            }
+        }
+        if (maxX < 0) {
+            return null;
+        }
+        return new int[]{minX, maxX, minY, maxY};
+    }
+
+    private void computeCellBounds(int cellX, int cellY, CellBounds bounds) {
+        final int i00 = cellY * gridWidth + cellX;
+        final int i10 = i00 + 1;
+        final int i01 = i00 + gridWidth;
+        final int i11 = i01 + 1;
+        bounds.latMin = Math.min(Math.min(lat[i00], lat[i10]), Math.min(lat[i01], lat[i11]));
+        bounds.latMax = Math.max(Math.max(lat[i00], lat[i10]), Math.max(lat[i01], lat[i11]));
+
+        // the longitudes are unwrapped along the boundary of the cell
+        final double lon00 = normalizeLon(lon[i00]);
+        final double lon10 = lon00 + wrapLon(lon[i10] - lon[i00]);
+        final double lon11 = lon10 + wrapLon(lon[i11] - lon[i10]);
+        final double lon01 = lon11 + wrapLon(lon[i01] - lon[i11]);
+        final double winding = lon01 + wrapLon(lon[i00] - lon[i01]) - lon00;
+        if (Math.abs(winding) > 180.0) {
+            bounds.lonMin = -180.0;
+            bounds.lonMax = 180.0;
+            if (bounds.latMin + bounds.latMax > 0.0f) {
+                bounds.latMax = 90.0f;
+            } else {
+                bounds.latMin = -90.0f;
+            }
+        } else {
+            final double lonMin = Math.min(Math.min(lon00, lon10), Math.min(lon01, lon11));
+            final double lonMax = Math.max(Math.max(lon00, lon10), Math.max(lon01, lon11));
+            final double shift = normalizeLon(lonMin) - lonMin;
+            bounds.lonMin = lonMin + shift;
+            bounds.lonMax = lonMax + shift;
+        }
+    }
+
+    private static void setLonBins(BitSet lonBins, double lonMin, double lonMax) {
+        if (lonMax - lonMin >= 360.0) {
+            lonBins.set(0, NUM_LON_BINS);
+            return;
+        }
+        final int minBin = (int) Math.floor(lonMin) + 180;
+        final int maxBin = (int) Math.floor(lonMax) + 180;
+        for (int bin = minBin; bin <= maxBin; bin++) {
+            lonBins.set(bin % NUM_LON_BINS);
+        }
+    }
+
+    private static boolean intersectsLonBins(BitSet lonBins, double westLon, double eastLon) {
+        final int minBin = (int) Math.floor(westLon) + 180;
+        final int maxBin = Math.min((int) Math.floor(eastLon) + 180, minBin + NUM_LON_BINS - 1);
+        for (int bin = minBin; bin <= maxBin; bin++) {
+            if (lonBins.get(bin % NUM_LON_BINS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // both intervals start within [-180, 180) and are not longer than 360 degrees
+    private static boolean intersectsLon(double lonMin, double lonMax, double westLon, double eastLon) {
+        for (int k = -1; k <= 1; k++) {
+            if (lonMin + k * 360.0 <= eastLon && lonMax + k * 360.0 >= westLon) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // returns the longitude in the range [-180, 180)
+    private static double normalizeLon(double lon) {
+        return lon - 360.0 * Math.floor((lon + 180.0) / 360.0);
+    }
+
+    // returns the longitude difference in the range [-180, 180]
+    private static double wrapLon(double deltaLon) {
+        return deltaLon - 360.0 * Math.rint(deltaLon / 360.0);
+    }
+
+    private static final class CellBounds {
+
+        float latMin;
+        float latMax;
+        double lonMin;
+        double lonMax;
+    }
+
+    private interface Query {
+
+        boolean intersectsSegment(float latMin, float latMax, BitSet lonBins);
+
+        boolean intersectsCell(CellBounds cell);
+    }
+
+    private static class BoxQuery implements Query {
+
+        final double latMin;
+        final double latMax;
+        final double westLon;
+        final double eastLon;
+
+        BoxQuery(double latMin, double latMax, double westLon, double eastLon) {
+            this.latMin = latMin;
+            this.latMax = latMax;
+            this.westLon = westLon;
+            this.eastLon = eastLon;
+        }
+
+        @Override
+        public boolean intersectsSegment(float latMin, float latMax, BitSet lonBins) {
+            return latMin <= this.latMax && latMax >= this.latMin && intersectsLonBins(lonBins, westLon, eastLon);
+        }
+
+        @Override
+        public boolean intersectsCell(CellBounds cell) {
+            return cell.latMin <= latMax && cell.latMax >= latMin
+                    && intersectsLon(cell.lonMin, cell.lonMax, westLon, eastLon);
+        }
+    }
+
+    private static final class PolygonQuery extends BoxQuery {
+
+        private final double[] lat;
+        private final double[] lon;
+
+        PolygonQuery(float[] polygonLat, float[] polygonLon) {
+            this(polygonLat, unwrapPolygonLon(polygonLon));
+        }
+
+        private PolygonQuery(float[] polygonLat, double[] polygonLon) {
+            super(min(toDoubles(polygonLat)), max(toDoubles(polygonLat)), min(polygonLon), max(polygonLon));
+            this.lat = toDoubles(polygonLat);
+            this.lon = polygonLon;
+        }
+
+        @Override
+        public boolean intersectsCell(CellBounds cell) {
+            if (!super.intersectsCell(cell)) {
+                return false;
+            }
+            if (cell.lonMax - cell.lonMin >= 360.0) {
+                return true;
+            }
+            for (int k = -1; k <= 1; k++) {
+                if (intersectsBox(cell.latMin, cell.latMax, cell.lonMin + k * 360.0, cell.lonMax + k * 360.0)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean intersectsBox(double boxLatMin, double boxLatMax, double boxLonMin, double boxLonMax) {
+            final int n = lat.length;
+            for (int i = 0; i < n; i++) {
+                if (lat[i] >= boxLatMin && lat[i] <= boxLatMax && lon[i] >= boxLonMin && lon[i] <= boxLonMax) {
+                    return true;
+                }
+            }
+            if (contains(boxLatMin, boxLonMin) || contains(boxLatMin, boxLonMax)
+                    || contains(boxLatMax, boxLonMin) || contains(boxLatMax, boxLonMax)) {
+                return true;
+            }
+            for (int i = 0, j = n - 1; i < n; j = i++) {
+                if (intersects(lat[j], lon[j], lat[i], lon[i], boxLatMin, boxLonMin, boxLatMin, boxLonMax)
+                        || intersects(lat[j], lon[j], lat[i], lon[i], boxLatMax, boxLonMin, boxLatMax, boxLonMax)
+                        || intersects(lat[j], lon[j], lat[i], lon[i], boxLatMin, boxLonMin, boxLatMax, boxLonMin)
+                        || intersects(lat[j], lon[j], lat[i], lon[i], boxLatMin, boxLonMax, boxLatMax, boxLonMax)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // even-odd rule
+        private boolean contains(double pointLat, double pointLon) {
+            boolean inside = false;
+            for (int i = 0, j = lat.length - 1; i < lat.length; j = i++) {
+                if ((lat[i] > pointLat) != (lat[j] > pointLat)
+                        && pointLon < (lon[j] - lon[i]) * (pointLat - lat[i]) / (lat[j] - lat[i]) + lon[i]) {
+                    inside = !inside;
+                }
+            }
+            return inside;
+        }
+
+        private static boolean intersects(double lat1, double lon1, double lat2, double lon2,
+                                          double lat3, double lon3, double lat4, double lon4) {
+            final double d1 = orientation(lat3, lon3, lat4, lon4, lat1, lon1);
+            final double d2 = orientation(lat3, lon3, lat4, lon4, lat2, lon2);
+            final double d3 = orientation(lat1, lon1, lat2, lon2, lat3, lon3);
+            final double d4 = orientation(lat1, lon1, lat2, lon2, lat4, lon4);
+            return d1 * d2 <= 0.0 && d3 * d4 <= 0.0
+                    && Math.min(lat1, lat2) <= Math.max(lat3, lat4) && Math.max(lat1, lat2) >= Math.min(lat3, lat4)
+                    && Math.min(lon1, lon2) <= Math.max(lon3, lon4) && Math.max(lon1, lon2) >= Math.min(lon3, lon4);
+        }
+
+        private static double orientation(double lat1, double lon1, double lat2, double lon2, double lat3, double lon3) {
+            return (lon2 - lon1) * (lat3 - lat1) - (lat2 - lat1) * (lon3 - lon1);
+        }
+
+        // unwraps the longitudes along the polygon, the westernmost vertex is within [-180, 180)
+        private static double[] unwrapPolygonLon(float[] polygonLon) {
+            final int n = polygonLon.length;
+            final double[] lon = new double[n];
+            lon[0] = normalizeLon(polygonLon[0]);
+            for (int i = 1; i < n; i++) {
+                lon[i] = lon[i - 1] + wrapLon(polygonLon[i] - polygonLon[i - 1]);
+            }
+            final double winding = lon[n - 1] + wrapLon(polygonLon[0] - polygonLon[n - 1]) - lon[0];
+            if (Math.abs(winding) > 180.0) {
+                throw new IllegalArgumentException("Polygons containing a pole are not supported.");
+            }
+            final double shift = normalizeLon(min(lon)) - min(lon);
+            for (int i = 0; i < n; i++) {
+                lon[i] += shift;
+            }
+            return lon;
+        }
+
+        private static double[] toDoubles(float[] values) {
+            final double[] doubles = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                doubles[i] = values[i];
+            }
+            return doubles;
+        }
+
+        private static double min(double[] values) {
+            double min = values[0];
+            for (double value : values) {
+                min = Math.min(min, value);
+            }
+            return min;
+        }
+
+        private static double max(double[] values) {
+            double max = values[0];
+            for (double value : values) {
+                max = Math.max(max, value);
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachedMdrAccessTest {
+
+    private static final int FIRST_MDR_OFFSET = 100;
+    private static final int MDR_SIZE = 10;
+    private static final int NUM_MDRS = 20;
+
+    private CountingMdrAccess countingAccess;
+    private CachedMdrAccess cachedAccess;
+
+    @Before
+    public void setUp() {
+        countingAccess = new CountingMdrAccess();
+        cachedAccess = new CachedMdrAccess(countingAccess, FIRST_MDR_OFFSET, MDR_SIZE, NUM_MDRS, 3 * MDR_SIZE);
+    }
+
+    @Test
+    public void testCapacity() {
+        assertEquals(3, cachedAccess.getCapacity());
+        assertEquals(1, new CachedMdrAccess(countingAccess, FIRST_MDR_OFFSET, MDR_SIZE, NUM_MDRS, 1).getCapacity());
+        assertEquals(NUM_MDRS, new CachedMdrAccess(countingAccess, FIRST_MDR_OFFSET, MDR_SIZE, NUM_MDRS, 1000).getCapacity());
+    }
+
+    @Test
+    public void testReadsWithinOneRecordShareASingleRead() throws IOException {
+        final ByteBuffer first = cachedAccess.read(FIRST_MDR_OFFSET + 5 * MDR_SIZE + 2, 4);
+        assertEquals(4, first.remaining());
+        assertEquals(byteAt(FIRST_MDR_OFFSET + 5 * MDR_SIZE + 2), first.get(0));
+        assertEquals(byteAt(FIRST_MDR_OFFSET + 5 * MDR_SIZE + 5), first.get(3));
+
+        final ByteBuffer second = cachedAccess.read(FIRST_MDR_OFFSET + 5 * MDR_SIZE, MDR_SIZE);
+        assertEquals(byteAt(FIRST_MDR_OFFSET + 5 * MDR_SIZE), second.get(0));
+
+        assertEquals(1, countingAccess.readCount);
+        assertEquals(1, cachedAccess.getMissCount());
+        assertEquals(1, cachedAccess.getHitCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedRecordIsEvicted() throws IOException {
+        readLine(9);
+        readLine(8);
+        readLine(7);
+        readLine(9);
+        readLine(6); // evicts line 8
+        readLine(9);
+        readLine(7);
+        assertEquals(4, cachedAccess.getMissCount());
+        assertEquals(3, cachedAccess.getHitCount());
+
+        readLine(8);
+        assertEquals(5, cachedAccess.getMissCount());
+    }
+
+    @Test
+    public void testRecordsReadIntoReusedArraysHoldTheirOwnData() throws IOException {
+        for (int rawY = 0; rawY < NUM_MDRS; rawY++) {
+            final long position = FIRST_MDR_OFFSET + rawY * MDR_SIZE;
+            final ByteBuffer buffer = cachedAccess.read(position, MDR_SIZE);
+            assertEquals(MDR_SIZE, buffer.remaining());
+            for (int i = 0; i < MDR_SIZE; i++) {
+                assertEquals(byteAt(position + i), buffer.get(i));
+            }
+        }
+        final long position = FIRST_MDR_OFFSET + (NUM_MDRS - 2) * MDR_SIZE + 3;
+        assertEquals(byteAt(position), cachedAccess.read(position, 1).get(0));
+        assertEquals(NUM_MDRS, cachedAccess.getMissCount());
+        assertEquals(1, cachedAccess.getHitCount());
+    }
+
+    @Test
+    public void testReadsOutsideOfSingleRecordAreNotCached() throws IOException {
+        cachedAccess.read(0, 20);
+        cachedAccess.read(FIRST_MDR_OFFSET + 2 * MDR_SIZE + 5, MDR_SIZE);
+        cachedAccess.read(FIRST_MDR_OFFSET + NUM_MDRS * MDR_SIZE, 4);
+        assertEquals(3, countingAccess.readCount);
+        assertEquals(0, cachedAccess.getMissCount());
+        assertEquals(0, cachedAccess.getHitCount());
+    }
+
+    private void readLine(int rawY) throws IOException {
+        cachedAccess.read(FIRST_MDR_OFFSET + rawY * MDR_SIZE, 2);
+    }
+
+    private static byte byteAt(long position) {
+        return (byte) (position * 7);
+    }
+
+    private static class CountingMdrAccess implements MdrAccess {
+
+        int readCount;
+
+        @Override
+        public ByteBuffer read(long position, int length) {
+            readCount++;
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (int i = 0; i < length; i++) {
+                buffer.put(i, byteAt(position + i));
+            }
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
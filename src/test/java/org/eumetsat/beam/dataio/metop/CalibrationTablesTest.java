@@ -0,0 +1,55 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.calibration.Radiance2TemperatureCalibrator;
+import org.esa.beam.dataio.avhrr.calibration.RadianceCalibrator;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CalibrationTablesTest {
+
+    private static final float SCALING_FACTOR = 1.0E-2f;
+
+    @Test
+    public void testTableHoldsCalibratedValues() {
+        final RadianceCalibrator calibrator = new Radiance2TemperatureCalibrator(1.0, 0.998, 927.0);
+        final float[] table = CalibrationTables.getTable(calibrator, SCALING_FACTOR,
+                                                         new double[]{1.0, 0.998, 927.0});
+
+        assertEquals(65536, table.length);
+        for (short radiance : new short[]{1, 50, 8432, Short.MAX_VALUE}) {
+            assertEquals(calibrator.calibrate(radiance * SCALING_FACTOR), table[radiance & 0xFFFF], 0.0f);
+        }
+        final short negativeRadiance = -1;
+        assertEquals(calibrator.calibrate(negativeRadiance * SCALING_FACTOR), table[negativeRadiance & 0xFFFF], 0.0f);
+    }
+
+    @Test
+    public void testTablesAreSharedForEqualCoefficients() {
+        final float[] table1 = CalibrationTables.getTable(new MetopRad2ReflFactorCalibrator(139.0, 1),
+                                                          SCALING_FACTOR, new double[]{139.0, 1});
+        final float[] table2 = CalibrationTables.getTable(new MetopRad2ReflFactorCalibrator(139.0, 1),
+                                                          SCALING_FACTOR, new double[]{139.0, 1});
+        final float[] table3 = CalibrationTables.getTable(new MetopRad2ReflFactorCalibrator(232.0, 1),
+                                                          SCALING_FACTOR, new double[]{232.0, 1});
+        final float[] table4 = CalibrationTables.getTable(new MetopRad2ReflFactorCalibrator(139.0, 1),
+                                                          1.0E-4f, new double[]{139.0, 1});
+
+        assertSame(table1, table2);
+        assertNotSame(table1, table3);
+        assertNotSame(table1, table4);
+    }
+
+    @Test
+    public void testCoefficientsAreRequired() {
+        try {
+            CalibrationTables.getTable(new MetopRad2ReflFactorCalibrator(139.0, 1), SCALING_FACTOR, new double[0]);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+            // calibrators differing in constants which are not given would share a table
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.eumetsat.beam.dataio.metop;
+
+import javax.imageio.stream.FileImageInputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A file stream which counts the bytes read, for testing how much of a product is read.
+ */
+class CountingImageInputStream extends FileImageInputStream {
+
+    private long count;
+
+    CountingImageInputStream(File file) throws IOException {
+        super(file);
+    }
+
+    /**
+     * @return the number of bytes read since the stream has been opened
+     */
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b >= 0) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int n = super.read(b, off, len);
+        if (n > 0) {
+            count += n;
+        }
+        return n;
+    }
+}
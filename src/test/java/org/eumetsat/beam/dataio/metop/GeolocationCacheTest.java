@@ -0,0 +1,58 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GeolocationCacheTest {
+
+    @Test
+    public void testTilesLookedUpSinceTheLastEvictionAreKept() {
+        final GeolocationCache cache = new GeolocationCache(30);
+        for (int cellX = 0; cellX < 4; cellX++) {
+            cache.put("file", 0, cellX, 0, new float[10]);
+        }
+        // the eviction has passed over all tiles once, so that none of the remaining tiles is referenced
+        int lookedUpCellX = 0;
+        while (cache.get("file", 0, lookedUpCellX, 0) == null) {
+            lookedUpCellX++;
+        }
+
+        cache.put("file", 0, 4, 0, new float[10]);
+        assertNotNull(cache.get("file", 0, lookedUpCellX, 0));
+        assertNotNull(cache.get("file", 0, 4, 0));
+        assertEquals(3, countCachedTiles(cache, 5));
+    }
+
+    @Test
+    public void testTilesAreNotCachedBeyondCapacity() {
+        final GeolocationCache cache = new GeolocationCache(0);
+        assertFalse(cache.canCache(1));
+        cache.put("file", 0, 0, 0, new float[1]);
+        assertNull(cache.get("file", 0, 0, 0));
+
+        final GeolocationCache smallCache = new GeolocationCache(10);
+        assertTrue(smallCache.canCache(10));
+        assertFalse(smallCache.canCache(11));
+        smallCache.put("file", 0, 0, 0, new float[11]);
+        assertNull(smallCache.get("file", 0, 0, 0));
+        smallCache.put("file", 0, 0, 0, new float[10]);
+        assertNotNull(smallCache.get("file", 0, 0, 0));
+        assertEquals(1, smallCache.getMissCount());
+        assertEquals(1, smallCache.getHitCount());
+    }
+
+    private static int countCachedTiles(GeolocationCache cache, int numCells) {
+        int count = 0;
+        for (int cellX = 0; cellX < numCells; cellX++) {
+            if (cache.get("file", 0, cellX, 0) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,129 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InverseGeolocationIndexTest {
+
+    @Test
+    public void testFindPositionsWithinCells() {
+        // a swath of 0.2 degree cells, which are rotated against the meridians
+        final int gridWidth = 20;
+        final int gridHeight = 30;
+        final float[] lat = new float[gridWidth * gridHeight];
+        final float[] lon = new float[gridWidth * gridHeight];
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                lat[y * gridWidth + x] = 45.0f - 0.2f * y + 0.05f * x;
+                lon[y * gridWidth + x] = 10.0f + 0.2f * x + 0.05f * y;
+            }
+        }
+        final InverseGeolocationIndex index = new InverseGeolocationIndex(lat, lon, gridWidth, gridHeight, 0.0);
+        assertRoundTrips(index, lat, lon, gridWidth, gridHeight, -1);
+
+        final double[] position = new double[2];
+        assertTrue(index.findPosition(lat[5 * gridWidth + 7], lon[5 * gridWidth + 7], position));
+        assertEquals(7.0, position[0], 1.0E-4);
+        assertEquals(5.0, position[1], 1.0E-4);
+        assertFalse(index.findPosition(45.0f, 9.0f, position));
+        assertFalse(index.findPosition(-45.0f, 12.0f, position));
+        assertFalse(index.findPosition(Float.NaN, 12.0f, position));
+    }
+
+    @Test
+    public void testFindPositionsAcrossDateLine() {
+        final int gridWidth = 20;
+        final int gridHeight = 10;
+        final float[] lat = new float[gridWidth * gridHeight];
+        final float[] lon = new float[gridWidth * gridHeight];
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                lat[y * gridWidth + x] = -60.0f + 0.2f * y;
+                final float tiePointLon = 178.5f + 0.2f * x;
+                lon[y * gridWidth + x] = tiePointLon >= 180.0f ? tiePointLon - 360.0f : tiePointLon;
+            }
+        }
+        final InverseGeolocationIndex index = new InverseGeolocationIndex(lat, lon, gridWidth, gridHeight, 0.0);
+        assertRoundTrips(index, lat, lon, gridWidth, gridHeight, -1);
+
+        final double[] position = new double[2];
+        assertTrue(index.findPosition(-59.0f, 180.0f, position));
+        assertEquals(7.5, position[0], 1.0E-3);
+        assertEquals(5.0, position[1], 1.0E-3);
+        assertTrue(index.findPosition(-59.0f, -180.0f, position));
+        assertEquals(7.5, position[0], 1.0E-3);
+    }
+
+    @Test
+    public void testFindPositionsAroundPole() {
+        // the south pole is located within the cell of the tie points (2, 4) to (3, 5)
+        final int gridWidth = 6;
+        final int gridHeight = 10;
+        final float[] lat = new float[gridWidth * gridHeight];
+        final float[] lon = new float[gridWidth * gridHeight];
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                final double u = (x - 2.5) * 0.2;
+                final double v = (y - 4.5) * 0.2;
+                lat[y * gridWidth + x] = (float) (-90.0 + Math.hypot(u, v));
+                lon[y * gridWidth + x] = (float) Math.toDegrees(Math.atan2(v, u));
+            }
+        }
+        final InverseGeolocationIndex index = new InverseGeolocationIndex(lat, lon, gridWidth, gridHeight, 0.0);
+        // the interpolated geolocation of the cell containing the pole cannot be inverted
+        assertRoundTrips(index, lat, lon, gridWidth, gridHeight, 4 * (gridWidth - 1) + 2);
+
+        final double[] position = new double[2];
+        assertTrue(index.findPosition(-90.0f, 0.0f, position));
+        assertEquals(2.5, position[0], 1.0E-3);
+        assertEquals(4.5, position[1], 1.0E-3);
+        assertTrue(index.findPosition(-90.0f, 123.0f, position));
+        assertEquals(2.5, position[0], 1.0E-3);
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                assertTrue(index.findPosition(lat[y * gridWidth + x], lon[y * gridWidth + x], position));
+                assertEquals(x, position[0], 1.0E-3);
+                assertEquals(y, position[1], 1.0E-3);
+            }
+        }
+    }
+
+    // the positions are interpolated like the geolocation of the pixels, 0.0025 is 0.05 pixels at 20 pixels per cell
+    private static void assertRoundTrips(InverseGeolocationIndex index, float[] lat, float[] lon,
+                                         int gridWidth, int gridHeight, int excludedCell) {
+        final Random random = new Random(5);
+        final double[] position = new double[2];
+        for (int i = 0; i < 1000; i++) {
+            final double x = random.nextDouble() * (gridWidth - 1);
+            final double y = random.nextDouble() * (gridHeight - 1);
+            if ((int) y * (gridWidth - 1) + (int) x == excludedCell) {
+                continue;
+            }
+            final int i00 = (int) y * gridWidth + (int) x;
+            final double u = x - (int) x;
+            final double v = y - (int) y;
+            final double expectedLat = interpolate(lat[i00], lat[i00 + 1], lat[i00 + gridWidth],
+                                                   lat[i00 + gridWidth + 1], u, v);
+            final double lon00 = lon[i00];
+            final double expectedLon = interpolate(lon00, lon00 + wrap(lon[i00 + 1] - lon00),
+                                                   lon00 + wrap(lon[i00 + gridWidth] - lon00),
+                                                   lon00 + wrap(lon[i00 + gridWidth + 1] - lon00), u, v);
+            assertTrue(index.findPosition((float) expectedLat, (float) expectedLon, position));
+            assertEquals(x, position[0], 0.0025);
+            assertEquals(y, position[1], 0.0025);
+        }
+    }
+
+    private static double interpolate(double v00, double v10, double v01, double v11, double u, double v) {
+        return (1.0 - v) * ((1.0 - u) * v00 + u * v10) + v * ((1.0 - u) * v01 + u * v11);
+    }
+
+    private static double wrap(double deltaLon) {
+        return deltaLon - 360.0 * Math.rint(deltaLon / 360.0);
+    }
+}
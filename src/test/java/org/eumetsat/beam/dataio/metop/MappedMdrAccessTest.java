@@ -0,0 +1,120 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MappedMdrAccessTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final int FIRST_MDR_OFFSET = 13;
+    private static final int MDR_SIZE = 10;
+    private static final int NUM_MDRS = 20;
+
+    private RandomAccessFile randomAccessFile;
+    private MappedMdrAccess mappedAccess;
+
+    @Before
+    public void setUp() throws IOException {
+        randomAccessFile = new RandomAccessFile(temporaryFolder.newFile(), "rw");
+        final byte[] bytes = new byte[FIRST_MDR_OFFSET + NUM_MDRS * MDR_SIZE];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(i);
+        }
+        randomAccessFile.write(bytes);
+        // segments of three MDRs
+        mappedAccess = new MappedMdrAccess(randomAccessFile.getChannel(), FIRST_MDR_OFFSET,
+                                           NUM_MDRS * MDR_SIZE, MDR_SIZE, 3 * MDR_SIZE + 5);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mappedAccess.close();
+        randomAccessFile.close();
+    }
+
+    @Test
+    public void testReadsWithinRecordsOfAllSegments() throws IOException {
+        for (int rawY = 0; rawY < NUM_MDRS; rawY++) {
+            final long position = FIRST_MDR_OFFSET + rawY * MDR_SIZE;
+            assertBytes(position, mappedAccess.read(position, MDR_SIZE), MDR_SIZE);
+            assertBytes(position + 4, mappedAccess.read(position + 4, 3), 3);
+        }
+    }
+
+    @Test
+    public void testReadsAcrossSegmentBoundaries() throws IOException {
+        final long secondSegment = FIRST_MDR_OFFSET + 3 * MDR_SIZE;
+        assertBytes(secondSegment - 4, mappedAccess.read(secondSegment - 4, 8), 8);
+        assertBytes(secondSegment - 1, mappedAccess.read(secondSegment - 1, 2), 2);
+        // spans the second and third segment and ends within the last one
+        assertBytes(secondSegment - 2, mappedAccess.read(secondSegment - 2, 17 * MDR_SIZE + 2), 17 * MDR_SIZE + 2);
+        assertBytes(FIRST_MDR_OFFSET, mappedAccess.read(FIRST_MDR_OFFSET, NUM_MDRS * MDR_SIZE), NUM_MDRS * MDR_SIZE);
+    }
+
+    @Test
+    public void testReadsOutsideOfMdrAreaAreRejected() {
+        assertRejected(FIRST_MDR_OFFSET - 1, 2);
+        assertRejected(FIRST_MDR_OFFSET + NUM_MDRS * MDR_SIZE - 1, 2);
+    }
+
+    @Test
+    public void testExtendedAreaIsMapped() throws IOException {
+        // the last of the three segments holds a single MDR
+        final MappedMdrAccess growingAccess = new MappedMdrAccess(randomAccessFile.getChannel(), FIRST_MDR_OFFSET,
+                                                                  7 * MDR_SIZE, MDR_SIZE, 3 * MDR_SIZE + 5);
+        try {
+            final long end = FIRST_MDR_OFFSET + 7 * MDR_SIZE;
+            final ByteBuffer lastRecord = growingAccess.read(end - MDR_SIZE, MDR_SIZE);
+            try {
+                growingAccess.read(end, MDR_SIZE);
+                fail("IOException expected");
+            } catch (IOException expected) {
+                // not mapped yet
+            }
+
+            growingAccess.extend(NUM_MDRS * MDR_SIZE);
+            assertBytes(end - 2, growingAccess.read(end - 2, 4), 4);
+            assertBytes(FIRST_MDR_OFFSET, growingAccess.read(FIRST_MDR_OFFSET, NUM_MDRS * MDR_SIZE),
+                        NUM_MDRS * MDR_SIZE);
+            // buffers read before remain valid
+            assertBytes(end - MDR_SIZE, lastRecord, MDR_SIZE);
+
+            growingAccess.extend(5 * MDR_SIZE);
+            assertBytes(end, growingAccess.read(end, MDR_SIZE), MDR_SIZE);
+        } finally {
+            growingAccess.close();
+        }
+    }
+
+    private void assertRejected(long position, int length) {
+        try {
+            mappedAccess.read(position, length);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // the position is not mapped
+        }
+    }
+
+    private static void assertBytes(long position, ByteBuffer buffer, int length) {
+        assertEquals(length, buffer.remaining());
+        for (int i = 0; i < length; i++) {
+            assertEquals(byteAt(position + i), buffer.get(i));
+        }
+    }
+
+    private static byte byteAt(long position) {
+        return (byte) (position * 7);
+    }
+}
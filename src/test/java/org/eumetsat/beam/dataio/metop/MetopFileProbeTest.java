@@ -0,0 +1,86 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetopFileProbeTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = temporaryFolder.newFile();
+    }
+
+    @Test
+    public void testProbeOfProduct() throws IOException {
+        writeProduct(21);
+
+        final MetopFileProbe probe = MetopFileProbe.read(file);
+        assertTrue(probe.isMetopProduct());
+        assertTrue(probe.getProductHeadersSize() > 0);
+        assertNotNull(probe.getBlock());
+        assertTrue(probe.getBlock().length >= probe.getProductHeadersSize());
+    }
+
+    @Test
+    public void testProbeOfOtherFiles() throws IOException {
+        writeBytes(new byte[10]);
+        assertFalse(MetopFileProbe.read(file).isMetopProduct());
+
+        final byte[] bytes = new byte[MetopFileProbe.BLOCK_SIZE];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i % 7);
+        }
+        writeBytes(bytes);
+        final MetopFileProbe probe = MetopFileProbe.read(file);
+        assertFalse(probe.isMetopProduct());
+        assertNull(probe.getBlock());
+
+        assertFalse(MetopFileProbe.probe(file.getParentFile()).isMetopProduct());
+    }
+
+    @Test
+    public void testProbesAreCachedUntilTheFileIsModified() throws IOException {
+        writeProduct(21);
+        final MetopFileProbe probe1 = MetopFileProbe.probe(file);
+        final MetopFileProbe probe2 = MetopFileProbe.probe(file);
+        assertSame(probe1, probe2);
+
+        writeProduct(41);
+        final MetopFileProbe probe3 = MetopFileProbe.probe(file);
+        assertNotSame(probe1, probe3);
+        assertTrue(probe3.isMetopProduct());
+    }
+
+    private void writeProduct(int numLines) throws IOException {
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(numLines);
+        writer.write(file);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        final FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(bytes);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
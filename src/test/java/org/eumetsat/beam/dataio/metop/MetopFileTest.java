@@ -0,0 +1,454 @@
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.MetadataElement;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.stream.FileImageInputStream;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class MetopFileTest {
+
+    private static final String LARGE_FILE_TESTS_PROPERTY = "beam.metop.largeFileTests";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SyntheticProductWriter writer;
+    private File file;
+    private MetopFile metopFile;
+
+    @Before
+    public void setUp() throws IOException {
+        writer = new SyntheticProductWriter();
+        file = temporaryFolder.newFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (metopFile != null) {
+            metopFile.dispose();
+        }
+    }
+
+    @Test
+    public void testReadHeaderOfHighPrecisionProduct() throws IOException {
+        writer.setNumLines(205);
+        writer.setNavSampleRate(SyntheticProductWriter.HIGH_PRECISION_NAV_SAMPLE_RATE);
+        writer.setNumGeadrs(3);
+        open();
+
+        assertEquals(2041, metopFile.getProductWidth());
+        assertEquals(201, metopFile.getProductHeight());
+        assertEquals(20, metopFile.getNavSampleRate());
+        assertEquals(103, metopFile.getNumNavPoints());
+        assertEquals(4, metopFile.getNumTrimX());
+        assertEquals(AvhrrConstants.CH_3A, metopFile.get3abState());
+        assertEquals(2557, metopFile.getStartDate().getDaysFraction());
+        assertEquals(0, metopFile.getStartDate().getSecondsFraction());
+        assertEquals(201 * 167 / 1000, metopFile.getEndDate().getSecondsFraction());
+    }
+
+    @Test
+    public void testReadHeaderOfLowPrecisionProduct() throws IOException {
+        writer.setNumLines(161);
+        writer.setNavSampleRate(SyntheticProductWriter.LOW_PRECISION_NAV_SAMPLE_RATE);
+        writer.setChannel3a(false);
+        open();
+
+        assertEquals(2001, metopFile.getProductWidth());
+        assertEquals(161, metopFile.getProductHeight());
+        assertEquals(40, metopFile.getNavSampleRate());
+        assertEquals(51, metopFile.getNumNavPoints());
+        assertEquals(24, metopFile.getNumTrimX());
+        assertEquals(AvhrrConstants.CH_3B, metopFile.get3abState());
+    }
+
+    @Test
+    public void testReadHeaderRecordsBeyondProbedBlock() throws IOException {
+        writer.setNumLines(41);
+        writer.setNumGeadrs(100);
+        open();
+
+        assertEquals(41, metopFile.getProductHeight());
+        final MetadataElement metadataRoot = new MetadataElement("root");
+        metopFile.addMetaData(metadataRoot);
+        assertEquals(100, metadataRoot.getElement("GEADR").getNumAttributes());
+        assertEquals(3, metadataRoot.getElement("READER_INFO").getNumAttributes());
+    }
+
+    @Test
+    public void testReadHeaderFromStream() throws IOException {
+        writer.setNumLines(41);
+        writer.setNumGeadrs(3);
+        writer.write(file);
+        metopFile = new MetopFile(new FileImageInputStream(file));
+        metopFile.readHeader();
+
+        assertEquals(2041, metopFile.getProductWidth());
+        assertEquals(41, metopFile.getProductHeight());
+        assertEquals(20, metopFile.getNavSampleRate());
+        final MetadataElement metadataRoot = new MetadataElement("root");
+        metopFile.addMetaData(metadataRoot);
+        assertEquals(3, metadataRoot.getElement("GEADR").getNumAttributes());
+    }
+
+    @Test
+    public void testReadFrameIndicatorsOfAllScanLinesOnFirstUse() throws IOException {
+        writer.setNumLines(201);
+        writer.setChannel3abSwitchInterval(60);
+        writer.write(file);
+        final CountingImageInputStream inputStream = new CountingImageInputStream(file);
+        metopFile = new MetopFile(inputStream);
+        metopFile.readHeader();
+
+        // the header records, the GRHs of the first and the last MDR and the frame indicators of both
+        final long firstMdrOffset = file.length() - 201L * writer.getMdrSize();
+        assertEquals(firstMdrOffset + 2 * GenericRecordHeader.SIZE + 2, inputStream.getCount());
+        assertEquals(-1, metopFile.get3abState());
+
+        for (int rawY = 0; rawY < 201; rawY++) {
+            assertEquals(writer.isChannel3a(rawY), metopFile.isChannel3a(rawY));
+        }
+        // a single byte of each MDR
+        assertEquals(firstMdrOffset + 2 * GenericRecordHeader.SIZE + 2 + 201, inputStream.getCount());
+    }
+
+    @Test
+    public void testScanLineRangeOfTimeWindow() throws IOException {
+        writer.setNumLines(205);
+        open();
+
+        final long[] times = metopFile.getScanLineStartTimes();
+        assertEquals(201, times.length);
+        assertEquals(2557 * 86400000L, times[0]);
+        assertEquals(2557 * 86400000L + 200 * 167, times[200]);
+
+        // lines 10 to 19 start at 1670 ms to 3173 ms
+        assertArrayEquals(new int[]{10, 19}, metopFile.getScanLineRange(utc(1670), utc(3200)));
+        assertArrayEquals(new int[]{9, 19}, metopFile.getScanLineRange(utc(1669), utc(3339)));
+        assertArrayEquals(new int[]{0, 0}, metopFile.getScanLineRange(utc(-5000), utc(0)));
+        assertArrayEquals(new int[]{195, 200}, metopFile.getScanLineRange(utc(195 * 167), utc(100000)));
+        assertNull(metopFile.getScanLineRange(utc(-5000), utc(-1)));
+        assertNull(metopFile.getScanLineRange(utc(100000), utc(200000)));
+        assertNull(metopFile.getScanLineRange(utc(3200), utc(1670)));
+    }
+
+    @Test
+    public void testTiePointData() throws IOException {
+        writer.setNumLines(161);
+        writer.setNavSampleRate(SyntheticProductWriter.LOW_PRECISION_NAV_SAMPLE_RATE);
+        open();
+
+        final float[][] tiePointData = metopFile.getTiePointData();
+        assertEquals(6, tiePointData.length);
+        assertEquals(51 * 5, tiePointData[0].length);
+        final int rawY = 80;
+        final int point = 7;
+        final int index = (rawY / 40) * 51 + point;
+        for (int angleIndex = 0; angleIndex < 4; angleIndex++) {
+            assertEquals(SyntheticProductWriter.getRawAngle(rawY, point, angleIndex) * 1E-2f,
+                         tiePointData[angleIndex][index], 0.0f);
+        }
+        assertEquals(SyntheticProductWriter.getRawLatitude(rawY, point) * 1E-4f, tiePointData[4][index], 0.0f);
+        assertEquals(SyntheticProductWriter.getRawLongitude(rawY, point) * 1E-4f, tiePointData[5][index], 0.0f);
+    }
+
+    @Test
+    public void testTiePointGridLoader() throws IOException {
+        writer.setNumLines(161);
+        writer.setNavSampleRate(SyntheticProductWriter.LOW_PRECISION_NAV_SAMPLE_RATE);
+        open();
+
+        final float[][] tiePointRows = metopFile.getTiePointData(1, 2);
+        assertEquals(51 * 2, tiePointRows[4].length);
+        assertEquals(SyntheticProductWriter.getRawLatitude(80, 7) * 1E-4f, tiePointRows[4][51 + 7], 0.0f);
+
+        final TiePointGridLoader loader = new TiePointGridLoader(metopFile, 3, 1, 4, 2);
+        final float[] latitudes = loader.getTiePoints(4);
+        assertEquals(8, latitudes.length);
+        assertEquals(SyntheticProductWriter.getRawLatitude(40, 3) * 1E-4f, latitudes[0], 0.0f);
+        assertEquals(SyntheticProductWriter.getRawLatitude(80, 6) * 1E-4f, latitudes[7], 0.0f);
+        final float[] sunAzimuths = loader.getTiePoints(TiePointGridLoader.SAA_INDEX);
+        final float[] viewAzimuths = loader.getTiePoints(TiePointGridLoader.VAA_INDEX);
+        final float[] deltaAzimuths = loader.getTiePoints(TiePointGridLoader.DAA_INDEX);
+        for (int i = 0; i < deltaAzimuths.length; i++) {
+            double expected = sunAzimuths[i] - viewAzimuths[i];
+            if (expected <= -180.0) {
+                expected += 360.0;
+            } else if (expected > 180.0) {
+                expected -= 360.0;
+            }
+            assertEquals(expected, deltaAzimuths[i], 1E-4);
+        }
+    }
+
+    @Test
+    public void testRegionOfBoundingBox() throws IOException {
+        writer.setNumLines(201);
+        open();
+
+        // the latitudes decrease by 0.02 degree and the longitudes increase by 0.2 degree between tie points
+        assertEquals(new Rectangle(200, 100, 21, 21), metopFile.getRegion(59.885f, 59.895f, 12.05f, 12.15f));
+        assertEquals(new Rectangle(0, 0, 2041, 201), metopFile.getRegion(50.0f, 70.0f, 0.0f, 40.0f));
+        assertNull(metopFile.getRegion(59.885f, 59.895f, -12.15f, -12.05f));
+    }
+
+    @Test
+    public void testReadRadianceOfMixedChannel3abProduct() throws IOException {
+        writer.setNumLines(201);
+        writer.setChannel3abSwitchInterval(60);
+        open();
+
+        assertEquals(-1, metopFile.get3abState());
+        final int x = 100;
+        final int y = 50;
+        final int width = 30;
+        final int height = 20;
+        final short[] radiance3a = readShorts(metopFile.createVisibleRadianceBandReader(AvhrrConstants.CH_3A),
+                                              x, y, width, height);
+        final short[] radiance3b = readShorts(metopFile.createIrRadianceBandReader(AvhrrConstants.CH_3B),
+                                              x, y, width, height);
+        for (int j = 0; j < height; j++) {
+            final int rawY = y + j;
+            final int rawX = x + 4;
+            final short expected = SyntheticProductWriter.getRadiance(rawY, rawX, 2);
+            if (writer.isChannel3a(rawY)) {
+                assertEquals(expected, radiance3a[j * width]);
+                assertEquals(AvhrrConstants.NO_DATA_VALUE, radiance3b[j * width]);
+            } else {
+                assertEquals(AvhrrConstants.NO_DATA_VALUE, radiance3a[j * width]);
+                assertEquals(expected, radiance3b[j * width]);
+            }
+        }
+    }
+
+    @Test
+    public void testReadSubsampledRadiance() throws IOException {
+        writer.setNumLines(101);
+        open();
+
+        final BandReader bandReader = metopFile.createIrRadianceBandReader(AvhrrConstants.CH_4);
+        final ProductData buffer = ProductData.createInstance(bandReader.getDataType(), 4 * 3);
+        bandReader.readBandRasterData(10, 20, 10, 5, 3, 2, buffer, ProgressMonitor.NULL);
+        final short[] radiances = (short[]) buffer.getElems();
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 4; i++) {
+                assertEquals(SyntheticProductWriter.getRadiance(20 + j * 2, 4 + 10 + i * 3, 3), radiances[j * 4 + i]);
+            }
+        }
+    }
+
+    @Test
+    public void testReadCloudInformationOfLowPrecisionProduct() throws IOException {
+        writer.setNumLines(161);
+        writer.setNavSampleRate(SyntheticProductWriter.LOW_PRECISION_NAV_SAMPLE_RATE);
+        open();
+
+        final int height = metopFile.getProductHeight();
+        final short[] cloudInformation = readShorts(metopFile.createCloudBandReader(), 0, height - 2, 5, 2);
+        for (int j = 0; j < 2; j++) {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(SyntheticProductWriter.getCloudInformation(height - 2 + j, 24 + i),
+                             cloudInformation[j * 5 + i]);
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateCompletedScanLinesOfGrowingProduct() throws IOException {
+        writer.setNumLines(201);
+        writer.setChannel3abSwitchInterval(50);
+        final File completeFile = temporaryFolder.newFile();
+        writer.write(completeFile);
+        final long mdrAreaOffset = completeFile.length() - 201 * writer.getMdrSize();
+        copyPrefix(completeFile, file, mdrAreaOffset + 30 * writer.getMdrSize());
+        metopFile = new MetopFile(file);
+        metopFile.readHeader();
+
+        assertEquals(21, metopFile.getProductHeight());
+        assertEquals(30, metopFile.getNumCompletedScanLines());
+        assertEquals(AvhrrConstants.CH_3A, metopFile.get3abState());
+        final long[] times = metopFile.getScanLineStartTimes();
+        assertEquals(21, times.length);
+        assertEquals(new Rectangle(0, 0, 2041, 21), metopFile.getRegion(50.0f, 70.0f, 0.0f, 40.0f));
+        assertFalse(metopFile.isComplete());
+        assertEquals(30, metopFile.updateCompletedScanLines());
+
+        copyPrefix(completeFile, file, mdrAreaOffset + 75 * writer.getMdrSize());
+        assertEquals(75, metopFile.updateCompletedScanLines());
+        assertEquals(61, metopFile.getProductHeight());
+        assertEquals(-1, metopFile.get3abState());
+        // the start times and the spatial index are extended
+        final long[] extendedTimes = metopFile.getScanLineStartTimes();
+        assertEquals(61, extendedTimes.length);
+        assertArrayEquals(times, Arrays.copyOf(extendedTimes, 21));
+        assertEquals(times[0] + 60 * 167, extendedTimes[60]);
+        assertEquals(new Rectangle(0, 0, 2041, 61), metopFile.getRegion(50.0f, 70.0f, 0.0f, 40.0f));
+        assertEquals(SyntheticProductWriter.getRawLatitude(60, 7) * 1E-4f,
+                     metopFile.getTiePointData()[4][3 * 103 + 7], 0.0f);
+        for (int rawY = 30; rawY < 75; rawY++) {
+            assertEquals(writer.isChannel3a(rawY), metopFile.isChannel3a(rawY));
+        }
+        assertFalse(metopFile.isComplete());
+
+        copyPrefix(completeFile, file, completeFile.length());
+        assertEquals(201, metopFile.updateCompletedScanLines());
+        assertEquals(201, metopFile.getProductHeight());
+        assertEquals(201 * 167 / 1000, metopFile.getEndDate().getSecondsFraction());
+        assertTrue(metopFile.isComplete());
+        final short[] radiances = readShorts(metopFile.createIrRadianceBandReader(AvhrrConstants.CH_4),
+                                             10, 190, 1, 1);
+        assertEquals(SyntheticProductWriter.getRadiance(190, 14, 3), radiances[0]);
+
+        // bytes following the MDRs announced by the main product header are ignored
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(randomAccessFile.length());
+            randomAccessFile.write(new byte[writer.getMdrSize()]);
+        } finally {
+            randomAccessFile.close();
+        }
+        assertEquals(201, metopFile.updateCompletedScanLines());
+        assertEquals(201, metopFile.getProductHeight());
+    }
+
+    @Test
+    public void testReadNearEndOfProductBeyond2GB() throws IOException {
+        readNearEndOfProductBeyond2GB(false);
+    }
+
+    @Test
+    public void testReadNearEndOfMappedProductBeyond2GB() throws IOException {
+        readNearEndOfProductBeyond2GB(true);
+    }
+
+    // the products beyond 2 GB are sparse files, which need the full space where sparse files are not supported
+    private void readNearEndOfProductBeyond2GB(boolean mapped) throws IOException {
+        assumeTrue(Boolean.getBoolean(LARGE_FILE_TESTS_PROPERTY));
+        assumeTrue(temporaryFolder.getRoot().getUsableSpace() > 90001L * writer.getMdrSize() + (1 << 20));
+        writer.setNumLines(90001);
+        writer.setSparseMargin(60);
+        writer.setChannel3abSwitchInterval(30000);
+        writer.write(file);
+        assertTrue(file.length() > Integer.MAX_VALUE);
+        final String oldValue = System.getProperty(MetopFile.USE_MEMORY_MAPPING_PROPERTY);
+        System.setProperty(MetopFile.USE_MEMORY_MAPPING_PROPERTY, Boolean.toString(mapped));
+        try {
+            metopFile = new MetopFile(file);
+            metopFile.readHeader();
+        } finally {
+            if (oldValue == null) {
+                System.clearProperty(MetopFile.USE_MEMORY_MAPPING_PROPERTY);
+            } else {
+                System.setProperty(MetopFile.USE_MEMORY_MAPPING_PROPERTY, oldValue);
+            }
+        }
+
+        assertEquals(90001, metopFile.getProductHeight());
+        assertTrue(metopFile.getMdrOffset(89960) > Integer.MAX_VALUE);
+        assertEquals(90001 * 167L, MetopFile.toMillis(metopFile.getEndDate()) - MetopFile.toMillis(utc(0)));
+        assertTrue(metopFile.isChannel3a(89990));
+        assertFalse(metopFile.isChannel3a(90000));
+
+        final int x = 100;
+        final int y = 89960;
+        final int width = 50;
+        final int height = 41;
+        final short[] radiances = readShorts(metopFile.createIrRadianceBandReader(AvhrrConstants.CH_4),
+                                             x, y, width, height);
+        final short[] cloudInformation = readShorts(metopFile.createCloudBandReader(), x, y, width, height);
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                assertEquals(SyntheticProductWriter.getRadiance(y + j, x + 4 + i, 3), radiances[j * width + i]);
+                assertEquals(SyntheticProductWriter.getCloudInformation(y + j, x + 4 + i),
+                             cloudInformation[j * width + i]);
+            }
+        }
+
+        final MdrImageInputStream flagStream = new MdrImageInputStream(metopFile.getMdrAccess(),
+                                                                       metopFile.getMdrOffset(0),
+                                                                       writer.getMdrSize(),
+                                                                       metopFile.getFlagRecordOffset());
+        for (int rawY = y; rawY <= 90000; rawY++) {
+            flagStream.seek(metopFile.getFlagOffset(rawY));
+            assertEquals(rawY, flagStream.readInt());
+            assertEquals(rawY * 3, flagStream.readInt());
+            assertEquals(1, flagStream.readShort());
+        }
+        final ProductData flags = ProductData.createInstance(ProductData.TYPE_UINT8, width * height);
+        metopFile.createFlagBandReader().readBandRasterData(x, y, width, height, 1, 1, flags, ProgressMonitor.NULL);
+        // a small product starting at the first scan line read holds the same flag records
+        final SyntheticProductWriter referenceWriter = new SyntheticProductWriter();
+        referenceWriter.setFirstLine(y);
+        referenceWriter.setNumLines(height);
+        referenceWriter.setChannel3abSwitchInterval(30000);
+        final MetopFile referenceFile = new MetopFile(referenceWriter.write(temporaryFolder));
+        try {
+            referenceFile.readHeader();
+            final ProductData referenceFlags = ProductData.createInstance(ProductData.TYPE_UINT8, width * height);
+            referenceFile.createFlagBandReader().readBandRasterData(x, 0, width, height, 1, 1, referenceFlags,
+                                                                    ProgressMonitor.NULL);
+            assertArrayEquals((byte[]) referenceFlags.getElems(), (byte[]) flags.getElems());
+        } finally {
+            referenceFile.dispose();
+        }
+        try {
+            metopFile.getScanLineOffset(90000);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException expected) {
+            // the offset is beyond the range of the AVHRR module
+        }
+    }
+
+    static void copyPrefix(File source, File target, long length) throws IOException {
+        final RandomAccessFile sourceFile = new RandomAccessFile(source, "r");
+        final RandomAccessFile targetFile = new RandomAccessFile(target, "rw");
+        try {
+            final long start = targetFile.length();
+            targetFile.seek(start);
+            sourceFile.getChannel().transferTo(start, length - start, targetFile.getChannel());
+        } finally {
+            sourceFile.close();
+            targetFile.close();
+        }
+    }
+
+    private static ProductData.UTC utc(long millis) {
+        final long dayMillis = 2557 * 86400000L + millis;
+        final int days = (int) (dayMillis / 86400000L);
+        final long millisOfDay = dayMillis - days * 86400000L;
+        return new ProductData.UTC(days, (int) (millisOfDay / 1000), (int) (millisOfDay % 1000) * 1000);
+    }
+
+    private void open() throws IOException {
+        writer.write(file);
+        metopFile = new MetopFile(file);
+        metopFile.readHeader();
+    }
+
+    private static short[] readShorts(BandReader bandReader, int x, int y, int width, int height) throws IOException {
+        final ProductData buffer = ProductData.createInstance(bandReader.getDataType(), width * height);
+        bandReader.readBandRasterData(x, y, width, height, 1, 1, buffer, ProgressMonitor.NULL);
+        return (short[]) buffer.getElems();
+    }
+}
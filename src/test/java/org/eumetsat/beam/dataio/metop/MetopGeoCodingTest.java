@@ -0,0 +1,141 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.framework.dataio.ProductSubsetDef;
+import org.esa.beam.framework.datamodel.GeoPos;
+import org.esa.beam.framework.datamodel.PixelPos;
+import org.esa.beam.framework.datamodel.Product;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetopGeoCodingTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private MetopReader reader;
+    private MetopReader subsetReader;
+
+    @Before
+    public void setUp() throws IOException {
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(201);
+        file = writer.write(temporaryFolder);
+        reader = new MetopReader(new MetopReaderPlugIn());
+        subsetReader = new MetopReader(new MetopReaderPlugIn());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        subsetReader.close();
+    }
+
+    @Test
+    public void testPixelsAreInterpolatedFromTiePoints() throws IOException {
+        final MetopGeoCoding geoCoding = getGeoCoding(reader.readProductNodes(file, null));
+
+        final Rectangle productRegion = new Rectangle(0, 0, 2041, 201);
+        final float[] latitudes = geoCoding.getPixels(AvhrrConstants.LAT_DS_NAME, productRegion, null);
+        // pixel (40, 60) is located at a tie point
+        assertEquals(SyntheticProductWriter.getRawLatitude(60, 2) * 1E-4f, latitudes[60 * 2041 + 40], 0.0f);
+        // pixel (50, 70) is located at the centre of a tie-point cell
+        final float expected = (SyntheticProductWriter.getRawLatitude(60, 2)
+                + SyntheticProductWriter.getRawLatitude(60, 3)
+                + SyntheticProductWriter.getRawLatitude(80, 2)
+                + SyntheticProductWriter.getRawLatitude(80, 3)) * 0.25E-4f;
+        assertEquals(expected, latitudes[70 * 2041 + 50], 1E-4f);
+        // the last pixel is located at the last tie point
+        assertEquals(SyntheticProductWriter.getRawLatitude(200, 102) * 1E-4f, latitudes[latitudes.length - 1], 0.0f);
+
+        final GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(50.5f, 70.5f), null);
+        assertEquals(latitudes[70 * 2041 + 50], geoPos.lat, 0.0f);
+        final float[] longitudes = new float[1];
+        geoCoding.getGeoPositions(new Rectangle(50, 70, 1, 1), null, longitudes);
+        assertEquals(longitudes[0], geoPos.lon, 0.0f);
+    }
+
+    @Test
+    public void testTiePointsAreReadOnFirstAccess() throws IOException {
+        final Product product = reader.readProductNodes(file, null);
+        final LazyTiePointGrid latGrid = (LazyTiePointGrid) product.getTiePointGrid(AvhrrConstants.LAT_DS_NAME);
+        final LazyTiePointGrid lonGrid = (LazyTiePointGrid) product.getTiePointGrid(AvhrrConstants.LON_DS_NAME);
+        final MetopGeoCoding geoCoding = getGeoCoding(product);
+        assertTrue(geoCoding.canGetGeoPos());
+        assertTrue(geoCoding.canGetPixelPos());
+        assertFalse(latGrid.isLoaded());
+        assertFalse(lonGrid.isLoaded());
+
+        // positions which are not pixel centres are interpolated from the tie-point grids
+        geoCoding.getGeoPos(new PixelPos(50.0f, 70.0f), null);
+        assertTrue(latGrid.isLoaded());
+        assertTrue(lonGrid.isLoaded());
+        assertEquals(SyntheticProductWriter.getRawLatitude(60, 2) * 1E-4f, latGrid.getTiePoints()[3 * 103 + 2], 0.0f);
+    }
+
+    @Test
+    public void testSubsetSharesTilesOfProduct() throws IOException {
+        final MetopGeoCoding geoCoding = getGeoCoding(reader.readProductNodes(file, null));
+        final Rectangle productRegion = new Rectangle(0, 0, 2041, 201);
+        final float[] sunZenith = geoCoding.getPixels(AvhrrConstants.SZA_DS_NAME, productRegion, null);
+
+        final ProductSubsetDef subsetDef = new ProductSubsetDef();
+        subsetDef.setRegion(205, 107, 50, 60);
+        subsetDef.setSubSampling(2, 3);
+        final MetopGeoCoding subsetGeoCoding = getGeoCoding(subsetReader.readProductNodes(file, subsetDef));
+        final GeolocationCache cache = GeolocationCache.getSharedInstance();
+        final long missCount = cache.getMissCount();
+        final Rectangle subsetRegion = new Rectangle(0, 0, 25, 20);
+        final float[] subsetSunZenith = subsetGeoCoding.getPixels(AvhrrConstants.SZA_DS_NAME, subsetRegion, null);
+        assertEquals(missCount, cache.getMissCount());
+
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 25; x++) {
+                assertEquals(sunZenith[(107 + y * 3) * 2041 + 205 + x * 2], subsetSunZenith[y * 25 + x], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testPixelPositionsOfGeoPositions() throws IOException {
+        final MetopGeoCoding geoCoding = getGeoCoding(reader.readProductNodes(file, null));
+        final ProductSubsetDef subsetDef = new ProductSubsetDef();
+        subsetDef.setRegion(205, 107, 50, 60);
+        subsetDef.setSubSampling(2, 3);
+        final MetopGeoCoding subsetGeoCoding = getGeoCoding(subsetReader.readProductNodes(file, subsetDef));
+
+        final int[][] pixels = {{0, 0}, {40, 60}, {50, 70}, {1234, 99}, {2040, 200}};
+        for (final int[] pixel : pixels) {
+            final GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(pixel[0] + 0.5f, pixel[1] + 0.5f), null);
+            final PixelPos pixelPos = geoCoding.getPixelPos(geoPos, null);
+            assertTrue(pixelPos.isValid());
+            assertEquals(pixel[0] + 0.5f, pixelPos.x, 0.05f);
+            assertEquals(pixel[1] + 0.5f, pixelPos.y, 0.05f);
+        }
+
+        // pixel (211, 116) of the product is pixel (3, 3) of the subset
+        final GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(211.5f, 116.5f), null);
+        final PixelPos pixelPos = subsetGeoCoding.getPixelPos(geoPos, null);
+        assertEquals(3.5f, pixelPos.x, 0.05f);
+        assertEquals(3.5f, pixelPos.y, 0.05f);
+        // pixel (40, 60) of the product is outside of the subset
+        assertFalse(subsetGeoCoding.getPixelPos(geoCoding.getGeoPos(new PixelPos(40.5f, 60.5f), null), null).isValid());
+        assertFalse(geoCoding.getPixelPos(new GeoPos(30.0f, 10.0f), null).isValid());
+    }
+
+    private static MetopGeoCoding getGeoCoding(Product product) {
+        return (MetopGeoCoding) product.getGeoCoding();
+    }
+}
@@ -0,0 +1,133 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.framework.datamodel.ProductData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetopIndexFileTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        file = temporaryFolder.newFile();
+        indexFile = MetopIndexFile.getIndexFile(file);
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(85);
+        writer.setChannel3abSwitchInterval(10);
+        writer.write(file);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(MetopFile.USE_INDEX_FILES_PROPERTY);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final BitSet channel3aLines = new BitSet();
+        channel3aLines.set(3, 70);
+        final float[][] tiePointData = {{1.0f, 2.0f, 3.0f}, {-4.0f, 5.5f, 6.0f}};
+        final MetopIndexFile index = new MetopIndexFile(file, "PRODUCT", 4000, 26660, 81, 4,
+                                                        new ProductData.UTC(2557, 1, 2),
+                                                        new ProductData.UTC(2557, 13, 14),
+                                                        channel3aLines, new long[]{10, 20, 30}, tiePointData);
+        index.write(indexFile);
+
+        final MetopIndexFile readIndex = MetopIndexFile.read(indexFile);
+        assertTrue(readIndex.isValidFor(file, "PRODUCT", 4000));
+        assertFalse(readIndex.isValidFor(file, "OTHER_PRODUCT", 4000));
+        assertFalse(readIndex.isValidFor(file, "PRODUCT", 4100));
+        assertEquals(26660, readIndex.getMdrSize());
+        assertEquals(81, readIndex.getProductHeight());
+        assertEquals(4, readIndex.getNumTrimBottom());
+        assertEquals(1, readIndex.getStartTime().getSecondsFraction());
+        assertEquals(2, readIndex.getStartTime().getMicroSecondsFraction());
+        assertEquals(13, readIndex.getEndTime().getSecondsFraction());
+        assertEquals(channel3aLines, readIndex.getChannel3aLines());
+        assertArrayEquals(new long[]{10, 20, 30}, readIndex.getScanLineStartTimes());
+        assertArrayEquals(tiePointData[0], readIndex.getTiePointData()[0], 0.0f);
+        assertArrayEquals(tiePointData[1], readIndex.getTiePointData()[1], 0.0f);
+        assertArrayEquals(new float[]{5.5f, 6.0f}, readIndex.getTiePointData(1, 2)[1], 0.0f);
+    }
+
+    @Test
+    public void testReadHeaderWithIndexFile() throws IOException {
+        final MetopFile expected = openMetopFile();
+        final float[][] expectedTiePointData = expected.getTiePointData();
+        final long[] expectedScanLineStartTimes = expected.getScanLineStartTimes();
+        final boolean[] expectedChannel3a = new boolean[expected.getProductHeight()];
+        for (int rawY = 0; rawY < expectedChannel3a.length; rawY++) {
+            expectedChannel3a[rawY] = expected.isChannel3a(rawY);
+        }
+        expected.dispose();
+
+        System.setProperty(MetopFile.USE_INDEX_FILES_PROPERTY, "true");
+        final MetopFile created = openMetopFile();
+        created.dispose();
+        assertTrue(indexFile.isFile());
+        final long indexLastModified = indexFile.lastModified();
+
+        final MetopFile metopFile = openMetopFile();
+        try {
+            assertEquals(indexLastModified, indexFile.lastModified());
+            assertEquals(expected.getProductHeight(), metopFile.getProductHeight());
+            assertEquals(expected.get3abState(), metopFile.get3abState());
+            assertEquals(expected.getStartDate().getMJD(), metopFile.getStartDate().getMJD(), 0.0);
+            assertEquals(expected.getEndDate().getMJD(), metopFile.getEndDate().getMJD(), 0.0);
+            for (int rawY = 0; rawY < expectedChannel3a.length; rawY++) {
+                assertEquals(expectedChannel3a[rawY], metopFile.isChannel3a(rawY));
+            }
+            assertArrayEquals(expectedScanLineStartTimes, metopFile.getScanLineStartTimes());
+            final float[][] tiePointData = metopFile.getTiePointData();
+            assertEquals(expectedTiePointData.length, tiePointData.length);
+            for (int i = 0; i < tiePointData.length; i++) {
+                assertArrayEquals(expectedTiePointData[i], tiePointData[i], 0.0f);
+            }
+        } finally {
+            metopFile.dispose();
+        }
+    }
+
+    @Test
+    public void testIndexFileIsReplacedWhenProductIsModified() throws IOException {
+        System.setProperty(MetopFile.USE_INDEX_FILES_PROPERTY, "true");
+        openMetopFile().dispose();
+        assertEquals(81, MetopIndexFile.read(indexFile).getProductHeight());
+
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(45);
+        writer.write(file);
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+
+        final MetopFile metopFile = openMetopFile();
+        try {
+            assertEquals(41, metopFile.getProductHeight());
+            assertEquals(41, MetopIndexFile.read(indexFile).getProductHeight());
+        } finally {
+            metopFile.dispose();
+        }
+    }
+
+    private MetopFile openMetopFile() throws IOException {
+        final MetopFile metopFile = new MetopFile(file);
+        metopFile.readHeader();
+        return metopFile;
+    }
+}
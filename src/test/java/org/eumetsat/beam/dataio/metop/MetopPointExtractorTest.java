@@ -0,0 +1,178 @@
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetopPointExtractorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private File otherFile;
+    private final List<MetopPixelWindow> windows = new ArrayList<MetopPixelWindow>();
+
+    @Before
+    public void setUp() throws IOException {
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(201);
+        file = writer.write(temporaryFolder);
+        otherFile = writer.write(temporaryFolder);
+    }
+
+    @Test
+    public void testExtractWindows() throws IOException {
+        // pixel (300, 100) is located at a tie point
+        final MetopMatchupPoint point = new MetopMatchupPoint("a", getLat(100, 15), getLon(100, 15),
+                                                              utc(100 * 167 + 50));
+        final MetopPointExtractor extractor = new MetopPointExtractor(5, 1000, 1);
+        extract(extractor, Arrays.asList(file), Arrays.asList(point));
+
+        assertEquals(1, windows.size());
+        final MetopPixelWindow window = windows.get(0);
+        assertEquals("a", window.getPoint().getId());
+        assertEquals(file, window.getProductFile());
+        assertEquals(300, window.getCentreX());
+        assertEquals(100, window.getCentreY());
+        assertEquals(5, window.getSize());
+        assertEquals(-50, window.getTimeDifference());
+        assertEquals(getLat(100, 15), window.getValues(AvhrrConstants.LAT_DS_NAME)[12], 1.0E-6f);
+        assertEquals(getLon(100, 15), window.getValues(AvhrrConstants.LON_DS_NAME)[12], 1.0E-6f);
+        assertNull(window.getValues("radiance_4"));
+
+        final MetopFile metopFile = new MetopFile(file);
+        try {
+            metopFile.readHeader();
+            final BandReader[] bandReaders = {
+                    metopFile.createReflectanceFactorBandReader(AvhrrConstants.CH_1),
+                    metopFile.createIrTemperatureBandReader(AvhrrConstants.CH_4)
+            };
+            for (BandReader bandReader : bandReaders) {
+                final ProductData buffer = ProductData.createInstance(bandReader.getDataType(), 25);
+                bandReader.readBandRasterData(298, 98, 5, 5, 1, 1, buffer, ProgressMonitor.NULL);
+                assertArrayEquals((float[]) buffer.getElems(), window.getValues(bandReader.getBandName()), 0.0f);
+            }
+        } finally {
+            metopFile.dispose();
+        }
+        final float[] cloudFlags = window.getValues("cloud_flags");
+        for (int j = 0; j < 5; j++) {
+            for (int i = 0; i < 5; i++) {
+                final int expected = SyntheticProductWriter.getCloudInformation(98 + j, 4 + 298 + i) & 0xFFFF;
+                assertEquals(expected, cloudFlags[j * 5 + i], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testExtractWindowsAtBorderOfProduct() throws IOException {
+        final MetopMatchupPoint point = new MetopMatchupPoint("a", getLat(200, 102), getLon(200, 102), utc(200 * 167));
+        extract(new MetopPointExtractor(3, 1000, 1), Arrays.asList(file), Arrays.asList(point));
+
+        assertEquals(1, windows.size());
+        final MetopPixelWindow window = windows.get(0);
+        assertEquals(2040, window.getCentreX());
+        assertEquals(200, window.getCentreY());
+        for (String variableName : window.getVariableNames()) {
+            final float[] values = window.getValues(variableName);
+            assertTrue(!Float.isNaN(values[0]));
+            assertTrue(!Float.isNaN(values[4]));
+            assertTrue(Float.isNaN(values[2]));
+            assertTrue(Float.isNaN(values[5]));
+            assertTrue(Float.isNaN(values[6]));
+        }
+    }
+
+    @Test
+    public void testSkipPointsOutsideOfProducts() throws IOException {
+        final List<MetopMatchupPoint> points = new ArrayList<MetopMatchupPoint>();
+        points.add(new MetopMatchupPoint("late", getLat(40, 5), getLon(40, 5), utc(40 * 167 + 2000)));
+        points.add(new MetopMatchupPoint("elsewhere", -30.0f, 100.0f, utc(40 * 167)));
+        points.add(new MetopMatchupPoint("inside", getLat(40, 5), getLon(40, 5), utc(40 * 167)));
+        points.add(new MetopMatchupPoint("before", getLat(0, 5), getLon(0, 5), utc(-2000)));
+        extract(new MetopPointExtractor(1, 1000, 1), Arrays.asList(file), points);
+
+        assertEquals(1, windows.size());
+        assertEquals("inside", windows.get(0).getPoint().getId());
+    }
+
+    @Test
+    public void testExtractFromSeveralProductsInParallel() throws IOException {
+        final List<MetopMatchupPoint> points = new ArrayList<MetopMatchupPoint>();
+        for (int i = 0; i < 50; i++) {
+            points.add(new MetopMatchupPoint(Integer.toString(i), getLat(i * 4, 2 * i), getLon(i * 4, 2 * i),
+                                             utc(i * 4 * 167)));
+        }
+        Collections.reverse(points);
+        extract(new MetopPointExtractor(3, 1000, 2), Arrays.asList(file, otherFile), points);
+
+        assertEquals(100, windows.size());
+        for (MetopPixelWindow window : windows) {
+            final int i = Integer.parseInt(window.getPoint().getId());
+            assertEquals(i * 40, window.getCentreX());
+            assertEquals(i * 4, window.getCentreY());
+        }
+    }
+
+    @Test
+    public void testSkipProductsByName() throws IOException {
+        final File namedFile = new File(file.getParentFile(),
+                                        "AVHR_xxx_1B_M02_20150101000000Z_20150101003000Z_N_O_20150101010000Z.nat");
+        assertTrue(file.renameTo(namedFile));
+        try {
+            final MetopMatchupPoint point = new MetopMatchupPoint("a", getLat(40, 5), getLon(40, 5), utc(40 * 167));
+            extract(new MetopPointExtractor(1, 1000, 1), Arrays.asList(namedFile), Arrays.asList(point));
+            assertEquals(0, windows.size());
+        } finally {
+            assertTrue(namedFile.renameTo(file));
+        }
+
+        final long[] sensingPeriod = MetopPointExtractor.getSensingPeriod(namedFile.getName());
+        assertEquals(5479 * 86400000L, sensingPeriod[0]);
+        assertEquals(5479 * 86400000L + 30 * 60000L, sensingPeriod[1]);
+        assertNull(MetopPointExtractor.getSensingPeriod(file.getName()));
+    }
+
+    private void extract(MetopPointExtractor extractor, List<File> files,
+                         List<MetopMatchupPoint> points) throws IOException {
+        extractor.extract(files, points, new MetopPointExtractor.WindowHandler() {
+            @Override
+            public void handleWindow(MetopPixelWindow window) {
+                windows.add(window);
+            }
+        });
+    }
+
+    private static float getLat(int rawY, int point) {
+        return SyntheticProductWriter.getRawLatitude(rawY, point) * 1E-4f;
+    }
+
+    private static float getLon(int rawY, int point) {
+        return SyntheticProductWriter.getRawLongitude(rawY, point) * 1E-4f;
+    }
+
+    private static ProductData.UTC utc(long millis) {
+        final long dayMillis = 2557 * 86400000L + millis;
+        final int days = (int) (dayMillis / 86400000L);
+        final long millisOfDay = dayMillis - days * 86400000L;
+        return new ProductData.UTC(days, (int) (millisOfDay / 1000), (int) (millisOfDay % 1000) * 1000);
+    }
+}
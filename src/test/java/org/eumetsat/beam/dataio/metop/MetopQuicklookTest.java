@@ -0,0 +1,125 @@
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetopQuicklookTest {
+
+    private static final int STEP = 2;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private MetopFile metopFile;
+    private MetopQuicklook quicklook;
+
+    @Before
+    public void setUp() throws IOException {
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(161);
+        file = writer.write(temporaryFolder);
+        metopFile = new MetopFile(file);
+        metopFile.readHeader();
+        quicklook = new MetopQuicklook(metopFile, STEP);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        metopFile.dispose();
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(1021, quicklook.getWidth());
+        assertEquals(81, quicklook.getHeight());
+        assertTrue(quicklook.getHeight() > MetopQuicklook.STRIP_HEIGHT);
+    }
+
+    @Test
+    public void testRgbImageAcrossStripBoundary() throws IOException {
+        final BufferedImage image = quicklook.createRgbImage();
+        assertEquals(1021, image.getWidth());
+        assertEquals(81, image.getHeight());
+        final BandReader red = metopFile.createReflectanceFactorBandReader(AvhrrConstants.CH_1);
+        final BandReader green = metopFile.createReflectanceFactorBandReader(AvhrrConstants.CH_2);
+        final BandReader blue = metopFile.createIrTemperatureBandReader(AvhrrConstants.CH_4);
+        final int[] ys = {0, MetopQuicklook.STRIP_HEIGHT - 1, MetopQuicklook.STRIP_HEIGHT, 80};
+        final int[] xs = {0, 333, 1020};
+        for (int y : ys) {
+            for (int x : xs) {
+                final int expected = MetopQuicklook.toRgb(readSample(red, x, y), readSample(green, x, y),
+                                                          readSample(blue, x, y));
+                assertEquals(expected, image.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+    }
+
+    @Test
+    public void testStretch() {
+        assertEquals(0, MetopQuicklook.stretch(-5.0f, 0.0f, 100.0f));
+        assertEquals(0, MetopQuicklook.stretch(0.0f, 0.0f, 100.0f));
+        assertEquals(128, MetopQuicklook.stretch(50.0f, 0.0f, 100.0f));
+        assertEquals(255, MetopQuicklook.stretch(100.0f, 0.0f, 100.0f));
+        assertEquals(255, MetopQuicklook.stretch(150.0f, 0.0f, 100.0f));
+        // the brightness temperature is inverted, cold is bright
+        assertEquals(0, MetopQuicklook.stretch(330.0f, 320.0f, 200.0f));
+        assertEquals(255, MetopQuicklook.stretch(200.0f, 320.0f, 200.0f));
+        assertEquals(0x00FF00, MetopQuicklook.toRgb(0.0f, 100.0f, 320.0f));
+    }
+
+    @Test
+    public void testCloudOverlay() throws IOException {
+        final BufferedImage overlay = quicklook.createCloudOverlay();
+        assertEquals(1021, overlay.getWidth());
+        assertEquals(81, overlay.getHeight());
+        int numCloudyPixels = 0;
+        for (int y = 0; y < overlay.getHeight(); y++) {
+            for (int x = 0; x < overlay.getWidth(); x++) {
+                final short cloudInformation = SyntheticProductWriter.getCloudInformation(y * STEP, x * STEP + 4);
+                final boolean cloudy = (cloudInformation & MetopQuicklook.CLOUDY_MASK) != 0;
+                assertEquals(cloudy ? MetopQuicklook.CLOUDY_COLOR : 0, overlay.getRGB(x, y));
+                if (cloudy) {
+                    numCloudyPixels++;
+                }
+            }
+        }
+        assertTrue(numCloudyPixels > 0);
+        assertTrue(numCloudyPixels < overlay.getWidth() * overlay.getHeight());
+    }
+
+    @Test
+    public void testWriteImagesOfProductFile() throws IOException {
+        final File rgbFile = temporaryFolder.newFile("rgb.png");
+        final File cloudFile = temporaryFolder.newFile("cloud.png");
+        MetopQuicklook.write(file, STEP, rgbFile, cloudFile);
+
+        final BufferedImage rgbImage = ImageIO.read(rgbFile);
+        assertEquals(1021, rgbImage.getWidth());
+        assertEquals(81, rgbImage.getHeight());
+        assertEquals(quicklook.createRgbImage().getRGB(500, 70), rgbImage.getRGB(500, 70));
+        final BufferedImage cloudOverlay = ImageIO.read(cloudFile);
+        assertEquals(quicklook.createCloudOverlay().getRGB(500, 70), cloudOverlay.getRGB(500, 70));
+    }
+
+    private float readSample(BandReader bandReader, int x, int y) throws IOException {
+        final ProductData buffer = ProductData.createInstance(bandReader.getDataType(), 1);
+        bandReader.readBandRasterData(x * STEP, y * STEP, 1, 1, 1, 1, buffer, ProgressMonitor.NULL);
+        return buffer.getElemFloatAt(0);
+    }
+}
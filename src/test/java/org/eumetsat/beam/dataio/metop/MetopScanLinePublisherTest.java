@@ -0,0 +1,242 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetopScanLinePublisherTest {
+
+    private static final Executor CALLER_RUNS = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+    private MetopScanLineReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(101);
+        file = writer.write(temporaryFolder);
+        reader = new MetopScanLineReader(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+    }
+
+    @Test
+    public void testPublishBlocksOnDemand() {
+        final MetopScanLinePublisher publisher = new MetopScanLinePublisher(reader, 10, 45, 16, 2, CALLER_RUNS);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertEquals(0, subscriber.blocks.size());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.blocks.size());
+        final MetopScanLineBlock block = subscriber.blocks.get(0);
+        assertEquals(10, block.getFirstScanLine());
+        assertEquals(16, block.getScanLineCount());
+        final int lineIndex = 3;
+        final int x = 500;
+        assertEquals(SyntheticProductWriter.getRadiance(13, 4 + x, 3),
+                     block.getRadiances(AvhrrConstants.CH_4)[lineIndex * 2041 + x]);
+        assertEquals(SyntheticProductWriter.getCloudInformation(13, 4 + x),
+                     block.getCloudFlags()[lineIndex * 2041 + x]);
+        assertEquals(SyntheticProductWriter.getRawLatitude(13, 9) * 1E-4f, block.getTiePoints(4)[lineIndex * 103 + 9],
+                     0.0f);
+        assertEquals(2557 * 86400000L + 13 * 167, block.getStartTime(lineIndex));
+        assertTrue(block.isChannel3a(lineIndex));
+
+        // the third block is read when one of the two blocks has been released
+        subscriber.subscription.request(5);
+        assertEquals(2, subscriber.blocks.size());
+        subscriber.blocks.get(0).release();
+        assertEquals(3, subscriber.blocks.size());
+        assertEquals(42, subscriber.blocks.get(2).getFirstScanLine());
+        assertEquals(3, subscriber.blocks.get(2).getScanLineCount());
+        assertEquals(1, subscriber.completeCount);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testCancelStopsPublishing() {
+        final MetopScanLinePublisher publisher = new MetopScanLinePublisher(reader, 4, 8, CALLER_RUNS);
+        final RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(MetopScanLineBlock item) {
+                super.onNext(item);
+                subscription.cancel();
+                item.release();
+            }
+        };
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(1, subscriber.blocks.size());
+        assertEquals(0, subscriber.completeCount);
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.blocks.size());
+    }
+
+    @Test
+    public void testRejectNonPositiveRequests() {
+        final MetopScanLinePublisher publisher = new MetopScanLinePublisher(reader, 4, 8, CALLER_RUNS);
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(0, subscriber.blocks.size());
+    }
+
+    @Test
+    public void testPublishConcurrently() throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final MetopScanLinePublisher publisher = new MetopScanLinePublisher(reader, 7, 2, executor);
+            final CountDownLatch completed = new CountDownLatch(1);
+            final List<Integer> firstScanLines = new ArrayList<Integer>();
+            final List<Long> startTimes = new ArrayList<Long>();
+            publisher.subscribe(new MetopScanLineFlow.Subscriber<MetopScanLineBlock>() {
+                private MetopScanLineFlow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(MetopScanLineFlow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(2);
+                }
+
+                @Override
+                public void onNext(MetopScanLineBlock item) {
+                    firstScanLines.add(item.getFirstScanLine());
+                    startTimes.add(item.getStartTime(0));
+                    item.release();
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+            assertTrue(completed.await(10, TimeUnit.SECONDS));
+
+            assertEquals(15, firstScanLines.size());
+            for (int i = 0; i < 15; i++) {
+                assertEquals(i * 7, firstScanLines.get(i).intValue());
+                assertEquals(2557 * 86400000L + i * 7 * 167, startTimes.get(i).longValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTailGrowingProduct() throws IOException {
+        final File growingFile = temporaryFolder.newFile();
+        final int mdrSize = new SyntheticProductWriter().getMdrSize();
+        final long mdrAreaOffset = file.length() - 101 * mdrSize;
+        MetopFileTest.copyPrefix(file, growingFile, mdrAreaOffset + 30 * mdrSize);
+        final MetopScanLineReader growingReader = new MetopScanLineReader(growingFile);
+        try {
+            assertEquals(21, growingReader.getNumScanLines());
+            assertEquals(30, growingReader.getNumCompletedScanLines());
+            final MetopScanLinePublisher publisher =
+                    MetopScanLinePublisher.createTailingPublisher(growingReader, 0, 16, 2, CALLER_RUNS);
+            final RecordingSubscriber subscriber = new RecordingSubscriber() {
+                @Override
+                public void onNext(MetopScanLineBlock item) {
+                    super.onNext(item);
+                    item.release();
+                }
+            };
+            publisher.subscribe(subscriber);
+            subscriber.subscription.request(Long.MAX_VALUE);
+            assertEquals(2, subscriber.blocks.size());
+            assertEquals(16, subscriber.blocks.get(1).getFirstScanLine());
+            assertEquals(14, subscriber.blocks.get(1).getScanLineCount());
+            assertEquals(30, publisher.poll());
+            assertEquals(2, subscriber.blocks.size());
+
+            // the appended lines are delivered at the next poll, in a partial block
+            MetopFileTest.copyPrefix(file, growingFile, mdrAreaOffset + 33 * mdrSize);
+            assertEquals(33, publisher.poll());
+            assertEquals(3, subscriber.blocks.size());
+            assertEquals(30, subscriber.blocks.get(2).getFirstScanLine());
+            assertEquals(3, subscriber.blocks.get(2).getScanLineCount());
+            assertEquals(0, subscriber.completeCount);
+
+            MetopFileTest.copyPrefix(file, growingFile, file.length());
+            assertEquals(101, publisher.poll());
+            assertTrue(publisher.isComplete());
+            assertEquals(101, growingReader.getNumScanLines());
+            final MetopScanLineBlock lastBlock = subscriber.blocks.get(subscriber.blocks.size() - 1);
+            assertEquals(101, lastBlock.getFirstScanLine() + lastBlock.getScanLineCount());
+            assertEquals(2557 * 86400000L + 100 * 167,
+                         lastBlock.getStartTime(lastBlock.getScanLineCount() - 1));
+            assertEquals(1, subscriber.completeCount);
+            assertNull(subscriber.error);
+        } finally {
+            growingReader.close();
+        }
+    }
+
+    private static class RecordingSubscriber implements MetopScanLineFlow.Subscriber<MetopScanLineBlock> {
+
+        MetopScanLineFlow.Subscription subscription;
+        final List<MetopScanLineBlock> blocks = new ArrayList<MetopScanLineBlock>();
+        int completeCount;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(MetopScanLineFlow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(MetopScanLineBlock item) {
+            blocks.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            assertFalse(error != null);
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completeCount++;
+        }
+    }
+}
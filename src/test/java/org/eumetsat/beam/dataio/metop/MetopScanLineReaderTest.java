@@ -0,0 +1,164 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class MetopScanLineReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SyntheticProductWriter writer;
+    private File file;
+    private MetopScanLineReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        writer = new SyntheticProductWriter();
+        file = temporaryFolder.newFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testIterateScanLines() throws IOException {
+        writer.setNumLines(101);
+        writer.setChannel3abSwitchInterval(30);
+        open();
+
+        assertEquals(101, reader.getNumScanLines());
+        assertEquals(2041, reader.getScanLineWidth());
+        assertEquals(103, reader.getNumTiePoints());
+        final MetopScanLineIterator iterator = reader.iterator();
+        MetopScanLine previous = null;
+        int rawY = 0;
+        while (iterator.hasNext()) {
+            final MetopScanLine scanLine = iterator.next();
+            if (previous != null) {
+                assertSame(previous, scanLine);
+            }
+            previous = scanLine;
+            assertScanLine(scanLine, rawY, 4);
+            rawY++;
+        }
+        assertEquals(101, rawY);
+    }
+
+    @Test
+    public void testIterateScanLinesOfLowPrecisionProduct() throws IOException {
+        writer.setNumLines(81);
+        writer.setNavSampleRate(SyntheticProductWriter.LOW_PRECISION_NAV_SAMPLE_RATE);
+        writer.setChannel3a(false);
+        open();
+
+        assertEquals(2001, reader.getScanLineWidth());
+        assertEquals(51, reader.getNumTiePoints());
+        final MetopScanLineIterator iterator = reader.iterator(40, 43);
+        for (int rawY = 40; rawY < 43; rawY++) {
+            assertScanLine(iterator.next(), rawY, 24);
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testSplitIterator() throws IOException {
+        writer.setNumLines(201);
+        open();
+
+        final MetopScanLineIterator iterator = reader.iterator(10, 20);
+        final MetopScanLineIterator prefix = iterator.trySplit();
+        assertEquals(5, prefix.getRemainingCount());
+        assertEquals(5, iterator.getRemainingCount());
+        assertEquals(10, prefix.next().getScanLine());
+        assertEquals(15, iterator.next().getScanLine());
+        final MetopScanLineIterator singleLine = reader.iterator(7, 8);
+        assertNull(singleLine.trySplit());
+
+        final long expected = new ChecksumTask(reader.iterator(), Integer.MAX_VALUE).compute();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(expected, pool.invoke(new ChecksumTask(reader.iterator(), 8)).longValue());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void assertScanLine(MetopScanLine scanLine, int rawY, int numTrimX) {
+        assertEquals(rawY, scanLine.getScanLine());
+        assertEquals(2557 * 86400000L + rawY * 167, scanLine.getStartTime());
+        assertEquals(2557 * 86400000L + (rawY + 1) * 167, scanLine.getEndTime());
+        assertEquals(writer.isChannel3a(rawY), scanLine.isChannel3a());
+        assertEquals(writer.isChannel3a(rawY) ? 1 << 16 : 0, scanLine.getFrameIndicator());
+        final int x = 1000;
+        assertEquals(SyntheticProductWriter.getRadiance(rawY, numTrimX + x, 0),
+                     scanLine.getRadiances(AvhrrConstants.CH_1)[x]);
+        assertEquals(SyntheticProductWriter.getRadiance(rawY, numTrimX + x, 4),
+                     scanLine.getRadiances(AvhrrConstants.CH_5)[x]);
+        if (writer.isChannel3a(rawY)) {
+            assertNull(scanLine.getRadiances(AvhrrConstants.CH_3B));
+            assertEquals(SyntheticProductWriter.getRadiance(rawY, numTrimX + x, 2),
+                         scanLine.getRadiances(AvhrrConstants.CH_3A)[x]);
+        } else {
+            assertNull(scanLine.getRadiances(AvhrrConstants.CH_3A));
+            assertEquals(SyntheticProductWriter.getRadiance(rawY, numTrimX + x, 2),
+                         scanLine.getRadiances(AvhrrConstants.CH_3B)[x]);
+        }
+        assertEquals(SyntheticProductWriter.getCloudInformation(rawY, numTrimX), scanLine.getCloudFlags()[0]);
+        assertEquals(SyntheticProductWriter.getRawAngle(rawY, 7, 2) * 1E-2f, scanLine.getTiePoints(2)[7], 0.0f);
+        assertEquals(SyntheticProductWriter.getRawLatitude(rawY, 7) * 1E-4f, scanLine.getTiePoints(4)[7], 0.0f);
+        assertEquals(SyntheticProductWriter.getRawLongitude(rawY, 7) * 1E-4f, scanLine.getTiePoints(5)[7], 0.0f);
+    }
+
+    private void open() throws IOException {
+        writer.write(file);
+        reader = new MetopScanLineReader(file);
+    }
+
+    private static class ChecksumTask extends RecursiveTask<Long> {
+
+        private final MetopScanLineIterator iterator;
+        private final int maxLineCount;
+
+        private ChecksumTask(MetopScanLineIterator iterator, int maxLineCount) {
+            this.iterator = iterator;
+            this.maxLineCount = maxLineCount;
+        }
+
+        @Override
+        protected Long compute() {
+            if (iterator.getRemainingCount() > maxLineCount) {
+                final ChecksumTask prefixTask = new ChecksumTask(iterator.trySplit(), maxLineCount);
+                prefixTask.fork();
+                final long checksum = compute();
+                return checksum + prefixTask.join();
+            }
+            long checksum = 0;
+            while (iterator.hasNext()) {
+                final MetopScanLine scanLine = iterator.next();
+                for (short radiance : scanLine.getRadiances(AvhrrConstants.CH_4)) {
+                    checksum += radiance * (scanLine.getScanLine() + 1);
+                }
+            }
+            return checksum;
+        }
+    }
+}
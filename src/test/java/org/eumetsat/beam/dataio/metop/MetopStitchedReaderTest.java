@@ -0,0 +1,162 @@
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.framework.dataio.ProductSubsetDef;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetopStitchedReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File granuleA;
+    private File granuleB;
+    private File granuleC;
+    private File granuleD;
+    private MetopStitchedReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        // B overlaps A by 11 scan lines, C follows B and D is covered by A
+        granuleA = writeGranule(0, 101);
+        granuleB = writeGranule(90, 101);
+        granuleC = writeGranule(191, 70);
+        granuleD = writeGranule(10, 41);
+        reader = new MetopStitchedReader(new MetopReaderPlugIn());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+    }
+
+    @Test
+    public void testLayoutOfStitchedSwath() throws IOException {
+        final StitchedMetopFile stitchedFile = new StitchedMetopFile(Arrays.asList(granuleC, granuleA, granuleD,
+                                                                                   granuleB));
+        try {
+            stitchedFile.readHeader();
+
+            assertEquals(3, stitchedFile.getNumSegments());
+            assertSame(granuleA, stitchedFile.getGranule(0).getFile());
+            assertSame(granuleB, stitchedFile.getGranule(1).getFile());
+            assertSame(granuleC, stitchedFile.getGranule(2).getFile());
+            assertEquals(101, stitchedFile.getSegmentStart(1));
+            assertEquals(191, stitchedFile.getSegmentStart(2));
+            assertEquals(261, stitchedFile.getSegmentStart(3));
+            assertEquals(1, stitchedFile.getSegment(101));
+            assertEquals(11, stitchedFile.getGranuleScanLine(1, 101));
+            assertEquals(2, stitchedFile.getSegment(260));
+
+            assertEquals(2041, stitchedFile.getProductWidth());
+            assertEquals(261, stitchedFile.getProductHeight());
+            assertEquals(2557, stitchedFile.getStartDate().getDaysFraction());
+            assertEquals(0, stitchedFile.getStartDate().getSecondsFraction());
+            assertEquals(261 * 167 / 1000, stitchedFile.getEndDate().getSecondsFraction());
+            // the product headers of the granules are read when the subset is set
+            for (int segment = 0; segment < 3; segment++) {
+                assertFalse(stitchedFile.getGranule(segment).isOpen());
+            }
+
+            // the MDR and the flags of scan line 101 are located in granule B
+            final MetopFile granuleFile = stitchedFile.getGranule(1).getMetopFile();
+            assertEquals(granuleFile.getScanLineOffset(11), stitchedFile.getScanLineOffset(101));
+            assertEquals(granuleFile.getFlagOffset(11), stitchedFile.getFlagOffset(101));
+            assertEquals(stitchedFile.getGranule(2).getMetopFile().getScanLineOffset(69),
+                         stitchedFile.getScanLineOffset(260));
+        } finally {
+            stitchedFile.dispose();
+        }
+    }
+
+    @Test
+    public void testReadBandAcrossGranules() throws IOException {
+        final Product product = reader.readProductNodes(new File[]{granuleB, granuleC, granuleA}, null);
+        assertEquals(2041, product.getSceneRasterWidth());
+        assertEquals(261, product.getSceneRasterHeight());
+        assertEquals(AvhrrConstants.CH_3A, reader.getStitchedFile().get3abState());
+
+        final Band cloudBand = product.getBands()[0];
+        final ProductData buffer = ProductData.createInstance(ProductData.TYPE_INT16, 5 * 160);
+        reader.readBandRasterData(cloudBand, 100, 80, 5, 160, buffer, ProgressMonitor.NULL);
+        final short[] cloudInformation = (short[]) buffer.getElems();
+        for (int j = 0; j < 160; j++) {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(SyntheticProductWriter.getCloudInformation(80 + j, 4 + 100 + i),
+                             cloudInformation[j * 5 + i]);
+            }
+        }
+
+        // the tie-point rows 6 and 10 are read from granule B and C
+        final float[] latitudes = product.getTiePointGrid(AvhrrConstants.LAT_DS_NAME).getTiePoints();
+        assertEquals(14 * 103, latitudes.length);
+        assertEquals(SyntheticProductWriter.getRawLatitude(120, 7) * 1E-4f, latitudes[6 * 103 + 7], 0.0f);
+        assertEquals(SyntheticProductWriter.getRawLatitude(200, 7) * 1E-4f, latitudes[10 * 103 + 7], 0.0f);
+        assertEquals(SyntheticProductWriter.getRawLatitude(260, 102) * 1E-4f, latitudes[13 * 103 + 102], 0.0f);
+    }
+
+    @Test
+    public void testSubsetOpensTouchedGranulesOnly() throws IOException {
+        final ProductSubsetDef subsetDef = new ProductSubsetDef();
+        subsetDef.setRegion(50, 180, 40, 30);
+        subsetDef.setSubSampling(2, 3);
+        final Product product = reader.readProductNodes(Arrays.asList(granuleA, granuleB, granuleC), subsetDef);
+        assertEquals(20, product.getSceneRasterWidth());
+        assertEquals(10, product.getSceneRasterHeight());
+
+        final StitchedMetopFile stitchedFile = reader.getStitchedFile();
+        assertFalse(stitchedFile.getGranule(0).isOpen());
+        assertTrue(stitchedFile.getGranule(1).isOpen());
+        assertTrue(stitchedFile.getGranule(2).isOpen());
+
+        final ProductData buffer = ProductData.createInstance(ProductData.TYPE_INT16, 20 * 10);
+        reader.readBandRasterData(product.getBands()[0], 0, 0, 20, 10, buffer, ProgressMonitor.NULL);
+        final short[] cloudInformation = (short[]) buffer.getElems();
+        for (int j = 0; j < 10; j++) {
+            for (int i = 0; i < 20; i++) {
+                assertEquals(SyntheticProductWriter.getCloudInformation(180 + j * 3, 4 + 50 + i * 2),
+                             cloudInformation[j * 20 + i]);
+            }
+        }
+        assertFalse(stitchedFile.getGranule(0).isOpen());
+    }
+
+    @Test
+    public void testRejectGranulesOfDifferentNavSampleRates() throws IOException {
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setFirstLine(101);
+        writer.setNavSampleRate(SyntheticProductWriter.LOW_PRECISION_NAV_SAMPLE_RATE);
+        final File lowPrecisionGranule = writer.write(temporaryFolder);
+        try {
+            reader.readProductNodes(new File[]{granuleA, lowPrecisionGranule}, null);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("navigation sample rates"));
+        }
+    }
+
+    private File writeGranule(int firstLine, int numLines) throws IOException {
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setFirstLine(firstLine);
+        writer.setNumLines(numLines);
+        return writer.write(temporaryFolder);
+    }
+}
@@ -0,0 +1,72 @@
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.dataio.ProductSubsetDef;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetopTimeWindowTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadOnlyTheScanLinesOfTimeWindow() throws IOException {
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(2001);
+        final File file = writer.write(temporaryFolder);
+        final CountingImageInputStream inputStream = new CountingImageInputStream(file);
+        final MetopFile metopFile = new MetopFile(inputStream);
+        try {
+            metopFile.readHeader();
+            // lines 1000 to 1019 start at 167000 ms to 170173 ms
+            final ProductSubsetDef subsetDef = MetopTimeWindow.createSubsetDef(metopFile, utc(167000), utc(170200));
+            final Rectangle region = subsetDef.getRegion();
+            assertEquals(new Rectangle(0, 1000, 2041, 20), region);
+            assertNull(MetopTimeWindow.createSubsetDef(metopFile, utc(400000), utc(500000)));
+
+            final BandReader[] bandReaders = {
+                    metopFile.createVisibleRadianceBandReader(AvhrrConstants.CH_1),
+                    metopFile.createVisibleRadianceBandReader(AvhrrConstants.CH_3A),
+                    metopFile.createIrRadianceBandReader(AvhrrConstants.CH_4),
+                    metopFile.createCloudBandReader()
+            };
+            final ProductData[] destBuffers = new ProductData[bandReaders.length];
+            for (int i = 0; i < bandReaders.length; i++) {
+                destBuffers[i] = ProductData.createInstance(bandReaders[i].getDataType(),
+                                                            region.width * region.height);
+            }
+            metopFile.readBandRasterData(region.x, region.y, region.width, region.height, 1, 1, bandReaders,
+                                         destBuffers, ProgressMonitor.NULL);
+            assertEquals(SyntheticProductWriter.getRadiance(1019, 2044, 3),
+                         ((short[]) destBuffers[2].getElems())[region.width * region.height - 1]);
+
+            // the header records, the GRH and the channel 3A/3B state of each MDR and the MDRs of the window
+            final long firstMdrOffset = file.length() - 2001L * writer.getMdrSize();
+            final long expectedMaxCount = firstMdrOffset + 2001L * (GenericRecordHeader.SIZE + 1)
+                                          + (region.height + 1) * writer.getMdrSize();
+            assertTrue(inputStream.getCount() < expectedMaxCount);
+        } finally {
+            metopFile.dispose();
+        }
+    }
+
+    private static ProductData.UTC utc(long millis) {
+        final long dayMillis = 2557 * 86400000L + millis;
+        final int days = (int) (dayMillis / 86400000L);
+        final long millisOfDay = dayMillis - days * 86400000L;
+        return new ProductData.UTC(days, (int) (millisOfDay / 1000), (int) (millisOfDay % 1000) * 1000);
+    }
+}
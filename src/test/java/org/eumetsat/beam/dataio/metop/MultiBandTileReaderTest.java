@@ -0,0 +1,107 @@
+package org.eumetsat.beam.dataio.metop;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.beam.dataio.avhrr.AvhrrConstants;
+import org.esa.beam.dataio.avhrr.BandReader;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultiBandTileReaderTest {
+
+    private static final int TILE_WIDTH = 20;
+    private static final int TILE_HEIGHT = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MetopFile metopFile;
+    private Band radianceBand;
+    private Band cloudBand;
+    private Map<Band, BandReader> bandReaders;
+
+    @Before
+    public void setUp() throws IOException {
+        metopFile = new MetopFile(new SyntheticProductWriter().write(temporaryFolder));
+        metopFile.readHeader();
+        radianceBand = new Band("radiance_4", ProductData.TYPE_INT16, 2041, 101);
+        cloudBand = new Band("cloud_flags", ProductData.TYPE_INT16, 2041, 101);
+        bandReaders = new HashMap<Band, BandReader>();
+        bandReaders.put(radianceBand, metopFile.createIrRadianceBandReader(AvhrrConstants.CH_4));
+        bandReaders.put(cloudBand, metopFile.createCloudBandReader());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        metopFile.dispose();
+    }
+
+    @Test
+    public void testBandIsReadAlongWhileItConsumesItsData() throws IOException {
+        final MultiBandTileReader tileReader = new MultiBandTileReader(metopFile, bandReaders, Long.MAX_VALUE);
+        readTile(tileReader, radianceBand, 0);
+        readTile(tileReader, cloudBand, 0);
+        assertTrue(tileReader.isInDemand(cloudBand));
+
+        for (int tileY = 1; tileY <= MultiBandTileReader.MAX_UNCONSUMED_TILES + 2; tileY++) {
+            readTile(tileReader, radianceBand, tileY);
+        }
+        assertEquals(MultiBandTileReader.MAX_UNCONSUMED_TILES, tileReader.getUnconsumedTileCount(cloudBand));
+
+        readTile(tileReader, cloudBand, 1);
+        assertEquals(MultiBandTileReader.MAX_UNCONSUMED_TILES - 1, tileReader.getUnconsumedTileCount(cloudBand));
+        readTile(tileReader, radianceBand, MultiBandTileReader.MAX_UNCONSUMED_TILES + 3);
+        assertEquals(MultiBandTileReader.MAX_UNCONSUMED_TILES, tileReader.getUnconsumedTileCount(cloudBand));
+    }
+
+    @Test
+    public void testBandIsNoLongerReadAlongWhenItsDataIsDropped() throws IOException {
+        final long tileSize = TILE_WIDTH * TILE_HEIGHT * 2;
+        final MultiBandTileReader tileReader = new MultiBandTileReader(metopFile, bandReaders, tileSize);
+        readTile(tileReader, radianceBand, 0);
+        readTile(tileReader, cloudBand, 0);
+        readTile(tileReader, radianceBand, 0);
+
+        readTile(tileReader, radianceBand, 1);
+        assertEquals(1, tileReader.getUnconsumedTileCount(cloudBand));
+        readTile(tileReader, radianceBand, 2);
+        assertFalse(tileReader.isInDemand(cloudBand));
+        assertEquals(1, tileReader.getUnconsumedTileCount(cloudBand));
+        readTile(tileReader, radianceBand, 3);
+        assertEquals(1, tileReader.getUnconsumedTileCount(cloudBand));
+
+        readTile(tileReader, cloudBand, 2);
+        assertEquals(0, tileReader.getUnconsumedTileCount(cloudBand));
+        assertFalse(tileReader.isInDemand(cloudBand));
+        readTile(tileReader, cloudBand, 3);
+        assertTrue(tileReader.isInDemand(cloudBand));
+    }
+
+    private void readTile(MultiBandTileReader tileReader, Band band, int tileY) throws IOException {
+        final int y = tileY * TILE_HEIGHT;
+        final ProductData buffer = ProductData.createInstance(bandReaders.get(band).getDataType(),
+                                                             TILE_WIDTH * TILE_HEIGHT);
+        tileReader.readBandRasterData(band, 0, y, TILE_WIDTH, TILE_HEIGHT, 1, 1, buffer, ProgressMonitor.NULL);
+        final short[] values = (short[]) buffer.getElems();
+        for (int j = 0; j < TILE_HEIGHT; j++) {
+            for (int i = 0; i < TILE_WIDTH; i++) {
+                final short expected = band == radianceBand
+                                       ? SyntheticProductWriter.getRadiance(y + j, 4 + i, 3)
+                                       : SyntheticProductWriter.getCloudInformation(y + j, 4 + i);
+                assertEquals(expected, values[j * TILE_WIDTH + i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2010 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+package org.eumetsat.beam.dataio.metop;
+
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writes synthetic METOP-AVHRR/3 Level-1b products, which can be read by the {@link MetopFile}.
+ * <p/>
+ * The products consist of an MPHR, an SPHR, the internal pointer records, one GEADR, the
+ * radiance GIADR and the MDRs. The MDRs are written one at a time, so products of any
+ * length can be written with constant memory. The sample values are simple functions of
+ * the scan line and pixel or tie-point index, see {@link #getRadiance(int, int, int)},
+ * {@link #getCloudInformation(int, int)}, {@link #getRawAngle(int, int, int)},
+ * {@link #getRawLatitude(int, int)} and {@link #getRawLongitude(int, int)}. Scan line
+ * {@code n} starts {@code n * 167} ms after the start of 2007-01-01.
+ */
+public class SyntheticProductWriter {
+
+    public static final int HIGH_PRECISION_NAV_SAMPLE_RATE = 20;
+    public static final int LOW_PRECISION_NAV_SAMPLE_RATE = 40;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int GRH_SIZE = 20;
+    private static final int IPR_SIZE = 27;
+    private static final int GEADR_SIZE = 120;
+    private static final int GIADR_RADIANCE_SIZE = 130;
+
+    private static final int HIGH_PRECISION_MDR_SIZE = 26660;
+    private static final int TIE_POINT_OFFSET = 20556;
+    private static final int FLAG_OFFSET = 22204;
+    private static final int CLOUD_INFORMATION_OFFSET = 22472;
+    private static final int FRAME_INDICATOR_OFFSET = 26580;
+    private static final int TIE_POINT_DIFFERENCE = 832;
+    private static final int RAW_WIDTH = 2048;
+    private static final int NUM_RADIANCE_CHANNELS = 5;
+
+    private static final int START_DAY = 2557;
+    private static final int LINE_DURATION_MILLIS = 167;
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final String[] MPHR_FIELDS = {
+            "PRODUCT_NAME", "PARENT_PRODUCT_NAME_1", "PARENT_PRODUCT_NAME_2", "PARENT_PRODUCT_NAME_3",
+            "PARENT_PRODUCT_NAME_4", "INSTRUMENT_ID", "INSTRUMENT_MODEL", "PRODUCT_TYPE", "PROCESSING_LEVEL",
+            "SPACECRAFT_ID", "SENSING_START", "SENSING_END", "SENSING_START_THEORETICAL",
+            "SENSING_END_THEORETICAL", "PROCESSING_CENTRE", "PROCESSOR_MAJOR_VERSION", "PROCESSOR_MINOR_VERSION",
+            "FORMAT_MAJOR_VERSION", "FORMAT_MINOR_VERSION", "PROCESSING_TIME_START", "PROCESSING_TIME_END",
+            "PROCESSING_MODE", "DISPOSITION_MODE", "RECEIVING_GROUND_STATION", "RECEIVE_TIME_START",
+            "RECEIVE_TIME_END", "ORBIT_START", "ORBIT_END", "ACTUAL_PRODUCT_SIZE", "STATE_VECTOR_TIME",
+            "SEMI_MAJOR_AXIS", "ECCENTRICITY", "INCLINATION", "PERIGEE_ARGUMENT", "RIGHT_ASCENSION",
+            "MEAN_ANOMALY", "X_POSITION", "Y_POSITION", "Z_POSITION", "X_VELOCITY", "Y_VELOCITY", "Z_VELOCITY",
+            "EARTH_SUN_DISTANCE_RATIO", "LOCATION_TOLERANCE_RADIAL", "LOCATION_TOLERANCE_CROSSTRACK",
+            "LOCATION_TOLERANCE_ALONGTRACK", "YAW_ERROR", "ROLL_ERROR", "PITCH_ERROR", "SUBSAT_LATITUDE_START",
+            "SUBSAT_LONGITUDE_START", "SUBSAT_LATITUDE_END", "SUBSAT_LONGITUDE_END", "LEAP_SECOND",
+            "LEAP_SECOND_UTC", "TOTAL_RECORDS", "TOTAL_MPHR", "TOTAL_SPHR", "TOTAL_IPR", "TOTAL_GEADR",
+            "TOTAL_GIADR", "TOTAL_VEADR", "TOTAL_VIADR", "TOTAL_MDR", "COUNT_DEGRADED_INST_MDR",
+            "COUNT_DEGRADED_PROC_MDR", "COUNT_DEGRADED_INST_MDR_BLOCKS", "COUNT_DEGRADED_PROC_MDR_BLOCKS",
+            "DURATION_OF_PRODUCT", "MILLISECONDS_OF_DATA_PRESENT", "MILLISECONDS_OF_DATA_MISSING",
+            "SUBSETTED_PRODUCT"
+    };
+
+    private int numLines = 101;
+    private int firstLine = 0;
+    private int navSampleRate = HIGH_PRECISION_NAV_SAMPLE_RATE;
+    private boolean channel3a = true;
+    private int channel3abSwitchInterval = 0;
+    private int numGeadrs = 1;
+    private int sparseMargin = 0;
+
+    public void setNumLines(int numLines) {
+        this.numLines = numLines;
+    }
+
+    /**
+     * @param firstLine the scan line of the orbit at which the product starts, the values and times of the
+     *                  MDRs are those of the scan lines of the orbit, so that products starting at different
+     *                  scan lines are consecutive granules of the same orbit
+     */
+    public void setFirstLine(int firstLine) {
+        this.firstLine = firstLine;
+    }
+
+    /**
+     * @param navSampleRate {@link #HIGH_PRECISION_NAV_SAMPLE_RATE} or {@link #LOW_PRECISION_NAV_SAMPLE_RATE}
+     */
+    public void setNavSampleRate(int navSampleRate) {
+        this.navSampleRate = navSampleRate;
+    }
+
+    /**
+     * @param channel3a {@code true} if the first scan line has channel 3A, {@code false} if it has channel 3B
+     */
+    public void setChannel3a(boolean channel3a) {
+        this.channel3a = channel3a;
+    }
+
+    /**
+     * @param interval the number of scan lines after which channel 3A and 3B are switched, 0 for never
+     */
+    public void setChannel3abSwitchInterval(int interval) {
+        this.channel3abSwitchInterval = interval;
+    }
+
+    /**
+     * @param numGeadrs the number of GEADRs, which hold the names of the auxiliary data files
+     */
+    public void setNumGeadrs(int numGeadrs) {
+        this.numGeadrs = numGeadrs;
+    }
+
+    /**
+     * @param sparseMargin the number of MDRs written at the start and at the end of the product, 0 for all. The
+     *                     MDRs in between are left as a hole of the file, which reads as zeros and is not allocated
+     *                     by most file systems, so that products beyond 2 GB are written quickly
+     */
+    public void setSparseMargin(int sparseMargin) {
+        this.sparseMargin = sparseMargin;
+    }
+
+    public boolean isChannel3a(int rawY) {
+        if (channel3abSwitchInterval <= 0 || (rawY / channel3abSwitchInterval) % 2 == 0) {
+            return channel3a;
+        }
+        return !channel3a;
+    }
+
+    /**
+     * @param rawY         the scan line
+     * @param rawX         the pixel index in the complete scan line of 2048 pixels
+     * @param datasetIndex the index of the radiance dataset (0 to 4)
+     * @return the raw radiance
+     */
+    public static short getRadiance(int rawY, int rawX, int datasetIndex) {
+        return (short) ((rawY * 7 + rawX * 3 + datasetIndex * 1000) % 30000 - 500);
+    }
+
+    /**
+     * @param rawY the scan line
+     * @param rawX the pixel index in the complete scan line of 2048 pixels
+     * @return the cloud information
+     */
+    public static short getCloudInformation(int rawY, int rawX) {
+        return (short) ((rawY + rawX) * 31);
+    }
+
+    /**
+     * @param rawY       the scan line
+     * @param point      the tie-point index
+     * @param angleIndex the angle (0 solar zenith, 1 satellite zenith, 2 solar azimuth, 3 satellite azimuth)
+     * @return the raw angle in 1E-2 degree
+     */
+    public static short getRawAngle(int rawY, int point, int angleIndex) {
+        switch (angleIndex) {
+            case 0:
+                return (short) (4000 + rawY % 4000 + point);
+            case 1:
+                return (short) (point * 10);
+            case 2:
+                return (short) (rawY % 36000);
+            default:
+                return (short) (18000 - point);
+        }
+    }
+
+    /**
+     * @param rawY  the scan line
+     * @param point the tie-point index
+     * @return the raw latitude in 1E-4 degree
+     */
+    public static int getRawLatitude(int rawY, int point) {
+        return 600000 - (rawY % 100000) * 10 + point;
+    }
+
+    /**
+     * @param rawY  the scan line
+     * @param point the tie-point index
+     * @return the raw longitude in 1E-4 degree
+     */
+    public static int getRawLongitude(int rawY, int point) {
+        return 100000 + point * 2000 + rawY % 1000;
+    }
+
+    public int getMdrSize() {
+        if (navSampleRate == HIGH_PRECISION_NAV_SAMPLE_RATE) {
+            return HIGH_PRECISION_MDR_SIZE;
+        }
+        return HIGH_PRECISION_MDR_SIZE - TIE_POINT_DIFFERENCE;
+    }
+
+    /**
+     * Writes the product to a new file of the temporary folder of a test, which deletes the file
+     * after the test, whether it has failed or not.
+     *
+     * @param folder the temporary folder
+     * @return the file
+     * @throws IOException if an I/O error occurs
+     */
+    public File write(TemporaryFolder folder) throws IOException {
+        final File file = folder.newFile();
+        write(file);
+        return file;
+    }
+
+    public void write(File file) throws IOException {
+        final byte[] mphr = createMainProductHeader();
+        final byte[] sphr = createSecondaryProductHeader();
+        final int mphrSize = GRH_SIZE + mphr.length;
+        final int sphrSize = GRH_SIZE + sphr.length;
+        final int iprOffset = mphrSize + sphrSize;
+        final int geadrOffset = iprOffset + (numGeadrs + 2) * IPR_SIZE;
+        final int giadrOffset = geadrOffset + numGeadrs * GEADR_SIZE;
+        final int firstMdrOffset = giadrOffset + GIADR_RADIANCE_SIZE;
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+
+            final ByteBuffer header = ByteBuffer.allocate(firstMdrOffset);
+            putGenericRecordHeader(header, GenericRecordHeader.RecordClass.MPHR,
+                                   GenericRecordHeader.InstrumentGroup.GENERIC, 0, mphrSize, 0, 0);
+            header.put(mphr);
+            putGenericRecordHeader(header, GenericRecordHeader.RecordClass.SPHR,
+                                   GenericRecordHeader.InstrumentGroup.AVHRR_3, 0, sphrSize, 0, 0);
+            header.put(sphr);
+            for (int i = 0; i < numGeadrs; i++) {
+                putInternalPointerRecord(header, GenericRecordHeader.RecordClass.GEADR, i + 1,
+                                         geadrOffset + i * GEADR_SIZE);
+            }
+            putInternalPointerRecord(header, GenericRecordHeader.RecordClass.GIADR, 1, giadrOffset);
+            putInternalPointerRecord(header, GenericRecordHeader.RecordClass.MDR, 2, firstMdrOffset);
+            for (int i = 0; i < numGeadrs; i++) {
+                putGenericRecordHeader(header, GenericRecordHeader.RecordClass.GEADR,
+                                       GenericRecordHeader.InstrumentGroup.AVHRR_3, i + 1, GEADR_SIZE, 0, 0);
+                header.put(createGeadrText(i + 1));
+            }
+            putGiadrRadiance(header);
+            header.flip();
+            writeFully(channel, header, 0);
+
+            final int mdrSize = getMdrSize();
+            final ByteBuffer mdr = ByteBuffer.allocate(mdrSize);
+            for (int rawY = 0; rawY < numLines; rawY++) {
+                if (sparseMargin > 0 && rawY >= sparseMargin && rawY < numLines - sparseMargin) {
+                    continue;
+                }
+                mdr.clear();
+                putMdr(mdr, firstLine + rawY);
+                mdr.flip();
+                writeFully(channel, mdr, firstMdrOffset + (long) rawY * mdrSize);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * @param recordSubclass the subclass of the GEADR
+     * @return the name of the auxiliary data file held by the GEADR
+     */
+    public static String getGeadrText(int recordSubclass) {
+        return "AVHR_AUX_" + recordSubclass;
+    }
+
+    /**
+     * Writes a synthetic product.
+     * <p/>
+     * Usage: {@code SyntheticProductWriter <file> <numLines> [<navSampleRate> [<channel3abSwitchInterval>]]}
+     *
+     * @param args the arguments
+     * @throws IOException if an I/O error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticProductWriter <file> <numLines> [<navSampleRate> [<channel3abSwitchInterval>]]");
+            System.exit(1);
+        }
+        final SyntheticProductWriter writer = new SyntheticProductWriter();
+        writer.setNumLines(Integer.parseInt(args[1]));
+        if (args.length > 2) {
+            writer.setNavSampleRate(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            writer.setChannel3abSwitchInterval(Integer.parseInt(args[3]));
+        }
+        writer.write(new File(args[0]));
+    }
+
+    private static byte[] createGeadrText(int recordSubclass) {
+        final byte[] text = new byte[GEADR_SIZE - GRH_SIZE];
+        Arrays.fill(text, (byte) ' ');
+        final byte[] name = getGeadrText(recordSubclass).getBytes(ASCII);
+        System.arraycopy(name, 0, text, 0, name.length);
+        return text;
+    }
+
+    private byte[] createMainProductHeader() {
+        final StringBuilder text = new StringBuilder();
+        for (String name : MPHR_FIELDS) {
+            final String value;
+            if (name.equals("PRODUCT_NAME")) {
+                value = "AVHR_xxx_1B_M02_20070101000000Z_20070101001000Z_N_O_20070101002000Z";
+            } else if (name.equals("TOTAL_SPHR")) {
+                value = "1";
+            } else if (name.equals("TOTAL_MDR")) {
+                value = Integer.toString(numLines);
+            } else if (name.equals("TOTAL_MPHR")) {
+                value = "1";
+            } else if (name.equals("TOTAL_IPR")) {
+                value = Integer.toString(numGeadrs + 2);
+            } else if (name.equals("TOTAL_GEADR")) {
+                value = Integer.toString(numGeadrs);
+            } else if (name.equals("TOTAL_GIADR")) {
+                value = "1";
+            } else if (name.equals("TOTAL_RECORDS")) {
+                // MPHR, SPHR, IPRs, GEADRs, GIADR and MDRs
+                value = Integer.toString(1 + 1 + (numGeadrs + 2) + numGeadrs + 1 + numLines);
+            } else if (name.startsWith("SENSING")) {
+                value = "20070101000000Z";
+            } else {
+                value = "0";
+            }
+            appendField(text, name, value);
+        }
+        return text.toString().getBytes(ASCII);
+    }
+
+    private byte[] createSecondaryProductHeader() {
+        final StringBuilder text = new StringBuilder();
+        appendField(text, "SRC_DATA_QUAL", "0");
+        appendField(text, "EARTH_VIEWS_PER_SCANLINE", Integer.toString(RAW_WIDTH));
+        appendField(text, "NAV_SAMPLE_RATE", Integer.toString(navSampleRate));
+        return text.toString().getBytes(ASCII);
+    }
+
+    private void putMdr(ByteBuffer mdr, int rawY) {
+        final int mdrSize = getMdrSize();
+        final int difference = HIGH_PRECISION_MDR_SIZE - mdrSize;
+        final int numNavPoints = navSampleRate == HIGH_PRECISION_NAV_SAMPLE_RATE ? 103 : 51;
+
+        putGenericRecordHeader(mdr, GenericRecordHeader.RecordClass.MDR, GenericRecordHeader.InstrumentGroup.AVHRR_3,
+                               2, mdrSize, (long) rawY * LINE_DURATION_MILLIS, (long) (rawY + 1) * LINE_DURATION_MILLIS);
+        mdr.put((byte) 0).put((byte) 0).putShort((short) RAW_WIDTH);
+        for (int datasetIndex = 0; datasetIndex < NUM_RADIANCE_CHANNELS; datasetIndex++) {
+            for (int rawX = 0; rawX < RAW_WIDTH; rawX++) {
+                mdr.putShort(getRadiance(rawY, rawX, datasetIndex));
+            }
+        }
+        mdr.position(TIE_POINT_OFFSET);
+        for (int point = 0; point < numNavPoints; point++) {
+            for (int angleIndex = 0; angleIndex < 4; angleIndex++) {
+                mdr.putShort(getRawAngle(rawY, point, angleIndex));
+            }
+        }
+        for (int point = 0; point < numNavPoints; point++) {
+            mdr.putInt(getRawLatitude(rawY, point));
+            mdr.putInt(getRawLongitude(rawY, point));
+        }
+        mdr.position(FLAG_OFFSET - difference);
+        mdr.putInt(rawY).putInt(rawY * 3).putShort((short) 1).putShort((short) 2).putShort((short) 3);
+        mdr.position(CLOUD_INFORMATION_OFFSET - difference);
+        for (int rawX = 0; rawX < RAW_WIDTH; rawX++) {
+            mdr.putShort(getCloudInformation(rawY, rawX));
+        }
+        mdr.position(FRAME_INDICATOR_OFFSET - difference);
+        mdr.putInt(isChannel3a(rawY) ? 1 << 16 : 0);
+        mdr.position(mdrSize);
+    }
+
+    private static void putGiadrRadiance(ByteBuffer buffer) {
+        putGenericRecordHeader(buffer, GenericRecordHeader.RecordClass.GIADR,
+                               GenericRecordHeader.InstrumentGroup.AVHRR_3, 1, GIADR_RADIANCE_SIZE, 0, 0);
+        for (int i = 0; i < 7; i++) {
+            buffer.putShort((short) i);
+        }
+        for (int i = 0; i < 24; i++) {
+            buffer.putShort((short) (i * 10));
+        }
+        // solar filtered irradiance and equivalent filtered width of channels 1, 2 and 3a
+        buffer.putShort((short) 1398).putShort((short) 84);
+        buffer.putShort((short) 2329).putShort((short) 150);
+        buffer.putShort((short) 0).putShort((short) 0);
+        // central wavenumber, constant 1 and constant 2 slope of channels 3b, 4 and 5
+        buffer.putInt(268814).putInt(142050).putInt(999735);
+        buffer.putInt(92718).putInt(48000).putInt(999900);
+        buffer.putInt(835226).putInt(45000).putInt(999950);
+    }
+
+    private static void putInternalPointerRecord(ByteBuffer buffer, GenericRecordHeader.RecordClass targetClass,
+                                                 int targetSubclass, int targetOffset) {
+        putGenericRecordHeader(buffer, GenericRecordHeader.RecordClass.IPR, GenericRecordHeader.InstrumentGroup.GENERIC,
+                               0, IPR_SIZE, 0, 0);
+        buffer.put((byte) targetClass.ordinal());
+        buffer.put((byte) GenericRecordHeader.InstrumentGroup.AVHRR_3.ordinal());
+        buffer.put((byte) targetSubclass);
+        buffer.putInt(targetOffset);
+    }
+
+    private static void putGenericRecordHeader(ByteBuffer buffer, GenericRecordHeader.RecordClass recordClass,
+                                               GenericRecordHeader.InstrumentGroup instrumentGroup,
+                                               int recordSubclass, int recordSize, long startMillis,
+                                               long endMillis) {
+        buffer.put((byte) recordClass.ordinal());
+        buffer.put((byte) instrumentGroup.ordinal());
+        buffer.put((byte) recordSubclass);
+        buffer.put((byte) 1);
+        buffer.putInt(recordSize);
+        putTime(buffer, startMillis);
+        putTime(buffer, endMillis);
+    }
+
+    private static void putTime(ByteBuffer buffer, long millis) {
+        buffer.putShort((short) (START_DAY + millis / MILLIS_PER_DAY));
+        buffer.putInt((int) (millis % MILLIS_PER_DAY));
+    }
+
+    private static void appendField(StringBuilder text, String name, String value) {
+        text.append(name);
+        for (int i = name.length(); i < 30; i++) {
+            text.append(' ');
+        }
+        text.append("= ").append(value).append('\n');
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
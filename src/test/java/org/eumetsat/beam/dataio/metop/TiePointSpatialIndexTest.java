@@ -0,0 +1,107 @@
+package org.eumetsat.beam.dataio.metop;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class TiePointSpatialIndexTest {
+
+    @Test
+    public void testFindTiePointsOfBoundingBox() {
+        final TiePointSpatialIndex index = createIndex(5, 9, 0.0f);
+
+        assertArrayEquals(new int[]{1, 3, 2, 4}, index.findTiePoints(2.5f, 3.5f, 1.5f, 2.5f));
+        assertArrayEquals(new int[]{0, 4, 0, 8}, index.findTiePoints(-10.0f, 10.0f, -10.0f, 10.0f));
+        assertNull(index.findTiePoints(20.0f, 30.0f, 1.5f, 2.5f));
+        assertNull(index.findTiePoints(2.5f, 3.5f, 10.0f, 20.0f));
+    }
+
+    @Test
+    public void testFindTiePointsAcrossDateLine() {
+        // the longitudes of the tie points are 178, 179, 180, -179, -178
+        final TiePointSpatialIndex index = createIndex(5, 9, 178.0f);
+
+        assertArrayEquals(new int[]{1, 3, 2, 4}, index.findTiePoints(2.5f, 3.5f, 179.5f, -179.5f));
+        assertArrayEquals(new int[]{2, 4, 2, 4}, index.findTiePoints(2.5f, 3.5f, -179.5f, -178.5f));
+        assertNull(index.findTiePoints(2.5f, 3.5f, -170.0f, 170.0f));
+    }
+
+    @Test
+    public void testFindTiePointsAroundPole() {
+        // the north pole is located within the cell of the tie points (2, 4) to (3, 5)
+        final int gridWidth = 6;
+        final int gridHeight = 10;
+        final float[] lat = new float[gridWidth * gridHeight];
+        final float[] lon = new float[gridWidth * gridHeight];
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                final double u = x - 2.5;
+                final double v = y - 4.5;
+                lat[y * gridWidth + x] = (float) (90.0 - Math.hypot(u, v));
+                lon[y * gridWidth + x] = (float) Math.toDegrees(Math.atan2(v, u));
+            }
+        }
+        final TiePointSpatialIndex index = new TiePointSpatialIndex(lat, lon, gridWidth, gridHeight, 3);
+
+        assertArrayEquals(new int[]{2, 3, 4, 5}, index.findTiePoints(89.9f, 90.0f, 100.0f, 101.0f));
+        assertArrayEquals(new int[]{4, 5, 4, 5}, index.findTiePoints(87.0f, 88.0f, -5.0f, 5.0f));
+    }
+
+    @Test
+    public void testFindTiePointsOfPolygon() {
+        final TiePointSpatialIndex index = createIndex(5, 9, 0.0f);
+
+        assertArrayEquals(new int[]{1, 3, 2, 4}, index.findTiePoints(new float[]{2.5f, 3.0f, 3.5f},
+                                                                     new float[]{2.0f, 2.5f, 1.5f}));
+        // the bounding box of the triangle intersects the tie points, the triangle does not
+        assertArrayEquals(new int[]{0, 3, 0, 3}, index.findTiePoints(-3.0f, 2.5f, -3.0f, 2.5f));
+        assertNull(index.findTiePoints(new float[]{-3.0f, 2.5f, -3.0f}, new float[]{2.5f, -3.0f, -3.0f}));
+    }
+
+    @Test
+    public void testFindTiePointsOfPolygonAcrossDateLine() {
+        final TiePointSpatialIndex index = createIndex(5, 9, 178.0f);
+
+        assertArrayEquals(new int[]{1, 3, 1, 3}, index.findTiePoints(new float[]{1.5f, 1.5f, 2.5f, 2.5f},
+                                                                     new float[]{179.5f, -179.5f, -179.5f, 179.5f}));
+    }
+
+    @Test
+    public void testFindTiePointsOfAppendedRows() {
+        final int gridWidth = 5;
+        final float[] lat = new float[gridWidth * 9];
+        final float[] lon = new float[gridWidth * 9];
+        for (int i = 0; i < lat.length; i++) {
+            lat[i] = i / gridWidth;
+            lon[i] = i % gridWidth;
+        }
+        // the second segment of the first four rows lacks a row of cells
+        final TiePointSpatialIndex index = new TiePointSpatialIndex(Arrays.copyOf(lat, 4 * gridWidth),
+                                                                    Arrays.copyOf(lon, 4 * gridWidth), gridWidth, 4, 2);
+        assertNull(index.findTiePoints(5.5f, 6.5f, 1.5f, 2.5f));
+
+        final TiePointSpatialIndex appendedIndex = index.append(Arrays.copyOfRange(lat, 4 * gridWidth, lat.length),
+                                                                Arrays.copyOfRange(lon, 4 * gridWidth, lon.length), 5);
+        assertArrayEquals(new int[]{1, 3, 5, 7}, appendedIndex.findTiePoints(5.5f, 6.5f, 1.5f, 2.5f));
+        assertArrayEquals(new int[]{1, 3, 2, 4}, appendedIndex.findTiePoints(2.5f, 3.5f, 1.5f, 2.5f));
+        assertArrayEquals(new int[]{0, 4, 0, 8}, appendedIndex.findTiePoints(-10.0f, 10.0f, -10.0f, 10.0f));
+        assertNull(appendedIndex.findTiePoints(20.0f, 30.0f, 1.5f, 2.5f));
+    }
+
+    // the latitude of a tie point is its row, the longitude is its column plus the given longitude
+    private static TiePointSpatialIndex createIndex(int gridWidth, int gridHeight, float lon0) {
+        final float[] lat = new float[gridWidth * gridHeight];
+        final float[] lon = new float[gridWidth * gridHeight];
+        for (int y = 0; y < gridHeight; y++) {
+            for (int x = 0; x < gridWidth; x++) {
+                lat[y * gridWidth + x] = y;
+                final float tiePointLon = lon0 + x;
+                lon[y * gridWidth + x] = tiePointLon >= 180.0f ? tiePointLon - 360.0f : tiePointLon;
+            }
+        }
+        return new TiePointSpatialIndex(lat, lon, gridWidth, gridHeight, 2);
+    }
+}